@@ -289,6 +289,48 @@ class MySQLHandler:
             if cursor:
                 cursor.close()
 
+    def update_increment(self, table: str, key_column: str, key_value: Any, increments: Dict[str, Any]) -> int:
+        """
+        Add to numeric columns of the row whose key_column equals key_value (col = col + value).
+
+        Example Usage:
+            db.update_increment("Recipe", "recipe_ID", 3, {"calories": 120.0, "num_ingredients": 1})
+
+        Returns:
+            int: The number of rows updated (0 if none were modified or on error)
+        """
+        if not increments:
+            return 0
+        set_clause = ", ".join([f"{col} = COALESCE({col}, 0) + %s" for col in increments.keys()])
+        query = f"UPDATE {table} SET {set_clause} WHERE {key_column} = %s"
+        return self.execute_update(query, tuple(increments.values()) + (key_value,))
+
+    def execute_update(self, query: str, params: Optional[Tuple[Any, ...]] = None) -> int:
+        """
+        Execute an UPDATE or DELETE and return the number of rows it affected.
+        Unlike execute_query, a failure is raised to the caller after rolling back, and a missing
+        connection raises ConnectionError.
+        """
+        self.connect()
+        cursor = None
+
+        # Double-check active connection before continuing
+        if not self.connection or not getattr(self.connection, "is_connected", lambda: False)():
+            raise ConnectionError("No active database connection.")
+
+        try:
+            cursor = self.connection.cursor()
+            cursor.execute(query, params or ())
+            self.connection.commit()
+            print(f"[SUCCESS] Query executed: {query}")
+            return cursor.rowcount
+        except Exception:
+            self.connection.rollback()
+            raise
+        finally:
+            if cursor:
+                cursor.close()
+
     def fetch_all(self, query: str, params: Optional[Tuple[Any, ...]] = None) -> List[Dict[str, Any]]:
         """
         Execute a SELECT query and return all results as a list of dictionaries.
@@ -8,12 +8,18 @@ from dataclasses import asdict
 from dataclasses import dataclass, field
 from typing import List
 import json
-from typing import List, Optional, Dict, Any
+from typing import List, Optional, Dict, Any, Tuple
 
 from ingredient import Ingredient 
 from ingredient import nutrientInfo
 from MySQLHandler import MySQLHandler   # Your DB wrapper
 
+# Store whose prices are used until the location can be picked by zip code
+DEFAULT_LOCATION_ID = "03400397"
+
+# Most product ids Kroger accepts in one filter.productId request
+PRODUCT_ID_BATCH = 50
+
 # List of all the nutrient fields in the ingredient and recipe database 
 NUTRIENT_FIELDS = [
     "calories", "protein", "carbs", "fats", "fiber", "sugars",
@@ -38,6 +44,11 @@ def search_ingredients(name: str, search_number: int) -> List[Ingredient]:
     results you want). Reuturns a list of ingredient objects pertaining to the 
     search query. Each ingredient object is filled with the information in the 
     ingredients class. 
+def search_ingredients_page(name: str, search_number: int, start: int) -> Tuple[List[Ingredient], int]:
+    Same as search_ingredients but skips the first start matches and also
+    returns the total match count, for paging through long result lists.
+def products_by_ids(product_ids: List[str]) -> List[Ingredient]:
+    Looks up products by their Kroger ids in batched requests.
 def scaleIngredient(ing: Ingredient, scale: int) -> Ingredient: 
     Modifies an ingredent's nutritional values based on the scale given. 
     Returns a modified version of the ingredient. 
@@ -64,6 +75,24 @@ def addIngredientToRecipe(recipe_id: int, ingredient_id: int, quantity: float):
     Calls: 
     def ScaleIngredientFunction(ingredient_dict: Dict[str, Any], quantity: float) -> Dict[str, Any]:
     def ingredientID(ingredient_obj: Any) -> int:
+
+def setIngredientQuantity(recipe_id: int, ingredient_id: int, quantity: float):
+    UI| Page: Edit recipe -> change an ingredient's quantity.
+    Sets the quantity of an ingredient already in the recipe (adds it if
+    it is not) and moves the recipe's nutrition by the difference.
+
+def removeIngredientFromRecipe(recipe_id: int, ingredient_id: int):
+    Takes the ingredient out of the recipe and its nutrition off the recipe.
+
+def renameRecipe(recipe_id: int, new_name: str):
+def deleteRecipe(recipe_id: int):
+    Renames / deletes a recipe row; deleting also drops its RecipeIngredient rows.
+
+def ensureChangeLog() -> bool:
+    Creates the ChangeLog table and the triggers that fill it on every
+    Recipe, RecipeIngredient and Ingredient change.
+def changesSince(since: int) -> Dict[str, Any]:
+    What changed after a ChangeLog stamp, for the Java reconciler.
     
 
 '''
@@ -153,23 +182,30 @@ Expected Output: List of Ingredient data class objects
 # Search for ingredients by name and location ID and search_number (desired number of results)
 
 def search_ingredients(name: str, search_number: int) -> List[Ingredient]:
-    search_url = "https://api.kroger.com/v1/products"
-    
+    return search_ingredients_page(name, search_number, 0)[0]
+
+
+def search_ingredients_page(name: str, search_number: int, start: int = 0) -> Tuple[List[Ingredient], int]:
+    '''
+    One page of search results: up to search_number products, skipping the first
+    start matches (Kroger's filter.start). Returns the ingredients and the total
+    number of matches Kroger reports, so callers can ask for the next page.
+    '''
     # --- Empty search guard ---
     if not name.strip():
         print("Empty search query received; returning empty list")
-        return []
+        return [], 0
     
     '''
      For location ID, we can either hardcode a value for testing or
      implement a function to get location ID based on zip code.
      '''
     # Add Location id based on zip code later 
-    location_ID = "03400397"  # Example location ID 
+    location_ID = DEFAULT_LOCATION_ID
     
     # Edage case: if search number is less than or equal to 0, return empty list
     if search_number <= 0:
-        return []
+        return [], 0
     
     '''
     API call 
@@ -180,6 +216,37 @@ def search_ingredients(name: str, search_number: int) -> List[Ingredient]:
         "filter.limit": search_number,
         "filter.locationId": location_ID # Example location ID
     } 
+    if start > 0:
+        params["filter.start"] = start
+    return _fetch_products(params, search_number, name)
+
+
+def products_by_ids(product_ids: List[str]) -> List[Ingredient]:
+    '''
+    Looks up products by id, PRODUCT_ID_BATCH ids per request (Kroger's
+    filter.productId takes a comma separated list). Ids Kroger does not know
+    are simply missing from the result.
+    '''
+    ids = [str(i).strip() for i in product_ids if str(i).strip()]
+    found: List[Ingredient] = []
+    for k in range(0, len(ids), PRODUCT_ID_BATCH):
+        chunk = ids[k:k + PRODUCT_ID_BATCH]
+        params = {
+            "filter.productId": ",".join(chunk),
+            "filter.limit": len(chunk),
+            "filter.locationId": DEFAULT_LOCATION_ID
+        }
+        found.extend(_fetch_products(params, len(chunk))[0])
+    return found
+
+
+def _fetch_products(params: Dict[str, Any], search_number: int, name: str = "") -> Tuple[List[Ingredient], int]:
+    '''
+    Sends one products request with the given filters and turns up to
+    search_number of the returned products into Ingredient objects. name is the
+    display name used for products Kroger returns without a description.
+    '''
+    search_url = "https://api.kroger.com/v1/products"
 
     token: str = ""
     token = getAccessToken()
@@ -193,7 +260,7 @@ def search_ingredients(name: str, search_number: int) -> List[Ingredient]:
 
     if response.status_code != 200:
         print("Error", response.status_code, response.text)
-        return []  # Return an empty Ingredient on error 
+        return [], 0  # Return an empty Ingredient on error 
     
     
     '''
@@ -202,12 +269,13 @@ def search_ingredients(name: str, search_number: int) -> List[Ingredient]:
     
     data = response.json()  # Get list of json responses. Kroger returns two dicts: "meta" and "data"
     products = data.get("data", []) or [] # Get list of products from "data" key
+    total = ((data.get("meta") or {}).get("pagination") or {}).get("total", 0) or 0
 
 
     # Edge case: no products found
     if not products:
         print("No products found.")
-        return []
+        return [], 0
     
     # Create list to hold Ingredient objects
     ingredients_class_list: List[Ingredient] = []
@@ -379,7 +447,7 @@ def search_ingredients(name: str, search_number: int) -> List[Ingredient]:
         
         ingredients_class_list.append(ingredient)
         nutrient_objs = []  # Clear nutrient objects list for next ingredient
-    return ingredients_class_list
+    return ingredients_class_list, total
 
 
 '''
@@ -432,12 +500,23 @@ def ingredientID(ingredient_obj: Any) -> int:
     Checks if the ingredient is already in the Ingredient Table. 
     If so, return its ID 
     Else, insert the ingredient into the db and return the new ID 
+    ingredient_obj is an Ingredient, or the ingredient JSON sent by the Java bridge 
+    (name plus nutrients_per_serving) 
     '''
 
+    if isinstance(ingredient_obj, str): 
+        ingredient_obj = json.loads(ingredient_obj)
+    if isinstance(ingredient_obj, dict): 
+        name = ingredient_obj.get("name", "")
+        nutrients = ingredient_obj.get("nutrients_per_serving") or {}
+    else: 
+        name = ingredient_obj.name
+        nutrients = {}
+
     # Check for the ingredient in db 
     existing = db.fetch_one( 
         "SELECT ingredient_ID FROM Ingredient WHERE ingredient_name = %s",
-        (ingredient_obj.name,)
+        (name,)
 
     )
 
@@ -446,8 +525,11 @@ def ingredientID(ingredient_obj: Any) -> int:
     
     # Insert the new ingredient if needed 
 
-    data = ingredient_obj
-    new_id = db.insert("Ingredient", data)
+    data = {"ingredient_name": name}
+    for nutrient in NUTRIENT_FIELDS: 
+        if isinstance(nutrients.get(nutrient), (int, float)): 
+            data[nutrient] = float(nutrients[nutrient])
+    new_id = db.insert_value("Ingredient", data)
     return new_id 
 
 '''
@@ -492,7 +574,7 @@ def addConnectionBetweenIngredientAndRecipe(recipe_id: int, ingredient_id: int,
     )
 
     
-    db.insert("RecipeIngredient", {
+    db.insert_value("RecipeIngredient", {
         "recipe_ID": recipe_id,
         "ingredient_ID": ingredient_id,
         "quantity": quantity,
@@ -554,4 +636,213 @@ def addIngredientToRecipe(recipe_id: int, ingredient_id: int, quantity: float):
     recipe db. The string is a letter representing the grade of the food 
     '''
 
-    # Step 6: 
\ No newline at end of file
+    # Step 6: 
+
+
+'''
+Edits to a recipe that already has ingredients 
+setIngredientQuantity, removeIngredientFromRecipe, renameRecipe, deleteRecipe 
+'''
+
+def scaledNutrients(ingredient_id: int, quantity: float) -> Dict[str, float]: 
+    '''
+    The ingredient's nutrient fields scaled by quantity (0 for missing values), 
+    ready for db.update_increment on the Recipe row 
+    '''
+    ing = db.fetch_one( 
+        "SELECT * FROM Ingredient WHERE ingredient_ID = %s", 
+        (ingredient_id,)
+    )
+    if not ing: 
+        raise ValueError("Ingredient not found in database")
+
+    scaled = scaleIngredientFunction(ing, quantity)
+    return {field: float(scaled.get(field) or 0) for field in NUTRIENT_FIELDS}
+
+
+def recipeLinks(recipe_id: int, ingredient_id: int) -> List[Dict[str, Any]]: 
+    '''
+    The RecipeIngredient rows joining the ingredient to the recipe. 
+    More than one means the ingredient was added twice by the old add-only sync 
+    '''
+    return db.fetch_all(
+        "SELECT quantity FROM RecipeIngredient WHERE recipe_ID = %s AND ingredient_ID = %s",
+        (recipe_id, ingredient_id)
+    ) or []
+
+
+def setIngredientQuantity(recipe_id: int, ingredient_id: int, quantity: float): 
+    '''
+    Sets the ingredient's quantity in the recipe, adding the ingredient when 
+    the recipe does not have it yet (upsert). 
+
+    1. Sum the quantity the recipe already holds 
+    2. Move the recipe's nutritional values by the scaled difference 
+    3. Leave exactly one RecipeIngredient row holding the new quantity 
+    '''
+
+    links = recipeLinks(recipe_id, ingredient_id)
+    if not links: 
+        addIngredientToRecipe(recipe_id, ingredient_id, quantity)
+        return
+
+    # Step 1 
+    held = sum(float(link["quantity"] or 0) for link in links)
+
+    # Step 2 
+    delta = float(quantity) - held
+    if delta: 
+        db.update_increment("Recipe", "recipe_ID", recipe_id, scaledNutrients(ingredient_id, delta))
+
+    # Step 3: duplicate rows are folded into one 
+    if len(links) > 1: 
+        db.delete_value("RecipeIngredient", {"recipe_ID": recipe_id, "ingredient_ID": ingredient_id})
+        db.update_increment("Recipe", "recipe_ID", recipe_id, {"num_ingredients": 1 - len(links)})
+        addConnectionBetweenIngredientAndRecipe(recipe_id, ingredient_id, quantity)
+    else: 
+        db.update_value("RecipeIngredient", {"quantity": quantity},
+                        {"recipe_ID": recipe_id, "ingredient_ID": ingredient_id})
+
+
+def removeIngredientFromRecipe(recipe_id: int, ingredient_id: int): 
+    '''
+    Removes the ingredient from the recipe: its scaled nutrition comes off the 
+    recipe's totals, the ingredient count drops, and the connection rows go 
+    '''
+
+    links = recipeLinks(recipe_id, ingredient_id)
+    if not links: 
+        return
+
+    held = sum(float(link["quantity"] or 0) for link in links)
+    if held: 
+        db.update_increment("Recipe", "recipe_ID", recipe_id, scaledNutrients(ingredient_id, -held))
+    db.update_increment("Recipe", "recipe_ID", recipe_id, {"num_ingredients": -len(links)})
+    db.delete_value("RecipeIngredient", {"recipe_ID": recipe_id, "ingredient_ID": ingredient_id})
+
+
+def renameRecipe(recipe_id: int, new_name: str): 
+    db.update_value("Recipe", {"recipe_name": new_name}, {"recipe_ID": recipe_id})
+
+
+def deleteRecipe(recipe_id: int): 
+    '''
+    Deletes the recipe and its RecipeIngredient rows 
+    '''
+    db.delete_value("RecipeIngredient", {"recipe_ID": recipe_id})
+    db.delete_value("Recipe", {"recipe_ID": recipe_id})
+
+
+'''
+Change log for reconciliation (pages/SyncReconciler.java)
+ensureChangeLog, changesSince
+'''
+
+# Triggers stamp every row change in ChangeLog, so edits made straight in MySQL,
+# through this module or by any other client are all seen.
+CHANGE_LOG_TABLE = """
+    CREATE TABLE IF NOT EXISTS ChangeLog (
+        stamp BIGINT AUTO_INCREMENT PRIMARY KEY,
+        entity VARCHAR(16) NOT NULL,
+        entity_id INT NOT NULL,
+        changed_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+        INDEX (entity, entity_id)
+    )
+"""
+
+# trigger name -> (table, event, entity, id column); DELETE triggers read OLD, the others NEW
+CHANGE_TRIGGERS = {
+    "changelog_recipe_ins": ("Recipe", "INSERT", "recipe", "recipe_ID"),
+    "changelog_recipe_upd": ("Recipe", "UPDATE", "recipe", "recipe_ID"),
+    "changelog_recipe_del": ("Recipe", "DELETE", "recipe", "recipe_ID"),
+    "changelog_link_ins": ("RecipeIngredient", "INSERT", "recipe", "recipe_ID"),
+    "changelog_link_upd": ("RecipeIngredient", "UPDATE", "recipe", "recipe_ID"),
+    "changelog_link_del": ("RecipeIngredient", "DELETE", "recipe", "recipe_ID"),
+    "changelog_ingredient_ins": ("Ingredient", "INSERT", "ingredient", "ingredient_ID"),
+    "changelog_ingredient_upd": ("Ingredient", "UPDATE", "ingredient", "ingredient_ID"),
+    "changelog_ingredient_del": ("Ingredient", "DELETE", "ingredient", "ingredient_ID"),
+}
+
+_change_log_ready = False
+
+
+def ensureChangeLog() -> bool:
+    '''
+    Creates the ChangeLog table and whichever of its triggers are missing.
+    Returns False when MySQL is unreachable; callers try again later.
+    '''
+    global _change_log_ready
+    if _change_log_ready:
+        return True
+    try:
+        db.execute_update(CHANGE_LOG_TABLE)
+        existing = db.fetch_all(
+            "SELECT TRIGGER_NAME FROM information_schema.TRIGGERS WHERE TRIGGER_SCHEMA = DATABASE()"
+        ) or []
+        have = {row["TRIGGER_NAME"].lower() for row in existing}
+        for name, (table, event, entity, column) in CHANGE_TRIGGERS.items():
+            if name in have:
+                continue
+            row = "OLD" if event == "DELETE" else "NEW"
+            db.execute_update(
+                f"CREATE TRIGGER {name} AFTER {event} ON {table} FOR EACH ROW "
+                f"INSERT INTO ChangeLog (entity, entity_id) VALUES ('{entity}', {row}.{column})"
+            )
+    except ConnectionError as e:
+        print(f"Change log not set up yet: {e}")
+        return False
+    _change_log_ready = True
+    return True
+
+
+def _in_clause(ids: List[int]) -> str:
+    return ", ".join(["%s"] * len(ids))
+
+
+def changesSince(since: int) -> Dict[str, Any]:
+    '''
+    Recipes and ingredients changed after stamp since, read from ChangeLog and the
+    current rows: {"stamp", "recipes": [{"id", "version", "name", "deleted", "links"}],
+    "ingredients": [{"id", "version", "deleted"}]}. A row that no longer exists is
+    reported deleted. Raises ConnectionError when MySQL is unreachable.
+    '''
+    if not ensureChangeLog():
+        raise ConnectionError("database unavailable")
+    top = db.fetch_one("SELECT COALESCE(MAX(stamp), 0) AS stamp FROM ChangeLog")
+    if top is None:
+        raise ConnectionError("database unavailable")
+    stamp = int(top["stamp"])
+    rows = db.fetch_all(
+        "SELECT entity, entity_id, MAX(stamp) AS version FROM ChangeLog "
+        "WHERE stamp > %s AND stamp <= %s GROUP BY entity, entity_id",
+        (int(since), stamp)
+    ) or []
+    recipe_versions = {int(r["entity_id"]): int(r["version"]) for r in rows if r["entity"] == "recipe"}
+    ingredient_versions = {int(r["entity_id"]): int(r["version"]) for r in rows if r["entity"] == "ingredient"}
+
+    recipes = []
+    if recipe_versions:
+        ids = list(recipe_versions)
+        names = {int(r["recipe_ID"]): r["recipe_name"] for r in db.fetch_all(
+            f"SELECT recipe_ID, recipe_name FROM Recipe WHERE recipe_ID IN ({_in_clause(ids)})", tuple(ids)) or []}
+        links: Dict[int, Dict[str, float]] = {}
+        for r in db.fetch_all(
+                f"SELECT recipe_ID, ingredient_ID, SUM(quantity) AS quantity FROM RecipeIngredient "
+                f"WHERE recipe_ID IN ({_in_clause(ids)}) GROUP BY recipe_ID, ingredient_ID", tuple(ids)) or []:
+            links.setdefault(int(r["recipe_ID"]), {})[str(r["ingredient_ID"])] = float(r["quantity"] or 0)
+        for recipe_id, version in recipe_versions.items():
+            if recipe_id in names:
+                recipes.append({"id": recipe_id, "version": version, "name": names[recipe_id],
+                                "deleted": False, "links": links.get(recipe_id, {})})
+            else:
+                recipes.append({"id": recipe_id, "version": version, "deleted": True})
+
+    ingredients = []
+    if ingredient_versions:
+        ids = list(ingredient_versions)
+        present = {int(r["ingredient_ID"]) for r in db.fetch_all(
+            f"SELECT ingredient_ID FROM Ingredient WHERE ingredient_ID IN ({_in_clause(ids)})", tuple(ids)) or []}
+        for ingredient_id, version in ingredient_versions.items():
+            ingredients.append({"id": ingredient_id, "version": version, "deleted": ingredient_id not in present})
+
+    return {"stamp": stamp, "recipes": recipes, "ingredients": ingredients}
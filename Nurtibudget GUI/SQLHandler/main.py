@@ -1,10 +1,13 @@
 from MySQLHandler import MySQLHandler
 from ingredient import Ingredient
-from app import search_ingredients
+from app import search_ingredients, search_ingredients_page
+import app
 from dotenv import load_dotenv
 import os
 import threading
 import json
+import math
+import struct
 import py4j
 from py4j.clientserver import ClientServer
 from py4j.clientserver import JavaParameters, PythonParameters
@@ -30,6 +33,55 @@ class KrogerWrapper:
     def __init__(self):
         print("✅ KrogerWrapper initialized using real Kroger API logic.")
 
+    @staticmethod
+    def _to_price(value):
+        """Kroger prices arrive as numbers or strings like "$3.49"; None when missing."""
+        if value is None:
+            return None
+        if isinstance(value, (int, float)):
+            return float(value)
+        try:
+            return float(str(value).replace("$", "").replace(",", "").strip())
+        except ValueError:
+            return None
+
+    def _record(self, ing):
+        return {
+            "id": ing.product_ID,
+            "name": ing.name,
+            "describe": getattr(ing, "description", "No description available"),
+            "price": self._to_price(ing.local_regular if ing.local_regular else ing.national_regular),
+            "promo_price": self._to_price(ing.local_promo if ing.local_promo else ing.national_promo),
+            "image_url": getattr(ing, "image_url", ""),
+            "nutrients": getattr(ing, "sidebar_nutrients", [
+                f"Calories: {getattr(ing, 'calories', 'N/A')}",
+                f"Protein: {getattr(ing, 'protein', 'N/A')}g",
+                f"Carbs: {getattr(ing, 'carbs', 'N/A')}g",
+                f"Fat: {getattr(ing, 'fat', 'N/A')}g",
+            ])
+        }
+
+    def _records(self, query, limit):
+        return self._fetched([self._record(ing) for ing in search_ingredients(query, limit)])
+
+    # ---------- Price pushes (bridge/BridgeEvents.java) ----------
+    _known_prices = {}
+    _known_prices_lock = threading.Lock()
+
+    def _fetched(self, records):
+        """Every product fetch passes through here; prices that moved since the last fetch are pushed."""
+        changed = []
+        with KrogerWrapper._known_prices_lock:
+            for r in records:
+                now = (r["price"], r["promo_price"])
+                was = KrogerWrapper._known_prices.get(r["id"])
+                KrogerWrapper._known_prices[r["id"]] = now
+                if was is not None and was != now:
+                    changed.append(r)
+        if changed:
+            _push_later(push_price_changes, changed)
+        return records
+
     def search(self, query, limit):
         print(f"🔍 Python received: query='{query}', limit={limit}")
 
@@ -38,36 +90,219 @@ class KrogerWrapper:
             return json.dumps([])
 
         try:
-            ingredients = search_ingredients(query, limit)
-            results = []
-
-            for ing in ingredients:
-                results.append({
-                    "id": ing.product_ID,
-                    "name": ing.name,
-                    "describe": getattr(ing, "description", "No description available"),
-                    "price": ing.local_regular if ing.local_regular else ing.national_regular,
-                    "promo_price": ing.local_promo if ing.local_promo else ing.national_promo,
-                    "image_url": getattr(ing, "image_url", ""),
-                    "nutrients": getattr(ing, "sidebar_nutrients", [
-                        f"Calories: {getattr(ing, 'calories', 'N/A')}",
-                        f"Protein: {getattr(ing, 'protein', 'N/A')}g",
-                        f"Carbs: {getattr(ing, 'carbs', 'N/A')}g",
-                        f"Fat: {getattr(ing, 'fat', 'N/A')}g",
-                    ])
-                })
-
-            return json.dumps(results, indent=2)
+            return json.dumps(self._records(query, limit))
 
         except Exception as e:
             error_msg = f" Error in search(): {e}"
             print(error_msg)
             return json.dumps({"error": str(e)})
 
+    def searchCompact(self, query, limit):
+        """
+        Same results as search() packed for bridge/ProductCodec.java: b"NBP", version byte, u32 count,
+        then per product id, name, describe, price (f64), promo_price (f64), image_url and a u16-counted
+        list of nutrient strings. Strings are u32 length + UTF-8, big-endian throughout, NaN = no price.
+        """
+        print(f"🔍 Python received (compact): query='{query}', limit={limit}")
+        records = self._records(query, limit) if query.strip() else []
+        return self._pack(records)
+
+    def searchPage(self, query, limit, cursor):
+        """
+        One page of results for a paged search. cursor is "" for the first page, otherwise the
+        value returned with the previous page. The batch is version 2 of the compact format: the
+        version 1 layout followed by the next page's cursor string ("" when there are no more).
+        """
+        print(f"🔍 Python received (page): query='{query}', limit={limit}, cursor='{cursor}'")
+        if not query.strip():
+            return self._pack([], "")
+        start = int(cursor) if cursor else 0
+        ingredients, total = search_ingredients_page(query, limit, start)
+        end = start + len(ingredients)
+        next_cursor = str(end) if ingredients and end < total else ""
+        return self._pack(self._fetched([self._record(ing) for ing in ingredients]), next_cursor)
+
+    def productsCompact(self, ids_json):
+        """
+        The products with the given ids (a JSON array of strings), looked up in batches rather than
+        one search per id. Packed like searchCompact(); ids Kroger does not know are left out.
+        """
+        ids = json.loads(ids_json) if ids_json else []
+        print(f"🔍 Python received (ids): {len(ids)} product ids")
+        records = self._fetched([self._record(ing) for ing in app.products_by_ids(ids)])
+        _push_later(push_batch_complete, "product-refresh", {"requested": len(ids), "found": len(records)})
+        return self._pack(records)
+
+    @staticmethod
+    def _pack(records, next_cursor=None):
+        def put_str(out, s):
+            b = str(s if s is not None else "").encode("utf-8")
+            out += struct.pack(">I", len(b))
+            out += b
+
+        out = bytearray(b"NBP")
+        out += struct.pack(">BI", 1 if next_cursor is None else 2, len(records))
+        for r in records:
+            put_str(out, r["id"])
+            put_str(out, r["name"])
+            put_str(out, r["describe"])
+            price = r["price"] if r["price"] is not None else math.nan
+            promo = r["promo_price"] if r["promo_price"] is not None else math.nan
+            out += struct.pack(">dd", price, promo)
+            put_str(out, r["image_url"])
+            nutrients = [n for n in (r["nutrients"] or []) if isinstance(n, str)][:0xFFFF]
+            out += struct.pack(">H", len(nutrients))
+            for n in nutrients:
+                put_str(out, n)
+        if next_cursor is not None:
+            put_str(out, next_cursor)
+        return bytes(out)
+
+    # ---------- Outbox replay (bridge/BridgeOutbox.java) ----------
+    # key -> {"result", "at"}: kept until Java reports the key acknowledged, or APPLIED_KEY_TTL
+    # seconds as a backstop for acks lost with a crash
+    APPLIED_KEYS_FILE = os.path.join(os.path.dirname(os.path.abspath(__file__)), "applied_keys.json")
+    APPLIED_KEY_TTL = 7 * 24 * 3600
+    _applied = None
+    _applied_lock = threading.Lock()
+
+    def _applied_keys(self):
+        if KrogerWrapper._applied is None:
+            try:
+                with open(KrogerWrapper.APPLIED_KEYS_FILE, encoding="utf-8") as f:
+                    loaded = json.load(f)
+            except (OSError, ValueError):
+                loaded = {}
+            now = time.time()
+            # files from before the TTL stored the bare result
+            KrogerWrapper._applied = {k: v if isinstance(v, dict) else {"result": v, "at": now}
+                                      for k, v in loaded.items()}
+        return KrogerWrapper._applied
+
+    def _forget_applied(self, applied, acked):
+        """Drops keys Java has acknowledged (it never resends them) and any older than the TTL."""
+        cutoff = time.time() - KrogerWrapper.APPLIED_KEY_TTL
+        stale = [k for k, v in applied.items() if v.get("at", 0) < cutoff]
+        removed = False
+        for key in list(acked) + stale:
+            removed = applied.pop(key, None) is not None or removed
+        return removed
+
+    # Ops Java may queue (bridge/BridgeOutbox.java), each a method below; creates must return an id.
+    _OPS = ("createRecipe", "ingredientID", "addIngredientToRecipe", "setIngredientQuantity",
+            "removeIngredientFromRecipe", "renameRecipe", "deleteRecipe",
+            "on_new_recipe", "on_new_ingredient", "on_recipe_added_ingredient")
+    _CREATES = ("createRecipe", "ingredientID")
+
+    def _handler(self, name):
+        return getattr(self, name, None) if name in KrogerWrapper._OPS else None
+
+    @staticmethod
+    def _db_down():
+        # app.py's writes return None when MySQL is unreachable, which would read as a failed create
+        app.db.connect()
+        connection = app.db.connection
+        return not connection or not connection.is_connected()
+
+    def applyBatch(self, ops_json):
+        """
+        Applies queued Java writes in order. The request is {"ops": [...], "acked": [key]} (a bare list
+        of ops from older clients); each op is {"seq", "key", "op", "args"} and the reply is a JSON
+        list of {"key", "result"}, {"key", "error"} or {"key", "retry"}. Keys already applied answer
+        with their stored result, so a batch resent after a lost reply does not create anything twice;
+        keys listed in "acked" are forgotten. An op this server does not know, or one that finds the
+        database unreachable, is answered with "retry" together with every op after it: Java keeps them
+        queued, in order, and resends them.
+        """
+        request = json.loads(ops_json)
+        if isinstance(request, list):
+            request = {"ops": request}
+        replies = []
+        with KrogerWrapper._applied_lock:
+            applied = self._applied_keys()
+            dirty = self._forget_applied(applied, request.get("acked", []))
+            blocked = "database unavailable" if self._db_down() else None
+            for op in request.get("ops", []):
+                key = op.get("key", "")
+                name = op.get("op", "")
+                if blocked is None and key in applied:
+                    replies.append({"key": key, "result": applied[key]["result"]})
+                    continue
+                method = self._handler(name) if blocked is None else None
+                if method is None:
+                    blocked = blocked or f"operation {name} is not implemented"
+                    replies.append({"key": key, "retry": blocked})
+                    continue
+                try:
+                    result = method(*op.get("args", []))
+                    result = result if isinstance(result, (int, float)) else 0
+                    if name in KrogerWrapper._CREATES and result <= 0:
+                        raise ValueError(f"{name} returned no id")
+                    applied[key] = {"result": result, "at": time.time()}
+                    dirty = True
+                    replies.append({"key": key, "result": result})
+                except ConnectionError as e:
+                    blocked = str(e)
+                    replies.append({"key": key, "retry": blocked})
+                except Exception as e:
+                    replies.append({"key": key, "error": str(e)})
+            applied_now = sum(1 for r in replies if "result" in r)
+            if dirty:
+                try:
+                    with open(KrogerWrapper.APPLIED_KEYS_FILE, "w", encoding="utf-8") as f:
+                        json.dump(applied, f)
+                except OSError as e:
+                    print(f"Could not persist applied outbox keys: {e}")
+        if applied_now:
+            _push_later(push_batch_complete, "outbox", {"applied": applied_now, "ops": len(replies)})
+        return json.dumps(replies)
+
+    # ---------- Recipe writes (app.py); Java calls them through applyBatch, or one by one ----------
+    def createRecipe(self, recipe_name):
+        return app.createRecipe(recipe_name)
+
+    def ingredientID(self, ingredient_json):
+        return app.ingredientID(ingredient_json)
+
+    def addIngredientToRecipe(self, recipe_id, ingredient_id, quantity):
+        app.addIngredientToRecipe(recipe_id, ingredient_id, quantity)
+
+    def setIngredientQuantity(self, recipe_id, ingredient_id, quantity):
+        app.setIngredientQuantity(recipe_id, ingredient_id, quantity)
+
+    def removeIngredientFromRecipe(self, recipe_id, ingredient_id):
+        app.removeIngredientFromRecipe(recipe_id, ingredient_id)
+
+    def renameRecipe(self, recipe_id, new_name):
+        app.renameRecipe(recipe_id, new_name)
+
+    def deleteRecipe(self, recipe_id):
+        app.deleteRecipe(recipe_id)
+
+    # ---------- Notifications (nothing to apply; logged for now) ----------
+    def on_new_recipe(self, recipe_json):
+        print(f"Java created recipe {json.loads(recipe_json).get('name', '')!r}")
+
+    def on_new_ingredient(self, ingredient_json):
+        print(f"Java created ingredient {json.loads(ingredient_json).get('name', '')!r}")
+
+    def on_recipe_added_ingredient(self, recipe_json, ingredient_json):
+        print(f"Java added {json.loads(ingredient_json).get('name', '')!r} to {json.loads(recipe_json).get('name', '')!r}")
+
+    # ---------- Change stamps for reconciliation (pages/SyncReconciler.java) ----------
+    def fetchChanges(self, since):
+        """
+        Recipes and ingredients changed in MySQL after stamp `since`, with the current stamp. The
+        stamps come from the ChangeLog table, which triggers fill on every row change, so edits made
+        outside the bridge are reported too.
+        """
+        return json.dumps(app.changesSince(int(since)))
+
 # ===================== Py4J server setup =====================
 def start_py4j_server(ready_event, stop_event):
     global server
     wrapper = KrogerWrapper()
+    app.ensureChangeLog()
     server = ClientServer(python_server_entry_point=wrapper)
     print("✅ Python Py4J server running on default ports...")
     ready_event.set()
@@ -79,6 +314,39 @@ def start_py4j_server(ready_event, stop_event):
 
 
 
+# ===================== Push channel to Java (bridge/BridgeEvents.java) =====================
+def _push_later(push, *args):
+    """Runs a push on its own thread, so a push never calls into Java from inside a Java call."""
+    threading.Thread(target=push, args=args, daemon=True).start()
+
+
+def push_price_changes(products):
+    """
+    Tells the GUI about changed prices. products: iterable of dicts with "id", "price" and
+    optionally "promo_price". Returns False when the Java side is not listening.
+    """
+    payload = [{"id": p["id"], "price": p.get("price"), "promo_price": p.get("promo_price")} for p in products]
+    if not payload:
+        return True
+    try:
+        server.entry_point.onPricesChanged(json.dumps(payload))
+        return True
+    except Exception as e:
+        print(f"Price push to Java failed: {e}")
+        return False
+
+
+def push_batch_complete(batch_id, summary=None):
+    """Tells the GUI a backend batch job finished; summary is any JSON-serialisable dict."""
+    try:
+        server.entry_point.onBatchComplete(str(batch_id), json.dumps(summary or {}))
+        return True
+    except Exception as e:
+        print(f"Batch-complete push to Java failed: {e}")
+        return False
+
+
+
 def main():
     """
     This is a test main method which adds Oats and Milk to the Ingredients table,
@@ -1,4 +1,7 @@
 import java.awt.*;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
 import javax.swing.*;
 import pages.*;
 
@@ -18,6 +21,12 @@ public class Main {
     private CardLayout cardLayout;
     private JPanel mainPanel;
 
+    // main app cards are built the first time they are shown
+    private CardLayout pageLayout;
+    private JPanel pagePanel;
+    private final Map<String, Supplier<JComponent>> pageFactories = new HashMap<>();
+    private Page3 page3;
+
     //==============================================================================================================
     // Main Entry Point
     //==============================================================================================================
@@ -76,6 +85,14 @@ public class Main {
     // Main Application
     //==================================================================================================================
     private void mainApp() {
+        StartupLoader.start();
+        PriceFeed.start();
+        DataFileWatcher.start();
+        DataEvents.subscribe(DataEvents.WriteConflict.class, e -> JOptionPane.showMessageDialog(frame,
+                e.keys.size() + " record(s) in " + new java.io.File(e.path).getName()
+                        + " were also changed outside the app; the outside version was kept.",
+                "Data file changed", JOptionPane.WARNING_MESSAGE));
+
         Dimension prevSize = frame.getSize();
         Point prevLocation = frame.getLocationOnScreen();
 
@@ -85,6 +102,7 @@ public class Main {
         frame.getContentPane().removeAll();
         frame.setTitle("Nutribudget GUI");
         frame.setLayout(new BorderLayout());
+        EditHistory.install(frame.getRootPane());
 
         //--------------------------------------------------------------------------------------------------------------
         // Header
@@ -112,20 +130,21 @@ public class Main {
         //--------------------------------------------------------------------------------------------------------------
         // Card Layout for Pages
         //--------------------------------------------------------------------------------------------------------------
-        CardLayout cardLayout = new CardLayout();
-        JPanel cardPanel = new JPanel(cardLayout);
-        cardPanel.setBackground(LIGHT_GRAY);
-        cardPanel.setBorder(BorderFactory.createEmptyBorder(20, 20, 20, 20));
+        pageLayout = new CardLayout();
+        pagePanel = new JPanel(pageLayout);
+        pagePanel.setBackground(LIGHT_GRAY);
+        pagePanel.setBorder(BorderFactory.createEmptyBorder(20, 20, 20, 20));
 
-        cardPanel.add(new Page1(), "Page1");
-        cardPanel.add(new Page2(json -> {}, false), "Page2");
-        cardPanel.add(new Page3(), "Page3");
-        cardPanel.add(new Page4(), "Page4");
+        Page1 page1 = new Page1();
+        pagePanel.add(page1, "Page1");
+        pageFactories.put("Page2", () -> new Page2(json -> {}, false));
+        pageFactories.put("Page3", () -> page3 = new Page3());
+        pageFactories.put("Page4", Page4::new);
 
 
-        cardPanel.add(new SuggestionsPage(), "Suggestions");
+        pageFactories.put("Suggestions", () -> new SuggestionsPage(page1::getWeeklyFoodBudget, this::calendar));
 
-        cardPanel.add(new AccountInfoPage(), "AccountInfo");
+        pageFactories.put("AccountInfo", AccountInfoPage::new);
 
         //--------------------------------------------------------------------------------------------------------------
         // Sidebar Buttons (Pages 1–4)
@@ -159,7 +178,7 @@ public class Main {
                 }
             });
 
-            button.addActionListener(e -> cardLayout.show(cardPanel, "Page" + pageNum));
+            button.addActionListener(e -> showPage("Page" + pageNum));
 
             buttonPanel.add(Box.createRigidArea(new Dimension(0, 15)));
             buttonPanel.add(button);
@@ -195,7 +214,7 @@ public class Main {
             }
         });
 
-        suggestionsButton.addActionListener(e -> cardLayout.show(cardPanel, "Suggestions"));
+        suggestionsButton.addActionListener(e -> showPage("Suggestions"));
         buttonPanel.add(Box.createRigidArea(new Dimension(0, 15)));
         buttonPanel.add(suggestionsButton);
 
@@ -230,14 +249,14 @@ public class Main {
             }
         });
 
-        accountButton.addActionListener(e -> cardLayout.show(cardPanel, "AccountInfo"));
+        accountButton.addActionListener(e -> showPage("AccountInfo"));
         buttonPanel.add(accountButton);
 
         //--------------------------------------------------------------------------------------------------------------
         // Final Frame Assembly
         //--------------------------------------------------------------------------------------------------------------
         frame.add(buttonPanel, BorderLayout.WEST);
-        frame.add(cardPanel, BorderLayout.CENTER);
+        frame.add(pagePanel, BorderLayout.CENTER);
 
         int newWidth = 1200;
         int newHeight = 800;
@@ -248,7 +267,35 @@ public class Main {
         frame.setLocation(centerX - newWidth / 2, centerY - newHeight / 2);
         frame.revalidate();
         frame.repaint();
-        cardLayout.show(cardPanel, "Page1");
+        showPage("Page1");
+    }
+
+    //==================================================================================================================
+    // Lazy Page Cards
+    //==================================================================================================================
+    private void showPage(String name) {
+        buildPage(name);
+        pageLayout.show(pagePanel, name);
+    }
+
+    // The calendar card, built without being shown if it has not been yet.
+    private CustomCalendarPanel calendar() {
+        buildPage("Page3");
+        return page3.calendar();
+    }
+
+    private void buildPage(String name) {
+        Supplier<JComponent> factory = pageFactories.get(name);
+        if (factory != null) {
+            frame.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+            try {
+                // the factory stays until its page is in, so a page that failed to build is tried again
+                pagePanel.add(factory.get(), name);
+                pageFactories.remove(name);
+            } finally {
+                frame.setCursor(Cursor.getDefaultCursor());
+            }
+        }
     }
 
     //==================================================================================================================
@@ -0,0 +1,44 @@
+package bridge;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/** Fans Python's {@link BridgeEvents} calls out to the registered Java listeners. */
+public final class BridgeEventHub implements BridgeEvents {
+
+    private static final BridgeEventHub INSTANCE = new BridgeEventHub();
+
+    private final List<BridgeEvents> listeners = new CopyOnWriteArrayList<>();
+
+    private BridgeEventHub() {}
+
+    public static BridgeEventHub get() { return INSTANCE; }
+
+    public void addListener(BridgeEvents l) { listeners.add(l); }
+
+    public void removeListener(BridgeEvents l) { listeners.remove(l); }
+
+    @Override
+    public void onPricesChanged(String productsJson) {
+        for (BridgeEvents l : listeners) {
+            try {
+                l.onPricesChanged(productsJson);
+            } catch (Throwable t) {
+                System.err.println("onPricesChanged listener failed: " + t.getMessage());
+                t.printStackTrace();
+            }
+        }
+    }
+
+    @Override
+    public void onBatchComplete(String batchId, String summaryJson) {
+        for (BridgeEvents l : listeners) {
+            try {
+                l.onBatchComplete(batchId, summaryJson);
+            } catch (Throwable t) {
+                System.err.println("onBatchComplete listener failed: " + t.getMessage());
+                t.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package bridge;
+
+/**
+ * Callbacks the Python service makes into Java. The {@link BridgeEventHub} implementing this is the
+ * Java entry point of the Py4J {@code ClientServer}, so Python reaches it as {@code server.entry_point}.
+ * Calls arrive on Py4J threads.
+ */
+public interface BridgeEvents {
+
+    // Products whose price changed: JSON array of {"id", "price", "promo_price"}, prices may be null.
+    void onPricesChanged(String productsJson);
+
+    // A backend batch job (bulk refresh, import, ...) finished; summaryJson is free-form JSON.
+    void onBatchComplete(String batchId, String summaryJson);
+}
@@ -0,0 +1,377 @@
+package bridge;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import pages.LocalStore;
+import py4j.Py4JNetworkException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Durable, append-only queue of writes bound for the Python backend.
+ *
+ * Every bridge write is appended (and synced) to bridge_outbox.log before anything is sent, so the
+ * caller is done as soon as the line is on disk. A single background thread replays pending
+ * operations in the order they were queued, up to {@link #BATCH_SIZE} per round trip, whenever
+ * the bridge is reachable; while it is not, replay backs off and the operations wait on disk,
+ * across restarts if need be.
+ *
+ * Each operation carries an idempotency key, which travels with the batch so the Python side can
+ * skip a retry it has already applied (e.g. when the app died between the call and its ack). When an
+ * operation is applied an ack line with its result is appended, and the next batch tells the server
+ * which keys were acknowledged so it can forget them. Only {@link #submitShared shared}
+ * keys, which name a backend entity rather than one call, keep their result after the ack: a later
+ * submit of the same key is answered from it instead of being sent again. An operation the server
+ * answers with "retry" (it does not know the operation yet, or its database is down) stays queued,
+ * with everything after it, and is resent after a backoff. Log format, one JSON object per line:
+ * <pre>
+ *   {"seq": 7, "key": "ingredient:upc:0001", "op": "ingredientID", "args": ["{...}"], "shared": true}
+ *   {"ack": 7, "key": "ingredient:upc:0001", "result": 42, "shared": true}
+ * </pre>
+ */
+public final class BridgeOutbox {
+
+    static final String LOG_FILE = "src/pages/text/bridge_outbox.log";
+    static final int BATCH_SIZE = 32;
+    private static final int COMPACT_AFTER_LINES = 512;
+    private static final long IDLE_RETRY_MS = 2_000L;
+    private static final long UNSUPPORTED_RETRY_MS = 30_000L;
+
+    /** One queued call. */
+    static final class Op {
+        final long seq;
+        final String key;
+        final String name;
+        final JSONArray args;
+        final boolean shared;
+
+        Op(long seq, String key, String name, JSONArray args, boolean shared) {
+            this.seq = seq;
+            this.key = key;
+            this.name = name;
+            this.args = args;
+            this.shared = shared;
+        }
+
+        JSONObject toJson() {
+            JSONObject o = new JSONObject();
+            o.put("seq", seq);
+            o.put("key", key);
+            o.put("op", name);
+            o.put("args", args);
+            if (shared) o.put("shared", true);
+            return o;
+        }
+    }
+
+    private static final BridgeOutbox INSTANCE = new BridgeOutbox(new File(LOG_FILE));
+
+    private final File log;
+    private final ScheduledExecutorService exec = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "pybridge-outbox");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // guarded by this
+    private final TreeMap<Long, Op> pending = new TreeMap<>();
+    private final Map<String, Long> results = new HashMap<>();          // shared key -> id returned by its acknowledged create
+    private final Map<Long, CompletableFuture<Long>> waiting = new HashMap<>();
+    private final List<String> acked = new ArrayList<>();                // keys acknowledged since the last batch reached the server
+    private long nextSeq = 1;
+    private int logLines = 0;
+    private boolean drainScheduled = false;
+    private Boolean batchSupported = null;                               // null until the server answers once
+
+    private BridgeOutbox(File log) {
+        this.log = log;
+        load();
+        if (!pending.isEmpty()) {
+            System.out.println("Bridge outbox: " + pending.size() + " pending operation(s) from the last session");
+            scheduleDrain(0L);
+        }
+    }
+
+    static BridgeOutbox get() { return INSTANCE; }
+
+    /**
+     * Queues {@code op(args)} under {@code key}. The returned future completes with the backend's
+     * result once the operation has been replayed; a submit while the same key is still queued shares
+     * its outcome.
+     */
+    CompletableFuture<Long> submit(String key, String op, Object... args) {
+        return submit(key, false, op, args);
+    }
+
+    /** Like {@link #submit}, but the result is kept: a later submit of {@code key} is answered with it. */
+    CompletableFuture<Long> submitShared(String key, String op, Object... args) {
+        return submit(key, true, op, args);
+    }
+
+    private synchronized CompletableFuture<Long> submit(String key, boolean shared, String op, Object... args) {
+        Long done = results.get(key);
+        if (done != null) return CompletableFuture.completedFuture(done);
+        // the same key still queued: share its outcome instead of queueing a duplicate
+        for (Op p : pending.values()) {
+            if (p.key.equals(key)) return waiting.computeIfAbsent(p.seq, s -> new CompletableFuture<>());
+        }
+        Op o = new Op(nextSeq++, key, op, new JSONArray(args), shared);
+        CompletableFuture<Long> f = new CompletableFuture<>();
+        try {
+            append(o.toJson());
+        } catch (IOException ex) {
+            System.err.println("Bridge outbox: failed to record " + op + ": " + ex.getMessage());
+            ex.printStackTrace();
+        }
+        pending.put(o.seq, o);
+        waiting.put(o.seq, f);
+        scheduleDrain(0L);
+        return f;
+    }
+
+    /** Operations queued but not yet acknowledged, counting those PyBridgeInvoker is still recording. */
+    public static int pendingCount() {
+        synchronized (INSTANCE) { return INSTANCE.pending.size() + PyBridgeInvoker.queued(); }
+    }
+
+    /** Replays pending operations now instead of waiting out the current backoff. */
+    public static void flush() {
+        synchronized (INSTANCE) { INSTANCE.scheduleDrain(0L); }
+    }
+
+    static void shutdown() {
+        INSTANCE.exec.shutdownNow();
+    }
+
+    //==================================================================================================================
+    // Replay
+    //==================================================================================================================
+
+    private synchronized void scheduleDrain(long delayMs) {
+        if (drainScheduled || exec.isShutdown()) return;
+        drainScheduled = true;
+        exec.schedule(this::drain, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void drain() {
+        List<Op> batch;
+        synchronized (this) {
+            drainScheduled = false;
+            batch = new ArrayList<>(BATCH_SIZE);
+            for (Op o : pending.values()) {
+                if (batch.size() == BATCH_SIZE) break;
+                batch.add(o);
+            }
+        }
+        if (batch.isEmpty()) return;
+
+        IKrogerWrapper wrapper = Py4JHelper.getWrapper();
+        if (wrapper == null) {
+            scheduleDrain(Math.max(IDLE_RETRY_MS, Py4JHelper.retryDelayMillis()));
+            return;
+        }
+        String retry;
+        try {
+            retry = sendBatch(wrapper, batch);
+            if (retry == null) retry = sendOneByOne(wrapper, batch);
+        } catch (Throwable t) {
+            if (!isConnectionFailure(t)) t.printStackTrace();
+            System.err.println("Bridge outbox: backend unavailable, " + pendingCount() + " operation(s) waiting");
+            Py4JHelper.reset();
+            scheduleDrain(Math.max(IDLE_RETRY_MS, Py4JHelper.retryDelayMillis()));
+            return;
+        }
+        if (!retry.isEmpty()) {
+            // left queued, in order, until the server can apply it
+            System.err.println("Bridge outbox: " + retry + "; " + pendingCount() + " operation(s) waiting");
+            scheduleDrain(UNSUPPORTED_RETRY_MS);
+            return;
+        }
+        synchronized (this) {
+            if (!pending.isEmpty()) scheduleDrain(0L);
+            else if (logLines > COMPACT_AFTER_LINES) compact();
+        }
+    }
+
+    /**
+     * One round trip for the whole batch. Returns null when the server predates applyBatch, otherwise
+     * why the rest of the batch must be retried ("" when every operation was acknowledged).
+     */
+    private String sendBatch(IKrogerWrapper wrapper, List<Op> batch) {
+        if (Boolean.FALSE.equals(batchSupported)) return null;
+        JSONArray ops = new JSONArray();
+        for (Op o : batch) ops.put(o.toJson());
+        List<String> forget;
+        synchronized (this) { forget = new ArrayList<>(acked); }
+        String reply;
+        try {
+            reply = wrapper.applyBatch(new JSONObject().put("ops", ops).put("acked", new JSONArray(forget)).toString());
+        } catch (RuntimeException ex) {
+            if (Py4JHelper.isMissingMethod(ex, "applyBatch")) {
+                batchSupported = false;
+                return null;
+            }
+            throw ex;
+        }
+        batchSupported = true;
+        synchronized (this) { acked.subList(0, forget.size()).clear(); }
+        JSONArray replies = new JSONArray(reply);
+        Map<String, JSONObject> byKey = new HashMap<>();
+        for (int i = 0; i < replies.length(); i++) {
+            JSONObject r = replies.getJSONObject(i);
+            byKey.put(r.optString("key"), r);
+        }
+        for (Op o : batch) {
+            JSONObject r = byKey.get(o.key);
+            if (r == null) r = new JSONObject().put("error", "no reply in batch");
+            if (r.has("retry")) return o.name + ": " + r.optString("retry");
+            acknowledge(o, r);
+        }
+        return "";
+    }
+
+    // The same for servers without applyBatch, one call per operation.
+    private String sendOneByOne(IKrogerWrapper wrapper, List<Op> batch) {
+        for (Op o : batch) {
+            JSONObject r = new JSONObject();
+            try {
+                r.put("result", call(wrapper, o));
+            } catch (Throwable t) {
+                if (isConnectionFailure(t)) throw t;
+                if (t instanceof UnsupportedOperationException || Py4JHelper.isMissingMethod(t, o.name)) {
+                    return o.name + ": operation is not implemented";
+                }
+                r.put("error", String.valueOf(t.getMessage()));
+            }
+            acknowledge(o, r);
+        }
+        return "";
+    }
+
+    private static long call(IKrogerWrapper wrapper, Op o) {
+        JSONArray a = o.args;
+        switch (o.name) {
+            case "createRecipe": return wrapper.createRecipe(a.getString(0));
+            case "ingredientID": return wrapper.ingredientID(a.getString(0));
+            case "addIngredientToRecipe": wrapper.addIngredientToRecipe(a.getInt(0), a.getInt(1), a.getDouble(2)); return 0;
+            case "renameRecipe": wrapper.renameRecipe(a.getInt(0), a.getString(1)); return 0;
+            case "deleteRecipe": wrapper.deleteRecipe(a.getInt(0)); return 0;
+            case "setIngredientQuantity": wrapper.setIngredientQuantity(a.getInt(0), a.getInt(1), a.getDouble(2)); return 0;
+            case "removeIngredientFromRecipe": wrapper.removeIngredientFromRecipe(a.getInt(0), a.getInt(1)); return 0;
+            case "on_new_recipe": wrapper.on_new_recipe(a.getString(0)); return 0;
+            case "on_new_ingredient": wrapper.on_new_ingredient(a.getString(0)); return 0;
+            case "on_recipe_added_ingredient": wrapper.on_recipe_added_ingredient(a.getString(0), a.getString(1)); return 0;
+            default: throw new UnsupportedOperationException("unknown bridge operation " + o.name);
+        }
+    }
+
+    // A Python-side error is final for that operation (retrying would fail the same way); it is logged
+    // and acknowledged with -1 so the queue moves on. Operations the server cannot run yet never get here.
+    private void acknowledge(Op o, JSONObject reply) {
+        long result;
+        if (reply.has("error")) {
+            System.err.println("Bridge outbox: " + o.name + " [" + o.key + "] failed: " + reply.optString("error"));
+            result = -1;
+        } else {
+            result = reply.optLong("result", 0);
+        }
+        JSONObject ack = new JSONObject();
+        ack.put("ack", o.seq);
+        ack.put("key", o.key);
+        ack.put("result", result);
+        if (o.shared) ack.put("shared", true);
+        CompletableFuture<Long> f;
+        synchronized (this) {
+            try {
+                append(ack);
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+            pending.remove(o.seq);
+            acked.add(o.key);
+            if (result > 0 && o.shared) results.put(o.key, result);
+            f = waiting.remove(o.seq);
+        }
+        if (f != null) f.complete(result);
+    }
+
+    public static boolean isConnectionFailure(Throwable t) {
+        for (Throwable c = t; c != null; c = c.getCause()) {
+            if (c instanceof Py4JNetworkException || c instanceof IOException) return true;
+            if (c.getCause() == c) break;
+        }
+        return false;
+    }
+
+    //==================================================================================================================
+    // Log file
+    //==================================================================================================================
+
+    private void load() {
+        if (!log.exists()) return;
+        try {
+            for (String line : Files.readAllLines(log.toPath(), StandardCharsets.UTF_8)) {
+                if (line.trim().isEmpty()) continue;
+                logLines++;
+                JSONObject o;
+                try {
+                    o = new JSONObject(line);
+                } catch (Exception torn) {
+                    continue; // last line cut short by a crash mid-append
+                }
+                if (o.has("ack")) {
+                    long seq = o.getLong("ack");
+                    pending.remove(seq);
+                    if (seq > 0) acked.add(o.optString("key"));   // the server may not have heard of this ack yet
+                    if (o.optBoolean("shared") && o.optLong("result", -1) > 0) results.put(o.optString("key"), o.getLong("result"));
+                    nextSeq = Math.max(nextSeq, seq + 1);
+                } else if (o.has("seq")) {
+                    Op op = new Op(o.getLong("seq"), o.getString("key"), o.getString("op"), o.getJSONArray("args"), o.optBoolean("shared"));
+                    if (!results.containsKey(op.key)) pending.put(op.seq, op);
+                    nextSeq = Math.max(nextSeq, op.seq + 1);
+                }
+            }
+        } catch (Exception ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    // The log sits with the data tables, so writes take LocalStore's lock like a commit does.
+    private void append(JSONObject line) throws IOException {
+        LocalStore.append(log.getPath(), (line.toString() + "\n").getBytes(StandardCharsets.UTF_8));
+        logLines++;
+    }
+
+    // With nothing pending the log is rewritten as just the results of shared keys.
+    private void compact() {
+        StringBuilder sb = new StringBuilder();
+        int lines = 0;
+        for (Map.Entry<String, Long> e : results.entrySet()) {
+            JSONObject ack = new JSONObject();
+            ack.put("ack", 0);
+            ack.put("key", e.getKey());
+            ack.put("result", e.getValue());
+            ack.put("shared", true);
+            sb.append(ack).append('\n');
+            lines++;
+        }
+        try {
+            LocalStore.replaceSynced(log.getPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+            logLines = lines;
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+}
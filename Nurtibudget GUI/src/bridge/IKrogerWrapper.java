@@ -5,6 +5,15 @@ public interface IKrogerWrapper {
     // existing search method (returns JSON string)
     String search(String query, int limit);
 
+    // same search as a compact binary batch, see ProductCodec for the layout
+    byte[] searchCompact(String query, int limit);
+
+    // one page of a paged search; cursor is "" for the first page, the batch carries the next cursor
+    byte[] searchPage(String query, int limit, String cursor);
+
+    // products for a JSON array of ids, batched on the Python side; same layout as searchCompact
+    byte[] productsCompact(String idsJson);
+
     // create recipe: returns integer id
     int createRecipe(String recipeName);
 
@@ -15,6 +24,25 @@ public interface IKrogerWrapper {
     // Python signature should be: def addIngredientToRecipe(recipe_id: int, ingredient_id: int, quantity: float)
     void addIngredientToRecipe(int recipeId, int ingredientId, double quantity);
 
+    // Sets the quantity of an ingredient already in the recipe (adds it otherwise) and adjusts the recipe's nutrition
+    void setIngredientQuantity(int recipeId, int ingredientId, double quantity);
+
+    // Reconciliation (see pages.SyncReconciler). The three writes below go through the outbox.
+    void renameRecipe(int recipeId, String newName);
+    void deleteRecipe(int recipeId);
+    void removeIngredientFromRecipe(int recipeId, int ingredientId);
+
+    // Everything changed on the backend after change stamp `since`, as JSON:
+    // {"stamp": n, "recipes": [{"id", "version", "name", "deleted", "links": {ingredientId: quantity}}],
+    //  "ingredients": [{"id", "version", "deleted"}]}; version is the stamp of the entity's last change.
+    String fetchChanges(long since);
+
+    // Applies queued writes in order (see BridgeOutbox). opsJson is {"ops": [{"seq", "key", "op", "args"}],
+    // "acked": [key]}; returns a JSON array of {"key", "result"}, {"key", "error"} or {"key", "retry"}.
+    // An op whose key was already applied is answered with its earlier result instead of running again;
+    // keys in "acked" will never be resent, so the server forgets them.
+    String applyBatch(String opsJson);
+
     // notification callbacks (optional)
     void on_new_recipe(String recipeJson);
     void on_new_ingredient(String ingredientJson);
@@ -1,10 +1,8 @@
 package bridge;
 
-import org.json.JSONArray;
-import org.json.JSONObject;
-
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -120,17 +118,15 @@ public class KrogerBridge {
     private static void runSearch(IKrogerWrapper wrapper, String query, int limit) {
         try {
             System.out.println("🔎 Searching for \"" + query + "\" (limit=" + limit + ")...");
-            String jsonString = wrapper.search(query, limit);
-            if (jsonString == null || jsonString.trim().isEmpty()) {
+            List<ProductSummary> results = ProductCodec.search(wrapper, query, limit);
+            if (results.isEmpty()) {
                 System.out.println("No results (empty response).");
                 return;
             }
-            JSONArray array = new JSONArray(jsonString);
-            System.out.println("Found " + array.length() + " items:");
-            for (int i = 0; i < array.length(); i++) {
-                JSONObject obj = array.getJSONObject(i);
-                String name = obj.optString("name", "(no name)");
-                String price = obj.has("price") ? String.valueOf(obj.optDouble("price", 0.0)) : "(no price)";
+            System.out.println("Found " + results.size() + " items:");
+            for (ProductSummary p : results) {
+                String name = p.name.isEmpty() ? "(no name)" : p.name;
+                String price = Double.isNaN(p.price) ? "(no price)" : String.valueOf(p.price);
                 System.out.printf(" - %s  |  price: %s%n", name, price);
             }
         } catch (Throwable t) {
@@ -0,0 +1,177 @@
+package bridge;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Decodes search results sent by the Python side.
+ *
+ * The compact form returned by {@code searchCompact} is big-endian and length-prefixed:
+ * <pre>
+ *   "NBP" version:u8 count:u32
+ *   count x { id:str name:str describe:str price:f64 promo_price:f64 image_url:str
+ *             nutrients:u16 nutrients x str }
+ *   version 2 only: next_cursor:str ("" on the last page)
+ *   str = length:u32 followed by that many UTF-8 bytes; missing prices are NaN
+ * </pre>
+ * Version 2 batches come from {@code searchPage}. Older Python servers only implement
+ * {@code search}, whose JSON array is accepted by {@link #decodeJson}. {@link #search},
+ * {@link #searchPage} and {@link #byIds} pick whichever the server supports.
+ */
+public final class ProductCodec {
+
+    private static final byte[] MAGIC = { 'N', 'B', 'P' };
+    static final int VERSION = 1;
+    static final int PAGED_VERSION = 2;
+
+    /** Products of one batch plus the cursor for the next page, or null when there is none. */
+    public static final class Page {
+        public final List<ProductSummary> items;
+        public final String nextCursor;
+
+        Page(List<ProductSummary> items, String nextCursor) {
+            this.items = items;
+            this.nextCursor = nextCursor != null && !nextCursor.isEmpty() ? nextCursor : null;
+        }
+
+        public boolean hasMore() { return nextCursor != null; }
+    }
+
+    // Cleared the first time the server reports that it has no such method (Py4JHelper.isMissingMethod).
+    private static volatile boolean compactSupported = true;
+    private static volatile boolean pagedSupported = true;
+    private static volatile boolean byIdsSupported = true;
+
+    private ProductCodec() {}
+
+    /**
+     * Searches through the bridge, preferring the compact transport and falling back to JSON.
+     * Blocking — call from a background thread.
+     */
+    public static List<ProductSummary> search(IKrogerWrapper wrapper, String query, int limit) {
+        if (compactSupported) {
+            try {
+                return decode(wrapper.searchCompact(query, limit));
+            } catch (py4j.Py4JException ex) {
+                if (Py4JHelper.isMissingMethod(ex, "searchCompact")) compactSupported = false;
+                else System.err.println("Compact search failed, retrying as JSON: " + ex.getMessage());
+            } catch (IllegalArgumentException ex) {
+                System.err.println("Bad compact search payload, retrying as JSON: " + ex.getMessage());
+            }
+        }
+        return decodeJson(wrapper.search(query, limit));
+    }
+
+    /**
+     * Fetches one page of {@code query}; pass a null cursor for the first page. Servers without
+     * {@code searchPage} get a single unpaged search, reported as the last page.
+     * Blocking — call from a background thread.
+     */
+    public static Page searchPage(IKrogerWrapper wrapper, String query, int limit, String cursor) {
+        if (pagedSupported) {
+            try {
+                return decodePage(wrapper.searchPage(query, limit, cursor != null ? cursor : ""));
+            } catch (py4j.Py4JException ex) {
+                if (!Py4JHelper.isMissingMethod(ex, "searchPage")) throw ex;
+                pagedSupported = false;
+            }
+        }
+        if (cursor != null) return new Page(Collections.emptyList(), null);
+        return new Page(search(wrapper, query, limit), null);
+    }
+
+    /**
+     * Looks up products by id in one bridge call. Servers without {@code productsCompact} get one
+     * search per id instead. Ids that are not found are missing from the result.
+     * Blocking — call from a background thread.
+     */
+    public static List<ProductSummary> byIds(IKrogerWrapper wrapper, Collection<String> ids) {
+        if (ids.isEmpty()) return Collections.emptyList();
+        if (byIdsSupported) {
+            try {
+                return decode(wrapper.productsCompact(new JSONArray(ids).toString()));
+            } catch (py4j.Py4JException ex) {
+                if (!Py4JHelper.isMissingMethod(ex, "productsCompact")) throw ex;
+                byIdsSupported = false;
+            }
+        }
+        List<ProductSummary> out = new ArrayList<>();
+        for (String id : ids) {
+            try {
+                List<ProductSummary> found = search(wrapper, id, 1);
+                if (!found.isEmpty() && id.equals(found.get(0).id)) out.add(found.get(0));
+            } catch (RuntimeException ex) {
+                System.err.println("Product lookup failed for " + id + ": " + ex.getMessage());
+            }
+        }
+        return out;
+    }
+
+    public static List<ProductSummary> decode(byte[] data) {
+        return decodePage(data).items;
+    }
+
+    public static Page decodePage(byte[] data) {
+        if (data == null || data.length == 0) return new Page(Collections.emptyList(), null);
+        try {
+            ByteBuffer in = ByteBuffer.wrap(data);
+            for (byte b : MAGIC) {
+                if (in.get() != b) throw new IllegalArgumentException("not a product batch");
+            }
+            int version = in.get() & 0xFF;
+            if (version != VERSION && version != PAGED_VERSION) throw new IllegalArgumentException("unsupported product batch version " + version);
+            int count = in.getInt();
+            if (count < 0) throw new IllegalArgumentException("negative record count");
+            List<ProductSummary> out = new ArrayList<>(Math.min(count, 1024));
+            for (int i = 0; i < count; i++) {
+                String id = readString(in);
+                String name = readString(in);
+                String describe = readString(in);
+                double price = in.getDouble();
+                double promo = in.getDouble();
+                String image = readString(in);
+                int n = in.getShort() & 0xFFFF;
+                List<String> nutrients = new ArrayList<>(n);
+                for (int k = 0; k < n; k++) nutrients.add(readString(in));
+                out.add(new ProductSummary(id, name, describe, price, promo, image, "", nutrients));
+            }
+            String next = version == PAGED_VERSION ? readString(in) : null;
+            return new Page(out, next);
+        } catch (BufferUnderflowException ex) {
+            throw new IllegalArgumentException("truncated product batch", ex);
+        }
+    }
+
+    /** Legacy JSON array of product objects. A JSON object with an "error" key is reported as an exception. */
+    public static List<ProductSummary> decodeJson(String raw) {
+        if (raw == null || raw.trim().isEmpty()) return Collections.emptyList();
+        String txt = raw.trim();
+        if (txt.startsWith("{")) {
+            JSONObject o = new JSONObject(txt);
+            throw new IllegalStateException(o.optString("error", "unexpected search response"));
+        }
+        JSONArray arr = new JSONArray(txt);
+        List<ProductSummary> out = new ArrayList<>(arr.length());
+        for (int i = 0; i < arr.length(); i++) {
+            JSONObject o = arr.optJSONObject(i);
+            if (o != null) out.add(ProductSummary.fromJson(o));
+        }
+        return out;
+    }
+
+    private static String readString(ByteBuffer in) {
+        int len = in.getInt();
+        if (len < 0 || len > in.remaining()) throw new IllegalArgumentException("bad string length " + len);
+        String s = new String(in.array(), in.arrayOffset() + in.position(), len, StandardCharsets.UTF_8);
+        in.position(in.position() + len);
+        return s;
+    }
+}
@@ -0,0 +1,106 @@
+package bridge;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One product from a Kroger search, decoded once from the bridge so list renderers and callers read
+ * plain fields instead of probing JSON keys. Missing prices are NaN.
+ *
+ * {@link #toJson()} gives the legacy JSON shape for code that still works on JSONObjects; when the
+ * summary was built from JSON the original object (with any extra keys such as kroger_raw) is returned.
+ */
+public final class ProductSummary {
+
+    public final String id;
+    public final String name;
+    public final String description;
+    public final double price;
+    public final double promoPrice;
+    public final String imageUrl;
+    public final String servingLabel;
+    public final List<String> nutrients;
+
+    private JSONObject json;
+
+    public ProductSummary(String id, String name, String description, double price, double promoPrice,
+                          String imageUrl, String servingLabel, List<String> nutrients) {
+        this.id = id != null ? id : "";
+        this.name = name != null ? name : "";
+        this.description = description != null ? description : "";
+        this.price = price;
+        this.promoPrice = promoPrice;
+        this.imageUrl = imageUrl != null ? imageUrl : "";
+        this.servingLabel = servingLabel != null ? servingLabel : "";
+        this.nutrients = nutrients != null ? Collections.unmodifiableList(nutrients) : Collections.emptyList();
+    }
+
+    /** Reads the search-result keys and their older aliases (productId, price_per_serving, imagePath, ...). */
+    public static ProductSummary fromJson(JSONObject o) {
+        List<String> nutrients = new ArrayList<>();
+        JSONArray arr = o.optJSONArray("nutrients");
+        if (arr != null) {
+            for (int i = 0; i < arr.length(); i++) {
+                Object n = arr.opt(i);
+                if (n instanceof String) nutrients.add((String) n);
+            }
+        }
+        String image = o.optString("image_url", "");
+        if (image.isEmpty()) image = o.optString("imagePath", "");
+        double price = parsePrice(o.opt("price"));
+        if (Double.isNaN(price)) price = parsePrice(o.opt("price_per_serving"));
+        ProductSummary p = new ProductSummary(
+                o.optString("id", o.optString("productId", "")),
+                o.optString("name", o.optString("description", "Unknown")),
+                o.optString("describe", o.optString("description", "")),
+                price,
+                parsePrice(o.opt("promo_price")),
+                image,
+                o.optString("serving_label", o.optString("serving", "")),
+                nutrients);
+        p.json = o;
+        return p;
+    }
+
+    /** Accepts numbers and strings like "$3.49"; anything else is NaN. */
+    public static double parsePrice(Object v) {
+        if (v instanceof Number) return ((Number) v).doubleValue();
+        if (v instanceof String) {
+            String s = ((String) v).replace("$", "").replace(",", "").trim();
+            if (s.isEmpty()) return Double.NaN;
+            try { return Double.parseDouble(s); } catch (NumberFormatException e) { return Double.NaN; }
+        }
+        return Double.NaN;
+    }
+
+    public boolean hasPrice() { return !Double.isNaN(price) && price > 0.0; }
+
+    /** Promo price when the product is on sale, otherwise the regular price (NaN if neither is known). */
+    public double currentPrice() {
+        if (!Double.isNaN(promoPrice) && promoPrice > 0.0 && (!hasPrice() || promoPrice < price)) return promoPrice;
+        return price;
+    }
+
+    public synchronized JSONObject toJson() {
+        if (json == null) {
+            JSONObject o = new JSONObject();
+            o.put("id", id);
+            o.put("name", name);
+            o.put("describe", description);
+            if (!Double.isNaN(price)) o.put("price", price);
+            if (!Double.isNaN(promoPrice)) o.put("promo_price", promoPrice);
+            o.put("image_url", imageUrl);
+            if (!servingLabel.isEmpty()) o.put("serving_label", servingLabel);
+            o.put("nutrients", new JSONArray(nutrients));
+            json = o;
+        }
+        return json;
+    }
+
+    @Override
+    public String toString() { return name; }
+}
@@ -6,7 +6,10 @@ import py4j.Py4JNetworkException;
 
 public class Py4JHelper {
     private static ClientServer client = null;
-    private static boolean attempted = false;
+    private static long nextAttemptAt = 0L;
+    private static long retryDelayMs = 0L;
+    private static final long MIN_RETRY_MS = 2_000L;
+    private static final long MAX_RETRY_MS = 60_000L;
     private static final Object LOCK = new Object();
 
     public static IKrogerWrapper getWrapper() {
@@ -18,27 +21,68 @@ public class Py4JHelper {
 
                 }
             }
-            if (attempted && client == null) {
-                System.err.println("Kroger Python bridge previously failed to start — skipping repeated attempts.");
-                return null;
-            }
-            attempted = true;
+            // after a failure, reconnect attempts back off from 2 s up to a minute
+            if (System.currentTimeMillis() < nextAttemptAt) return null;
             try {
-                client = new ClientServer(null);
+                // the event hub is the Java entry point, so Python can push events back (BridgeEvents)
+                client = new ClientServer(BridgeEventHub.get());
                 System.out.println("✅ Py4J client connected/reused.");
+                retryDelayMs = 0L;
                 return (IKrogerWrapper) client.getPythonServerEntryPoint(new Class[]{IKrogerWrapper.class});
             } catch (Py4JNetworkException ex) {
                 System.err.println("Kroger Python bridge not reachable: " + ex.getMessage());
-                client = null;
+                failed();
                 return null;
             } catch (Throwable t) {
                 t.printStackTrace();
-                client = null;
+                failed();
                 return null;
             }
         }
     }
 
+    /** Starts the Java side of the bridge now so Python can push events before Java calls it. */
+    public static void listen() {
+        getWrapper();
+    }
+
+    /** Drops a connection that stopped answering so the next {@link #getWrapper()} reconnects (with backoff). */
+    public static void reset() {
+        synchronized (LOCK) {
+            if (client != null) {
+                try { client.shutdown(); } catch (Exception ignored) {}
+            }
+            failed();
+        }
+    }
+
+    /** Milliseconds until the next reconnect attempt is allowed; 0 when connected or allowed now. */
+    public static long retryDelayMillis() {
+        synchronized (LOCK) {
+            return client != null ? 0L : Math.max(0L, nextAttemptAt - System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * True when {@code t} says the Python entry point has no method called {@code method}. Py4J reports
+     * that as a Py4JException ("An exception was raised by the Python Proxy") whose message carries
+     * the Python traceback ending in {@code AttributeError: ... has no attribute 'method'}.
+     */
+    public static boolean isMissingMethod(Throwable t, String method) {
+        String quoted = "'" + method + "'";
+        for (Throwable c = t; c != null; c = c.getCause() == c ? null : c.getCause()) {
+            String msg = c.getMessage();
+            if (msg != null && msg.contains("AttributeError") && msg.contains(quoted)) return true;
+        }
+        return false;
+    }
+
+    private static void failed() {
+        client = null;
+        retryDelayMs = retryDelayMs == 0L ? MIN_RETRY_MS : Math.min(MAX_RETRY_MS, retryDelayMs * 2);
+        nextAttemptAt = System.currentTimeMillis() + retryDelayMs;
+    }
+
 
     public static void shutdown() {
         synchronized (LOCK) {
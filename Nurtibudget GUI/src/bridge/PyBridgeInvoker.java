@@ -1,116 +1,145 @@
 package bridge;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 /**
  * Helper to call the Python bridge callbacks off the UI thread.
- * Uses the existing Py4JHelper to get the IKrogerWrapper.
+ * Writes are recorded in the {@link BridgeOutbox} and replayed in order once the bridge is
+ * reachable, so nothing is lost while the Python backend is down. Recording syncs the outbox log,
+ * so it happens on a writer thread, in call order; the caller never waits for the disk.
  */
 public final class PyBridgeInvoker {
-    private static final ExecutorService EXEC = Executors.newSingleThreadExecutor(r -> {
-        Thread t = new Thread(r, "pybridge-invoker");
+
+    private static final ExecutorService WRITER = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "pybridge-writer");
         t.setDaemon(true);
         return t;
     });
+    private static final AtomicInteger QUEUED = new AtomicInteger();   // handed to WRITER, not yet in the outbox
+
+    static {
+        // writes still waiting for the writer when the app exits are recorded before it goes
+        Runtime.getRuntime().addShutdownHook(new Thread(PyBridgeInvoker::awaitWriter, "pybridge-writer-flush"));
+    }
 
     private PyBridgeInvoker() {}
 
     // ----- Notifications (fire-and-forget) -----
     public static void notifyNewRecipe(String recipeJson) {
         if (recipeJson == null) return;
-        EXEC.submit(() -> {
-            try {
-                IKrogerWrapper wrapper = Py4JHelper.getWrapper();
-                if (wrapper != null) wrapper.on_new_recipe(recipeJson);
-            } catch (Throwable t) {
-                System.err.println("notifyNewRecipe error: " + t.getMessage());
-                t.printStackTrace();
-            }
-        });
+        record(onceKey(), "on_new_recipe", recipeJson);
     }
 
     public static void notifyNewIngredient(String ingredientJson) {
         if (ingredientJson == null) return;
-        EXEC.submit(() -> {
-            try {
-                IKrogerWrapper wrapper = Py4JHelper.getWrapper();
-                if (wrapper != null) wrapper.on_new_ingredient(ingredientJson);
-            } catch (Throwable t) {
-                System.err.println("notifyNewIngredient error: " + t.getMessage());
-                t.printStackTrace();
-            }
-        });
+        record(onceKey(), "on_new_ingredient", ingredientJson);
     }
 
     public static void notifyRecipeAddedIngredient(String recipeJson, String ingredientJson) {
         if (recipeJson == null || ingredientJson == null) return;
-        EXEC.submit(() -> {
-            try {
-                IKrogerWrapper wrapper = Py4JHelper.getWrapper();
-                if (wrapper != null) wrapper.on_recipe_added_ingredient(recipeJson, ingredientJson);
-            } catch (Throwable t) {
-                System.err.println("notifyRecipeAddedIngredient error: " + t.getMessage());
-                t.printStackTrace();
-            }
-        });
+        record(onceKey(), "on_recipe_added_ingredient", recipeJson, ingredientJson);
     }
 
     // ----- Async createRecipe -----
-    public static CompletableFuture<Integer> createRecipe(String recipeName) {
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                IKrogerWrapper wrapper = Py4JHelper.getWrapper();
-                if (wrapper == null) {
-                    System.err.println("Py4J wrapper not available for createRecipe");
-                    return -1;
-                }
-                return wrapper.createRecipe(recipeName);
-            } catch (Throwable t) {
-                System.err.println("createRecipe call failed: " + t.getMessage());
-                t.printStackTrace();
-                return -1;
-            }
-        }, EXEC);
+    // Keyed on the recipe's local id (plus a suffix when re-creating it), not its name: a recipe deleted
+    // and re-added under the same name is a new row.
+    public static CompletableFuture<Integer> createRecipe(String createKey, String recipeName) {
+        return onWriter(() -> BridgeOutbox.get().submit("recipe:" + createKey, "createRecipe", recipeName))
+                .thenCompose(f -> f).thenApply(Long::intValue);
     }
 
     // ----- Async createIngredient -----
     public static CompletableFuture<Integer> createIngredient(String ingredientJson) {
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                IKrogerWrapper wrapper = Py4JHelper.getWrapper();
-                if (wrapper == null) {
-                    System.err.println("Py4J wrapper not available for ingredientID");
-                    return -1;
-                }
-                return wrapper.ingredientID(ingredientJson);
-            } catch (Throwable t) {
-                System.err.println("createIngredient call failed: " + t.getMessage());
-                t.printStackTrace();
-                return -1;
-            }
-        }, EXEC);
+        if (ingredientJson == null) return CompletableFuture.completedFuture(-1);
+        return createIngredient("sha256:" + sha256(ingredientJson), ingredientJson);
+    }
+
+    /** {@code key} identifies the product (same key, same backend ingredient); blank falls back to the JSON. */
+    public static CompletableFuture<Integer> createIngredient(String key, String ingredientJson) {
+        if (key == null || key.isEmpty()) return createIngredient(ingredientJson);
+        return onWriter(() -> BridgeOutbox.get().submitShared("ingredient:" + key, "ingredientID", ingredientJson))
+                .thenCompose(f -> f).thenApply(Long::intValue);
     }
 
     // ----- Fire-and-forget: addIngredientToRecipe -----
     public static void addIngredientToRecipe(int recipeId, int ingredientId, double quantity) {
-        EXEC.submit(() -> {
+        record(onceKey(), "addIngredientToRecipe", recipeId, ingredientId, quantity);
+    }
+
+    public static void setIngredientQuantity(int recipeId, int ingredientId, double quantity) {
+        record(onceKey(), "setIngredientQuantity", recipeId, ingredientId, quantity);
+    }
+
+    public static void renameRecipe(int recipeId, String newName) {
+        record(onceKey(), "renameRecipe", recipeId, newName);
+    }
+
+    public static void deleteRecipe(int recipeId) {
+        record(onceKey(), "deleteRecipe", recipeId);
+    }
+
+    public static void removeIngredientFromRecipe(int recipeId, int ingredientId) {
+        record(onceKey(), "removeIngredientFromRecipe", recipeId, ingredientId);
+    }
+
+    public static void shutdown() {
+        awaitWriter();
+        try { BridgeOutbox.shutdown(); } catch (Throwable ignored) {}
+    }
+
+    /** Writes handed to the writer thread that are not in the outbox yet. */
+    static int queued() {
+        return QUEUED.get();
+    }
+
+    private static void record(String key, String op, Object... args) {
+        onWriter(() -> BridgeOutbox.get().submit(key, op, args));
+    }
+
+    private static <T> CompletableFuture<T> onWriter(Supplier<T> write) {
+        QUEUED.incrementAndGet();
+        return CompletableFuture.supplyAsync(() -> {
             try {
-                IKrogerWrapper wrapper = Py4JHelper.getWrapper();
-                if (wrapper == null) {
-                    System.err.println("Py4J wrapper not available for addIngredientToRecipe");
-                    return;
-                }
-                wrapper.addIngredientToRecipe(recipeId, ingredientId, quantity);
-            } catch (Throwable t) {
-                System.err.println("addIngredientToRecipe call failed: " + t.getMessage());
-                t.printStackTrace();
+                return write.get();
+            } finally {
+                QUEUED.decrementAndGet();
             }
-        });
+        }, WRITER);
     }
 
-    public static void shutdown() {
-        try { EXEC.shutdownNow(); } catch (Throwable ignored) {}
+    private static void awaitWriter() {
+        WRITER.shutdown();
+        try {
+            if (!WRITER.awaitTermination(5, TimeUnit.SECONDS)) System.err.println("Bridge writer: outbox writes still pending at exit");
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Each call is its own operation; the key only guards against applying a replay twice.
+    private static String onceKey() {
+        return "once:" + UUID.randomUUID();
+    }
+
+    // Content key for an ingredient without a product key: equal JSON, same backend ingredient.
+    private static String sha256(String text) {
+        try {
+            StringBuilder sb = new StringBuilder(64);
+            for (byte b : MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8))) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);   // every JVM ships SHA-256
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,154 @@
+package pages;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.BiFunction;
+
+/**
+ * Assigns planned meals to inventory batches, first-expiring first.
+ *
+ * Meals are taken in date order, one lane per recipe. In a lane, batches not cooked yet wait in a
+ * queue ordered by the day they are made; once a meal's date reaches that day they move to a priority
+ * queue ordered by expiry, and the meal draws on its head, the open batch that spoils first. A batch
+ * leaves the lane for good when it expires or has no portions left ({@code totalPortions - portionsUsed}
+ * less the meals on it), so a run costs O((meals + batches) log batches). A new cook batch is made only
+ * when a recipe's lane has nothing open.
+ *
+ * Meals already tied to a batch that can still serve them keep it and count against it, so re-running
+ * over a short window after one slot changes moves only the meals that lost their batch or never had one.
+ */
+final class BatchAllocator {
+
+    /** What a run changed. */
+    static final class Result {
+        /** Meals given a batch, with the date each is planned on. */
+        final Map<CustomCalendarPanel.PlannedMeal, LocalDate> assigned = new IdentityHashMap<>();
+        /** Batches cooked for meals no existing batch could serve. */
+        final List<CustomCalendarPanel.InventoryEntry> created = new ArrayList<>();
+        /** Meals left without a usable batch. */
+        int unassigned;
+    }
+
+    private static final class Slot {
+        final LocalDate date;
+        final CustomCalendarPanel.PlannedMeal meal;
+
+        Slot(LocalDate date, CustomCalendarPanel.PlannedMeal meal) {
+            this.date = date;
+            this.meal = meal;
+        }
+    }
+
+    private final Map<String, CustomCalendarPanel.InventoryEntry> batches = new HashMap<>();
+    private final Map<String, List<CustomCalendarPanel.InventoryEntry>> byRecipe = new HashMap<>();
+    private final Map<String, Integer> left = new HashMap<>();
+    private final List<Slot> slots = new ArrayList<>();
+
+    /**
+     * @param inventory batches meals may draw on
+     * @param assignedElsewhere meals per batch id that are not added to this run
+     */
+    BatchAllocator(Collection<CustomCalendarPanel.InventoryEntry> inventory, Map<String, Integer> assignedElsewhere) {
+        for (CustomCalendarPanel.InventoryEntry ie : inventory) {
+            if (ie.id == null || batches.containsKey(ie.id)) continue;
+            register(ie, assignedElsewhere.getOrDefault(ie.id, 0));
+        }
+    }
+
+    static String recipeKey(String name) {
+        return name == null ? "" : name.trim().toLowerCase();
+    }
+
+    static LocalDate expiry(CustomCalendarPanel.InventoryEntry ie) {
+        return ie.dateMade.plusDays(Math.max(0, ie.edibleDays));
+    }
+
+    /** Adds a meal to allocate; its {@code inventoryId} is updated in place by {@link #run}. */
+    void add(LocalDate date, CustomCalendarPanel.PlannedMeal meal) {
+        slots.add(new Slot(date, meal));
+    }
+
+    /**
+     * Allocates the added meals. {@code cook} makes a batch for a meal on its date when nothing open can
+     * serve it; when null, such meals keep whatever batch they had.
+     */
+    Result run(BiFunction<CustomCalendarPanel.PlannedMeal, LocalDate, CustomCalendarPanel.InventoryEntry> cook) {
+        Result result = new Result();
+        slots.sort(Comparator.comparing(s -> s.date));
+
+        // meals that keep their batch go first, so new meals only take portions that are really free
+        List<Slot> open = new ArrayList<>();
+        for (Slot s : slots) {
+            CustomCalendarPanel.InventoryEntry b = s.meal.inventoryId != null ? batches.get(s.meal.inventoryId) : null;
+            if (b != null && serves(b, s) && left.get(b.id) > 0) left.merge(b.id, -1, Integer::sum);
+            else open.add(s);
+        }
+
+        Map<String, Lane> lanes = new HashMap<>();
+        for (Slot s : open) {
+            if (s.meal.recipe == null) {
+                result.unassigned++;
+                continue;
+            }
+            String key = recipeKey(s.meal.recipe.recipe_name);
+            Lane lane = lanes.computeIfAbsent(key, k -> new Lane(byRecipe.getOrDefault(k, Collections.emptyList())));
+            CustomCalendarPanel.InventoryEntry b = lane.take(s.date);
+            if (b == null && cook != null) {
+                CustomCalendarPanel.InventoryEntry made = cook.apply(s.meal, s.date);
+                result.created.add(made);
+                register(made, 0);
+                lane.waiting.add(made);
+                b = lane.take(s.date);
+            }
+            if (b == null) {
+                result.unassigned++;
+            } else if (!b.id.equals(s.meal.inventoryId)) {
+                s.meal.inventoryId = b.id;
+                result.assigned.put(s.meal, s.date);
+            }
+        }
+        return result;
+    }
+
+    private void register(CustomCalendarPanel.InventoryEntry ie, int assigned) {
+        batches.put(ie.id, ie);
+        byRecipe.computeIfAbsent(recipeKey(ie.name), k -> new ArrayList<>()).add(ie);
+        left.put(ie.id, ie.totalPortions - ie.portionsUsed - assigned);
+    }
+
+    private static boolean serves(CustomCalendarPanel.InventoryEntry b, Slot s) {
+        return s.meal.recipe != null && recipeKey(b.name).equals(recipeKey(s.meal.recipe.recipe_name))
+                && !b.dateMade.isAfter(s.date) && !expiry(b).isBefore(s.date);
+    }
+
+    //==================================================================================================================
+    // Per-recipe lane; meals must be taken in date order
+    //==================================================================================================================
+
+    private final class Lane {
+        final PriorityQueue<CustomCalendarPanel.InventoryEntry> waiting =
+                new PriorityQueue<>(Comparator.comparing((CustomCalendarPanel.InventoryEntry b) -> b.dateMade));
+        final PriorityQueue<CustomCalendarPanel.InventoryEntry> open =
+                new PriorityQueue<>(Comparator.comparing(BatchAllocator::expiry).thenComparing(b -> b.dateMade));
+
+        Lane(List<CustomCalendarPanel.InventoryEntry> batches) {
+            for (CustomCalendarPanel.InventoryEntry b : batches) if (left.get(b.id) > 0) waiting.add(b);
+        }
+
+        CustomCalendarPanel.InventoryEntry take(LocalDate date) {
+            while (!waiting.isEmpty() && !waiting.peek().dateMade.isAfter(date)) open.add(waiting.poll());
+            while (!open.isEmpty() && (expiry(open.peek()).isBefore(date) || left.get(open.peek().id) <= 0)) open.poll();
+            CustomCalendarPanel.InventoryEntry b = open.peek();
+            if (b != null) left.merge(b.id, -1, Integer::sum);
+            return b;
+        }
+    }
+}
@@ -0,0 +1,428 @@
+package pages;
+
+import org.json.JSONObject;
+
+import javax.swing.SwingUtilities;
+import java.io.File;
+import java.io.IOException;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Planned versus actual food spend over time, against the weekly and monthly budgets.
+ *
+ * Planned spend is the portion price of every meal on the calendar (the batch's price when the meal
+ * is tied to an inventory batch, otherwise the recipe's cost per serving), on the day it is eaten.
+ * Actual spend is the full cost of each inventory batch on the day it was made.
+ *
+ * Day, week and month totals are kept as running sums. Editing one day of the plan or one batch
+ * applies only the difference, so charts read ready-made buckets instead of rescanning the history.
+ * Budgets are stored with the week or month they take effect from and apply until changed.
+ * Months in {@link ColdStorage} are added the first time a query reaches them, and so are the weeks
+ * of recurring {@link MealTemplates} meals, which the calendar only holds for the weeks it shows.
+ */
+public final class BudgetEngine {
+
+    private static final String BUDGET_FILE = "src/pages/text/budgets.json";
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+    private static final int PLANNED = 0;
+    private static final int ACTUAL = 1;
+
+    /** Spend for one week or month. Budget is NaN when none was set. */
+    public static final class Bucket {
+        public final LocalDate start;
+        public final double planned;
+        public final double actual;
+        public final double budget;
+
+        Bucket(LocalDate start, double planned, double actual, double budget) {
+            this.start = start;
+            this.planned = planned;
+            this.actual = actual;
+            this.budget = budget;
+        }
+    }
+
+    /** Meals of one day reduced to what pricing needs. */
+    private static final class DayPlan {
+        final String[] batchIds;
+        final double[] recipeCost;
+        double total;
+
+        DayPlan(int n) { batchIds = new String[n]; recipeCost = new double[n]; }
+    }
+
+    private static final class Batch {
+        final LocalDate made;
+        final double cost;
+        final double pricePerPortion;
+
+        Batch(CustomCalendarPanel.InventoryEntry e) {
+            this.made = e.dateMade;
+            this.cost = e.pricePerPortion * Math.max(0, e.totalPortions);
+            this.pricePerPortion = e.pricePerPortion;
+        }
+    }
+
+    private static BudgetEngine instance;
+
+    private final TreeMap<LocalDate, double[]> days = new TreeMap<>();
+    private final TreeMap<LocalDate, double[]> weeks = new TreeMap<>();
+    private final TreeMap<YearMonth, double[]> months = new TreeMap<>();
+    private final Map<LocalDate, DayPlan> plans = new HashMap<>();
+    private final Map<LocalDate, DayPlan> templatePlans = new HashMap<>();   // template meals, kept apart from plans
+    private final Set<LocalDate> templateWeeks = new HashSet<>();
+    private int templatesVersion = -1;
+    private final Map<String, Batch> batches = new HashMap<>();
+    private final Map<String, Set<LocalDate>> daysByBatch = new HashMap<>();
+    private final Set<YearMonth> archiveLoaded = new HashSet<>();
+    private final Set<String> archivedBatchIds = new HashSet<>();   // not in inventory.json, kept by updateInventory
+    private final TreeMap<LocalDate, Double> weeklyBudgets = new TreeMap<>();
+    private final TreeMap<YearMonth, Double> monthlyBudgets = new TreeMap<>();
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+    private final File budgetFile;
+    private boolean populated;   // the calendar has fed a full plan; startup data is older and is not applied
+
+    BudgetEngine(File budgetFile) {
+        this.budgetFile = budgetFile;
+        loadBudgets();
+    }
+
+    public static synchronized BudgetEngine get() {
+        if (instance == null) instance = new BudgetEngine(new File(BUDGET_FILE));
+        return instance;
+    }
+
+    /** The Sunday a week starts on, on or before {@code d}; the calendar, templates and suggestions all use it. */
+    public static LocalDate weekStart(LocalDate d) {
+        return d.with(TemporalAdjusters.previousOrSame(DayOfWeek.SUNDAY));
+    }
+
+    public void addListener(Runnable l) { listeners.add(l); }
+    public void removeListener(Runnable l) { listeners.remove(l); }
+
+    private void fireChanged() {
+        for (Runnable l : listeners) {
+            if (SwingUtilities.isEventDispatchThread()) l.run();
+            else SwingUtilities.invokeLater(l);
+        }
+    }
+
+    // --------------------------------------
+    // Feeding plans and inventory
+    // --------------------------------------
+    /** Rebuilds everything from a full meal plan and inventory, e.g. after the calendar loads. */
+    public void replaceAll(Map<String, Map<String, List<CustomCalendarPanel.PlannedMeal>>> mealPlans,
+                           List<CustomCalendarPanel.InventoryEntry> inventory) {
+        if (replace(mealPlans, inventory, false)) fireChanged();
+    }
+
+    /**
+     * {@link #replaceAll} for plans read in the background at startup: skipped once the calendar has
+     * loaded, because its plan is at least as new and may already carry edits.
+     */
+    public void seed(Map<String, Map<String, List<CustomCalendarPanel.PlannedMeal>>> mealPlans,
+                     List<CustomCalendarPanel.InventoryEntry> inventory) {
+        if (replace(mealPlans, inventory, true)) fireChanged();
+    }
+
+    private boolean replace(Map<String, Map<String, List<CustomCalendarPanel.PlannedMeal>>> mealPlans,
+                            List<CustomCalendarPanel.InventoryEntry> inventory, boolean seed) {
+        synchronized (this) {
+            if (seed && populated) return false;
+            if (!seed) populated = true;
+            days.clear();
+            weeks.clear();
+            months.clear();
+            plans.clear();
+            batches.clear();
+            daysByBatch.clear();
+            archiveLoaded.clear();
+            archivedBatchIds.clear();
+            templatePlans.clear();
+            templateWeeks.clear();
+            templatesVersion = -1;
+            for (CustomCalendarPanel.InventoryEntry e : inventory) putBatch(e.id, new Batch(e));
+            for (Map.Entry<String, Map<String, List<CustomCalendarPanel.PlannedMeal>>> d : mealPlans.entrySet()) {
+                LocalDate date = parseDate(d.getKey());
+                if (date != null) setDayPlan(plans, date, d.getValue(), false);
+            }
+        }
+        return true;
+    }
+
+    /** Re-prices one calendar day after its meals changed. Template meals in {@code meals} are skipped; see {@link #templatesChanged}. */
+    public void updateDay(String dateStr, Map<String, List<CustomCalendarPanel.PlannedMeal>> meals) {
+        LocalDate date = parseDate(dateStr);
+        if (date == null) return;
+        synchronized (this) { setDayPlan(plans, date, meals, false); }
+        fireChanged();
+    }
+
+    /** Drops the priced template meals after meal_templates.json changed; queries expand them again. */
+    public void templatesChanged() {
+        synchronized (this) { dropTemplates(); }
+        fireChanged();
+    }
+
+    /** Applies added, removed and re-priced batches; days eating a re-priced batch are re-priced too. */
+    public void updateInventory(List<CustomCalendarPanel.InventoryEntry> inventory) {
+        synchronized (this) {
+            Set<String> seen = new HashSet<>();
+            Set<String> repriced = new HashSet<>();
+            for (CustomCalendarPanel.InventoryEntry e : inventory) {
+                seen.add(e.id);
+                Batch now = new Batch(e);
+                Batch old = batches.get(e.id);
+                if (old != null && old.made.equals(now.made) && old.cost == now.cost && old.pricePerPortion == now.pricePerPortion) continue;
+                if (old == null || old.pricePerPortion != now.pricePerPortion) repriced.add(e.id);
+                removeBatch(e.id);
+                putBatch(e.id, now);
+            }
+            for (String id : new ArrayList<>(batches.keySet())) {
+                if (!seen.contains(id) && !archivedBatchIds.contains(id)) { removeBatch(id); repriced.add(id); }
+            }
+            for (String id : repriced) {
+                Set<LocalDate> affected = daysByBatch.get(id);
+                if (affected == null) continue;
+                for (LocalDate d : affected) repriceDay(d);
+            }
+        }
+        fireChanged();
+    }
+
+    private void putBatch(String id, Batch b) {
+        batches.put(id, b);
+        bump(b.made, ACTUAL, b.cost);
+    }
+
+    private void removeBatch(String id) {
+        Batch b = batches.remove(id);
+        if (b != null) bump(b.made, ACTUAL, -b.cost);
+    }
+
+    // target is plans (saved meals) or templatePlans (template meals); each takes only its own kind from meals
+    private void setDayPlan(Map<LocalDate, DayPlan> target, LocalDate date, Map<String, List<CustomCalendarPanel.PlannedMeal>> meals, boolean templated) {
+        DayPlan old = target.remove(date);
+        if (old != null) {
+            bump(date, PLANNED, -old.total);
+            DayPlan other = (target == plans ? templatePlans : plans).get(date);
+            for (String id : old.batchIds) {
+                Set<LocalDate> s = id != null ? daysByBatch.get(id) : null;
+                if (s != null && !uses(other, id)) s.remove(date);
+            }
+        }
+        int n = 0;
+        if (meals != null) {
+            for (List<CustomCalendarPanel.PlannedMeal> l : meals.values()) {
+                for (CustomCalendarPanel.PlannedMeal pm : l) if ((pm.templateId != null) == templated) n++;
+            }
+        }
+        if (n == 0) return;
+
+        DayPlan p = new DayPlan(n);
+        int i = 0;
+        for (List<CustomCalendarPanel.PlannedMeal> l : meals.values()) {
+            for (CustomCalendarPanel.PlannedMeal pm : l) {
+                if ((pm.templateId != null) != templated) continue;
+                String id = pm.inventoryId != null && !pm.inventoryId.isEmpty() ? pm.inventoryId : null;
+                p.batchIds[i] = id;
+                p.recipeCost[i] = pm.recipe != null ? pm.recipe.cost_per_serving : 0.0;
+                if (id != null) daysByBatch.computeIfAbsent(id, k -> new HashSet<>()).add(date);
+                i++;
+            }
+        }
+        target.put(date, p);
+        p.total = priceOf(p);
+        bump(date, PLANNED, p.total);
+    }
+
+    private static boolean uses(DayPlan p, String batchId) {
+        if (p == null) return false;
+        for (String id : p.batchIds) if (batchId.equals(id)) return true;
+        return false;
+    }
+
+    private void repriceDay(LocalDate date) {
+        for (DayPlan p : new DayPlan[]{plans.get(date), templatePlans.get(date)}) {
+            if (p == null) continue;
+            double total = priceOf(p);
+            bump(date, PLANNED, total - p.total);
+            p.total = total;
+        }
+    }
+
+    private double priceOf(DayPlan p) {
+        double total = 0.0;
+        for (int i = 0; i < p.batchIds.length; i++) {
+            Batch b = p.batchIds[i] != null ? batches.get(p.batchIds[i]) : null;
+            total += b != null ? b.pricePerPortion : p.recipeCost[i];
+        }
+        return total;
+    }
+
+    private void bump(LocalDate date, int kind, double delta) {
+        if (delta == 0.0) return;
+        days.computeIfAbsent(date, k -> new double[2])[kind] += delta;
+        weeks.computeIfAbsent(weekStart(date), k -> new double[2])[kind] += delta;
+        months.computeIfAbsent(YearMonth.from(date), k -> new double[2])[kind] += delta;
+    }
+
+    // --------------------------------------
+    // Budgets
+    // --------------------------------------
+    /** Sets the budgets in force from {@code from}'s week and month onwards; saves only on change. */
+    public void setBudgets(LocalDate from, double weekly, double monthly) {
+        boolean changed = false;
+        synchronized (this) {
+            LocalDate w = weekStart(from);
+            YearMonth m = YearMonth.from(from);
+            if (!Double.valueOf(weekly).equals(weeklyBudgetFor(w))) { weeklyBudgets.put(w, weekly); changed = true; }
+            if (!Double.valueOf(monthly).equals(monthlyBudgetFor(m))) { monthlyBudgets.put(m, monthly); changed = true; }
+            if (changed) saveBudgets();
+        }
+        if (changed) fireChanged();
+    }
+
+    public synchronized Double weeklyBudgetFor(LocalDate weekStart) {
+        Map.Entry<LocalDate, Double> e = weeklyBudgets.floorEntry(weekStart);
+        return e != null ? e.getValue() : null;
+    }
+
+    public synchronized Double monthlyBudgetFor(YearMonth month) {
+        Map.Entry<YearMonth, Double> e = monthlyBudgets.floorEntry(month);
+        return e != null ? e.getValue() : null;
+    }
+
+    private void loadBudgets() {
+        if (!budgetFile.exists()) return;
+        try {
+            JSONObject o = new JSONObject(FileCache.read(budgetFile.getPath()));
+            JSONObject w = o.optJSONObject("weekly");
+            if (w != null) for (String k : w.keySet()) weeklyBudgets.put(LocalDate.parse(k, DATE_FORMAT), w.getDouble(k));
+            JSONObject m = o.optJSONObject("monthly");
+            if (m != null) for (String k : m.keySet()) monthlyBudgets.put(YearMonth.parse(k), m.getDouble(k));
+        } catch (Exception ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    private void saveBudgets() {
+        JSONObject w = new JSONObject();
+        for (Map.Entry<LocalDate, Double> e : weeklyBudgets.entrySet()) w.put(e.getKey().format(DATE_FORMAT), e.getValue());
+        JSONObject m = new JSONObject();
+        for (Map.Entry<YearMonth, Double> e : monthlyBudgets.entrySet()) m.put(e.getKey().toString(), e.getValue());
+        JSONObject o = new JSONObject();
+        o.put("weekly", w);
+        o.put("monthly", m);
+        try {
+            LocalStore.write(budgetFile.getPath(), o.toString(2));
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    // --------------------------------------
+    // Queries
+    // --------------------------------------
+    /** One bucket per week from {@code from}'s week through {@code to}'s week, including empty weeks. */
+    public synchronized List<Bucket> weekly(LocalDate from, LocalDate to) {
+        loadArchived(weekStart(from), to);
+        loadTemplates(weekStart(from), to);
+        List<Bucket> out = new ArrayList<>();
+        for (LocalDate w = weekStart(from); !w.isAfter(to); w = w.plusWeeks(1)) {
+            double[] v = weeks.get(w);
+            Double budget = weeklyBudgetFor(w);
+            out.add(new Bucket(w, v != null ? v[PLANNED] : 0.0, v != null ? v[ACTUAL] : 0.0, budget != null ? budget : Double.NaN));
+        }
+        return out;
+    }
+
+    public synchronized Bucket month(YearMonth month) {
+        loadArchived(month.atDay(1), month.atEndOfMonth());
+        loadTemplates(month.atDay(1), month.atEndOfMonth());
+        double[] v = months.get(month);
+        Double budget = monthlyBudgetFor(month);
+        return new Bucket(month.atDay(1), v != null ? v[PLANNED] : 0.0, v != null ? v[ACTUAL] : 0.0, budget != null ? budget : Double.NaN);
+    }
+
+    /** Sum of the last {@code n} weeks up to and including {@code today}'s week. */
+    public synchronized Bucket rolling(LocalDate today, int n) {
+        LocalDate end = weekStart(today);
+        LocalDate start = end.minusWeeks(Math.max(1, n) - 1);
+        double planned = 0.0, actual = 0.0, budget = 0.0;
+        boolean anyBudget = false;
+        for (Bucket b : weekly(start, end)) {
+            planned += b.planned;
+            actual += b.actual;
+            if (!Double.isNaN(b.budget)) { budget += b.budget; anyBudget = true; }
+        }
+        return new Bucket(start, planned, actual, anyBudget ? budget : Double.NaN);
+    }
+
+    /** Planned and actual spend summed over a day range (inclusive). */
+    public synchronized double[] between(LocalDate from, LocalDate to) {
+        loadArchived(from, to);
+        loadTemplates(from, to);
+        double[] out = new double[2];
+        for (double[] v : days.subMap(from, true, to, true).values()) {
+            out[PLANNED] += v[PLANNED];
+            out[ACTUAL] += v[ACTUAL];
+        }
+        return out;
+    }
+
+    /** Prices the archived months overlapping [from, to] that are not loaded yet. */
+    synchronized void loadArchived(LocalDate from, LocalDate to) {
+        if (to.isBefore(from) || !from.isBefore(ColdStorage.firstHotMonth().atDay(1))) return;
+        List<Page4.Recipe> catalog = null;
+        for (YearMonth m = YearMonth.from(from); !m.isAfter(YearMonth.from(to)); m = m.plusMonths(1)) {
+            if (!archiveLoaded.add(m)) continue;
+            for (CustomCalendarPanel.InventoryEntry e : ColdStorage.batchesFor(m)) {
+                if (batches.containsKey(e.id)) continue;
+                putBatch(e.id, new Batch(e));
+                archivedBatchIds.add(e.id);
+            }
+            String text = ColdStorage.planText(m);
+            if (text.isEmpty()) continue;
+            if (catalog == null) catalog = Repository.get().recipes();
+            for (Map.Entry<String, Map<String, List<CustomCalendarPanel.PlannedMeal>>> d : CustomCalendarPanel.parsePlans(text, catalog).entrySet()) {
+                LocalDate date = parseDate(d.getKey());
+                if (date != null && !plans.containsKey(date)) setDayPlan(plans, date, d.getValue(), false);
+            }
+        }
+    }
+
+    /** Prices the template meals of the weeks overlapping [from, to] that are not priced yet. */
+    synchronized void loadTemplates(LocalDate from, LocalDate to) {
+        if (MealTemplates.version() != templatesVersion) dropTemplates();
+        for (LocalDate w = weekStart(from); !w.isAfter(to); w = w.plusWeeks(1)) {
+            if (!templateWeeks.add(w)) continue;
+            for (Map.Entry<String, Map<String, List<CustomCalendarPanel.PlannedMeal>>> d : MealTemplates.expandMeals(w, w.plusDays(6)).entrySet()) {
+                LocalDate date = parseDate(d.getKey());
+                if (date != null) setDayPlan(templatePlans, date, d.getValue(), true);
+            }
+        }
+    }
+
+    private void dropTemplates() {
+        for (LocalDate d : new ArrayList<>(templatePlans.keySet())) setDayPlan(templatePlans, d, null, true);
+        templateWeeks.clear();
+        templatesVersion = MealTemplates.version();
+    }
+
+    private static LocalDate parseDate(String s) {
+        try { return LocalDate.parse(s, DATE_FORMAT); } catch (Exception ex) { return null; }
+    }
+}
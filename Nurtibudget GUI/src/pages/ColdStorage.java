@@ -0,0 +1,459 @@
+package pages;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.SoftReference;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.UnaryOperator;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Month-partitioned archive for meal plans and inventory batches that are in the past.
+ *
+ * meal_plans.txt and inventory.json stay the hot tables: the last {@link #HOT_MONTHS} months and
+ * everything after. {@link #archiveOldMonths()} (run at startup) moves older plan days, and batches
+ * made and expired before then that no hot meal uses, into gzip segments under text/archive, one
+ * per table and month, in the tables' own formats. Segments are immutable; archive/index.json
+ * lists them with record counts and checksums, and for plan segments the meals they draw from each
+ * batch and the months holding those batches. Segments are only read when a view or query reaches
+ * their month, so startup stays the same however much history there is.
+ *
+ * Editing a day of an archived month first {@link #thaw}s the month back into meal_plans.txt, and the
+ * batch segments its meals draw on back into inventory.json; the next startup archives them again.
+ */
+final class ColdStorage {
+
+    static final String ARCHIVE_DIR = "src/pages/text/archive";
+    static final String INDEX_FILE = ARCHIVE_DIR + "/index.json";
+    static final int HOT_MONTHS = 2;
+
+    private static final String PLANS = "meal_plans";
+    private static final String INVENTORY = "inventory";
+
+    private static final class Segment {
+        final String table;
+        final YearMonth month;
+        final String file;
+        final int records;
+        final String checksum;
+        final Map<String, Integer> assignments = new HashMap<>();   // plan segments: meals per batch id
+        final Set<YearMonth> batchMonths = new TreeSet<>();         // plan segments: where their batches went
+
+        Segment(String table, YearMonth month, String file, int records, String checksum) {
+            this.table = table;
+            this.month = month;
+            this.file = file;
+            this.records = records;
+            this.checksum = checksum;
+        }
+
+        static Segment fromJson(JSONObject o) {
+            Segment s = new Segment(o.getString("table"), YearMonth.parse(o.getString("month")),
+                    o.getString("file"), o.optInt("records", 0), o.optString("checksum", ""));
+            JSONObject a = o.optJSONObject("assignments");
+            if (a != null) for (String id : a.keySet()) s.assignments.put(id, a.getInt(id));
+            JSONArray b = o.optJSONArray("batchMonths");
+            if (b != null) for (int i = 0; i < b.length(); i++) s.batchMonths.add(YearMonth.parse(b.getString(i)));
+            return s;
+        }
+
+        JSONObject toJson() {
+            JSONObject o = new JSONObject();
+            o.put("table", table);
+            o.put("month", month.toString());
+            o.put("file", file);
+            o.put("records", records);
+            o.put("checksum", checksum);
+            if (!assignments.isEmpty()) o.put("assignments", new JSONObject(assignments));
+            if (!batchMonths.isEmpty()) {
+                JSONArray b = new JSONArray();
+                for (YearMonth m : batchMonths) b.put(m.toString());
+                o.put("batchMonths", b);
+            }
+            return o;
+        }
+    }
+
+    // the index as last read; rebuilt when FileCache hands back a different string
+    private static String indexText;
+    private static List<Segment> segments = Collections.emptyList();
+    private static int version = 0;
+    private static Map<String, Integer> assignments = Collections.emptyMap();
+    private static final Map<String, SoftReference<String>> segmentTexts = new HashMap<>();
+
+    private ColdStorage() {}
+
+    /** First month kept in the hot tables. */
+    static YearMonth firstHotMonth() {
+        return YearMonth.now().minusMonths(HOT_MONTHS);
+    }
+
+    /** Changes whenever segments are added or thawed, so callers can drop what they derived from them. */
+    static synchronized int version() {
+        refresh();
+        return version;
+    }
+
+    static synchronized NavigableSet<YearMonth> archivedPlanMonths() {
+        refresh();
+        NavigableSet<YearMonth> out = new TreeSet<>();
+        for (Segment s : segments) if (s.table.equals(PLANS)) out.add(s.month);
+        return out;
+    }
+
+    static synchronized boolean isArchived(YearMonth month) {
+        return planSegment(month) != null;
+    }
+
+    /** The archived meal_plans.txt lines of {@code month}; "" when it is not archived. */
+    static synchronized String planText(YearMonth month) {
+        Segment s = planSegment(month);
+        return s != null ? text(s) : "";
+    }
+
+    /**
+     * Archived batches needed to price or label {@code month}: those made that month plus those its
+     * archived meals draw on.
+     */
+    static synchronized List<CustomCalendarPanel.InventoryEntry> batchesFor(YearMonth month) {
+        refresh();
+        Set<YearMonth> months = new TreeSet<>();
+        months.add(month);
+        Segment plan = planSegment(month);
+        if (plan != null) months.addAll(plan.batchMonths);
+        List<CustomCalendarPanel.InventoryEntry> out = new ArrayList<>();
+        for (Segment s : segments) {
+            if (!s.table.equals(INVENTORY) || !months.contains(s.month)) continue;
+            String t = text(s);
+            if (t.isEmpty()) continue;
+            JSONArray arr = new JSONArray(t);
+            for (int i = 0; i < arr.length(); i++) out.add(CustomCalendarPanel.InventoryEntry.fromJson(arr.getJSONObject(i)));
+        }
+        return out;
+    }
+
+    /** Meals per batch id in all archived plan segments, from the index alone. */
+    static synchronized Map<String, Integer> archivedAssignments() {
+        refresh();
+        return assignments;
+    }
+
+    //==================================================================================================================
+    // Archiving and thawing
+    //==================================================================================================================
+
+    /**
+     * Moves plan days before {@link #firstHotMonth()} and the batches only they used into segments.
+     * Segments are written first; the hot tables and the index then change in one transaction, so an
+     * interruption leaves at most an unlisted segment file behind.
+     */
+    static void archiveOldMonths() {
+        LocalDate hotFrom = firstHotMonth().atDay(1);
+        synchronized (LocalStore.class) {
+            synchronized (ColdStorage.class) {
+                try {
+                    refresh();
+                    String plansText = FileCache.read(FileCache.MEAL_PLAN_FILE);
+                    Map<YearMonth, List<String>> oldDays = new TreeMap<>();
+                    Map<YearMonth, Set<LocalDate>> oldDates = new HashMap<>();
+                    StringBuilder hotPlans = new StringBuilder();
+                    Set<String> hotBatchIds = new HashSet<>();
+                    if (plansText != null) {
+                        for (String line : plansText.split("\\R")) {
+                            if (line.trim().isEmpty()) continue;
+                            Repository.PlanSlot slot = Repository.parseSlot(line);
+                            if (slot != null && slot.date.isBefore(hotFrom)) {
+                                YearMonth m = YearMonth.from(slot.date);
+                                oldDays.computeIfAbsent(m, k -> new ArrayList<>()).add(line.trim());
+                                oldDates.computeIfAbsent(m, k -> new HashSet<>()).add(slot.date);
+                                continue;
+                            }
+                            if (slot != null && slot.inventoryId != null) hotBatchIds.add(slot.inventoryId);
+                            hotPlans.append(line).append('\n');
+                        }
+                    }
+
+                    String invText = FileCache.read(FileCache.INVENTORY_FILE);
+                    JSONArray hotInventory = new JSONArray();
+                    Map<YearMonth, JSONArray> oldBatches = new TreeMap<>();
+                    Map<String, YearMonth> archivedBatchMonth = new HashMap<>();
+                    if (invText != null && !invText.trim().isEmpty()) {
+                        JSONArray arr = new JSONArray(invText);
+                        for (int i = 0; i < arr.length(); i++) {
+                            JSONObject o = arr.getJSONObject(i);
+                            CustomCalendarPanel.InventoryEntry e = CustomCalendarPanel.InventoryEntry.fromJson(o);
+                            boolean done = e.dateMade.plusDays(Math.max(0, e.edibleDays)).isBefore(hotFrom) && !hotBatchIds.contains(e.id);
+                            if (!done) {
+                                hotInventory.put(o);
+                                continue;
+                            }
+                            YearMonth m = YearMonth.from(e.dateMade);
+                            oldBatches.computeIfAbsent(m, k -> new JSONArray()).put(o);
+                            archivedBatchMonth.put(e.id, m);
+                        }
+                    }
+                    if (oldDays.isEmpty() && oldBatches.isEmpty()) return;
+
+                    new File(ARCHIVE_DIR).mkdirs();
+                    String stamp = Long.toString(System.currentTimeMillis(), 36);
+                    List<Segment> next = new ArrayList<>(segments);
+                    List<Segment> replaced = new ArrayList<>();
+                    int days = 0;
+                    Map<String, YearMonth> earlierBatchMonth = null;
+                    for (Map.Entry<YearMonth, List<String>> e : oldDays.entrySet()) {
+                        List<String> lines = e.getValue();
+                        // the month was archived before and edited since: keep its untouched days
+                        Segment previous = planSegment(e.getKey());
+                        if (previous != null) {
+                            for (String line : text(previous).split("\\R")) {
+                                Repository.PlanSlot slot = Repository.parseSlot(line);
+                                if (slot != null && !oldDates.get(e.getKey()).contains(slot.date)) lines.add(line.trim());
+                            }
+                            next.remove(previous);
+                            replaced.add(previous);
+                        }
+                        Collections.sort(lines);
+                        Segment s = writeSegment(PLANS, e.getKey(), stamp, String.join("\n", lines) + "\n", lines.size());
+                        // batches archived with the earlier segment are not in inventory.json to be found again
+                        if (previous != null) s.batchMonths.addAll(previous.batchMonths);
+                        for (String line : lines) {
+                            Repository.PlanSlot slot = Repository.parseSlot(line);
+                            if (slot == null || slot.inventoryId == null) continue;
+                            s.assignments.merge(slot.inventoryId, 1, Integer::sum);
+                            YearMonth bm = archivedBatchMonth.get(slot.inventoryId);
+                            if (bm == null && !hotBatchIds.contains(slot.inventoryId)) {
+                                if (earlierBatchMonth == null) earlierBatchMonth = archivedBatchMonths();
+                                bm = earlierBatchMonth.get(slot.inventoryId);
+                            }
+                            if (bm != null) s.batchMonths.add(bm);
+                        }
+                        next.add(s);
+                        days += oldDates.get(e.getKey()).size();
+                    }
+                    int batches = 0;
+                    for (Map.Entry<YearMonth, JSONArray> e : oldBatches.entrySet()) {
+                        next.add(writeSegment(INVENTORY, e.getKey(), stamp, e.getValue().toString(2), e.getValue().length()));
+                        batches += e.getValue().length();
+                    }
+
+                    LocalStore.begin()
+                            .put(FileCache.MEAL_PLAN_FILE, hotPlans.toString())
+                            .put(FileCache.INVENTORY_FILE, hotInventory.toString(2))
+                            .put(INDEX_FILE, indexJson(next))
+                            .commit();
+                    for (Segment s : replaced) Files.deleteIfExists(new File(ARCHIVE_DIR, s.file).toPath());
+                    System.out.println("ColdStorage: archived " + days + " day(s) and " + batches + " batch(es) from before " + hotFrom);
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Puts an archived month's days back into meal_plans.txt so they can be edited, and the batch
+     * segments of that month and of the months its meals draw on back into inventory.json. Returns the
+     * batches it moved back (empty if the month is not archived), for callers holding inventory.json
+     * in memory that are about to write it.
+     */
+    static JSONArray thaw(YearMonth month) throws IOException {
+        synchronized (LocalStore.class) {
+            synchronized (ColdStorage.class) {
+                Segment s = planSegment(month);
+                JSONArray thawed = new JSONArray();
+                if (s == null) return thawed;
+                String hot = FileCache.read(FileCache.MEAL_PLAN_FILE);
+                StringBuilder sb = new StringBuilder(hot != null ? hot : "");
+                if (sb.length() > 0 && sb.charAt(sb.length() - 1) != '\n') sb.append('\n');
+                Set<LocalDate> hotDates = new HashSet<>();
+                if (hot != null) {
+                    for (String line : hot.split("\\R")) {
+                        Repository.PlanSlot slot = Repository.parseSlot(line);
+                        if (slot != null) hotDates.add(slot.date);
+                    }
+                }
+                for (String line : text(s).split("\\R")) {
+                    Repository.PlanSlot slot = Repository.parseSlot(line);
+                    if (slot != null && !hotDates.contains(slot.date)) sb.append(line.trim()).append('\n');
+                }
+                List<Segment> next = new ArrayList<>(segments);
+                next.remove(s);
+
+                Set<YearMonth> batchMonths = new TreeSet<>(s.batchMonths);
+                batchMonths.add(month);
+                List<Segment> batchSegments = new ArrayList<>();
+                for (Segment b : segments) if (b.table.equals(INVENTORY) && batchMonths.contains(b.month)) batchSegments.add(b);
+                String invText = null;
+                if (!batchSegments.isEmpty()) {
+                    String hotInv = FileCache.read(FileCache.INVENTORY_FILE);
+                    JSONArray inventory = hotInv != null && !hotInv.trim().isEmpty() ? new JSONArray(hotInv) : new JSONArray();
+                    Set<String> ids = new HashSet<>();
+                    for (int i = 0; i < inventory.length(); i++) ids.add(inventory.getJSONObject(i).optString("id"));
+                    for (Segment b : batchSegments) {
+                        String t = text(b);
+                        if (t.isEmpty()) continue;   // damaged: stays listed rather than losing its batches
+                        JSONArray arr = new JSONArray(t);
+                        for (int i = 0; i < arr.length(); i++) {
+                            JSONObject o = arr.getJSONObject(i);
+                            if (!ids.add(o.optString("id"))) continue;
+                            inventory.put(o);
+                            thawed.put(o);
+                        }
+                        next.remove(b);
+                    }
+                    invText = inventory.toString(2);
+                }
+
+                LocalStore.Transaction tx = LocalStore.begin()
+                        .put(FileCache.MEAL_PLAN_FILE, sb.toString())
+                        .put(INDEX_FILE, indexJson(next));
+                if (invText != null) tx.put(FileCache.INVENTORY_FILE, invText);
+                tx.commit();
+                Files.deleteIfExists(new File(ARCHIVE_DIR, s.file).toPath());
+                for (Segment b : batchSegments) {
+                    if (!next.contains(b)) Files.deleteIfExists(new File(ARCHIVE_DIR, b.file).toPath());
+                }
+                System.out.println("ColdStorage: thawed " + month + " and " + thawed.length() + " batch(es)");
+                return thawed;
+            }
+        }
+    }
+
+    /**
+     * Migration: writes every archived plan segment through {@code relink} into a new segment file and
+     * stages the index listing the new files. Returns the files it replaced, to delete once {@code tx}
+     * commits. A segment that fails its checksum is left as it is.
+     */
+    static List<String> stageRelinkedPlans(LocalStore.Transaction tx, UnaryOperator<String> relink) throws IOException {
+        synchronized (ColdStorage.class) {
+            refresh();
+            String stamp = Long.toString(System.currentTimeMillis(), 36);
+            List<Segment> next = new ArrayList<>();
+            List<String> replaced = new ArrayList<>();
+            for (Segment s : segments) {
+                String text = s.table.equals(PLANS) ? text(s) : "";
+                if (text.isEmpty()) {
+                    next.add(s);
+                    continue;
+                }
+                Segment relinked = writeSegment(PLANS, s.month, stamp, relink.apply(text), s.records);
+                relinked.assignments.putAll(s.assignments);
+                relinked.batchMonths.addAll(s.batchMonths);
+                next.add(relinked);
+                replaced.add(s.file);
+            }
+            if (!replaced.isEmpty()) tx.put(INDEX_FILE, indexJson(next));
+            return replaced;
+        }
+    }
+
+    // Batch id -> month of the segment holding it, for batches archived by earlier runs. Reads every
+    // inventory segment, so it is only built when a re-archived month uses a batch not in inventory.json.
+    private static Map<String, YearMonth> archivedBatchMonths() {
+        Map<String, YearMonth> months = new HashMap<>();
+        for (Segment b : segments) {
+            if (!b.table.equals(INVENTORY)) continue;
+            String t = text(b);
+            if (t.isEmpty()) continue;
+            JSONArray arr = new JSONArray(t);
+            for (int i = 0; i < arr.length(); i++) months.putIfAbsent(arr.getJSONObject(i).optString("id"), b.month);
+        }
+        return months;
+    }
+
+    //==================================================================================================================
+    // Index and segment files
+    //==================================================================================================================
+
+    private static Segment planSegment(YearMonth month) {
+        refresh();
+        for (Segment s : segments) if (s.table.equals(PLANS) && s.month.equals(month)) return s;
+        return null;
+    }
+
+    private static void refresh() {
+        String text;
+        try {
+            text = FileCache.read(INDEX_FILE);
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            return;
+        }
+        if (text == indexText && version > 0) return;
+        indexText = text;
+        version++;
+        List<Segment> list = new ArrayList<>();
+        Map<String, Integer> counts = new HashMap<>();
+        if (text != null && !text.trim().isEmpty()) {
+            try {
+                JSONArray arr = new JSONObject(text).optJSONArray("segments");
+                for (int i = 0; arr != null && i < arr.length(); i++) list.add(Segment.fromJson(arr.getJSONObject(i)));
+            } catch (Exception ex) {
+                ex.printStackTrace();
+            }
+        }
+        for (Segment s : list) for (Map.Entry<String, Integer> a : s.assignments.entrySet()) counts.merge(a.getKey(), a.getValue(), Integer::sum);
+        segments = Collections.unmodifiableList(list);
+        assignments = Collections.unmodifiableMap(counts);
+    }
+
+    private static String indexJson(List<Segment> list) {
+        JSONArray arr = new JSONArray();
+        for (Segment s : list) arr.put(s.toJson());
+        return new JSONObject().put("segments", arr).toString(2);
+    }
+
+    private static Segment writeSegment(String table, YearMonth month, String stamp, String text, int records) throws IOException {
+        String file = table + "-" + month + "-" + stamp + (table.equals(PLANS) ? ".txt.gz" : ".json.gz");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream gz = new GZIPOutputStream(bytes)) {
+            gz.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+        LocalStore.replaceSynced(new File(ARCHIVE_DIR, file).getPath(), bytes.toByteArray());
+        segmentTexts.put(file, new SoftReference<>(text));
+        return new Segment(table, month, file, records, LocalStore.checksum(text));
+    }
+
+    // Decompressed segment, checked against the index; "" if it is missing or damaged.
+    private static String text(Segment s) {
+        SoftReference<String> ref = segmentTexts.get(s.file);
+        String cached = ref != null ? ref.get() : null;
+        if (cached != null) return cached;
+        File f = new File(ARCHIVE_DIR, s.file);
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(Files.readAllBytes(f.toPath())))) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            for (int n; (n = in.read(buf)) > 0; ) out.write(buf, 0, n);
+            String text = new String(out.toByteArray(), StandardCharsets.UTF_8);
+            if (!LocalStore.checksum(text).equals(s.checksum)) {
+                System.err.println("ColdStorage: " + s.file + " does not match its checksum; skipping it");
+                return "";
+            }
+            segmentTexts.put(s.file, new SoftReference<>(text));
+            return text;
+        } catch (IOException ex) {
+            System.err.println("ColdStorage: cannot read " + s.file + ": " + ex.getMessage());
+            return "";
+        }
+    }
+}
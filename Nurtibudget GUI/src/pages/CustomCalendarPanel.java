@@ -27,8 +27,8 @@ public class CustomCalendarPanel extends JPanel {
     private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd");
     private static final DateTimeFormatter DISPLAY_BATCH_DATE = DateTimeFormatter.ofPattern("MM/dd");
     private static final DateTimeFormatter HEADER_WEEK_FORMAT = DateTimeFormatter.ofPattern("MMM d, yyyy", Locale.getDefault());
-    private static final String MEAL_PLAN_FILE = "src/pages/text/meal_plans.txt";
-    private static final String INVENTORY_FILE = "src/pages/text/inventory.json";
+    private static final String MEAL_PLAN_FILE = FileCache.MEAL_PLAN_FILE;
+    private static final String INVENTORY_FILE = FileCache.INVENTORY_FILE;
     private static final Color COLOR_TODAY = new Color(173, 216, 230);
     private static final Color COLOR_HAS_MEALS = new Color(140, 248, 140);
     private static final Color COLOR_EXPIRE_BADGE = new Color(245, 181, 52);
@@ -43,21 +43,38 @@ public class CustomCalendarPanel extends JPanel {
     private JButton navPrevButton;
     private JButton navNextButton;
     private JButton viewToggleButton;
+    private Runnable shoppingListRefresher = null;
+    private final Map<LocalDate, JButton> dayButtons = new HashMap<>();   // month view cells by date
+
+    // archived months (see ColdStorage) read into mealPlans so far, and the batches they use
+    private final Set<YearMonth> loadedArchive = new HashSet<>();
+    private final List<InventoryEntry> archivedBatches = new ArrayList<>();
+
+    // weeks (by Sunday) whose MealTemplates meals are in mealPlans, and those meals as expanded
+    private final Set<LocalDate> expandedWeeks = new HashSet<>();
+    private final Map<LocalDate, Map<String, List<MealTemplates.Slot>>> templateDays = new HashMap<>();
+    private int templatesVersion = -1;
 
     //==============================================================================================================
     // DTOs
     //==============================================================================================================
-    private static class PlannedMeal {
+    static class PlannedMeal {
         Page4.Recipe recipe;
         String inventoryId;
+        String templateId;   // set when expanded from a MealTemplates rule; never written to meal_plans.txt
 
         PlannedMeal(Page4.Recipe recipe, String inventoryId) {
+            this(recipe, inventoryId, null);
+        }
+
+        PlannedMeal(Page4.Recipe recipe, String inventoryId, String templateId) {
             this.recipe = recipe;
             this.inventoryId = inventoryId;
+            this.templateId = templateId;
         }
     }
 
-    private static class InventoryEntry {
+    static class InventoryEntry {
         String id;
         String name;
         LocalDate dateMade;
@@ -101,7 +118,7 @@ public class CustomCalendarPanel extends JPanel {
     public CustomCalendarPanel() {
         setLayout(new BorderLayout());
         currentDate = LocalDate.now();
-        currentWeekStart = currentDate.with(DayOfWeek.SUNDAY);
+        currentWeekStart = BudgetEngine.weekStart(currentDate);
         JPanel headerPanel = new JPanel(new BorderLayout());
         JPanel navPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
         navPrevButton = new JButton("<");
@@ -150,17 +167,9 @@ public class CustomCalendarPanel extends JPanel {
         });
 
         inventoryButton.addActionListener(e -> {
+            // its changes arrive as InventoryBatchChanged / PlanSlotChanged events
             Frame frame = (Frame) SwingUtilities.getWindowAncestor(this);
-            InventoryDialog dlg = new InventoryDialog(frame, () -> {
-                buildBatchLabels();
-                loadAllMealPlans();
-                if (isWeeklyView) openWeeklyPanel(currentWeekStart);
-                else refreshCalendar();
-            });
-            dlg.setVisible(true);
-            buildBatchLabels();
-            loadAllMealPlans();
-            refreshCalendar();
+            new InventoryDialog(frame).setVisible(true);
         });
 
         navPanel.add(navPrevButton);
@@ -170,6 +179,8 @@ public class CustomCalendarPanel extends JPanel {
         navPanel.add(viewToggleButton);
         navPanel.add(inventoryButton);
         navPanel.add(showBatchesToggle);
+        navPanel.add(EditHistory.button(false));
+        navPanel.add(EditHistory.button(true));
 
         JPanel legendPanel = buildLegendPanel();
         headerPanel.add(navPanel, BorderLayout.CENTER);
@@ -177,11 +188,23 @@ public class CustomCalendarPanel extends JPanel {
         add(headerPanel, BorderLayout.NORTH);
 
         calendarPanel = new JPanel(new BorderLayout());
+        calendarPanel.add(new JLabel("Loading meal plans...", SwingConstants.CENTER), BorderLayout.CENTER);
         add(calendarPanel, BorderLayout.CENTER);
 
-        buildBatchLabels();
-        loadAllMealPlans();
-        refreshCalendar();
+        // the grid is built once the startup loader has parsed the meal plans; until then nothing can edit them
+        JComponent[] untilLoaded = { navPrevButton, navNextButton, viewToggleButton, showBatchesToggle };
+        for (JComponent c : untilLoaded) c.setEnabled(false);
+        StartupLoader.onReady(StartupLoader.get().mealPlans(), plans -> {
+            buildBatchLabels();
+            loadAllMealPlans(plans);
+            refreshCalendar();
+            for (JComponent c : untilLoaded) c.setEnabled(true);
+
+            DataEvents.subscribe(DataEvents.PlanSlotChanged.class, this::onPlanSlotChanged);
+            DataEvents.subscribe(DataEvents.RecipeChanged.class, this::onRecipeChanged);
+            DataEvents.subscribe(DataEvents.InventoryBatchChanged.class, this::onInventoryBatchChanged);
+            DataEvents.subscribe(DataEvents.RecordsChanged.class, this::onTemplatesChanged);
+        });
     }
 
     //==============================================================================================================
@@ -256,87 +279,99 @@ public class CustomCalendarPanel extends JPanel {
         monthYearLabel.setText(yearMonth.getMonth().getDisplayName(TextStyle.FULL, Locale.getDefault()) + " " + yearMonth.getYear());
 
         LocalDate firstDay = yearMonth.atDay(1);
+        if (loadArchived(firstDay, yearMonth.atEndOfMonth())) buildBatchLabels();
+        expandTemplates(firstDay, yearMonth.atEndOfMonth());
         int startDay = firstDay.getDayOfWeek().getValue() % 7;
         int daysInMonth = yearMonth.lengthOfMonth();
 
         for (int i = 0; i < startDay; i++) daysGrid.add(new JLabel(""));
 
+        dayButtons.clear();
         for (int day = 1; day <= daysInMonth; day++) {
             LocalDate date = yearMonth.atDay(day);
             JButton dayButton = new JButton(String.valueOf(day));
             dayButton.setFocusPainted(false);
             dayButton.setOpaque(true);
-
+            renderDayCell(dayButton, date);
             String dateStr = DATE_FORMAT.format(date);
-            boolean hasMealPlan = mealPlans.containsKey(dateStr)
-                    && mealPlans.get(dateStr).values().stream().anyMatch(l -> !l.isEmpty());
-
-            StringBuilder tooltip = new StringBuilder("<html><b>").append(dateStr).append("</b><br/>");
-
-            if (hasMealPlan) {
-                Map<String, List<PlannedMeal>> dayMap = mealPlans.get(dateStr);
-                int totalMeals = 0;
-                for (Map.Entry<String, List<PlannedMeal>> entry : dayMap.entrySet()) {
-                    String mealType = entry.getKey();
-                    List<PlannedMeal> list = entry.getValue();
-                    if (list.isEmpty()) continue;
-                    tooltip.append("<u>").append(mealType).append("</u><br/>");
-                    for (PlannedMeal pm : list) {
-                        totalMeals++;
-                        Page4.Recipe r = pm.recipe;
+            dayButton.addActionListener(e -> openDaySidebar(dateStr, dayButton));
+            dayButtons.put(date, dayButton);
+            daysGrid.add(dayButton);
+        }
 
-                        LocalDate batchDate = null;
-                        int edibleDays = getEdibleDaysOrDefault(r);
-                        if (pm.inventoryId != null) {
-                            InventoryEntry ie = findInventoryById(pm.inventoryId);
-                            if (ie != null) {
-                                batchDate = ie.dateMade;
-                                edibleDays = ie.edibleDays;
-                            }
+        calendarPanel.add(daysHeader, BorderLayout.NORTH);
+        calendarPanel.add(daysGrid, BorderLayout.CENTER);
+        calendarPanel.revalidate();
+        calendarPanel.repaint();
+    }
+
+    // Tooltip and colour of one month-view cell; called again when only that day needs redrawing.
+    private void renderDayCell(JButton dayButton, LocalDate date) {
+        String dateStr = DATE_FORMAT.format(date);
+        boolean hasMealPlan = mealPlans.containsKey(dateStr)
+                && mealPlans.get(dateStr).values().stream().anyMatch(l -> !l.isEmpty());
+
+        StringBuilder tooltip = new StringBuilder("<html><b>").append(dateStr).append("</b><br/>");
+
+        if (hasMealPlan) {
+            Map<String, List<PlannedMeal>> dayMap = mealPlans.get(dateStr);
+            int totalMeals = 0;
+            List<Page4.Recipe> eaten = new ArrayList<>();
+            for (Map.Entry<String, List<PlannedMeal>> entry : dayMap.entrySet()) {
+                String mealType = entry.getKey();
+                List<PlannedMeal> list = entry.getValue();
+                if (list.isEmpty()) continue;
+                tooltip.append("<u>").append(mealType).append("</u><br/>");
+                for (PlannedMeal pm : list) {
+                    totalMeals++;
+                    Page4.Recipe r = pm.recipe;
+                    eaten.add(r);
+
+                    LocalDate batchDate = null;
+                    int edibleDays = getEdibleDaysOrDefault(r);
+                    if (pm.inventoryId != null) {
+                        InventoryEntry ie = findInventoryById(pm.inventoryId);
+                        if (ie != null) {
+                            batchDate = ie.dateMade;
+                            edibleDays = ie.edibleDays;
                         }
-                        LocalDate cooked = batchDate != null ? batchDate : findEarliestAssignmentDateForRecipe(r.recipe_name).orElse(date);
-                        LocalDate expiry = cooked.plusDays(Math.max(0, edibleDays));
+                    }
+                    LocalDate cooked = batchDate != null ? batchDate : findEarliestAssignmentDateForRecipe(r.recipe_name).orElse(date);
+                    LocalDate expiry = cooked.plusDays(Math.max(0, edibleDays));
 
-                        int totalPortions = getTotalPortionsOrDefault(r);
-                        int assignedUpToDate = countAssignmentsOfRecipeUpToDate(r.recipe_name, date);
-                        int assignedUpToWeekEnd = countAssignmentsOfRecipeUpToDate(r.recipe_name, date.with(DayOfWeek.SUNDAY).plusDays(6));
-                        int remainingNow = Math.max(0, totalPortions - assignedUpToDate);
-                        int remainingWeekEnd = Math.max(0, totalPortions - assignedUpToWeekEnd);
+                    int totalPortions = getTotalPortionsOrDefault(r);
+                    int assignedUpToDate = countAssignmentsOfRecipeUpToDate(r.recipe_name, date);
+                    int assignedUpToWeekEnd = countAssignmentsOfRecipeUpToDate(r.recipe_name, BudgetEngine.weekStart(date).plusDays(6));
+                    int remainingNow = Math.max(0, totalPortions - assignedUpToDate);
+                    int remainingWeekEnd = Math.max(0, totalPortions - assignedUpToWeekEnd);
 
-                        double pricePerPortion = getPriceForPlannedMeal(pm);
-                        double moneyWastedWeek = remainingWeekEnd * pricePerPortion;
-                        long daysUntilExpiry = ChronoUnit.DAYS.between(date, expiry);
+                    double pricePerPortion = getPriceForPlannedMeal(pm);
+                    double moneyWastedWeek = remainingWeekEnd * pricePerPortion;
+                    long daysUntilExpiry = ChronoUnit.DAYS.between(date, expiry);
 
-                        String batchLabel = batchLabelOrShort(pm.inventoryId);
-                        tooltip.append(String.format("%s %s — now:%d, wkend:%d, expires in:%d d, $wk: $%.2f<br/>",
-                                escapeHtml(r.recipe_name),
-                                (showBatchLabels && batchLabel != null ? "(" + batchLabel + ")" : ""),
-                                remainingNow, remainingWeekEnd, Math.max(0, (int) daysUntilExpiry), moneyWastedWeek));
-                    }
+                    String batchLabel = batchLabelOrShort(pm.inventoryId);
+                    tooltip.append(String.format("%s %s — now:%d, wkend:%d, expires in:%d d, $wk: $%.2f<br/>",
+                            escapeHtml(r.recipe_name),
+                            (showBatchLabels && batchLabel != null ? "(" + batchLabel + ")" : ""),
+                            remainingNow, remainingWeekEnd, Math.max(0, (int) daysUntilExpiry), moneyWastedWeek));
                 }
-                tooltip.append(String.format("<br/>Total planned items: %d<br/>", totalMeals));
-            } else {
-                tooltip.append("No meals planned.<br/>");
             }
-            tooltip.append("</html>");
-            dayButton.setToolTipText(tooltip.toString());
-
-            if (date.equals(LocalDate.now())) {
-                dayButton.setBackground(COLOR_TODAY);
-            } else if (hasMealPlan) {
-                dayButton.setBackground(COLOR_HAS_MEALS);
-            } else {
-                dayButton.setBackground(Color.WHITE);
-            }
-
-            dayButton.addActionListener(e -> openDaySidebar(dateStr, dayButton));
-            daysGrid.add(dayButton);
+            tooltip.append(String.format("<br/>Total planned items: %d<br/>", totalMeals));
+            NutrientTotals dayTotals = NutrientAggregator.dayTotals(eaten);
+            tooltip.append(String.format("Nutrition: %.0f kcal, %s<br/>", dayTotals.calories(), dayTotals.macroSummary()));
+        } else {
+            tooltip.append("No meals planned.<br/>");
         }
+        tooltip.append("</html>");
+        dayButton.setToolTipText(tooltip.toString());
 
-        calendarPanel.add(daysHeader, BorderLayout.NORTH);
-        calendarPanel.add(daysGrid, BorderLayout.CENTER);
-        calendarPanel.revalidate();
-        calendarPanel.repaint();
+        if (date.equals(LocalDate.now())) {
+            dayButton.setBackground(COLOR_TODAY);
+        } else if (hasMealPlan) {
+            dayButton.setBackground(COLOR_HAS_MEALS);
+        } else {
+            dayButton.setBackground(Color.WHITE);
+        }
     }
 
     //==============================================================================================================
@@ -422,7 +457,7 @@ public class CustomCalendarPanel extends JPanel {
                     contentPanel.remove(card);
                     contentPanel.revalidate();
                     contentPanel.repaint();
-                    refreshCalendar();
+                    invalidateDays(Collections.singleton(date), Collections.singleton(pm.recipe.recipe_name));
                 });
                 card.add(removeBtn, BorderLayout.EAST);
 
@@ -529,7 +564,7 @@ public class CustomCalendarPanel extends JPanel {
                     saveMealPlan(dateStr, chosenMealType, selected);
                     dialog.dispose();
                     openDaySidebar(dateStr, dayButton);
-                    refreshCalendar();
+                    invalidateDays(Collections.singleton(LocalDate.parse(dateStr, DATE_FORMAT)), Collections.singleton(recipe.recipe_name));
                 });
                 right.add(addBtn);
 
@@ -568,9 +603,10 @@ public class CustomCalendarPanel extends JPanel {
     //==============================================================================================================
     private void openWeeklyPanel(LocalDate weekStart) {
         isWeeklyView = true;
-        currentWeekStart = weekStart.with(DayOfWeek.SUNDAY);
+        currentWeekStart = BudgetEngine.weekStart(weekStart);
+        loadArchived(currentWeekStart, currentWeekStart.plusDays(6));
+        expandTemplates(currentWeekStart, currentWeekStart.plusDays(6));
         buildBatchLabels();
-        loadAllMealPlans();
         viewToggleButton.setText("Month View");
         calendarPanel.removeAll();
 
@@ -583,6 +619,8 @@ public class CustomCalendarPanel extends JPanel {
         JLabel weekLabel = new JLabel("Week of " + currentWeekStart.format(HEADER_WEEK_FORMAT));
         weekLabel.setFont(new Font("SansSerif", Font.BOLD, 14));
         JButton copyWeekBtn = new JButton("Copy Week");
+        JButton shoppingListBtn = new JButton("Shopping List");
+        shoppingListBtn.addActionListener(e -> openShoppingListDialog(currentWeekStart, currentWeekStart.plusDays(6)));
 
         // Refresh-week button
         JButton refreshWeekBtn = new JButton("Refresh Week");
@@ -607,6 +645,8 @@ public class CustomCalendarPanel extends JPanel {
         weekNav.add(copyWeekBtn);
         weekNav.add(Box.createHorizontalStrut(6));
         weekNav.add(refreshWeekBtn); // add it to the header
+        weekNav.add(Box.createHorizontalStrut(6));
+        weekNav.add(shoppingListBtn);
         weeklyHeader.add(weekNav, BorderLayout.WEST);
 
         JPanel right = new JPanel(new FlowLayout(FlowLayout.RIGHT));
@@ -657,8 +697,9 @@ public class CustomCalendarPanel extends JPanel {
                         String batchLabel = batchLabelOrShort(pm.inventoryId);
                         double price = getPriceForPlannedMeal(pm);
 
-                        String infoHtml = String.format("<html><div style='width:170px'>%s <br/><i>%s</i> - $%.2f/serv</div></html>",
+                        String infoHtml = String.format("<html><div style='width:170px'>%s%s <br/><i>%s</i> - $%.2f/serv</div></html>",
                                 escapeHtml(r.recipe_name),
+                                (pm.templateId != null ? " <small>(repeats)</small>" : ""),
                                 (showBatchLabels && batchLabel != null ? batchLabel : ""),
                                 price);
                         JLabel l = new JLabel(infoHtml);
@@ -711,6 +752,20 @@ public class CustomCalendarPanel extends JPanel {
         sidebar.add(makeBigStatLabel("Leftover portions (wk end)", String.valueOf(totalPotentialWastePortions)));
         sidebar.add(Box.createVerticalStrut(6));
         sidebar.add(makeBigStatLabel("Potential money lost", String.format("$%.2f", totalPotentialWasteDollars)));
+        sidebar.add(Box.createVerticalStrut(6));
+
+        List<NutrientTotals> days = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            List<Page4.Recipe> eaten = new ArrayList<>();
+            for (List<PlannedMeal> list : mealPlans.getOrDefault(DATE_FORMAT.format(currentWeekStart.plusDays(i)), Collections.emptyMap()).values()) {
+                for (PlannedMeal pm : list) eaten.add(pm.recipe);
+            }
+            days.add(NutrientAggregator.dayTotals(eaten));
+        }
+        NutrientTotals week = NutrientAggregator.weekTotals(days);
+        sidebar.add(makeBigStatLabel("Planned calories (wk)", String.format("%.0f kcal (%.0f/day)", week.calories(), week.calories() / 7.0)));
+        sidebar.add(Box.createVerticalStrut(6));
+        sidebar.add(makeBigStatLabel("Planned macros (wk)", String.format("P %.0f g | C %.0f g | F %.0f g", week.protein(), week.carbs(), week.fat())));
         sidebar.add(Box.createVerticalStrut(12));
 
         JButton breakdownBtn = new JButton("View waste breakdown");
@@ -743,67 +798,43 @@ public class CustomCalendarPanel extends JPanel {
     }
 
     //==============================================================================================================
-    // Week validation & repair
+    // Batch allocation (BatchAllocator)
     //==============================================================================================================
     private void performWeekValidationAndRepair(LocalDate weekStart) {
         LocalDate weekEnd = weekStart.plusDays(6);
         try {
-            JSONArray invArr = readInventoryArray();
-
-            List<InventoryEntry> currentInv = new ArrayList<>();
-            for (int i = 0; i < invArr.length(); i++) currentInv.add(InventoryEntry.fromJson(invArr.getJSONObject(i)));
-
-            int remapped = 0;
-            int created = 0;
-
+            loadArchived(weekStart, weekEnd);
+            expandTemplates(weekStart, weekEnd);
+            PlanEdit edit = new PlanEdit("week refresh");
             for (int i = 0; i < 7; i++) {
-                LocalDate d = weekStart.plusDays(i);
-                String dKey = d.format(DATE_FORMAT);
-                Map<String, List<PlannedMeal>> dayMeals = mealPlans.getOrDefault(dKey, Collections.emptyMap());
-                for (Map.Entry<String, List<PlannedMeal>> entry : dayMeals.entrySet()) {
-                    List<PlannedMeal> list = entry.getValue();
-                    for (PlannedMeal pm : list) {
-                        // if inventoryId exists and points to an entry on disk, OK
-                        if (pm.inventoryId != null && findInventoryById(pm.inventoryId) != null) continue;
-                        // otherwise attempt to find a matching batch in currentInv for same recipe and date
-                        String recipeName = pm.recipe != null ? pm.recipe.recipe_name : null;
-                        InventoryEntry candidate = findCandidateBatchForDate(currentInv, recipeName, d);
-                        if (candidate != null) {
-                            pm.inventoryId = candidate.id;
-                            remapped++;
-                            continue;
-                        }
-
-                        InventoryEntry newBatch = createBatchForPlannedMeal(pm, d);
-                        invArr.put(newBatch.toJson());
-                        currentInv.add(newBatch);
-                        pm.inventoryId = newBatch.id;
-                        created++;
-                    }
-                }
+                String dKey = weekStart.plusDays(i).format(DATE_FORMAT);
+                edit.before.put(dKey, copyDay(mealPlans.get(dKey)));
             }
 
+            JSONArray invArr = readInventoryArray();
+            BatchAllocator.Result result = allocateBatches(weekStart, weekEnd, null, invArr);
+            Set<String> createdIds = new HashSet<>();
+            for (InventoryEntry b : result.created) {
+                createdIds.add(b.id);
+                edit.addedBatches.add(b.toJson());
+            }
+            int remapped = 0;
+            for (PlannedMeal pm : result.assigned.keySet()) if (!createdIds.contains(pm.inventoryId)) remapped++;
 
-            writeInventoryArray(invArr);
-
-            // persist meal_plans
-            try (PrintWriter pw = new PrintWriter(new FileWriter(MEAL_PLAN_FILE))) {
-                for (String date : mealPlans.keySet()) {
-                    for (String meal : mealPlans.get(date).keySet()) {
-                        for (PlannedMeal pm : mealPlans.get(date).get(meal)) {
-                            String inv = pm.inventoryId != null ? pm.inventoryId : "";
-                            pw.println(date + "|" + meal + "|" + pm.recipe.recipe_name + "|" + inv);
-                        }
-                    }
+            if (!result.assigned.isEmpty()) {
+                // inventory and meal_plans change together
+                commitInventoryAndPlans(invArr);
+                for (int i = 0; i < 7; i++) {
+                    String dKey = weekStart.plusDays(i).format(DATE_FORMAT);
+                    edit.after.put(dKey, copyDay(mealPlans.get(dKey)));
+                    BudgetEngine.get().updateDay(dKey, mealPlans.getOrDefault(dKey, Collections.emptyMap()));
                 }
+                EditHistory.get().record(edit);
             }
-
-            // refresh UI
-            buildBatchLabels();
-            loadAllMealPlans();
             openWeeklyPanel(weekStart);
 
-            String msg = String.format("Week validation complete. Remapped: %d assignments. Created new batches: %d.", remapped, created);
+            String msg = String.format("Week validation complete. Remapped: %d assignments. Created new batches: %d.", remapped, result.created.size());
+            if (result.unassigned > 0) msg += String.format(" Left without a batch: %d.", result.unassigned);
             JOptionPane.showMessageDialog(this, msg, "Refresh Week", JOptionPane.INFORMATION_MESSAGE);
         } catch (Exception ex) {
             JOptionPane.showMessageDialog(this, "Week refresh failed: " + ex.getMessage(), "Refresh Week", JOptionPane.ERROR_MESSAGE);
@@ -811,29 +842,45 @@ public class CustomCalendarPanel extends JPanel {
         }
     }
 
-    private InventoryEntry findCandidateBatchForDate(List<InventoryEntry> invList, String recipeName, LocalDate date) {
-        if (recipeName == null) return null;
-
-        for (InventoryEntry ie : invList) {
-            if (ie.name.equalsIgnoreCase(recipeName) && ie.dateMade.equals(date)) {
-                int assigned = countAssignmentsOfInventoryInRange(ie.id, date, date);
-                int remaining = ie.totalPortions - ie.portionsUsed - assigned;
-                if (remaining > 0) return ie;
-            }
+    /**
+     * Runs the allocator over the meals planned in [from, to] (only those of {@code recipes} when non-null),
+     * drawing on live and archived batches; portions held by saved meals outside the range count as used.
+     * With {@code invArr}, meals no batch can serve get a new batch, appended to it. Callers expand the
+     * range (loadArchived, expandTemplates) first.
+     */
+    private BatchAllocator.Result allocateBatches(LocalDate from, LocalDate to, Set<String> recipes, JSONArray invArr) {
+        Map<String, Integer> elsewhere = new HashMap<>(Repository.get().assignmentCounts());
+        for (Repository.PlanSlot slot : Repository.get().slotsBetween(from, to)) {
+            if (slot.inventoryId != null) elsewhere.merge(slot.inventoryId, -1, Integer::sum);
         }
-
-        LocalDate weekStart = date.with(DayOfWeek.SUNDAY);
-        LocalDate weekEnd = weekStart.plusDays(6);
-        for (InventoryEntry ie : invList) {
-            if (ie.name.equalsIgnoreCase(recipeName) && !ie.dateMade.isBefore(weekStart) && !ie.dateMade.isAfter(weekEnd)) {
-                int assigned = countAssignmentsOfInventoryInRange(ie.id, weekStart, weekEnd);
-                int remaining = ie.totalPortions - ie.portionsUsed - assigned;
-                if (remaining > 0) return ie;
+        List<InventoryEntry> inventory = new ArrayList<>(loadInventoryEntries());
+        inventory.addAll(archivedBatches);
+        BatchAllocator allocator = new BatchAllocator(inventory, elsewhere);
+        for (LocalDate d = from; !d.isAfter(to); d = d.plusDays(1)) {
+            for (List<MealTemplates.Slot> t : templateDays.getOrDefault(d, Collections.emptyMap()).values()) {
+                for (MealTemplates.Slot slot : t) if (slot.inventoryId != null) elsewhere.merge(slot.inventoryId, -1, Integer::sum);
+            }
+            for (List<PlannedMeal> list : mealPlans.getOrDefault(d.format(DATE_FORMAT), Collections.emptyMap()).values()) {
+                for (PlannedMeal pm : list) {
+                    if (recipes == null || (pm.recipe != null && recipes.contains(BatchAllocator.recipeKey(pm.recipe.recipe_name)))) allocator.add(d, pm);
+                }
             }
         }
-        return null;
+        if (invArr == null) return allocator.run(null);
+        return allocator.run((pm, d) -> {
+            InventoryEntry b = createBatchForPlannedMeal(pm, d);
+            invArr.put(b.toJson());
+            return b;
+        });
     }
 
+    // Days a batch of the recipe stays edible: a change on one day can move meals this far either side.
+    private int shelfLife(String recipeKey) {
+        Page4.Recipe r = Repository.get().recipeByName(recipeKey);
+        int life = r != null ? getEdibleDaysOrDefault(r) : 0;
+        for (InventoryEntry ie : Repository.get().inventoryForRecipe(recipeKey)) life = Math.max(life, ie.edibleDays);
+        return Math.max(0, life);
+    }
 
     private InventoryEntry createBatchForPlannedMeal(PlannedMeal pm, LocalDate targetDate) {
         InventoryEntry newIe = new InventoryEntry();
@@ -901,7 +948,7 @@ public class CustomCalendarPanel extends JPanel {
     }
 
     //==============================================================================================================
-    // Copy week (keeps new batches independent)
+    // Copy week (as a recurring MealTemplates rule, expanded when viewed)
     //==============================================================================================================
     private void openCopyWeekDialog() {
         JPanel p = new JPanel();
@@ -909,7 +956,7 @@ public class CustomCalendarPanel extends JPanel {
         p.setBorder(new EmptyBorder(8,8,8,8));
 
         List<LocalDate> sundays = new ArrayList<>();
-        LocalDate center = currentWeekStart.with(DayOfWeek.SUNDAY);
+        LocalDate center = BudgetEngine.weekStart(currentWeekStart);
         int range = 26;
         for (int i = -range; i <= range; i++) sundays.add(center.plusWeeks(i));
 
@@ -925,8 +972,23 @@ public class CustomCalendarPanel extends JPanel {
         p.add(new JLabel("Source week (select the week's Sunday):"));
         p.add(srcCombo);
         p.add(Box.createVerticalStrut(8));
-        p.add(new JLabel("Destination week (select the week's Sunday):"));
+        p.add(new JLabel("First destination week (select the week's Sunday):"));
         p.add(dstCombo);
+        p.add(Box.createVerticalStrut(8));
+
+        JSpinner timesSpinner = new JSpinner(new SpinnerNumberModel(1, 1, 520, 1));
+        JSpinner everySpinner = new JSpinner(new SpinnerNumberModel(1, 1, 12, 1));
+        JCheckBox foreverBox = new JCheckBox("Keep repeating (no end)");
+        foreverBox.addActionListener(e -> timesSpinner.setEnabled(!foreverBox.isSelected()));
+        JPanel repeat = new JPanel(new FlowLayout(FlowLayout.LEFT, 4, 0));
+        repeat.add(new JLabel("Copy"));
+        repeat.add(timesSpinner);
+        repeat.add(new JLabel("time(s), every"));
+        repeat.add(everySpinner);
+        repeat.add(new JLabel("week(s)"));
+        repeat.setAlignmentX(Component.LEFT_ALIGNMENT);
+        p.add(repeat);
+        p.add(foreverBox);
         p.add(Box.createVerticalStrut(12));
 
         String[] options = {"Merge (append)", "Overwrite (replace)"};
@@ -938,140 +1000,70 @@ public class CustomCalendarPanel extends JPanel {
         if (res != JOptionPane.OK_OPTION) return;
 
         try {
-            int srcIndex = srcCombo.getSelectedIndex();
-            int dstIndex = dstCombo.getSelectedIndex();
-            LocalDate srcSunday = sundays.get(srcIndex);
-            LocalDate dstSunday = sundays.get(dstIndex);
-
-            long deltaDays = ChronoUnit.DAYS.between(srcSunday, dstSunday);
-            String mode = (String) modeBox.getSelectedItem();
-
-            Map<Integer, Map<String, List<PlannedMeal>>> weekData = new HashMap<>();
-            Map<String, List<PlannedMealRef>> origBatchUsage = new HashMap<>();
-            Map<String, List<Integer>> recipeOnlyUsage = new HashMap<>();
-
+            LocalDate srcSunday = sundays.get(srcCombo.getSelectedIndex());
+            LocalDate dstSunday = sundays.get(dstCombo.getSelectedIndex());
+            int every = (Integer) everySpinner.getValue();
+            int times = (Integer) timesSpinner.getValue();
+            LocalDate end = foreverBox.isSelected() ? null : dstSunday.plusWeeks((long) (times - 1) * every).plusDays(6);
+            loadArchived(srcSunday, srcSunday.plusDays(6));
+            expandTemplates(srcSunday, srcSunday.plusDays(6));
+
+            // the pattern is the source week's meals without their batches; batches are assigned per week later
+            Map<Integer, List<MealTemplates.Slot>> pattern = new HashMap<>();
             for (int i = 0; i < 7; i++) {
-                LocalDate sDay = srcSunday.plusDays(i);
-                String sKey = sDay.format(DATE_FORMAT);
-                Map<String, List<PlannedMeal>> dayMeals = mealPlans.getOrDefault(sKey, Collections.emptyMap());
-                if (!dayMeals.isEmpty()) {
-                    Map<String, List<PlannedMeal>> copyDay = new HashMap<>();
-                    for (Map.Entry<String, List<PlannedMeal>> me : dayMeals.entrySet()) {
-                        List<PlannedMeal> listCopy = new ArrayList<>();
-                        for (PlannedMeal pm : me.getValue()) {
-                            listCopy.add(new PlannedMeal(pm.recipe, pm.inventoryId));
-                            if (pm.inventoryId != null && !pm.inventoryId.isEmpty()) {
-                                origBatchUsage.computeIfAbsent(pm.inventoryId, k -> new ArrayList<>()).add(new PlannedMealRef(i, pm.recipe));
-                            } else {
-                                String rname = pm.recipe != null ? pm.recipe.recipe_name : "__unknown__";
-                                recipeOnlyUsage.computeIfAbsent(rname, k -> new ArrayList<>()).add(i);
-                            }
-                        }
-                        copyDay.put(me.getKey(), listCopy);
+                String sKey = srcSunday.plusDays(i).format(DATE_FORMAT);
+                for (Map.Entry<String, List<PlannedMeal>> me : mealPlans.getOrDefault(sKey, Collections.emptyMap()).entrySet()) {
+                    for (PlannedMeal pm : me.getValue()) {
+                        pattern.computeIfAbsent(i, k -> new ArrayList<>()).add(MealTemplates.Slot.of(me.getKey(), new PlannedMeal(pm.recipe, null)));
                     }
-                    weekData.put(i, copyDay);
                 }
             }
-
-            if ("Overwrite (replace)".equals(mode)) {
-                for (int i = 0; i < 7; i++) {
-                    LocalDate d = dstSunday.plusDays(i);
-                    String dKey = d.format(DATE_FORMAT);
-                    mealPlans.remove(dKey);
-                }
+            if (pattern.isEmpty()) {
+                JOptionPane.showMessageDialog(this, "The source week has no meals to copy.", "Copy Week", JOptionPane.INFORMATION_MESSAGE);
+                return;
             }
 
-            JSONArray invArr = readInventoryArray();
-            Map<String, String> origToNewBatchId = new HashMap<>();
-            Map<String, String> recipeToNewBatchId = new HashMap<>();
-
-            for (Map.Entry<String, List<PlannedMealRef>> e : origBatchUsage.entrySet()) {
-                String origId = e.getKey();
-                InventoryEntry orig = findInventoryById(origId);
-                InventoryEntry newBatch;
-                if (orig != null) {
-                    newBatch = new InventoryEntry();
-                    newBatch.id = UUID.randomUUID().toString();
-                    newBatch.name = orig.name;
-                    newBatch.dateMade = orig.dateMade.plusDays(deltaDays);
-                    newBatch.edibleDays = orig.edibleDays;
-                    newBatch.totalPortions = orig.totalPortions;
-                    newBatch.portionsUsed = 0;
-                    newBatch.pricePerPortion = orig.pricePerPortion;
-                    newBatch.notes = "Auto-created when copying week (from " + orig.id + ")";
-                } else {
-                    newBatch = new InventoryEntry();
-                    newBatch.id = UUID.randomUUID().toString();
-                    newBatch.name = "Copied batch";
-                    newBatch.dateMade = srcSunday.plusDays(deltaDays);
-                    newBatch.edibleDays = 3;
-                    newBatch.totalPortions = Math.max(1, e.getValue().size());
-                    newBatch.portionsUsed = 0;
-                    newBatch.pricePerPortion = 0.0;
-                    newBatch.notes = "Auto-created from missing original batch";
+            String name = "Week of " + srcSunday.format(HEADER_WEEK_FORMAT);
+            PlanEdit edit = new PlanEdit("copy of " + name.toLowerCase());
+
+            // Overwrite clears the meals saved on the covered days; other templates' meals stay
+            if ("Overwrite (replace)".equals(modeBox.getSelectedItem())) {
+                loadArchived(dstSunday, end != null ? end : LocalDate.now());
+                List<LocalDate> covered = new ArrayList<>();
+                for (String dKey : mealPlans.keySet()) {
+                    LocalDate date = LocalDate.parse(dKey, DATE_FORMAT);
+                    if (date.isBefore(dstSunday) || (end != null && date.isAfter(end))) continue;
+                    if (ChronoUnit.WEEKS.between(dstSunday, date) % every == 0) covered.add(date);
                 }
-                invArr.put(newBatch.toJson());
-                origToNewBatchId.put(origId, newBatch.id);
-            }
-
-            for (Map.Entry<String, List<Integer>> e : recipeOnlyUsage.entrySet()) {
-                String recipeName = e.getKey();
-                Page4.Recipe r = findRecipeByName(recipeName);
-                InventoryEntry nb = new InventoryEntry();
-                nb.id = UUID.randomUUID().toString();
-                nb.name = recipeName;
-                int offset = e.getValue().get(0);
-                LocalDate srcDateOfUsage = srcSunday.plusDays(offset);
-                LocalDate newDateMade = srcDateOfUsage.plusDays(deltaDays);
-                nb.dateMade = newDateMade;
-                nb.edibleDays = r != null ? getEdibleDaysOrDefault(r) : 3;
-                nb.totalPortions = r != null ? getTotalPortionsOrDefault(r) : Math.max(1, e.getValue().size());
-                nb.portionsUsed = 0;
-                nb.pricePerPortion = r != null ? r.cost_per_serving : 0.0;
-                nb.notes = "Auto-created for copied week for recipe: " + recipeName;
-                invArr.put(nb.toJson());
-                recipeToNewBatchId.put(recipeName, nb.id);
-            }
-
-            writeInventoryArray(invArr);
-            buildBatchLabels();
-
-            for (Map.Entry<Integer, Map<String, List<PlannedMeal>>> e : weekData.entrySet()) {
-                int offset = e.getKey();
-                LocalDate dDay = dstSunday.plusDays(offset);
-                String dKey = dDay.format(DATE_FORMAT);
-                Map<String, List<PlannedMeal>> dstDayMap = mealPlans.getOrDefault(dKey, new HashMap<>());
-                for (Map.Entry<String, List<PlannedMeal>> entry : e.getValue().entrySet()) {
-                    String mealType = entry.getKey();
-                    List<PlannedMeal> dstList = dstDayMap.getOrDefault(mealType, new ArrayList<>());
-                    for (PlannedMeal pm : entry.getValue()) {
-                        String newInvId = null;
-                        if (pm.inventoryId != null && !pm.inventoryId.isEmpty()) {
-                            newInvId = origToNewBatchId.get(pm.inventoryId);
-                        } else {
-                            String rname = pm.recipe != null ? pm.recipe.recipe_name : null;
-                            if (rname != null) newInvId = recipeToNewBatchId.get(rname);
-                        }
-                        dstList.add(new PlannedMeal(pm.recipe, newInvId));
+                for (LocalDate date : covered) {
+                    expandTemplates(date, date);
+                    Map<String, List<PlannedMeal>> day = mealPlans.get(date.format(DATE_FORMAT));
+                    Map<String, List<PlannedMeal>> before = copyDay(day);
+                    boolean changed = false;
+                    for (Map.Entry<String, List<PlannedMeal>> meal : day.entrySet()) {
+                        List<PlannedMeal> kept = new ArrayList<>();
+                        for (PlannedMeal pm : meal.getValue()) if (pm.templateId != null) kept.add(pm);
+                        changed |= kept.size() != meal.getValue().size();
+                        meal.setValue(kept);
                     }
-                    dstDayMap.put(mealType, dstList);
+                    if (!changed) continue;
+                    edit.before.put(date.format(DATE_FORMAT), before);
+                    edit.after.put(date.format(DATE_FORMAT), copyDay(day));
                 }
-                mealPlans.put(dKey, dstDayMap);
             }
 
-            try (PrintWriter pw = new PrintWriter(new FileWriter(MEAL_PLAN_FILE))) {
-                for (String date : mealPlans.keySet()) {
-                    for (String meal : mealPlans.get(date).keySet()) {
-                        for (PlannedMeal pm : mealPlans.get(date).get(meal)) {
-                            String inv = pm.inventoryId != null ? pm.inventoryId : "";
-                            pw.println(date + "|" + meal + "|" + pm.recipe.recipe_name + "|" + inv);
-                        }
-                    }
-                }
-            }
+            edit.templateId = UUID.randomUUID().toString();
+            String templates = MealTemplates.withTemplate(MealTemplates.text(), edit.templateId, name, dstSunday, end, 1, every, pattern);
+            edit.template = MealTemplates.record(templates, edit.templateId);
+            commitPlans(null, templates);
+            dropTemplateMeals();
+            for (String dKey : edit.after.keySet()) BudgetEngine.get().updateDay(dKey, mealPlans.getOrDefault(dKey, Collections.emptyMap()));
+            EditHistory.get().record(edit);
 
             openWeeklyPanel(dstSunday);
-            JOptionPane.showMessageDialog(this, "Week copied successfully (new batches created for destination).", "Copy Week", JOptionPane.INFORMATION_MESSAGE);
+            String msg = end == null ? "Week repeats every " + every + " week(s) from " + dstSunday.format(HEADER_WEEK_FORMAT) + "."
+                    : "Week copied " + times + " time(s) from " + dstSunday.format(HEADER_WEEK_FORMAT) + ".";
+            JOptionPane.showMessageDialog(this, msg + " Use Refresh Week to assign batches.", "Copy Week", JOptionPane.INFORMATION_MESSAGE);
 
         } catch (Exception ex) {
             JOptionPane.showMessageDialog(this, "Failed to copy week: " + ex.getMessage(), "Copy Week", JOptionPane.ERROR_MESSAGE);
@@ -1081,17 +1073,10 @@ public class CustomCalendarPanel extends JPanel {
     //==============================================================================================================
     // Small helpers & IO
     //==============================================================================================================
-    private static class PlannedMealRef {
-        int offset;
-        Page4.Recipe recipe;
-        PlannedMealRef(int offset, Page4.Recipe recipe) { this.offset = offset; this.recipe = recipe; }
-    }
-
     private JSONArray readInventoryArray() {
-        File f = new File(INVENTORY_FILE);
-        if (!f.exists()) return new JSONArray();
         try {
-            String s = new String(Files.readAllBytes(f.toPath()));
+            String s = FileCache.read(INVENTORY_FILE);
+            if (s == null) return new JSONArray();
             return new JSONArray(s);
         } catch (Exception ex) {
             ex.printStackTrace();
@@ -1100,11 +1085,53 @@ public class CustomCalendarPanel extends JPanel {
     }
 
     private void writeInventoryArray(JSONArray arr) throws IOException {
-        File f = new File(INVENTORY_FILE);
-        if (!f.getParentFile().exists()) f.getParentFile().mkdirs();
-        try (FileWriter fw = new FileWriter(f, false)) {
-            fw.write(arr.toString(2));
+        String before = FileCache.read(INVENTORY_FILE);
+        String after = arr.toString(2);
+        LocalStore.write(INVENTORY_FILE, after);
+        inventoryWritten(arr);
+        DataEvents.publishInventoryChanges(this, before, after);
+    }
+
+    // One transaction, so a crash can't leave plans pointing at batches that were never saved.
+    private void commitInventoryAndPlans(JSONArray invArr) throws IOException {
+        commitPlans(invArr, null);
+    }
+
+    /**
+     * Saves meal_plans.txt with, in the same transaction, the template meals edited in place (as overrides)
+     * and, when given, the inventory and a meal_templates.json text to build on.
+     */
+    private void commitPlans(JSONArray invArr, String templates) throws IOException {
+        String invBefore = invArr != null ? FileCache.read(INVENTORY_FILE) : null, plansBefore = FileCache.read(MEAL_PLAN_FILE);
+        JSONArray thawed = thawEditedMonths();
+        if (invArr != null && thawed.length() > 0) {
+            // invArr was read before the thaw moved these batches back into inventory.json
+            Set<String> ids = new HashSet<>();
+            for (int i = 0; i < invArr.length(); i++) ids.add(invArr.getJSONObject(i).optString("id"));
+            for (int i = 0; i < thawed.length(); i++) {
+                if (ids.add(thawed.getJSONObject(i).optString("id"))) invArr.put(thawed.getJSONObject(i));
+            }
+        }
+        String plans = mealPlanText();
+        String edited = templateEdits(templates != null ? templates : MealTemplates.text());
+        if (edited != null) templates = edited;
+        String inv = invArr != null ? invArr.toString(2) : null;
+        LocalStore.Transaction tx = LocalStore.begin().put(MEAL_PLAN_FILE, plans);
+        if (inv != null) tx.put(INVENTORY_FILE, inv);
+        if (templates != null) tx.put(MealTemplates.FILE, templates);
+        tx.commit();
+        if (templates != null) templatesCommitted();
+        if (inv != null) {
+            inventoryWritten(invArr);
+            DataEvents.publishInventoryChanges(this, invBefore, inv);
         }
+        DataEvents.publishPlanChanges(this, plansBefore, plans);
+    }
+
+    private void inventoryWritten(JSONArray arr) {
+        List<InventoryEntry> entries = new ArrayList<>(arr.length());
+        for (int i = 0; i < arr.length(); i++) entries.add(InventoryEntry.fromJson(arr.getJSONObject(i)));
+        BudgetEngine.get().updateInventory(entries);
     }
 
     private LocalDate getExpiryDateForPlanned(PlannedMeal pm) {
@@ -1120,6 +1147,108 @@ public class CustomCalendarPanel extends JPanel {
         return earliest.isPresent() ? earliest.get().plusDays(Math.max(0, edible)) : null;
     }
 
+    //==============================================================================================================
+    // Shopping list
+    //==============================================================================================================
+    private void openShoppingListDialog(LocalDate from, LocalDate to) {
+        Window owner = SwingUtilities.getWindowAncestor(this);
+        JDialog dialog = new JDialog(owner, "Shopping List", Dialog.ModalityType.MODELESS);
+        dialog.setLayout(new BorderLayout(8, 8));
+
+        JPanel top = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        JTextField fromField = new JTextField(from.format(DATE_FORMAT), 10);
+        JTextField toField = new JTextField(to.format(DATE_FORMAT), 10);
+        JButton updateBtn = new JButton("Update");
+        JButton fetchBtn = new JButton("Fetch prices");
+        top.add(new JLabel("From:"));
+        top.add(fromField);
+        top.add(new JLabel("To:"));
+        top.add(toField);
+        top.add(updateBtn);
+        top.add(fetchBtn);
+        dialog.add(top, BorderLayout.NORTH);
+
+        String[] cols = {"Item", "Amount", "Servings", "$/serv", "Cost", "Recipes"};
+        javax.swing.table.DefaultTableModel model = new javax.swing.table.DefaultTableModel(cols, 0) {
+            @Override public boolean isCellEditable(int r, int c) { return false; }
+        };
+        JTable table = new JTable(model);
+        dialog.add(new JScrollPane(table), BorderLayout.CENTER);
+
+        JLabel summary = new JLabel(" ");
+        summary.setBorder(new EmptyBorder(4, 8, 8, 8));
+        dialog.add(summary, BorderLayout.SOUTH);
+
+        final ShoppingListGenerator.ShoppingList[] last = new ShoppingListGenerator.ShoppingList[1];
+        final Object[] lastInputs = new Object[1];
+        Runnable regenerate = () -> {
+            LocalDate f, t;
+            try {
+                f = LocalDate.parse(fromField.getText().trim(), DATE_FORMAT);
+                t = LocalDate.parse(toField.getText().trim(), DATE_FORMAT);
+            } catch (Exception ex) {
+                summary.setText("Dates must be yyyy-MM-dd.");
+                return;
+            }
+            loadArchived(f, t);
+            expandTemplates(f, t);
+            // most plan edits land outside the range or only move meals between batches it ignores
+            String inventory;
+            try {
+                inventory = FileCache.read(INVENTORY_FILE);
+            } catch (IOException ex) {
+                inventory = null;
+            }
+            List<Object> inputs = Arrays.asList(f, t, ShoppingListGenerator.inputsOf(mealPlans, f, t),
+                    inventory, ProductCache.version());
+            if (inventory != null && inputs.equals(lastInputs[0])) return;
+            lastInputs[0] = inputs;
+            ShoppingListGenerator.ShoppingList list = ShoppingListGenerator.generate(mealPlans, loadInventoryEntries(), f, t);
+            last[0] = list;
+            model.setRowCount(0);
+            for (ShoppingListGenerator.Line l : list.lines) {
+                model.addRow(new Object[]{
+                        l.name,
+                        l.amountLabel(),
+                        String.format("%.2f", l.servings),
+                        String.format("$%.2f%s", l.unitPrice, l.pricedFromCache ? "" : "*"),
+                        String.format("$%.2f", l.cost),
+                        String.join(", ", l.recipes)});
+            }
+            int cooks = list.cooksByRecipe.values().stream().mapToInt(Integer::intValue).sum();
+            summary.setText(String.format("<html>%d items from %d cooks &nbsp;|&nbsp; Total $%.2f%s</html>",
+                    list.lines.size(), cooks, list.totalCost,
+                    list.uncachedProductIds.isEmpty() ? "" : " &nbsp;|&nbsp; * saved recipe price (" + list.uncachedProductIds.size() + " not fetched)"));
+        };
+
+        updateBtn.addActionListener(e -> regenerate.run());
+        fetchBtn.addActionListener(e -> {
+            if (last[0] == null || last[0].uncachedProductIds.isEmpty()) return;
+            fetchBtn.setEnabled(false);
+            Set<String> ids = new LinkedHashSet<>(last[0].uncachedProductIds);
+            new SwingWorker<Integer, Void>() {
+                @Override protected Integer doInBackground() { return ProductCache.fetchMissing(ids); }
+                @Override protected void done() {
+                    fetchBtn.setEnabled(true);
+                    regenerate.run();
+                }
+            }.execute();
+        });
+
+        shoppingListRefresher = regenerate;
+        dialog.addWindowListener(new java.awt.event.WindowAdapter() {
+            @Override public void windowClosed(java.awt.event.WindowEvent e) {
+                if (shoppingListRefresher == regenerate) shoppingListRefresher = null;
+            }
+        });
+        dialog.setDefaultCloseOperation(JDialog.DISPOSE_ON_CLOSE);
+
+        regenerate.run();
+        dialog.setSize(820, 480);
+        dialog.setLocationRelativeTo(this);
+        dialog.setVisible(true);
+    }
+
     private JPanel makeBigStatLabel(String label, String value) {
         JPanel p = new JPanel(new BorderLayout());
         JLabel v = new JLabel(value);
@@ -1189,11 +1318,10 @@ public class CustomCalendarPanel extends JPanel {
     //==============================================================================================================
     // Inventory helpers & counts
     //==============================================================================================================
-    private List<InventoryEntry> loadInventoryEntries() {
-        File f = new File(INVENTORY_FILE);
-        if (!f.exists()) return Collections.emptyList();
+    static List<InventoryEntry> loadInventoryEntries() {
         try {
-            String s = new String(Files.readAllBytes(f.toPath()));
+            String s = FileCache.read(INVENTORY_FILE);
+            if (s == null) return Collections.emptyList();
             JSONArray arr = new JSONArray(s);
             List<InventoryEntry> out = new ArrayList<>();
             for (int i = 0; i < arr.length(); i++) out.add(InventoryEntry.fromJson(arr.getJSONObject(i)));
@@ -1205,11 +1333,7 @@ public class CustomCalendarPanel extends JPanel {
     }
 
     private InventoryEntry findInventoryById(String id) {
-        if (id == null) return null;
-        for (InventoryEntry ie : loadInventoryEntries()) {
-            if (id.equals(ie.id)) return ie;
-        }
-        return null;
+        return Repository.get().inventoryById(id);
     }
 
     private int countAssignmentsOfInventory(String inventoryId) {
@@ -1275,7 +1399,8 @@ public class CustomCalendarPanel extends JPanel {
 
     private void buildBatchLabels() {
         batchLabelMap.clear();
-        List<InventoryEntry> inv = loadInventoryEntries();
+        List<InventoryEntry> inv = new ArrayList<>(loadInventoryEntries());
+        inv.addAll(archivedBatches);
         Map<String, Map<String, List<InventoryEntry>>> byRecipe = new HashMap<>();
         for (InventoryEntry ie : inv) {
             String r = ie.name == null ? "" : ie.name.toLowerCase();
@@ -1304,99 +1429,574 @@ public class CustomCalendarPanel extends JPanel {
         return inventoryId.length() > 6 ? inventoryId.substring(0, 6) : inventoryId;
     }
 
+    //==============================================================================================================
+    // Change events from other pages (DataEvents)
+    //==============================================================================================================
+    // Another writer changed a date's meals: re-read just that date.
+    private void onPlanSlotChanged(DataEvents.PlanSlotChanged e) {
+        if (e.source == this) return;
+        String dKey = e.date.format(DATE_FORMAT);
+        Set<String> recipes = recipeNamesOn(dKey);
+        Map<String, List<PlannedMeal>> day = new HashMap<>();
+        // meals expanded from templates are not in the file; keep them
+        for (Map.Entry<String, List<PlannedMeal>> meal : mealPlans.getOrDefault(dKey, Collections.emptyMap()).entrySet()) {
+            for (PlannedMeal pm : meal.getValue()) {
+                if (pm.templateId != null) day.computeIfAbsent(meal.getKey(), k -> new ArrayList<>()).add(pm);
+            }
+        }
+        for (Repository.PlanSlot slot : Repository.get().slotsBetween(e.date, e.date)) {
+            day.computeIfAbsent(slot.meal, k -> new ArrayList<>()).add(new PlannedMeal(resolveRecipe(slot.recipeKey, slot.recipeName), slot.inventoryId));
+        }
+        if (day.isEmpty()) mealPlans.remove(dKey);
+        else mealPlans.put(dKey, day);
+        BudgetEngine.get().updateDay(dKey, day);
+        recipes.addAll(recipeNamesOn(dKey));
+        invalidateDays(Collections.singleton(e.date), recipes);
+    }
+
+    // A recipe was edited: point its planned meals at the saved version and redraw those days.
+    private void onRecipeChanged(DataEvents.RecipeChanged e) {
+        Page4.Recipe fresh = e.removed ? null : Repository.get().recipeByLocalId(e.localId);
+        Set<LocalDate> days = new HashSet<>();
+        for (Map.Entry<String, Map<String, List<PlannedMeal>>> d : mealPlans.entrySet()) {
+            for (List<PlannedMeal> list : d.getValue().values()) {
+                for (PlannedMeal pm : list) {
+                    if (pm.recipe == null) continue;
+                    if (e.localId == null || !e.localId.equals(pm.recipe.local_id)) continue;
+                    if (fresh != null) pm.recipe = fresh;
+                    days.add(LocalDate.parse(d.getKey(), DATE_FORMAT));
+                }
+            }
+        }
+        for (LocalDate d : days) {
+            String dKey = d.format(DATE_FORMAT);
+            BudgetEngine.get().updateDay(dKey, mealPlans.get(dKey));
+        }
+        if (!days.isEmpty()) invalidateDays(days, Collections.emptySet());
+    }
+
+    private void onInventoryBatchChanged(DataEvents.InventoryBatchChanged e) {
+        if (e.source == this) return;
+        buildBatchLabels();
+        BudgetEngine.get().updateInventory(loadInventoryEntries());
+        Set<LocalDate> days = new HashSet<>();
+        for (Map.Entry<String, Map<String, List<PlannedMeal>>> d : mealPlans.entrySet()) {
+            for (List<PlannedMeal> list : d.getValue().values()) {
+                for (PlannedMeal pm : list) {
+                    if (e.batchId.equals(pm.inventoryId)) days.add(LocalDate.parse(d.getKey(), DATE_FORMAT));
+                }
+            }
+        }
+        if (!days.isEmpty()) invalidateDays(days, Collections.emptySet());
+    }
+
+    // meal_templates.json was edited outside the app: expand the templates afresh.
+    private void onTemplatesChanged(DataEvents.RecordsChanged e) {
+        if (!MealTemplates.FILE.equals(e.path)) return;
+        dropTemplateMeals();
+        BudgetEngine.get().templatesChanged();
+        if (isWeeklyView) openWeeklyPanel(currentWeekStart);
+        else refreshCalendar();
+    }
+
+    /**
+     * Redraws the visible cells for {@code days}, plus any visible day planning one of {@code recipeNames}
+     * (their remaining-portion counts run across days). The weekly view is redrawn as a whole.
+     */
+    private void invalidateDays(Set<LocalDate> days, Set<String> recipeNames) {
+        if (shoppingListRefresher != null) shoppingListRefresher.run();
+        if (isWeeklyView) {
+            LocalDate weekEnd = currentWeekStart.plusDays(6);
+            for (LocalDate d : days) {
+                if (!d.isBefore(currentWeekStart) && !d.isAfter(weekEnd)) {
+                    openWeeklyPanel(currentWeekStart);
+                    return;
+                }
+            }
+            return;
+        }
+        for (Map.Entry<LocalDate, JButton> cell : dayButtons.entrySet()) {
+            LocalDate d = cell.getKey();
+            if (days.contains(d) || (!recipeNames.isEmpty() && !Collections.disjoint(recipeNames, recipeNamesOn(d.format(DATE_FORMAT))))) {
+                renderDayCell(cell.getValue(), d);
+            }
+        }
+    }
+
+    private Set<String> recipeNamesOn(String dKey) {
+        Set<String> names = new HashSet<>();
+        for (List<PlannedMeal> list : mealPlans.getOrDefault(dKey, Collections.emptyMap()).values()) {
+            for (PlannedMeal pm : list) if (pm.recipe != null && pm.recipe.recipe_name != null) names.add(pm.recipe.recipe_name);
+        }
+        return names;
+    }
+
+    //==============================================================================================================
+    // Undo / redo (EditHistory)
+    //==============================================================================================================
+    /** A calendar change: the days it touched before and after, plus the batches and template it added. */
+    private final class PlanEdit implements EditHistory.Edit {
+        final String label;
+        final Map<String, Map<String, List<PlannedMeal>>> before = new HashMap<>();   // by date; empty = no meals
+        final Map<String, Map<String, List<PlannedMeal>>> after = new HashMap<>();
+        final List<JSONObject> addedBatches = new ArrayList<>();
+        String templateId;
+        JSONObject template;
+
+        PlanEdit(String label) { this.label = label; }
+
+        @Override public String label() { return label; }
+        @Override public void undo() { replayPlanEdit(this, true); }
+        @Override public void redo() { replayPlanEdit(this, false); }
+    }
+
+    // Puts the days of an edit back as they were before (undo) or after it, and saves them.
+    private void replayPlanEdit(PlanEdit e, boolean undo) {
+        Set<LocalDate> dates = new HashSet<>();
+        Set<String> recipes = new HashSet<>();
+        for (Map.Entry<String, Map<String, List<PlannedMeal>>> d : (undo ? e.before : e.after).entrySet()) {
+            recipes.addAll(recipeNamesOn(d.getKey()));
+            if (d.getValue().isEmpty()) mealPlans.remove(d.getKey());
+            else mealPlans.put(d.getKey(), copyDay(d.getValue()));
+            recipes.addAll(recipeNamesOn(d.getKey()));
+            dates.add(LocalDate.parse(d.getKey(), DATE_FORMAT));
+        }
+        JSONArray inv = null;
+        if (!e.addedBatches.isEmpty()) {
+            Set<String> ids = new HashSet<>();
+            for (JSONObject b : e.addedBatches) ids.add(b.optString("id"));
+            JSONArray current = readInventoryArray();
+            inv = new JSONArray();
+            for (int i = 0; i < current.length(); i++) {
+                if (!ids.contains(current.getJSONObject(i).optString("id"))) inv.put(current.getJSONObject(i));
+            }
+            if (!undo) for (JSONObject b : e.addedBatches) inv.put(b);
+        }
+        String templates = e.templateId != null ? MealTemplates.withRecord(MealTemplates.text(), e.templateId, undo ? null : e.template) : null;
+        try {
+            commitPlans(inv, templates);
+        } catch (IOException ex) {
+            JOptionPane.showMessageDialog(this, (undo ? "Undo" : "Redo") + " failed: " + ex.getMessage(), "Calendar", JOptionPane.ERROR_MESSAGE);
+            ex.printStackTrace();
+            return;
+        }
+        if (inv != null) buildBatchLabels();
+        for (LocalDate d : dates) {
+            String dKey = d.format(DATE_FORMAT);
+            BudgetEngine.get().updateDay(dKey, mealPlans.getOrDefault(dKey, Collections.emptyMap()));
+        }
+        if (e.templateId != null) {
+            dropTemplateMeals();
+            if (isWeeklyView) openWeeklyPanel(currentWeekStart);
+            else refreshCalendar();
+        } else {
+            invalidateDays(dates, recipes);
+        }
+    }
+
+    // Meals of one day with their own PlannedMeal objects, which later edits (batch repair) may change in place.
+    private static Map<String, List<PlannedMeal>> copyDay(Map<String, List<PlannedMeal>> day) {
+        Map<String, List<PlannedMeal>> out = new HashMap<>();
+        if (day == null) return out;
+        for (Map.Entry<String, List<PlannedMeal>> meal : day.entrySet()) {
+            if (meal.getValue().isEmpty()) continue;
+            List<PlannedMeal> list = new ArrayList<>();
+            for (PlannedMeal pm : meal.getValue()) list.add(new PlannedMeal(pm.recipe, pm.inventoryId, pm.templateId));
+            out.put(meal.getKey(), list);
+        }
+        return out;
+    }
+
+    // A day as last saved: its meal plan lines (hot or archived) and its template meals as expanded.
+    private Map<String, List<PlannedMeal>> savedDay(LocalDate date) {
+        Map<String, List<PlannedMeal>> day = new HashMap<>();
+        for (Repository.PlanSlot slot : Repository.get().slotsBetween(date, date)) {
+            day.computeIfAbsent(slot.meal, k -> new ArrayList<>()).add(new PlannedMeal(resolveRecipe(slot.recipeKey, slot.recipeName), slot.inventoryId));
+        }
+        for (Map.Entry<String, List<MealTemplates.Slot>> t : templateDays.getOrDefault(date, Collections.emptyMap()).entrySet()) {
+            for (MealTemplates.Slot slot : t.getValue()) {
+                day.computeIfAbsent(slot.meal, k -> new ArrayList<>()).add(new PlannedMeal(resolveRecipe(slot.recipeKey, slot.recipeName), slot.inventoryId, t.getKey()));
+            }
+        }
+        return day;
+    }
+
+    private static Page4.Recipe resolveRecipe(String recipeKey, String recipeName) {
+        Page4.Recipe r = Repository.get().recipeByLocalId(recipeKey);
+        return r != null ? r : missingRecipe(recipeKey, recipeName);
+    }
+
     //==============================================================================================================
     // Meal plan load/save
     //==============================================================================================================
-    private void loadAllMealPlans() {
+    // startup is what StartupLoader parsed, or null if that failed; it is used unless a file it came from was written since
+    private void loadAllMealPlans(Map<String, Map<String, List<PlannedMeal>>> startup) {
+        StartupLoader loader = StartupLoader.get();
         mealPlans.clear();
-        File file = new File(MEAL_PLAN_FILE);
-        if (!file.exists()) return;
-        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                if (line.trim().isEmpty()) continue;
-                String[] parts;
-                if (line.contains("|")) parts = line.split("\\|", 4);
-                else parts = line.split("\\t", 4);
-                if (parts.length < 3) continue;
-                String date = parts[0].trim();
-                String mealType = parts[1].trim();
-                String recipeName = parts[2].trim();
-                String inventoryId = parts.length >= 4 ? parts[3].trim() : null;
-                if (inventoryId != null && inventoryId.isEmpty()) inventoryId = null;
-
-                recipeName = recipeName.replaceAll("^\"|\"$", "").trim();
-                Page4.Recipe recipe = findRecipeByName(recipeName);
-                if (recipe == null) {
-                    recipe = findRecipeByName(recipeName.replace('_', ' '));
-                    if (recipe == null) recipe = findRecipeByPartialName(recipeName);
+        loadedArchive.clear();
+        archivedBatches.clear();
+        expandedWeeks.clear();
+        templateDays.clear();
+        templatesVersion = MealTemplates.version();
+        boolean current = startup != null && loader.unchanged(FileCache.RECIPES_FILE, FileCache.CUSTOM_RECIPES_FILE, MEAL_PLAN_FILE);
+        mealPlans.putAll(current ? startup : readMealPlans());
+        List<InventoryEntry> inventory = loader.inventory().getNow(null);
+        if (inventory == null || !loader.unchanged(INVENTORY_FILE)) inventory = loadInventoryEntries();
+        BudgetEngine.get().replaceAll(mealPlans, inventory);
+    }
+
+    /**
+     * Reads the archived months overlapping [from, to] into mealPlans, skipping days already there.
+     * Returns true if anything was loaded.
+     */
+    private boolean loadArchived(LocalDate from, LocalDate to) {
+        boolean any = false;
+        for (YearMonth m : ColdStorage.archivedPlanMonths().subSet(YearMonth.from(from), true, YearMonth.from(to), true)) {
+            if (!loadedArchive.add(m)) continue;
+            any = true;
+            for (Map.Entry<String, Map<String, List<PlannedMeal>>> d : parsePlans(ColdStorage.planText(m), loadAllRecipes()).entrySet()) {
+                mealPlans.putIfAbsent(d.getKey(), d.getValue());
+            }
+            archivedBatches.addAll(ColdStorage.batchesFor(m));
+        }
+        if (any) BudgetEngine.get().loadArchived(from, to);
+        return any;
+    }
+
+    /**
+     * Adds the MealTemplates meals of the weeks overlapping [from, to] that are not in mealPlans yet. If the
+     * templates changed since they were expanded, the earlier expansion is dropped first.
+     */
+    private void expandTemplates(LocalDate from, LocalDate to) {
+        if (MealTemplates.version() != templatesVersion) dropTemplateMeals();
+        for (LocalDate w = BudgetEngine.weekStart(from); !w.isAfter(to); w = w.plusWeeks(1)) {
+            if (!expandedWeeks.add(w)) continue;
+            for (Map.Entry<String, Map<String, List<PlannedMeal>>> d : MealTemplates.expandMeals(w, w.plusDays(6)).entrySet()) {
+                Map<String, List<PlannedMeal>> day = mealPlans.computeIfAbsent(d.getKey(), k -> new HashMap<>());
+                for (Map.Entry<String, List<PlannedMeal>> meal : d.getValue().entrySet()) {
+                    day.computeIfAbsent(meal.getKey(), k -> new ArrayList<>()).addAll(meal.getValue());
+                }
+                templateDays.put(LocalDate.parse(d.getKey(), DATE_FORMAT), templateSlots(day));
+            }
+        }
+    }
+
+    // Takes every template meal out of mealPlans, so expandTemplates reads them afresh.
+    private void dropTemplateMeals() {
+        for (LocalDate d : templateDays.keySet()) {
+            String dKey = d.format(DATE_FORMAT);
+            Map<String, List<PlannedMeal>> day = mealPlans.get(dKey);
+            if (day == null) continue;
+            for (Map.Entry<String, List<PlannedMeal>> meal : day.entrySet()) {
+                List<PlannedMeal> kept = new ArrayList<>();
+                for (PlannedMeal pm : meal.getValue()) if (pm.templateId == null) kept.add(pm);
+                meal.setValue(kept);
+            }
+            day.values().removeIf(List::isEmpty);
+            if (day.isEmpty()) mealPlans.remove(dKey);
+        }
+        templateDays.clear();
+        expandedWeeks.clear();
+        templatesVersion = MealTemplates.version();
+    }
+
+    private static Map<String, List<MealTemplates.Slot>> templateSlots(Map<String, List<PlannedMeal>> day) {
+        Map<String, List<MealTemplates.Slot>> out = new HashMap<>();
+        for (Map.Entry<String, List<PlannedMeal>> meal : day.entrySet()) {
+            for (PlannedMeal pm : meal.getValue()) {
+                if (pm.templateId != null) out.computeIfAbsent(pm.templateId, k -> new ArrayList<>()).add(MealTemplates.Slot.of(meal.getKey(), pm));
+            }
+        }
+        return out;
+    }
+
+    // Template meals removed or re-batched since they were expanded, applied to meal_templates.json text {@code base}; null if none.
+    private String templateEdits(String base) {
+        Map<String, Map<LocalDate, List<MealTemplates.Slot>>> edits = new HashMap<>();
+        for (Map.Entry<LocalDate, Map<String, List<MealTemplates.Slot>>> d : templateDays.entrySet()) {
+            Map<String, List<MealTemplates.Slot>> now = templateSlots(mealPlans.getOrDefault(d.getKey().format(DATE_FORMAT), Collections.emptyMap()));
+            for (Map.Entry<String, List<MealTemplates.Slot>> t : d.getValue().entrySet()) {
+                List<MealTemplates.Slot> slots = now.getOrDefault(t.getKey(), Collections.emptyList());
+                if (MealTemplates.sameSlots(t.getValue(), slots)) continue;
+                edits.computeIfAbsent(t.getKey(), k -> new HashMap<>()).put(d.getKey(), slots);
+                t.setValue(slots);
+            }
+        }
+        return edits.isEmpty() ? null : MealTemplates.withDays(base, edits);
+    }
+
+    // After committing templateEdits(): mealPlans already shows the edit, so keep the expansion.
+    // Callers that added or removed a whole template follow up with dropTemplateMeals().
+    private void templatesCommitted() {
+        templatesVersion = MealTemplates.version();
+        BudgetEngine.get().templatesChanged();
+    }
+
+    // True while the days of an archived month in mealPlans are the ones in its segment.
+    private boolean matchesArchive(YearMonth m) {
+        List<String> archived = new ArrayList<>(), current = new ArrayList<>();
+        for (String line : ColdStorage.planText(m).split("\\R")) {
+            Repository.PlanSlot slot = Repository.parseSlot(line);
+            if (slot != null) archived.add(slotKey(slot.date.format(DATE_FORMAT), slot.meal, slot.recipeKey, slot.inventoryId));
+        }
+        for (Map.Entry<String, Map<String, List<PlannedMeal>>> d : mealPlans.entrySet()) {
+            if (!YearMonth.from(LocalDate.parse(d.getKey(), DATE_FORMAT)).equals(m)) continue;
+            for (Map.Entry<String, List<PlannedMeal>> meal : d.getValue().entrySet()) {
+                for (PlannedMeal pm : meal.getValue()) {
+                    if (pm.templateId != null) continue;
+                    current.add(slotKey(d.getKey(), meal.getKey(), pm.recipe != null ? pm.recipe.local_id : null, pm.inventoryId));
                 }
-                if (recipe == null) recipe = createPlaceholderRecipe(recipeName);
-                PlannedMeal pm = new PlannedMeal(recipe, inventoryId);
-                mealPlans.computeIfAbsent(date, k -> new HashMap<>())
-                        .computeIfAbsent(mealType, k -> new ArrayList<>())
-                        .add(pm);
             }
+        }
+        Collections.sort(archived);
+        Collections.sort(current);
+        return archived.equals(current);
+    }
+
+    private static String slotKey(String date, String meal, String recipeKey, String inventoryId) {
+        return date + "|" + meal + "|" + (recipeKey != null ? recipeKey : "") + "|" + (inventoryId != null ? inventoryId : "");
+    }
+
+    // Parses meal_plans.txt against one recipe catalog load; safe to call off the EDT.
+    static Map<String, Map<String, List<PlannedMeal>>> readMealPlans() {
+        return readMealPlans(loadAllRecipes());
+    }
+
+    static Map<String, Map<String, List<PlannedMeal>>> readMealPlans(List<Page4.Recipe> catalog) {
+        try {
+            String text = FileCache.read(MEAL_PLAN_FILE);
+            return text != null ? parsePlans(text, catalog) : new HashMap<>();
         } catch (IOException e) {
             e.printStackTrace();
+            return new HashMap<>();
         }
     }
 
+    /**
+     * Meal plan lines (meal_plans.txt or an archive segment) by date and meal, recipes resolved by local id
+     * against {@code catalog}. A line whose recipe is gone keeps its id and name through {@link #missingRecipe}.
+     */
+    static Map<String, Map<String, List<PlannedMeal>>> parsePlans(String text, List<Page4.Recipe> catalog) {
+        Map<String, Map<String, List<PlannedMeal>>> plans = new HashMap<>();
+        Map<String, Page4.Recipe> byKey = Repository.indexByLocalId(catalog);
+        for (String line : text.split("\\R")) {
+            Repository.PlanSlot slot = Repository.parseSlot(line);
+            if (slot == null) continue;
+            Page4.Recipe recipe = slot.recipeKey != null ? byKey.get(slot.recipeKey) : null;
+            if (recipe == null) recipe = missingRecipe(slot.recipeKey, slot.recipeName);
+            PlannedMeal pm = new PlannedMeal(recipe, slot.inventoryId);
+            plans.computeIfAbsent(slot.date.format(DATE_FORMAT), k -> new HashMap<>())
+                    .computeIfAbsent(slot.meal, k -> new ArrayList<>())
+                    .add(pm);
+        }
+        return plans;
+    }
+
     private void saveMealPlan(String dateStr, String mealType, List<PlannedMeal> selectedPlanned) {
+        // callers have already changed the list in place, so "before" comes from what was saved
+        LocalDate date = LocalDate.parse(dateStr, DATE_FORMAT);
+        PlanEdit edit = new PlanEdit(mealType.toLowerCase() + " on " + dateStr);
+        edit.before.put(dateStr, savedDay(date));
         mealPlans.computeIfAbsent(dateStr, k -> new HashMap<>()).put(mealType, selectedPlanned);
-        try (PrintWriter pw = new PrintWriter(new FileWriter(MEAL_PLAN_FILE))) {
-            for (String date : mealPlans.keySet()) {
-                for (String meal : mealPlans.get(date).keySet()) {
-                    for (PlannedMeal pm : mealPlans.get(date).get(meal)) {
-                        String inv = pm.inventoryId != null ? pm.inventoryId : "";
-                        pw.println(date + "|" + meal + "|" + pm.recipe.recipe_name + "|" + inv);
-                    }
-                }
-            }
+
+        // re-allocate batches for the recipes of this meal, within the time one of their batches keeps
+        Set<String> recipes = new HashSet<>();
+        for (List<PlannedMeal> list : edit.before.get(dateStr).values()) {
+            for (PlannedMeal pm : list) if (pm.recipe != null) recipes.add(BatchAllocator.recipeKey(pm.recipe.recipe_name));
+        }
+        for (PlannedMeal pm : selectedPlanned) if (pm.recipe != null) recipes.add(BatchAllocator.recipeKey(pm.recipe.recipe_name));
+        int life = 0;
+        for (String r : recipes) life = Math.max(life, shelfLife(r));
+        LocalDate from = date.minusDays(life), to = date.plusDays(life);
+        loadArchived(from, to);
+        expandTemplates(from, to);
+        Map<String, Map<String, List<PlannedMeal>>> window = new HashMap<>();
+        for (LocalDate d = from; !d.isAfter(to); d = d.plusDays(1)) {
+            if (!d.equals(date)) window.put(d.format(DATE_FORMAT), copyDay(mealPlans.get(d.format(DATE_FORMAT))));
+        }
+        Set<String> touched = new HashSet<>();
+        touched.add(dateStr);
+        for (LocalDate d : allocateBatches(from, to, recipes, null).assigned.values()) touched.add(d.format(DATE_FORMAT));
+
+        for (String dKey : touched) {
+            if (!dKey.equals(dateStr)) edit.before.put(dKey, window.get(dKey));
+            edit.after.put(dKey, copyDay(mealPlans.get(dKey)));
+            BudgetEngine.get().updateDay(dKey, mealPlans.getOrDefault(dKey, Collections.emptyMap()));
+        }
+        try {
+            commitPlans(null, null);
+            EditHistory.get().record(edit);
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * Puts {@code meals} (recipe by meal type, by date) in place of whatever is planned in those slots,
+     * template meals included, which become overrides of their template. Batches are re-allocated as in
+     * {@link #saveMealPlan} and the whole change is one undoable edit.
+     */
+    void replaceMeals(Map<LocalDate, Map<String, Page4.Recipe>> meals, String label) throws IOException {
+        if (meals.isEmpty()) return;
+        LocalDate first = Collections.min(meals.keySet()), last = Collections.max(meals.keySet());
+        loadArchived(first, last);
+        expandTemplates(first, last);
+        Set<String> recipes = new HashSet<>();
+        for (Map.Entry<LocalDate, Map<String, Page4.Recipe>> d : meals.entrySet()) {
+            Map<String, List<PlannedMeal>> day = mealPlans.getOrDefault(d.getKey().format(DATE_FORMAT), Collections.emptyMap());
+            for (Map.Entry<String, List<PlannedMeal>> meal : day.entrySet()) {
+                if (!containsIgnoreCase(d.getValue().keySet(), meal.getKey())) continue;
+                for (PlannedMeal pm : meal.getValue()) if (pm.recipe != null) recipes.add(BatchAllocator.recipeKey(pm.recipe.recipe_name));
+            }
+            for (Page4.Recipe r : d.getValue().values()) recipes.add(BatchAllocator.recipeKey(r.recipe_name));
+        }
+        int life = 0;
+        for (String r : recipes) life = Math.max(life, shelfLife(r));
+        LocalDate from = first.minusDays(life), to = last.plusDays(life);
+        loadArchived(from, to);
+        expandTemplates(from, to);
+        Map<String, Map<String, List<PlannedMeal>>> window = new HashMap<>();
+        for (LocalDate d = from; !d.isAfter(to); d = d.plusDays(1)) window.put(d.format(DATE_FORMAT), copyDay(mealPlans.get(d.format(DATE_FORMAT))));
+
+        Set<String> touched = new HashSet<>();
+        Set<LocalDate> dates = new HashSet<>();
+        for (Map.Entry<LocalDate, Map<String, Page4.Recipe>> d : meals.entrySet()) {
+            String dKey = d.getKey().format(DATE_FORMAT);
+            Map<String, List<PlannedMeal>> day = mealPlans.computeIfAbsent(dKey, k -> new HashMap<>());
+            for (Map.Entry<String, Page4.Recipe> meal : d.getValue().entrySet()) {
+                day.keySet().removeIf(k -> k.equalsIgnoreCase(meal.getKey()));
+                day.put(meal.getKey(), new ArrayList<>(Collections.singletonList(new PlannedMeal(meal.getValue(), null))));
+            }
+            touched.add(dKey);
+            dates.add(d.getKey());
+        }
+        for (LocalDate d : allocateBatches(from, to, recipes, null).assigned.values()) {
+            touched.add(d.format(DATE_FORMAT));
+            dates.add(d);
+        }
+
+        PlanEdit edit = new PlanEdit(label);
+        Set<String> names = new HashSet<>();
+        for (String dKey : touched) {
+            edit.before.put(dKey, window.get(dKey));
+            edit.after.put(dKey, copyDay(mealPlans.get(dKey)));
+            for (List<PlannedMeal> list : window.get(dKey).values()) {
+                for (PlannedMeal pm : list) if (pm.recipe != null && pm.recipe.recipe_name != null) names.add(pm.recipe.recipe_name);
+            }
+            names.addAll(recipeNamesOn(dKey));
+            BudgetEngine.get().updateDay(dKey, mealPlans.getOrDefault(dKey, Collections.emptyMap()));
+        }
+        commitPlans(null, null);
+        EditHistory.get().record(edit);
+        invalidateDays(dates, names);
+    }
+
+    private static boolean containsIgnoreCase(Collection<String> values, String value) {
+        for (String v : values) if (v.equalsIgnoreCase(value)) return true;
+        return false;
+    }
+
+    /**
+     * Thaws every archived month whose days in mealPlans differ from its segment, so mealPlanText() writes
+     * them. A month with days in mealPlans that was never loaded (a meal placed there without viewing it)
+     * has its archived days merged in first, or writing the month would drop them. Returns the batches
+     * the thaws moved back into inventory.json.
+     */
+    private JSONArray thawEditedMonths() {
+        JSONArray thawed = new JSONArray();
+        Set<YearMonth> archived = ColdStorage.archivedPlanMonths();
+        if (archived.isEmpty()) return thawed;
+        Set<YearMonth> months = new TreeSet<>(loadedArchive);
+        for (Map.Entry<String, Map<String, List<PlannedMeal>>> d : mealPlans.entrySet()) {
+            YearMonth m = YearMonth.from(LocalDate.parse(d.getKey(), DATE_FORMAT));
+            if (!archived.contains(m) || loadedArchive.contains(m)) continue;
+            boolean own = false;
+            for (List<PlannedMeal> list : d.getValue().values()) for (PlannedMeal pm : list) own |= pm.templateId == null;
+            if (own) months.add(m);
+        }
+        for (YearMonth m : months) {
+            if (!ColdStorage.isArchived(m)) continue;
+            if (loadedArchive.add(m)) {
+                for (Map.Entry<String, Map<String, List<PlannedMeal>>> d : parsePlans(ColdStorage.planText(m), loadAllRecipes()).entrySet()) {
+                    Map<String, List<PlannedMeal>> day = mealPlans.computeIfAbsent(d.getKey(), k -> new HashMap<>());
+                    for (Map.Entry<String, List<PlannedMeal>> meal : d.getValue().entrySet()) day.putIfAbsent(meal.getKey(), meal.getValue());
+                }
+                archivedBatches.addAll(ColdStorage.batchesFor(m));
+                BudgetEngine.get().loadArchived(m.atDay(1), m.atEndOfMonth());
+            }
+            if (matchesArchive(m)) continue;
+            try {
+                JSONArray back = ColdStorage.thaw(m);
+                Set<String> ids = new HashSet<>();
+                for (int i = 0; i < back.length(); i++) {
+                    ids.add(back.getJSONObject(i).optString("id"));
+                    thawed.put(back.getJSONObject(i));
+                }
+                // those batches are live again; keep one copy of each
+                archivedBatches.removeIf(ie -> ids.contains(ie.id));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return thawed;
+    }
+
+    // Only days outside archived months are written, without template meals; callers run thawEditedMonths() first.
+    private String mealPlanText() {
+        Set<YearMonth> archived = ColdStorage.archivedPlanMonths();
+        StringBuilder sb = new StringBuilder();
+        for (String date : mealPlans.keySet()) {
+            if (!archived.isEmpty() && archived.contains(YearMonth.from(LocalDate.parse(date, DATE_FORMAT)))) continue;
+            for (String meal : mealPlans.get(date).keySet()) {
+                for (PlannedMeal pm : mealPlans.get(date).get(meal)) {
+                    if (pm.templateId != null) continue;
+                    sb.append(Repository.formatSlot(date, meal, pm.recipe, pm.inventoryId)).append('\n');
+                }
+            }
+        }
+        return sb.toString();
+    }
+
     //==============================================================================================================
     // Recipe helpers & misc (UPDATED to use RecipeLoader and dedupe)
     //==============================================================================================================
     private Page4.Recipe findRecipeByName(String name) {
-        if (name == null || name.trim().isEmpty()) return null;
-        String want = RecipeLoader.normalizeName(name);
-        if (want.isEmpty()) return null;
-        // Search merged list so packaged + custom are both considered
-        for (Page4.Recipe r : loadAllRecipes()) {
-            String rn = r.recipe_name == null ? "" : RecipeLoader.normalizeName(r.recipe_name);
-            if (rn.equals(want)) return r;
-        }
-        return null;
+        // Indexed over the merged list so packaged + custom are both considered
+        return Repository.get().recipeByName(name);
     }
 
-    private Page4.Recipe findRecipeByPartialName(String namePart) {
-        if (namePart == null || namePart.trim().isEmpty()) return null;
-        String want = RecipeLoader.normalizeName(namePart);
-        for (Page4.Recipe r : loadAllRecipes()) {
-            String rn = r.recipe_name == null ? "" : RecipeLoader.normalizeName(r.recipe_name);
-            if (rn.contains(want)) return r;
-        }
-        return null;
+    static List<Page4.Recipe> loadAllRecipes() {
+        return mergeRecipes(RecipeLoader.loadRecipesFromFile(FileCache.RECIPES_FILE),
+                RecipeLoader.loadRecipesFromFile(FileCache.CUSTOM_RECIPES_FILE));
     }
 
-    private List<Page4.Recipe> loadAllRecipes() {
-
+    // Custom recipes override packaged ones with the same name, and answer for the packaged recipe's local id.
+    static List<Page4.Recipe> mergeRecipes(List<Page4.Recipe> packaged, List<Page4.Recipe> custom) {
         LinkedHashMap<String, Page4.Recipe> byName = new LinkedHashMap<>();
-        for (Page4.Recipe r : RecipeLoader.loadRecipesFromFile("src/pages/text/recipes.txt")) {
+        for (Page4.Recipe r : packaged) {
             if (r.recipe_name != null) byName.put(r.recipe_name.trim().toLowerCase(), r);
         }
-        for (Page4.Recipe r : RecipeLoader.loadRecipesFromFile("src/pages/text/custom_recipes.txt")) {
-            if (r.recipe_name != null) byName.put(r.recipe_name.trim().toLowerCase(), r);
+        Map<String, Page4.Recipe> packagedByName = new HashMap<>(byName);
+        for (Page4.Recipe r : custom) {
+            if (r.recipe_name == null) continue;
+            String key = r.recipe_name.trim().toLowerCase();
+            byName.put(key, r);
+            Page4.Recipe hidden = packagedByName.get(key);
+            if (hidden != null) r.shadowed_local_id = hidden.local_id;
         }
         return new ArrayList<>(byName.values());
     }
 
+    /** Stands in for the deleted recipe a slot links to, so the slot is shown and written back unchanged. */
+    static Page4.Recipe missingRecipe(String localId, String recipeName) {
+        Page4.Recipe r = createPlaceholderRecipe(recipeName);
+        r.local_id = localId;
+        r.description = "Recipe not found";
+        return r;
+    }
+
     // Keep the existing createPlaceholderRecipe / other helpers intact below
-    private Page4.Recipe createPlaceholderRecipe(String recipeName) {
+    static Page4.Recipe createPlaceholderRecipe(String recipeName) {
         return new Page4.Recipe(
                 0,
                 recipeName,
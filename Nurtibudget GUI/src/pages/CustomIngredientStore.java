@@ -3,20 +3,16 @@ package pages;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
-import java.io.File;
-import java.io.FileWriter;
-import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.List;
 
 public class CustomIngredientStore {
-    private static final String CUSTOM_INGREDIENTS_FILE = "src/pages/text/custom_ingredients.json";
+    private static final String CUSTOM_INGREDIENTS_FILE = FileCache.CUSTOM_INGREDIENTS_FILE;
 
     public static List<CustomIngredient> loadAll() {
-        File f = new File(CUSTOM_INGREDIENTS_FILE);
-        if (!f.exists()) return new ArrayList<>();
         try {
-            String s = new String(Files.readAllBytes(f.toPath()));
+            String s = FileCache.read(CUSTOM_INGREDIENTS_FILE);
+            if (s == null) return new ArrayList<>();
             JSONArray arr = new JSONArray(s);
             List<CustomIngredient> out = new ArrayList<>();
             for (int i = 0; i < arr.length(); i++) {
@@ -34,11 +30,7 @@ public class CustomIngredientStore {
         try {
             JSONArray arr = new JSONArray();
             for (CustomIngredient ci : items) arr.put(ci.toJson());
-            File f = new File(CUSTOM_INGREDIENTS_FILE);
-            if (!f.getParentFile().exists()) f.getParentFile().mkdirs();
-            try (FileWriter fw = new FileWriter(f, false)) {
-                fw.write(arr.toString(2));
-            }
+            LocalStore.write(CUSTOM_INGREDIENTS_FILE, arr.toString(2));
         } catch (Exception ex) {
             ex.printStackTrace();
         }
@@ -0,0 +1,193 @@
+package pages;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import javax.swing.SwingUtilities;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * In-process bus for record-level changes to the shared data, so a page that shows a recipe, batch,
+ * plan slot or product can patch just that part instead of reloading files.
+ *
+ * Writers publish after their change is committed; subscribers are called on the EDT in
+ * subscription order. {@code source} is the publishing object, letting a view skip changes it
+ * made itself. Components that come and go (dialogs, mini pages) subscribe in addNotify and
+ * unsubscribe in removeNotify.
+ */
+public final class DataEvents {
+
+    /**
+     * A recipe was saved or removed. Plan slots match it by {@code localId}, which survives the backend
+     * replacing {@code recipeId}.
+     */
+    public static final class RecipeChanged {
+        public final Object source;
+        public final int recipeId;
+        public final String localId;
+        public final String recipeName;
+        public final boolean removed;
+
+        public RecipeChanged(Object source, Page4.Recipe recipe, boolean removed) {
+            this.source = source;
+            this.recipeId = recipe.recipe_ID;
+            this.localId = recipe.local_id;
+            this.recipeName = recipe.recipe_name;
+            this.removed = removed;
+        }
+    }
+
+    /** An inventory batch was added, edited or removed. */
+    public static final class InventoryBatchChanged {
+        public final Object source;
+        public final String batchId;
+        public final boolean removed;
+
+        public InventoryBatchChanged(Object source, String batchId, boolean removed) {
+            this.source = source;
+            this.batchId = batchId;
+            this.removed = removed;
+        }
+    }
+
+    /** The planned meals of one date changed. */
+    public static final class PlanSlotChanged {
+        public final Object source;
+        public final LocalDate date;
+
+        public PlanSlotChanged(Object source, LocalDate date) {
+            this.source = source;
+            this.date = date;
+        }
+    }
+
+    /** A product's price changed; {@code product} is its updated cache record. */
+    public static final class ProductPriceChanged {
+        public final String productId;
+        public final JSONObject product;
+
+        public ProductPriceChanged(String productId, JSONObject product) {
+            this.productId = productId;
+            this.product = product;
+        }
+    }
+
+    /** Records of a JSON table without a dedicated event (favorites, custom ingredients) changed; keys are ids. */
+    public static final class RecordsChanged {
+        public final Object source;
+        public final String path;
+        public final Set<String> keys;
+
+        public RecordsChanged(Object source, String path, Set<String> keys) {
+            this.source = source;
+            this.path = path;
+            this.keys = keys;
+        }
+    }
+
+    /** A save met an external edit of the same records; the external version was kept. */
+    public static final class WriteConflict {
+        public final String path;
+        public final Set<String> keys;
+
+        public WriteConflict(String path, Set<String> keys) {
+            this.path = path;
+            this.keys = keys;
+        }
+    }
+
+    private static final Map<Class<?>, List<Consumer<?>>> subscribers = new ConcurrentHashMap<>();
+
+    private DataEvents() {}
+
+    public static <E> void subscribe(Class<E> type, Consumer<? super E> subscriber) {
+        subscribers.computeIfAbsent(type, k -> new CopyOnWriteArrayList<>()).add(subscriber);
+    }
+
+    public static <E> void unsubscribe(Class<E> type, Consumer<? super E> subscriber) {
+        List<Consumer<?>> list = subscribers.get(type);
+        if (list != null) list.remove(subscriber);
+    }
+
+    /** Delivers {@code event} to the subscribers of its class; from any thread. */
+    public static void publish(Object event) {
+        List<Consumer<?>> list = subscribers.get(event.getClass());
+        if (list == null || list.isEmpty()) return;
+        if (SwingUtilities.isEventDispatchThread()) deliver(list, event);
+        else SwingUtilities.invokeLater(() -> deliver(list, event));
+    }
+
+    //==================================================================================================================
+    // Record-level diffs of whole-table writes
+    //==================================================================================================================
+
+    /** Publishes an {@link InventoryBatchChanged} for every batch that differs between two inventory.json texts. */
+    public static void publishInventoryChanges(Object source, String before, String after) {
+        Map<String, String> old = batchesById(before), now = batchesById(after);
+        for (Map.Entry<String, String> e : now.entrySet()) {
+            if (!e.getValue().equals(old.get(e.getKey()))) publish(new InventoryBatchChanged(source, e.getKey(), false));
+        }
+        for (String id : old.keySet()) {
+            if (!now.containsKey(id)) publish(new InventoryBatchChanged(source, id, true));
+        }
+    }
+
+    /** Publishes a {@link PlanSlotChanged} for every date whose lines differ between two meal_plans.txt texts. */
+    public static void publishPlanChanges(Object source, String before, String after) {
+        Map<LocalDate, List<String>> old = linesByDate(before), now = linesByDate(after);
+        Set<LocalDate> dates = new TreeSet<>(old.keySet());
+        dates.addAll(now.keySet());
+        for (LocalDate d : dates) {
+            if (!Objects.equals(old.get(d), now.get(d))) publish(new PlanSlotChanged(source, d));
+        }
+    }
+
+    private static Map<String, String> batchesById(String text) {
+        Map<String, String> out = new HashMap<>();
+        if (text == null || text.trim().isEmpty()) return out;
+        try {
+            JSONArray arr = new JSONArray(text);
+            for (int i = 0; i < arr.length(); i++) {
+                JSONObject o = arr.getJSONObject(i);
+                out.put(o.optString("id", ""), o.toString());
+            }
+        } catch (Exception ex) {
+            ex.printStackTrace();
+        }
+        return out;
+    }
+
+    // lines sorted per date, so reordering the file is not a change
+    private static Map<LocalDate, List<String>> linesByDate(String text) {
+        Map<LocalDate, List<String>> out = new HashMap<>();
+        if (text == null) return out;
+        for (String line : text.split("\\R")) {
+            Repository.PlanSlot slot = Repository.parseSlot(line);
+            if (slot != null) out.computeIfAbsent(slot.date, k -> new ArrayList<>()).add(line.trim());
+        }
+        for (List<String> lines : out.values()) Collections.sort(lines);
+        return out;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void deliver(List<Consumer<?>> list, Object event) {
+        for (Consumer<?> c : list) {
+            try {
+                ((Consumer<Object>) c).accept(event);
+            } catch (Exception ex) {
+                ex.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package pages;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Notices when scripts or the Python service edit the data files while the app is running.
+ *
+ * For every table it keeps the text this process last wrote or saw (the base). An external
+ * change is diffed record by record against the base and announced through {@link DataEvents},
+ * with this watcher as the source, so views patch the records that changed. A commit that would
+ * replace a table edited externally since its base is three-way merged first by
+ * {@link #merge}: records only we changed take our version, records only they changed keep
+ * theirs, and records both changed keep theirs and are reported as a {@link DataEvents.WriteConflict}.
+ * A JSON record with no key, or with a key an earlier record already has, cannot be matched between
+ * versions; it is kept as written and reported as a conflict rather than guessed at.
+ */
+public final class DataFileWatcher {
+
+    private static final long DEBOUNCE_MS = 200;
+
+    private static final DataFileWatcher INSTANCE = new DataFileWatcher();
+
+    // table layouts the watcher can diff and merge; other files are only dropped from FileCache
+    private enum Layout {
+        JSON_BY_ID("id"), JSON_BY_LOCAL_ID("local_id"), JSON_BY_KEY("key"), PLAN_LINES(null);
+
+        final String field;
+
+        Layout(String field) { this.field = field; }
+    }
+
+    private static final Map<String, Layout> TABLES = new LinkedHashMap<>();
+    static {
+        TABLES.put(FileCache.INVENTORY_FILE, Layout.JSON_BY_ID);
+        TABLES.put(FileCache.CUSTOM_INGREDIENTS_FILE, Layout.JSON_BY_ID);
+        TABLES.put(FileCache.FAVORITES_FILE, Layout.JSON_BY_ID);
+        // recipe ids are reassigned and can collide; local ids are stable (Page4.Recipe.local_id)
+        TABLES.put(FileCache.CUSTOM_RECIPES_FILE, Layout.JSON_BY_LOCAL_ID);
+        TABLES.put(MealTemplates.FILE, Layout.JSON_BY_ID);
+        TABLES.put(IngredientMasters.MASTER_FILE, Layout.JSON_BY_KEY);
+        TABLES.put(FileCache.MEAL_PLAN_FILE, Layout.PLAN_LINES);
+    }
+
+    // guarded by LocalStore.class, the lock commits run under
+    private final Map<String, String> base = new HashMap<>();
+    private Thread thread;
+
+    private DataFileWatcher() {}
+
+    public static DataFileWatcher get() { return INSTANCE; }
+
+    /** Records the current tables as the base and starts watching the data directory. Idempotent. */
+    public static synchronized void start() {
+        if (INSTANCE.thread != null) return;
+        LocalStore.open();
+        synchronized (LocalStore.class) {
+            for (String path : TABLES.keySet()) INSTANCE.base.put(path, readQuietly(path));
+        }
+        INSTANCE.thread = new Thread(INSTANCE::run, "data-file-watcher");
+        INSTANCE.thread.setDaemon(true);
+        INSTANCE.thread.start();
+    }
+
+    //==================================================================================================================
+    // Commit side, called by LocalStore while it holds its lock
+    //==================================================================================================================
+
+    /**
+     * Our new contents for {@code path}, merged with any external edit made since the base.
+     * Unchanged when nothing external happened or the watcher is not running.
+     */
+    String merge(String path, String ours) {
+        Layout layout = TABLES.get(path);
+        if (layout == null || !base.containsKey(path)) return ours;
+        FileCache.invalidate(path);
+        String theirs = readQuietly(path);
+        String old = base.get(path);
+        if (Objects.equals(theirs, old) || Objects.equals(theirs, ours)) return ours;
+
+        Records b = records(layout, old), t = records(layout, theirs), o = records(layout, ours);
+        Map<String, String> merged = new LinkedHashMap<>();
+        Set<String> conflicts = new LinkedHashSet<>();
+        Set<String> keys = new LinkedHashSet<>(o.keyed.keySet());
+        keys.addAll(t.keyed.keySet());
+        for (String key : keys) {
+            String bv = b.keyed.get(key), tv = t.keyed.get(key), ov = o.keyed.get(key);
+            String v;
+            if (Objects.equals(ov, bv)) v = tv;
+            else if (Objects.equals(tv, bv) || Objects.equals(tv, ov)) v = ov;
+            else {
+                v = tv;   // both edited it: keep the external version rather than overwrite it
+                conflicts.add(key);
+            }
+            if (v != null) merged.put(key, v);
+        }
+        // unmatched records: the external ones stay as they are, ours are added only when new
+        List<String> loose = new ArrayList<>(t.unkeyed);
+        for (String json : o.unkeyed) if (!b.unkeyed.contains(json) && !loose.contains(json)) loose.add(json);
+        for (String json : loose) conflicts.add("~" + json);
+        if (!conflicts.isEmpty()) {
+            System.err.println("DataFileWatcher: kept external edits of " + conflicts.size() + " record(s) in " + path);
+            DataEvents.publish(new DataEvents.WriteConflict(path, conflicts));
+        }
+        List<String> out = new ArrayList<>(merged.values());
+        out.addAll(loose);
+        return format(layout, out);
+    }
+
+    /** After a commit: {@code written} is the new base; records merged in from outside are announced. */
+    void committed(String path, String ours, String written) {
+        if (!TABLES.containsKey(path) || !base.containsKey(path)) return;
+        base.put(path, written);
+        if (!written.equals(ours)) announce(path, ours, written);
+    }
+
+    //==================================================================================================================
+    // Watch loop
+    //==================================================================================================================
+
+    private void run() {
+        try (WatchService ws = FileSystems.getDefault().newWatchService()) {
+            Path dir = LocalStore.DIR.toPath();
+            dir.register(ws, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_DELETE);
+            while (true) {
+                WatchKey key = ws.take();
+                Set<String> touched = new LinkedHashSet<>();
+                // a script rewriting a file fires several events; collect until it goes quiet
+                while (key != null) {
+                    for (WatchEvent<?> ev : key.pollEvents()) {
+                        if (ev.context() instanceof Path) touched.add(dir.resolve((Path) ev.context()).toString().replace('\\', '/'));
+                    }
+                    key.reset();
+                    key = ws.poll(DEBOUNCE_MS, TimeUnit.MILLISECONDS);
+                }
+                for (String path : touched) changed(path);
+            }
+        } catch (InterruptedException | ClosedWatchServiceException ex) {
+            // shutting down
+        } catch (IOException ex) {
+            System.err.println("DataFileWatcher: not watching " + LocalStore.DIR + ": " + ex.getMessage());
+        }
+    }
+
+    private void changed(String path) {
+        if (path.endsWith(".txn") || path.endsWith("store.journal")) return;
+        FileCache.invalidate(path);
+        if (!TABLES.containsKey(path)) return;
+        synchronized (LocalStore.class) {
+            String now = readQuietly(path);
+            String old = base.get(path);
+            if (Objects.equals(now, old)) return;   // our own commit
+            base.put(path, now);
+            System.out.println("DataFileWatcher: external edit of " + path);
+            announce(path, old, now);
+        }
+    }
+
+    //==================================================================================================================
+    // Record-level diffs
+    //==================================================================================================================
+
+    private void announce(String path, String before, String after) {
+        if (path.equals(FileCache.INVENTORY_FILE)) {
+            DataEvents.publishInventoryChanges(this, before, after);
+        } else if (path.equals(FileCache.MEAL_PLAN_FILE)) {
+            DataEvents.publishPlanChanges(this, before, after);
+        } else if (path.equals(IngredientMasters.MASTER_FILE)) {
+            IngredientMasters.reload();
+        } else {
+            Layout layout = TABLES.get(path);
+            Records old = records(layout, before), now = records(layout, after);
+            Set<String> keys = changedKeys(old.keyed, now.keyed);
+            if (path.equals(FileCache.CUSTOM_RECIPES_FILE)) {
+                for (String key : keys) {
+                    boolean removed = !now.keyed.containsKey(key);
+                    Page4.Recipe r = Page4.Recipe.fromJson(new JSONObject(removed ? old.keyed.get(key) : now.keyed.get(key)));
+                    DataEvents.publish(new DataEvents.RecipeChanged(this, r, removed));
+                }
+            } else if (!keys.isEmpty()) {
+                DataEvents.publish(new DataEvents.RecordsChanged(this, path, keys));
+            }
+            Set<String> unmatched = new LinkedHashSet<>();
+            for (String json : now.unkeyed) if (!old.unkeyed.contains(json)) unmatched.add("~" + json);
+            if (!unmatched.isEmpty()) {
+                System.err.println("DataFileWatcher: " + unmatched.size() + " record(s) in " + path
+                        + " have no usable " + layout.field + " and were not applied");
+                DataEvents.publish(new DataEvents.WriteConflict(path, unmatched));
+            }
+        }
+    }
+
+    private static Set<String> changedKeys(Map<String, String> old, Map<String, String> now) {
+        Set<String> keys = new LinkedHashSet<>();
+        for (Map.Entry<String, String> e : now.entrySet()) if (!e.getValue().equals(old.get(e.getKey()))) keys.add(e.getKey());
+        for (String k : old.keySet()) if (!now.containsKey(k)) keys.add(k);
+        return keys;
+    }
+
+    // A table split into records. JSON records without a key, or repeating an earlier key, go to unkeyed.
+    private static final class Records {
+        final Map<String, String> keyed = new LinkedHashMap<>();
+        final List<String> unkeyed = new ArrayList<>();
+    }
+
+    // Records in file order; plan lines are keyed by date.
+    private static Records records(Layout layout, String text) {
+        Records records = new Records();
+        Map<String, String> out = records.keyed;
+        if (text == null || text.trim().isEmpty()) return records;
+        if (layout == Layout.PLAN_LINES) {
+            Map<String, List<String>> byDate = new TreeMap<>();
+            for (String line : text.split("\\R")) {
+                if (line.trim().isEmpty()) continue;
+                Repository.PlanSlot slot = Repository.parseSlot(line);
+                String key = slot != null ? slot.date.toString() : "~" + line.trim();
+                byDate.computeIfAbsent(key, k -> new ArrayList<>()).add(line.trim());
+            }
+            for (Map.Entry<String, List<String>> e : byDate.entrySet()) {
+                Collections.sort(e.getValue());
+                out.put(e.getKey(), String.join("\n", e.getValue()));
+            }
+            return records;
+        }
+        try {
+            JSONArray arr = new JSONArray(text);
+            for (int i = 0; i < arr.length(); i++) {
+                JSONObject o = arr.optJSONObject(i);
+                if (o == null) continue;
+                String id = o.optString(layout.field, "");
+                String json = o.toString();
+                if (id.isEmpty() || out.containsKey(id)) records.unkeyed.add(json);
+                else out.put(id, json);
+            }
+        } catch (Exception ex) {
+            ex.printStackTrace();
+        }
+        return records;
+    }
+
+    private static String format(Layout layout, List<String> records) {
+        if (layout == Layout.PLAN_LINES) {
+            StringBuilder sb = new StringBuilder();
+            for (String lines : records) sb.append(lines).append('\n');
+            return sb.toString();
+        }
+        JSONArray arr = new JSONArray();
+        for (String json : records) arr.put(new JSONObject(json));
+        return arr.toString(2);
+    }
+
+    private static String readQuietly(String path) {
+        try {
+            return FileCache.read(path);
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            return null;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package pages;
+
+import javax.swing.AbstractAction;
+import javax.swing.JButton;
+import javax.swing.JComponent;
+import javax.swing.JRootPane;
+import javax.swing.KeyStroke;
+import java.awt.event.ActionEvent;
+import java.awt.event.InputEvent;
+import java.awt.event.KeyEvent;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * App-wide undo/redo for plan and recipe edits, kept as a log of inverse commands.
+ *
+ * Each {@link Edit} holds only the records it changed (one day's meals, one recipe's JSON), before and
+ * after, so an entry costs what the edit touched rather than a copy of the plan or catalog. Undo and
+ * redo put a record state back through the owning page's normal save path, which persists just that
+ * record's table and publishes the usual {@link DataEvents}; views and other processes follow the
+ * replay like any other edit. Saves made while replaying are not recorded again.
+ *
+ * Everything runs on the EDT.
+ */
+public final class EditHistory {
+
+    /** One undoable change. */
+    interface Edit {
+        String label();
+
+        void undo();
+
+        void redo();
+
+        /** Folds {@code next}, a later edit, into this one (typing into one field); false if it is separate. */
+        default boolean absorb(Edit next) { return false; }
+    }
+
+    private static final int LIMIT = 200;
+    private static final EditHistory INSTANCE = new EditHistory();
+
+    private final Deque<Edit> undo = new ArrayDeque<>();
+    private final Deque<Edit> redo = new ArrayDeque<>();
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+    private boolean replaying;
+
+    private EditHistory() {}
+
+    public static EditHistory get() { return INSTANCE; }
+
+    /** Adds an edit that was just applied and saved. Ignored while an undo or redo is replaying. */
+    void record(Edit e) {
+        if (replaying) return;
+        redo.clear();
+        Edit last = undo.peekLast();
+        if (last == null || !last.absorb(e)) {
+            undo.addLast(e);
+            if (undo.size() > LIMIT) undo.removeFirst();
+        }
+        fireChanged();
+    }
+
+    boolean isReplaying() { return replaying; }
+
+    public boolean canUndo() { return !undo.isEmpty(); }
+    public boolean canRedo() { return !redo.isEmpty(); }
+
+    public String undoLabel() { return undo.isEmpty() ? null : undo.peekLast().label(); }
+    public String redoLabel() { return redo.isEmpty() ? null : redo.peekLast().label(); }
+
+    public void undo() {
+        Edit e = undo.pollLast();
+        if (e == null) return;
+        replay(e::undo);
+        redo.addLast(e);
+        fireChanged();
+    }
+
+    public void redo() {
+        Edit e = redo.pollLast();
+        if (e == null) return;
+        replay(e::redo);
+        undo.addLast(e);
+        fireChanged();
+    }
+
+    private void replay(Runnable r) {
+        replaying = true;
+        try {
+            r.run();
+        } catch (Exception ex) {
+            ex.printStackTrace();
+        } finally {
+            replaying = false;
+        }
+    }
+
+    /** Called after every record, undo and redo, e.g. to enable buttons. */
+    public void addListener(Runnable l) { listeners.add(l); }
+    public void removeListener(Runnable l) { listeners.remove(l); }
+
+    private void fireChanged() {
+        for (Runnable l : listeners) l.run();
+    }
+
+    /** An Undo or Redo button that enables itself and names the edit in its tooltip while it is shown. */
+    static JButton button(boolean redo) {
+        return new JButton(redo ? "Redo" : "Undo") {
+            private final Runnable update = () -> {
+                String label = redo ? INSTANCE.redoLabel() : INSTANCE.undoLabel();
+                setEnabled(label != null);
+                setToolTipText(label != null ? (redo ? "Redo " : "Undo ") + label : null);
+            };
+
+            {
+                addActionListener(e -> {
+                    if (redo) INSTANCE.redo();
+                    else INSTANCE.undo();
+                });
+            }
+
+            @Override public void addNotify() {
+                super.addNotify();
+                INSTANCE.addListener(update);
+                update.run();
+            }
+
+            @Override public void removeNotify() {
+                INSTANCE.removeListener(update);
+                super.removeNotify();
+            }
+        };
+    }
+
+    /** Binds Ctrl+Z to undo and Ctrl+Y / Ctrl+Shift+Z to redo anywhere in the window. */
+    public static void install(JRootPane root) {
+        int ctrl = InputEvent.CTRL_DOWN_MASK;
+        root.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(KeyEvent.VK_Z, ctrl), "editHistory.undo");
+        root.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(KeyEvent.VK_Y, ctrl), "editHistory.redo");
+        root.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(KeyEvent.VK_Z, ctrl | InputEvent.SHIFT_DOWN_MASK), "editHistory.redo");
+        root.getActionMap().put("editHistory.undo", new AbstractAction() {
+            @Override public void actionPerformed(ActionEvent e) { INSTANCE.undo(); }
+        });
+        root.getActionMap().put("editHistory.redo", new AbstractAction() {
+            @Override public void actionPerformed(ActionEvent e) { INSTANCE.redo(); }
+        });
+    }
+}
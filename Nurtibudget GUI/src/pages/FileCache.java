@@ -0,0 +1,78 @@
+package pages;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Contents of the text data files, kept in memory while the file on disk is unchanged.
+ *
+ * Several pages and dialogs re-read the same recipe, inventory and meal plan files; every read
+ * here checks the file's modification time and size first and only goes to disk when either
+ * changed, so writers need no extra bookkeeping. {@link StartupLoader} fills it in the background
+ * at startup. Disk reads are checked by {@link LocalStore#verified}.
+ */
+public final class FileCache {
+
+    static final String RECIPES_FILE = "src/pages/text/recipes.txt";
+    static final String CUSTOM_RECIPES_FILE = "src/pages/text/custom_recipes.txt";
+    static final String CUSTOM_INGREDIENTS_FILE = "src/pages/text/custom_ingredients.json";
+    static final String FAVORITES_FILE = "src/pages/text/favorite_products.json";
+    static final String MEAL_PLAN_FILE = "src/pages/text/meal_plans.txt";
+    static final String INVENTORY_FILE = "src/pages/text/inventory.json";
+
+    private static final int MAX_ENTRIES = 32;
+
+    private static final class Entry {
+        final FileTime modified;
+        final long size;
+        final String text;
+
+        Entry(FileTime modified, long size, String text) {
+            this.modified = modified;
+            this.size = size;
+            this.text = text;
+        }
+    }
+
+    private static final Map<String, Entry> cache = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private FileCache() {}
+
+    /** Whole file as text, or null when it does not exist. */
+    public static String read(String path) throws IOException {
+        Path p = new File(path).toPath();
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(p, BasicFileAttributes.class);
+        } catch (NoSuchFileException ex) {
+            invalidate(path);
+            return null;
+        }
+        synchronized (cache) {
+            Entry e = cache.get(path);
+            if (e != null && e.size == attrs.size() && e.modified.equals(attrs.lastModifiedTime())) return e.text;
+        }
+        String text = LocalStore.verified(path, new String(Files.readAllBytes(p), StandardCharsets.UTF_8));
+        synchronized (cache) {
+            cache.put(path, new Entry(attrs.lastModifiedTime(), attrs.size(), text));
+        }
+        return text;
+    }
+
+    public static void invalidate(String path) {
+        synchronized (cache) { cache.remove(path); }
+    }
+}
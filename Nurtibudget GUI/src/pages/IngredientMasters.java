@@ -0,0 +1,165 @@
+package pages;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Interned ingredient master records, one per product.
+ *
+ * A recipe ingredient keeps only its own quantity, unit and multiplier; the product data (name,
+ * prices, serving label, nutrient and Kroger JSON) lives in a master record keyed by Kroger
+ * product id, or by normalized name for custom ingredients. Loaded entries share the master's
+ * objects instead of each holding a parsed copy. A master changes only when product data does:
+ * code that sets a price, serving label or backend id on an entry calls {@link #update}. Saving never
+ * re-derives masters from entries, so an entry that still holds an older copy cannot overwrite a
+ * refreshed one. On disk custom_recipes.txt stores ingredients as
+ * {@code {"ref": key, "quantity": ...}} and the masters live in ingredient_master.json; both are
+ * written in one {@link LocalStore} transaction by {@link #saveRecipes}.
+ */
+final class IngredientMasters {
+
+    static final String MASTER_FILE = "src/pages/text/ingredient_master.json";
+
+    private static final Map<String, Page4.IngredientEntry> masters = new LinkedHashMap<>();
+    private static boolean loaded = false;
+
+    private IngredientMasters() {}
+
+    /** Master key of an entry, or "" when it has nothing stable to key on. */
+    static String keyOf(Page4.IngredientEntry ie) {
+        String id = PriceRefresher.productIdOf(ie);
+        if (!id.isEmpty()) return id;
+        String name = ie.name != null ? ie.name.trim().toLowerCase() : "";
+        return name.isEmpty() ? "" : "name:" + name;
+    }
+
+    /** Points a freshly parsed inline entry at its master's product data, registering it if new. */
+    static synchronized void intern(Page4.IngredientEntry ie) {
+        String key = keyOf(ie);
+        if (key.isEmpty()) return;
+        ensureLoaded();
+        Page4.IngredientEntry m = masters.get(key);
+        if (m == null) {
+            m = new Page4.IngredientEntry();
+            copyProduct(ie, m);
+            masters.put(key, m);
+        }
+        copyProduct(m, ie);
+    }
+
+    /** Records product data just set on {@code ie} (a fetched product, new price, label or id) in its master. */
+    static synchronized void update(Page4.IngredientEntry ie) {
+        String key = keyOf(ie);
+        if (key.isEmpty()) return;
+        ensureLoaded();
+        copyProduct(ie, masters.computeIfAbsent(key, k -> new Page4.IngredientEntry()));
+    }
+
+    /** Fills the product fields of a {@code {"ref": key}} entry. Returns false if the master is missing. */
+    static synchronized boolean resolve(String key, Page4.IngredientEntry into) {
+        ensureLoaded();
+        Page4.IngredientEntry m = masters.get(key);
+        if (m == null) return false;
+        copyProduct(m, into);
+        return true;
+    }
+
+    /** Drops the loaded masters so the next lookup re-reads the file, after it was edited outside the app. */
+    static synchronized void reload() {
+        masters.clear();
+        loaded = false;
+    }
+
+    /** Writes {@code recipes} by reference together with the master table, atomically. */
+    static void saveRecipes(String path, Collection<Page4.Recipe> recipes) throws IOException {
+        LocalStore.Transaction tx = LocalStore.begin();
+        stageRecipes(tx, path, recipes);
+        tx.commit();
+    }
+
+    static void stageRecipes(LocalStore.Transaction tx, String path, Collection<Page4.Recipe> recipes) {
+        JSONArray root = new JSONArray();
+        String masterText;
+        synchronized (IngredientMasters.class) {
+            ensureLoaded();
+            Set<String> referenced = new LinkedHashSet<>();
+            for (Page4.Recipe r : recipes) root.put(storedJson(r, referenced));
+            // only masters some recipe still uses are written, so removed products drop out
+            JSONArray table = new JSONArray();
+            for (Map.Entry<String, Page4.IngredientEntry> e : masters.entrySet()) {
+                if (!referenced.contains(e.getKey())) continue;
+                JSONObject o = e.getValue().toJson();
+                for (String perRecipe : new String[] { "quantity", "unit", "multiplier", "measured", "lastSyncedQuantity" }) o.remove(perRecipe);
+                o.put("key", e.getKey());
+                table.put(o);
+            }
+            masterText = table.toString(2);
+        }
+        tx.put(MASTER_FILE, masterText).put(path, root.toString(2));
+    }
+
+    // Recipe JSON with ingredients stored by reference; an entry only seeds a master that does not exist yet.
+    private static JSONObject storedJson(Page4.Recipe r, Set<String> referenced) {
+        JSONObject ro = r.toJson();
+        JSONArray ings = new JSONArray();
+        for (Page4.IngredientEntry ie : r.recipe_ingredients) {
+            String key = keyOf(ie);
+            if (key.isEmpty()) {
+                ings.put(ie.toJson());
+                continue;
+            }
+            if (!masters.containsKey(key)) {
+                Page4.IngredientEntry m = new Page4.IngredientEntry();
+                copyProduct(ie, m);
+                masters.put(key, m);
+            }
+            referenced.add(key);
+            JSONObject ref = new JSONObject();
+            ref.put("ref", key);
+            ref.put("quantity", ie.quantity);
+            ref.put("unit", ie.unit != null ? ie.unit : "");
+            ref.put("multiplier", ie.multiplier);
+            ref.put("measured", ie.measured);
+            if (!Double.isNaN(ie.lastSyncedQuantity)) ref.put("lastSyncedQuantity", ie.lastSyncedQuantity);
+            ings.put(ref);
+        }
+        ro.put("ingredients", ings);
+        return ro;
+    }
+
+    private static void ensureLoaded() {
+        if (loaded) return;
+        loaded = true;
+        try {
+            String text = FileCache.read(MASTER_FILE);
+            if (text == null || text.trim().isEmpty()) return;
+            JSONArray arr = new JSONArray(text);
+            for (int i = 0; i < arr.length(); i++) {
+                JSONObject o = arr.getJSONObject(i);
+                String key = o.optString("key", "");
+                if (!key.isEmpty()) masters.put(key, Page4.IngredientEntry.fromInlineJson(o));
+            }
+        } catch (Exception ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    private static void copyProduct(Page4.IngredientEntry from, Page4.IngredientEntry to) {
+        to.name = from.name;
+        to.info = from.info;
+        to.imagePath = from.imagePath;
+        to.external_id = from.external_id;
+        to.price_per_serving = from.price_per_serving;
+        to.calories_per_serving = from.calories_per_serving;
+        to.serving_label = from.serving_label;
+        to.nutrients_per_serving = from.nutrients_per_serving;
+        to.kroger_raw = from.kroger_raw;
+    }
+}
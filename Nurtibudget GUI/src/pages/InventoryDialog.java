@@ -13,6 +13,7 @@ import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
 import java.util.List;
+import java.util.function.Predicate;
 
 
 //======================================================================================================================
@@ -24,8 +25,8 @@ public class InventoryDialog extends JDialog {
     //==============================================================================================================
     // Fields & Constants
     //==============================================================================================================
-    private static final String INVENTORY_FILE = "src/pages/text/inventory.json";
-    private static final String MEAL_PLAN_FILE = "src/pages/text/meal_plans.txt";
+    private static final String INVENTORY_FILE = FileCache.INVENTORY_FILE;
+    private static final String MEAL_PLAN_FILE = FileCache.MEAL_PLAN_FILE;
     private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd");
 
     private InventoryTableModel tableModel;
@@ -101,8 +102,8 @@ public class InventoryDialog extends JDialog {
                     String removedId = it.id;
                     tableModel.removeAt(modelRow);
                     try {
-                        saveToFile();
-                        removeAssignmentsForInventoryId(removedId);
+                        // batch and its calendar assignments go in one transaction
+                        commitWithPlans(inventoryText(), mealPlansWithout(id -> id.equals(removedId)));
                         loadFromFile();
                         if (refreshCallback != null) refreshCallback.run();
                         JOptionPane.showMessageDialog(this, "Removed item and cleared related calendar assignments.");
@@ -123,10 +124,7 @@ public class InventoryDialog extends JDialog {
                     JOptionPane.YES_NO_OPTION);
             if (confirm != JOptionPane.YES_OPTION) return;
             try {
-                File f = new File(INVENTORY_FILE);
-                if (!f.getParentFile().exists()) f.getParentFile().mkdirs();
-                try (FileWriter fw = new FileWriter(f, false)) { fw.write(new JSONArray().toString(2)); }
-                removeAllInventoryAssignmentsFromMealPlans();
+                commitWithPlans(new JSONArray().toString(2), mealPlansWithout(id -> !id.isEmpty()));
                 loadFromFile();
                 if (refreshCallback != null) refreshCallback.run();
                 JOptionPane.showMessageDialog(this, "Cleared all inventory and removed associated calendar entries.");
@@ -167,46 +165,18 @@ public class InventoryDialog extends JDialog {
     //==============================================================================================================
     // Meal-plan file operations affecting inventory assignments
     //==============================================================================================================
-    private void removeAssignmentsForInventoryId(String invId) {
-        File f = new File(MEAL_PLAN_FILE);
-        if (!f.exists()) return;
-        List<String> kept = new ArrayList<>();
-        try (BufferedReader br = new BufferedReader(new FileReader(f))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                if (line.trim().isEmpty()) continue;
-                String[] parts = line.contains("|") ? line.split("\\|", 4) : line.split("\\t", 4);
-                if (parts.length >= 4) {
-                    String id = parts[3].trim();
-                    if (id.equals(invId)) continue;
-                }
-                kept.add(line);
-            }
-        } catch (IOException ex) { ex.printStackTrace(); }
-        try (PrintWriter pw = new PrintWriter(new FileWriter(f, false))) {
-            for (String l : kept) pw.println(l);
-        } catch (IOException ex) { ex.printStackTrace(); }
-    }
-
-    private void removeAllInventoryAssignmentsFromMealPlans() {
-        File f = new File(MEAL_PLAN_FILE);
-        if (!f.exists()) return;
-        List<String> kept = new ArrayList<>();
-        try (BufferedReader br = new BufferedReader(new FileReader(f))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                if (line.trim().isEmpty()) continue;
-                String[] parts = line.contains("|") ? line.split("\\|", 4) : line.split("\\t", 4);
-                if (parts.length >= 4) {
-                    String id = parts[3].trim();
-                    if (!id.isEmpty()) continue;
-                }
-                kept.add(line);
-            }
-        } catch (IOException ex) { ex.printStackTrace(); }
-        try (PrintWriter pw = new PrintWriter(new FileWriter(f, false))) {
-            for (String l : kept) pw.println(l);
-        } catch (IOException ex) { ex.printStackTrace(); }
+    // meal_plans.txt minus the lines whose inventory id matches; the caller commits it
+    private String mealPlansWithout(Predicate<String> dropInventoryId) throws IOException {
+        String text = FileCache.read(MEAL_PLAN_FILE);
+        if (text == null) return "";
+        StringBuilder kept = new StringBuilder();
+        for (String line : text.split("\\R")) {
+            if (line.trim().isEmpty()) continue;
+            Repository.PlanSlot slot = Repository.parseSlot(line);
+            if (slot != null && dropInventoryId.test(slot.inventoryId != null ? slot.inventoryId : "")) continue;
+            kept.append(line).append('\n');
+        }
+        return kept.toString();
     }
 
     //==============================================================================================================
@@ -400,9 +370,8 @@ public class InventoryDialog extends JDialog {
 
     private void loadFromFile() {
         try {
-            File f = new File(INVENTORY_FILE);
-            if (!f.exists()) { tableModel.setList(Collections.emptyList()); return; }
-            String s = new String(Files.readAllBytes(f.toPath()));
+            String s = FileCache.read(INVENTORY_FILE);
+            if (s == null) { tableModel.setList(Collections.emptyList()); return; }
             JSONArray arr = new JSONArray(s);
             List<InventoryItem> out = new ArrayList<>();
             Map<String, Integer> assignedMap = computeAssignmentsFromMealPlans();
@@ -433,46 +402,34 @@ public class InventoryDialog extends JDialog {
     }
 
     private void saveToFile() throws IOException {
+        String before = FileCache.read(INVENTORY_FILE), after = inventoryText();
+        LocalStore.write(INVENTORY_FILE, after);
+        DataEvents.publishInventoryChanges(this, before, after);
+    }
+
+    // Commits inventory and plans together, then tells open views which batches and dates changed.
+    private void commitWithPlans(String inventory, String plans) throws IOException {
+        String invBefore = FileCache.read(INVENTORY_FILE), plansBefore = FileCache.read(MEAL_PLAN_FILE);
+        LocalStore.begin()
+                .put(INVENTORY_FILE, inventory)
+                .put(MEAL_PLAN_FILE, plans)
+                .commit();
+        DataEvents.publishInventoryChanges(this, invBefore, inventory);
+        DataEvents.publishPlanChanges(this, plansBefore, plans);
+    }
+
+    private String inventoryText() {
         JSONArray arr = new JSONArray();
         for (InventoryItem it : tableModel.getList()) { it.portionsUsed = Math.max(0, Math.min(it.portionsUsed, it.totalPortions)); arr.put(it.toJson()); }
-        File f = new File(INVENTORY_FILE);
-        if (!f.getParentFile().exists()) f.getParentFile().mkdirs();
-        try (FileWriter fw = new FileWriter(f, false)) { fw.write(arr.toString(2)); }
+        return arr.toString(2);
     }
 
     private Map<String, Integer> computeAssignmentsFromMealPlans() {
-        Map<String, Integer> map = new HashMap<>();
-        File f = new File(MEAL_PLAN_FILE);
-        if (!f.exists()) return map;
-        try (BufferedReader br = new BufferedReader(new FileReader(f))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                if (line.trim().isEmpty()) continue;
-                String[] parts = line.contains("|") ? line.split("\\|", 4) : line.split("\\t", 4);
-                if (parts.length < 4) continue;
-                String invId = parts[3].trim();
-                if (invId.isEmpty()) continue;
-                map.put(invId, map.getOrDefault(invId, 0) + 1);
-            }
-        } catch (IOException ex) { ex.printStackTrace(); }
-        return map;
+        return new HashMap<>(Repository.get().assignmentCounts());
     }
 
     private List<Page4.Recipe> loadAllRecipes() {
-        LinkedHashMap<String, Page4.Recipe> byName = new LinkedHashMap<>();
-        try {
-            for (Page4.Recipe r : RecipeLoader.loadRecipesFromFile("src/pages/text/recipes.txt")) {
-                if (r != null && r.recipe_name != null) byName.put(r.recipe_name.trim().toLowerCase(), r);
-            }
-            for (Page4.Recipe r : RecipeLoader.loadRecipesFromFile("src/pages/text/custom_recipes.txt")) {
-                if (r != null && r.recipe_name != null) byName.put(r.recipe_name.trim().toLowerCase(), r);
-            }
-        } catch (Exception ex) {
-            ex.printStackTrace();
-        }
-        List<Page4.Recipe> merged = new ArrayList<>(byName.values());
-        System.out.println("InventoryDialog: loaded recipes - merged=" + merged.size());
-        return merged;
+        return new ArrayList<>(Repository.get().recipes());
     }
 
     static ImageIcon loadImageIconStatic(String path, int width, int height) {
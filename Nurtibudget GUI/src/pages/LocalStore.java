@@ -0,0 +1,496 @@
+package pages;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+import java.util.zip.CRC32;
+
+/**
+ * Transactional writes over the data files in src/pages/text.
+ *
+ * Each file is one table in its existing format, so everything that reads them keeps working.
+ * A {@link Transaction} stages new contents for any number of tables and commits them together:
+ * <ol>
+ *   <li>every new table is written and synced to {@code <file>.txn}</li>
+ *   <li>{@code store.journal} lists those files and ends with a COMMIT line, then is synced</li>
+ *   <li>each {@code .txn} file is renamed over its table, then the journal is deleted</li>
+ * </ol>
+ * A crash before step 2 completes leaves the old tables untouched; after it, {@link #open()}
+ * finishes the renames on the next start. Either all tables of a transaction change or none do.
+ *
+ * Commits are serialized, within the process and across processes sharing the directory through
+ * an advisory lock on {@code store.lock}. Every commit also records each table's CRC-32 and length
+ * in {@code store.sums} (part of the same transaction, since the tables keep their plain formats for
+ * scripts and the Python service) and keeps the previous version as {@code <file>.bak}.
+ * {@link FileCache} passes disk reads through {@link #verified}, which restores the backup when a
+ * table fails its checksum.
+ *
+ * The append-only logs kept next to the tables (the bridge outbox, the price history) are written
+ * through {@link #append} and {@link #replaceSynced}, under the same lock, so a commit or a
+ * recovery never runs in the middle of one.
+ */
+public final class LocalStore {
+
+    static final File DIR = new File("src/pages/text");
+    private static final File JOURNAL = new File(DIR, "store.journal");
+    private static final File VERSION_FILE = new File(DIR, "store.version");
+    private static final File LOCK_FILE = new File(DIR, "store.lock");
+    static final String SUMS_FILE = "src/pages/text/store.sums";
+    private static final String COMMIT = "COMMIT";
+    private static final String TXN_SUFFIX = ".txn";
+    private static final String BAK_SUFFIX = ".bak";
+    private static final String REJECTED_SUFFIX = ".rejected";
+    private static final long SETTLE_MS = 250L;        // a damaged table must hold still this long to be restored
+    private static final int SETTLE_TRIES = 8;
+    static final int STORE_VERSION = 3;
+
+    private static boolean opened = false;
+
+    // the cross-process lock; re-entrant within this process, guarded by LocalStore.class
+    private static FileChannel lockChannel;
+    private static FileLock lock;
+    private static int lockDepth = 0;
+
+    private LocalStore() {}
+
+    /** Staged table contents; nothing touches disk until {@link #commit()}. */
+    public static final class Transaction {
+        private final Map<String, String> writes = new LinkedHashMap<>();
+
+        public Transaction put(String path, String contents) {
+            writes.put(path, contents);
+            return this;
+        }
+
+        public void commit() throws IOException {
+            LocalStore.commit(writes);
+        }
+    }
+
+    public static Transaction begin() { return new Transaction(); }
+
+    /** Single-table transaction. */
+    public static void write(String path, String contents) throws IOException {
+        begin().put(path, contents).commit();
+    }
+
+    /** Recovers an interrupted commit and runs the one-time migration. Safe to call repeatedly. */
+    public static synchronized void open() {
+        if (opened) return;
+        opened = true;
+        try {
+            lockStore();
+            try {
+                recover();
+                int version = readVersion();
+                if (version < STORE_VERSION) {
+                    migrate(version);
+                    Files.write(VERSION_FILE.toPath(), String.valueOf(STORE_VERSION).getBytes(StandardCharsets.UTF_8));
+                }
+            } finally {
+                unlockStore();
+            }
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    private static synchronized void commit(Map<String, String> writes) throws IOException {
+        if (writes.isEmpty()) return;
+        open();
+        if (!DIR.exists()) DIR.mkdirs();
+        Map<String, String> merged = new LinkedHashMap<>();
+        lockStore();
+        try {
+            recover();   // another instance may have died mid-commit
+            // tables edited outside the app since we last saw them are merged rather than overwritten
+            for (Map.Entry<String, String> w : writes.entrySet()) merged.put(w.getKey(), DataFileWatcher.get().merge(w.getKey(), w.getValue()));
+            Map<String, String> sums = readSums();
+            for (Map.Entry<String, String> w : merged.entrySet()) sums.put(w.getKey(), checksum(w.getValue()));
+            StringBuilder journal = new StringBuilder();
+            List<String> paths = new ArrayList<>(merged.keySet());
+            paths.add(SUMS_FILE);
+            for (String path : paths) {
+                File target = new File(path);
+                if (target.getParentFile() != null && !target.getParentFile().exists()) target.getParentFile().mkdirs();
+                writeSynced(new File(path + TXN_SUFFIX), path.equals(SUMS_FILE) ? formatSums(sums) : merged.get(path));
+                journal.append(path).append('\n');
+            }
+            journal.append(COMMIT).append('\n');
+            writeSynced(JOURNAL, journal.toString());
+            applyJournal(paths);
+        } finally {
+            unlockStore();
+        }
+        for (Map.Entry<String, String> w : merged.entrySet()) DataFileWatcher.get().committed(w.getKey(), writes.get(w.getKey()), w.getValue());
+    }
+
+    // Completes a committed journal; discards staged files from one that never reached COMMIT.
+    private static void recover() throws IOException {
+        if (!JOURNAL.exists()) return;
+        List<String> lines = Files.readAllLines(JOURNAL.toPath(), StandardCharsets.UTF_8);
+        boolean committed = !lines.isEmpty() && COMMIT.equals(lines.get(lines.size() - 1).trim());
+        List<String> paths = new ArrayList<>();
+        for (String l : lines) if (!l.trim().isEmpty() && !COMMIT.equals(l.trim())) paths.add(l.trim());
+        if (committed) {
+            System.err.println("LocalStore: completing interrupted commit of " + paths.size() + " table(s)");
+            applyJournal(paths);
+        } else {
+            for (String p : paths) Files.deleteIfExists(new File(p + TXN_SUFFIX).toPath());
+            Files.deleteIfExists(JOURNAL.toPath());
+        }
+    }
+
+    private static void applyJournal(List<String> paths) throws IOException {
+        for (String p : paths) {
+            Path staged = new File(p + TXN_SUFFIX).toPath();
+            if (!Files.exists(staged)) continue; // already moved before the interruption
+            Path target = new File(p).toPath();
+            keepBackup(p);
+            try {
+                Files.move(staged, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(staged, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            FileCache.invalidate(p);
+        }
+        Files.deleteIfExists(JOURNAL.toPath());
+    }
+
+    //==============================================================================================================
+    // Cross-process lock
+    //==============================================================================================================
+
+    private static void lockStore() throws IOException {
+        if (lockDepth++ > 0) return;
+        try {
+            if (!DIR.exists()) DIR.mkdirs();
+            lockChannel = FileChannel.open(LOCK_FILE.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            lock = lockChannel.lock();   // blocks while another instance is committing
+        } catch (IOException | RuntimeException ex) {
+            lockDepth = 0;
+            if (lockChannel != null) lockChannel.close();
+            lockChannel = null;
+            throw ex;
+        }
+    }
+
+    private static void unlockStore() {
+        if (--lockDepth > 0) return;
+        try {
+            if (lock != null) lock.release();
+            if (lockChannel != null) lockChannel.close();
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+        lock = null;
+        lockChannel = null;
+    }
+
+    //==============================================================================================================
+    // Checksums and the last good copy
+    //==============================================================================================================
+
+    /**
+     * {@code text}, as just read from {@code path}, if it matches its commit checksum. Otherwise the file
+     * was damaged, even if it still parses (a cut-off JSON array can): the last good copy is put back and
+     * returned, and the rejected text is kept as {@code <file>.rejected}. A script that edits a table
+     * drops its line from {@code store.sums}, and {@link DataFileWatcher} takes the edit from there.
+     */
+    static String verified(String path, String text) {
+        if (path.equals(SUMS_FILE) || path.endsWith(TXN_SUFFIX) || path.endsWith(BAK_SUFFIX) || path.endsWith(REJECTED_SUFFIX)) return text;
+        if (intact(path, text)) return text;
+        synchronized (LocalStore.class) {
+            try {
+                lockStore();   // waits out a commit in progress in another instance
+                try {
+                    // the file may have been mid-write when read: check it again, and leave it alone
+                    // while anything (a script, the Python service) is still changing it
+                    Path target = new File(path).toPath();
+                    for (int tries = 0; ; tries++) {
+                        if (!Files.exists(target)) return text;
+                        FileTime modified = Files.getLastModifiedTime(target);
+                        long size = Files.size(target);
+                        text = new String(Files.readAllBytes(target), StandardCharsets.UTF_8);
+                        if (intact(path, text)) return text;
+                        if (tries == SETTLE_TRIES) {
+                            System.err.println("LocalStore: " + path + " fails its checksum but is still being written; not restoring it");
+                            return text;
+                        }
+                        try {
+                            Thread.sleep(SETTLE_MS);
+                        } catch (InterruptedException ex) {
+                            Thread.currentThread().interrupt();
+                            return text;
+                        }
+                        if (modified.equals(Files.getLastModifiedTime(target)) && size == Files.size(target)) break;
+                    }
+                    File bak = new File(path + BAK_SUFFIX);
+                    String good = bak.exists() ? new String(Files.readAllBytes(bak.toPath()), StandardCharsets.UTF_8) : null;
+                    if (good == null || !parses(path, good)) {
+                        System.err.println("LocalStore: " + path + " failed its checksum and has no good copy to restore");
+                        return text;
+                    }
+                    Files.write(new File(path + REJECTED_SUFFIX).toPath(), text.getBytes(StandardCharsets.UTF_8));
+                    System.err.println("LocalStore: " + path + " failed its checksum; restored " + bak.getName()
+                            + ", kept the damaged copy as " + path + REJECTED_SUFFIX);
+                    Map<String, String> sums = readSums();
+                    sums.put(path, checksum(good));
+                    replaceSynced(path, good);
+                    replaceSynced(SUMS_FILE, formatSums(sums));
+                    return good;
+                } finally {
+                    unlockStore();
+                }
+            } catch (IOException ex) {
+                ex.printStackTrace();
+                return text;
+            }
+        }
+    }
+
+    private static boolean intact(String path, String text) {
+        String expected = readSums().get(path);
+        return expected == null || expected.equals(checksum(text));
+    }
+
+    // Copies the table about to be replaced to <file>.bak, if it is worth keeping.
+    private static void keepBackup(String path) {
+        if (path.equals(SUMS_FILE)) return;
+        Path target = new File(path).toPath();
+        try {
+            if (!Files.exists(target)) return;
+            String current = new String(Files.readAllBytes(target), StandardCharsets.UTF_8);
+            if (parses(path, current)) Files.copy(target, new File(path + BAK_SUFFIX).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    // Well-formed enough to use: JSON tables parse, meal plan lines are slots, nothing is empty.
+    private static boolean parses(String path, String text) {
+        if (text == null || text.trim().isEmpty()) return false;
+        String t = text.trim();
+        try {
+            if (path.endsWith(".json") || t.startsWith("[") || t.startsWith("{")) {
+                Object v = new JSONTokener(t).nextValue();
+                return v instanceof JSONArray || v instanceof JSONObject;
+            }
+            if (path.equals(FileCache.MEAL_PLAN_FILE)) {
+                for (String line : t.split("\\R")) {
+                    if (!line.trim().isEmpty() && Repository.parseSlot(line) == null) return false;
+                }
+            }
+            return true;
+        } catch (Exception ex) {
+            return false;
+        }
+    }
+
+    static String checksum(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        return Long.toHexString(crc.getValue()) + ":" + bytes.length;
+    }
+
+    // store.sums: one "checksum path" line per table
+    private static Map<String, String> readSums() {
+        Map<String, String> sums = new LinkedHashMap<>();
+        try {
+            Path p = new File(SUMS_FILE).toPath();
+            if (!Files.exists(p)) return sums;
+            for (String line : Files.readAllLines(p, StandardCharsets.UTF_8)) {
+                int sp = line.indexOf(' ');
+                if (sp > 0) sums.put(line.substring(sp + 1), line.substring(0, sp));
+            }
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+        return sums;
+    }
+
+    private static String formatSums(Map<String, String> sums) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> e : sums.entrySet()) sb.append(e.getValue()).append(' ').append(e.getKey()).append('\n');
+        return sb.toString();
+    }
+
+    private static void replaceSynced(String path, String contents) throws IOException {
+        replaceSynced(path, contents.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Temp file, fsync, atomic rename, under the store lock; for single files outside a transaction,
+     * such as archive segments or a compacted log.
+     */
+    public static synchronized void replaceSynced(String path, byte[] contents) throws IOException {
+        lockStore();
+        try {
+            File tmp = new File(path + TXN_SUFFIX);
+            if (tmp.getParentFile() != null && !tmp.getParentFile().exists()) tmp.getParentFile().mkdirs();
+            writeSynced(tmp, contents);
+            try {
+                Files.move(tmp.toPath(), new File(path).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tmp.toPath(), new File(path).toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            FileCache.invalidate(path);
+        } finally {
+            unlockStore();
+        }
+    }
+
+    /** Appends to a log file under the store lock and syncs it. Logs are not tables: no journal, sum or backup. */
+    public static synchronized void append(String path, byte[] contents) throws IOException {
+        lockStore();
+        try {
+            File f = new File(path);
+            if (f.getParentFile() != null && !f.getParentFile().exists()) f.getParentFile().mkdirs();
+            try (FileOutputStream out = new FileOutputStream(f, true)) {
+                out.write(contents);
+                out.getFD().sync();
+            }
+            FileCache.invalidate(path);
+        } finally {
+            unlockStore();
+        }
+    }
+
+    /** Cuts a log file back to {@code length} bytes under the store lock, e.g. to drop a torn last record. */
+    public static synchronized void truncate(String path, long length) throws IOException {
+        lockStore();
+        try (FileChannel ch = FileChannel.open(new File(path).toPath(), StandardOpenOption.WRITE)) {
+            if (ch.size() > length) ch.truncate(length);
+        } finally {
+            unlockStore();
+        }
+    }
+
+    private static void writeSynced(File f, String contents) throws IOException {
+        writeSynced(f, contents.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void writeSynced(File f, byte[] contents) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(f, false)) {
+            out.write(contents);
+            out.getFD().sync();
+        }
+    }
+
+    private static int readVersion() {
+        try {
+            if (!VERSION_FILE.exists()) return 0;
+            return Integer.parseInt(new String(Files.readAllBytes(VERSION_FILE.toPath()), StandardCharsets.UTF_8).trim());
+        } catch (Exception ex) {
+            return 0;
+        }
+    }
+
+    //==============================================================================================================
+    // One-time migration of the legacy files
+    //==============================================================================================================
+
+    /**
+     * Brings the existing files into the current table formats in a single transaction.
+     * <ul>
+     *   <li>v1: missing JSON tables are created empty; tab-separated meal plan lines use '|'</li>
+     *   <li>v2: custom recipe ingredients become references to ingredient_master.json records</li>
+     *   <li>v3: custom recipes without a local id get one, and meal plan lines (hot and archived) and
+     *       template slots link to the local id of the recipe their old id or name resolves to</li>
+     * </ul>
+     */
+    private static void migrate(int from) throws IOException {
+        Transaction tx = begin();
+        if (from < 1) {
+            for (String path : new String[] { FileCache.INVENTORY_FILE, FileCache.CUSTOM_INGREDIENTS_FILE, FileCache.FAVORITES_FILE }) {
+                String s = FileCache.read(path);
+                if (s == null || s.trim().isEmpty()) tx.put(path, "[]");
+            }
+        }
+        List<String> replacedSegments = new ArrayList<>();
+        if (from < 3) {
+            String custom = FileCache.read(FileCache.CUSTOM_RECIPES_FILE);
+            List<Page4.Recipe> customRecipes = RecipeLoader.loadRecipesFromFile(FileCache.CUSTOM_RECIPES_FILE);
+            boolean restage = from < 2;
+            for (Page4.Recipe r : customRecipes) {
+                if (r.local_id != null && !r.local_id.isEmpty()) continue;
+                r.localId();
+                restage = true;
+            }
+            if (restage && custom != null && custom.trim().startsWith("[") && !customRecipes.isEmpty()) {
+                IngredientMasters.stageRecipes(tx, FileCache.CUSTOM_RECIPES_FILE, customRecipes);
+            }
+            BiFunction<Integer, String, Page4.Recipe> resolve = legacyResolver(CustomCalendarPanel.mergeRecipes(
+                    RecipeLoader.loadRecipesFromFile(FileCache.RECIPES_FILE), customRecipes));
+            String plans = FileCache.read(FileCache.MEAL_PLAN_FILE);
+            tx.put(FileCache.MEAL_PLAN_FILE, plans == null ? "" : linkPlansToLocalIds(plans, resolve));
+            replacedSegments = ColdStorage.stageRelinkedPlans(tx, text -> linkPlansToLocalIds(text, resolve));
+            String templates = MealTemplates.withRecipeKeys(FileCache.read(MealTemplates.FILE), resolve);
+            if (templates != null) tx.put(MealTemplates.FILE, templates);
+        }
+        if (!tx.writes.isEmpty()) System.err.println("LocalStore: migrated " + tx.writes.size() + " table(s) to version " + STORE_VERSION);
+        commit(tx.writes);
+        for (String file : replacedSegments) Files.deleteIfExists(new File(ColdStorage.ARCHIVE_DIR, file).toPath());
+    }
+
+    /**
+     * How lines written before local ids found their recipe, applied once: the old recipe id when only one
+     * recipe has it, then the name, then a recipe whose name contains it.
+     */
+    private static BiFunction<Integer, String, Page4.Recipe> legacyResolver(List<Page4.Recipe> catalog) {
+        Map<Integer, Page4.Recipe> byId = Repository.indexById(catalog);
+        Map<String, Page4.Recipe> byName = Repository.indexByName(catalog);
+        return (id, name) -> {
+            Page4.Recipe r = id != 0 ? byId.get(id) : null;
+            if (r == null) r = Repository.lookupByName(byName, name);
+            String want = RecipeLoader.normalizeName(name);
+            for (int i = 0; r == null && !want.isEmpty() && i < catalog.size(); i++) {
+                Page4.Recipe c = catalog.get(i);
+                if (c.recipe_name != null && RecipeLoader.normalizeName(c.recipe_name).contains(want)) r = c;
+            }
+            return r;
+        };
+    }
+
+    // Rewrites every meal plan line as date|meal|name|inventory|recipe local id.
+    private static String linkPlansToLocalIds(String plans, BiFunction<Integer, String, Page4.Recipe> resolve) {
+        StringBuilder sb = new StringBuilder();
+        for (String line : plans.split("\\R")) {
+            if (line.trim().isEmpty()) continue;
+            Repository.PlanSlot slot = Repository.parseSlot(line);
+            if (slot == null) {
+                sb.append(line).append('\n');
+                continue;
+            }
+            int oldId = 0;
+            try { oldId = slot.recipeKey != null ? Integer.parseInt(slot.recipeKey) : 0; } catch (NumberFormatException ignored) {}
+            Page4.Recipe r = resolve.apply(oldId, slot.recipeName);
+            if (r != null && r.local_id == null) r = null;
+            String date = slot.date.toString();
+            sb.append(r != null
+                    ? Repository.formatSlot(date, slot.meal, r, slot.inventoryId)
+                    : date + "|" + slot.meal + "|" + slot.recipeName + "|" + (slot.inventoryId != null ? slot.inventoryId : "") + "|")
+              .append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,457 @@
+package pages;
+
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Branch-and-bound week planner used by {@link SuggestionsPage}.
+ *
+ * Slots (day x meal) are filled in date order. Eating a recipe uses an open batch of it when one is
+ * still edible, otherwise a new batch is cooked (costing {@code cost_per_serving * total_portions}).
+ * Existing inventory batches start out open at no cost, so leftovers are used before anything new is
+ * cooked. The objective is
+ *
+ *   cooking cost + value of wasted portions + calorie-band penalty + over-budget penalty
+ *
+ * and a node is pruned when an admissible lower bound on that objective cannot beat the incumbent.
+ * The search is depth-first with the cheapest/open choices first, so the first leaf is already a good
+ * greedy plan; improving plans are reported through {@link Listener} until the tree is exhausted or the
+ * time limit hits. Pinned slots are fixed, and a previous plan can seed the incumbent so re-solving
+ * after pinning one slot starts from a tight bound.
+ */
+public final class MealPlanOptimizer {
+
+    public static final String[] DEFAULT_MEALS = {"Breakfast", "Lunch", "Dinner"};
+
+    public static final class Settings {
+        public double weeklyBudget = 0.0;           // <= 0 means no budget
+        public double dailyCalories = 2000.0;
+        public double calorieTolerance = 0.15;      // +/- fraction of dailyCalories with no penalty
+        public double caloriePenaltyPerKcal = 0.01; // $ per kcal outside the band
+        public double overBudgetPenalty = 5.0;      // $ of objective per $ over budget
+        public int days = 7;
+        public String[] meals = DEFAULT_MEALS;
+        public int maxCandidates = 40;
+        public long timeLimitMillis = 3000;
+    }
+
+    public static final class Plan {
+        public final LocalDate weekStart;
+        public final String[] meals;
+        /** Recipe per slot, index = day * meals.length + meal. */
+        public final Page4.Recipe[] slots;
+        public final double cost;
+        public final double waste;
+        public final double objective;
+        public final double[] dayCalories;
+        public final boolean withinBudget;
+        public final long nodes;
+        public final boolean provenOptimal;
+
+        Plan(LocalDate weekStart, String[] meals, Page4.Recipe[] slots, double cost, double waste, double objective,
+             double[] dayCalories, boolean withinBudget, long nodes, boolean provenOptimal) {
+            this.weekStart = weekStart;
+            this.meals = meals;
+            this.slots = slots;
+            this.cost = cost;
+            this.waste = waste;
+            this.objective = objective;
+            this.dayCalories = dayCalories;
+            this.withinBudget = withinBudget;
+            this.nodes = nodes;
+            this.provenOptimal = provenOptimal;
+        }
+
+        public Page4.Recipe get(int day, int meal) { return slots[day * meals.length + meal]; }
+
+        Plan finished(long nodes, boolean optimal) {
+            return new Plan(weekStart, meals, slots, cost, waste, objective, dayCalories, withinBudget, nodes, optimal);
+        }
+    }
+
+    public interface Listener {
+        void onImproved(Plan plan);
+    }
+
+    // --------------------------------------
+    // Search model
+    // --------------------------------------
+    private static final class Cand {
+        final Page4.Recipe recipe;
+        final double portionCost;
+        final double batchCost;
+        final int portions;
+        final int edibleDays;
+        final double kcal;
+        double score;
+
+        Cand(Page4.Recipe r) {
+            this.recipe = r;
+            this.portions = Math.max(1, r.total_portions);
+            this.portionCost = Math.max(0.0, r.cost_per_serving);
+            this.batchCost = portionCost * portions;
+            this.edibleDays = Math.max(0, r.edible_days);
+            this.kcal = NutrientAggregator.perPortion(r).calories();
+        }
+    }
+
+    private final Settings s;
+    private final LocalDate weekStart;
+    private final Cand[] cands;
+    private final int mealsPerDay;
+    private final int slotCount;
+    private final int[] pinned;         // candidate index per slot, -1 = free
+    private final Listener listener;
+    private final BooleanSupplier cancelled;
+
+    // Mutable search state.
+    private final int[] openRem;
+    private final int[] openExpiry;     // last edible day index (may be negative for old batches)
+    private final int[] assign;
+    private final double[] dayCal;
+    private int[] pinnedCands;          // distinct candidates that appear in pinned slots
+    private int[][] pinnedSlots;        // per candidate, its pinned slots in ascending order
+    private double minPortionCost;
+    private double minKcal;
+    private double maxKcal;
+    private double fullDayPenaltyLB;
+
+    private double bestObjective = Double.POSITIVE_INFINITY;
+    private Plan best = null;
+    private long nodes = 0;
+    private long deadline;
+    private boolean aborted = false;
+
+    private MealPlanOptimizer(Settings s, LocalDate weekStart, Cand[] cands, int[] pinned,
+                              Listener listener, BooleanSupplier cancelled) {
+        this.s = s;
+        this.weekStart = weekStart;
+        this.cands = cands;
+        this.mealsPerDay = s.meals.length;
+        this.slotCount = s.days * mealsPerDay;
+        this.pinned = pinned;
+        this.listener = listener;
+        this.cancelled = cancelled;
+        this.openRem = new int[cands.length];
+        this.openExpiry = new int[cands.length];
+        this.assign = new int[slotCount];
+        this.dayCal = new double[s.days];
+        Arrays.fill(openExpiry, -1);
+    }
+
+    /**
+     * Solves for the week starting at {@code weekStart}. {@code pins} maps slot index to a recipe that
+     * must be eaten there; {@code warmStart} (may be null) is evaluated with the pins applied and used as
+     * the initial incumbent. Returns the best plan found, or null if the catalog is empty.
+     */
+    public static Plan solve(List<Page4.Recipe> catalog,
+                             List<CustomCalendarPanel.InventoryEntry> inventory,
+                             LocalDate weekStart,
+                             Settings settings,
+                             Map<Integer, Page4.Recipe> pins,
+                             Plan warmStart,
+                             Listener listener,
+                             BooleanSupplier cancelled) {
+        if (catalog == null || catalog.isEmpty()) return null;
+        if (pins == null) pins = Collections.emptyMap();
+        if (cancelled == null) cancelled = () -> false;
+
+        Map<String, Page4.Recipe> byName = new HashMap<>();
+        for (Page4.Recipe r : catalog) if (r.recipe_name != null) byName.putIfAbsent(key(r.recipe_name), r);
+
+        // Pre-filter: best-scoring recipes, plus anything pinned or with leftovers.
+        double slotTarget = settings.dailyCalories / settings.meals.length;
+        List<Cand> all = new ArrayList<>(catalog.size());
+        for (Page4.Recipe r : catalog) {
+            Cand c = new Cand(r);
+            double dev = Math.max(0.0, Math.abs(c.kcal - slotTarget) - settings.calorieTolerance * slotTarget);
+            c.score = c.portionCost + settings.caloriePenaltyPerKcal * dev;
+            all.add(c);
+        }
+        all.sort((a, b) -> Double.compare(a.score, b.score));
+
+        Set<String> forced = new HashSet<>();
+        for (Page4.Recipe r : pins.values()) if (r != null && r.recipe_name != null) forced.add(key(r.recipe_name));
+        Map<String, Integer> leftovers = leftoverPortions(inventory, weekStart, byName.keySet());
+        forced.addAll(leftovers.keySet());
+
+        List<Cand> chosen = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        for (Cand c : all) {
+            String k = key(c.recipe.recipe_name);
+            boolean take = forced.contains(k) || chosen.size() < settings.maxCandidates;
+            if (take && seen.add(k)) chosen.add(c);
+        }
+        Cand[] cands = chosen.toArray(new Cand[0]);
+
+        Map<String, Integer> indexByName = new HashMap<>();
+        for (int i = 0; i < cands.length; i++) indexByName.put(key(cands[i].recipe.recipe_name), i);
+
+        int slotCount = settings.days * settings.meals.length;
+        int[] pinnedIdx = new int[slotCount];
+        Arrays.fill(pinnedIdx, -1);
+        for (Map.Entry<Integer, Page4.Recipe> e : pins.entrySet()) {
+            int slot = e.getKey();
+            if (slot < 0 || slot >= slotCount || e.getValue() == null) continue;
+            Integer idx = indexByName.get(key(e.getValue().recipe_name));
+            if (idx != null) pinnedIdx[slot] = idx;
+        }
+
+        MealPlanOptimizer opt = new MealPlanOptimizer(settings, weekStart, cands, pinnedIdx, listener, cancelled);
+        opt.openLeftovers(inventory, indexByName);
+        opt.precomputeBounds();
+        if (warmStart != null) opt.seed(warmStart, indexByName);
+
+        opt.deadline = System.currentTimeMillis() + settings.timeLimitMillis;
+        opt.search(0, 0.0, 0.0, 0.0);
+        return opt.best != null ? opt.best.finished(opt.nodes, !opt.aborted) : null;
+    }
+
+    private static String key(String name) {
+        return name == null ? "" : name.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static Map<String, Integer> leftoverPortions(List<CustomCalendarPanel.InventoryEntry> inventory,
+                                                         LocalDate weekStart, Set<String> known) {
+        Map<String, Integer> out = new HashMap<>();
+        if (inventory == null) return out;
+        for (CustomCalendarPanel.InventoryEntry e : inventory) {
+            int free = e.totalPortions - e.portionsUsed;
+            if (free <= 0 || e.dateMade.plusDays(Math.max(0, e.edibleDays)).isBefore(weekStart)) continue;
+            String k = key(e.name);
+            if (known.contains(k)) out.merge(k, free, Integer::sum);
+        }
+        return out;
+    }
+
+    private void openLeftovers(List<CustomCalendarPanel.InventoryEntry> inventory, Map<String, Integer> indexByName) {
+        if (inventory == null) return;
+        for (CustomCalendarPanel.InventoryEntry e : inventory) {
+            Integer idx = indexByName.get(key(e.name));
+            if (idx == null) continue;
+            int free = e.totalPortions - e.portionsUsed;
+            int lastDay = (int) ChronoUnit.DAYS.between(weekStart, e.dateMade.plusDays(Math.max(0, e.edibleDays)));
+            if (free <= 0 || lastDay < 0) continue;
+            // One open batch per recipe: merge leftovers, keeping the earliest expiry.
+            openExpiry[idx] = openRem[idx] > 0 ? Math.min(openExpiry[idx], lastDay) : lastDay;
+            openRem[idx] += free;
+        }
+    }
+
+    private void precomputeBounds() {
+        minPortionCost = Double.POSITIVE_INFINITY;
+        minKcal = Double.POSITIVE_INFINITY;
+        maxKcal = 0.0;
+        for (Cand c : cands) {
+            minPortionCost = Math.min(minPortionCost, c.portionCost);
+            minKcal = Math.min(minKcal, c.kcal);
+            maxKcal = Math.max(maxKcal, c.kcal);
+        }
+        fullDayPenaltyLB = bandPenalty(mealsPerDay * minKcal, mealsPerDay * maxKcal);
+
+        int[] counts = new int[cands.length];
+        for (int p : pinned) if (p >= 0) counts[p]++;
+        pinnedSlots = new int[cands.length][];
+        List<Integer> distinct = new ArrayList<>();
+        for (int c = 0; c < cands.length; c++) {
+            pinnedSlots[c] = new int[counts[c]];
+            if (counts[c] > 0) distinct.add(c);
+        }
+        int[] fill = new int[cands.length];
+        for (int slot = 0; slot < slotCount; slot++) {
+            int p = pinned[slot];
+            if (p >= 0) pinnedSlots[p][fill[p]++] = slot;
+        }
+        pinnedCands = new int[distinct.size()];
+        for (int i = 0; i < pinnedCands.length; i++) pinnedCands[i] = distinct.get(i);
+    }
+
+    /** Penalty for the closest value in [lo, hi] to the calorie band; 0 if they overlap. */
+    private double bandPenalty(double lo, double hi) {
+        double low = s.dailyCalories * (1.0 - s.calorieTolerance);
+        double high = s.dailyCalories * (1.0 + s.calorieTolerance);
+        if (hi < low) return (low - hi) * s.caloriePenaltyPerKcal;
+        if (lo > high) return (lo - high) * s.caloriePenaltyPerKcal;
+        return 0.0;
+    }
+
+    private double budgetPenalty(double cost) {
+        if (s.weeklyBudget <= 0.0 || cost <= s.weeklyBudget) return 0.0;
+        return (cost - s.weeklyBudget) * s.overBudgetPenalty;
+    }
+
+    // --------------------------------------
+    // Branch and bound
+    // --------------------------------------
+    private void search(int slot, double cost, double waste, double donePenalty) {
+        if (aborted) return;
+        if ((++nodes & 1023) == 0 && (System.currentTimeMillis() > deadline || cancelled.getAsBoolean())) {
+            aborted = true;
+            return;
+        }
+
+        if (slot == slotCount) {
+            double endWaste = waste;
+            for (int c = 0; c < cands.length; c++) endWaste += openRem[c] * cands[c].portionCost;
+            double objective = cost + endWaste + donePenalty + budgetPenalty(cost);
+            if (objective < bestObjective - 1e-9) record(cost, endWaste, objective);
+            return;
+        }
+
+        int day = slot / mealsPerDay;
+        if (lowerBound(slot, day, cost, waste, donePenalty) >= bestObjective - 1e-9) return;
+
+        if (pinned[slot] >= 0) {
+            branch(slot, day, pinned[slot], cost, waste, donePenalty);
+            return;
+        }
+        // Meals within a day are interchangeable, so free slots of a day take non-decreasing candidate
+        // indices; every multiset of recipes for the day is then visited once.
+        int minC = 0;
+        if (slot % mealsPerDay != 0 && pinned[slot - 1] < 0) minC = assign[slot - 1];
+
+        // Open (free) batches first, then the rest in score order.
+        for (int c = minC; c < cands.length; c++) {
+            if (openRem[c] > 0 && openExpiry[c] >= day) branch(slot, day, c, cost, waste, donePenalty);
+            if (aborted) return;
+        }
+        for (int c = minC; c < cands.length; c++) {
+            if (openRem[c] > 0 && openExpiry[c] >= day) continue;
+            branch(slot, day, c, cost, waste, donePenalty);
+            if (aborted) return;
+        }
+    }
+
+    private void branch(int slot, int day, int c, double cost, double waste, double donePenalty) {
+        Cand cand = cands[c];
+        int savedRem = openRem[c];
+        int savedExp = openExpiry[c];
+
+        double newCost = cost;
+        double newWaste = waste;
+        if (openRem[c] > 0 && openExpiry[c] >= day) {
+            openRem[c]--;
+        } else {
+            newWaste += openRem[c] * cand.portionCost; // expired leftovers of the old batch are lost
+            newCost += cand.batchCost;
+            openRem[c] = cand.portions - 1;
+            openExpiry[c] = day + cand.edibleDays;
+        }
+        assign[slot] = c;
+        dayCal[day] += cand.kcal;
+
+        double newDone = donePenalty;
+        if ((slot + 1) % mealsPerDay == 0) newDone += bandPenalty(dayCal[day], dayCal[day]);
+
+        search(slot + 1, newCost, newWaste, newDone);
+
+        dayCal[day] -= cand.kcal;
+        openRem[c] = savedRem;
+        openExpiry[c] = savedExp;
+    }
+
+    private double lowerBound(int slot, int day, double cost, double waste, double donePenalty) {
+        int remaining = slotCount - slot;
+        int free = 0;
+        double futureWaste = 0.0;
+        for (int c = 0; c < cands.length; c++) {
+            if (openRem[c] == 0) continue;
+            if (openExpiry[c] >= day) free += openRem[c];
+            // Even eating this batch in every slot until it expires cannot finish it.
+            int usableSlots = Math.max(0, Math.min(slotCount, (openExpiry[c] + 1) * mealsPerDay) - slot);
+            if (openRem[c] > usableSlots) futureWaste += (openRem[c] - usableSlots) * cands[c].portionCost;
+        }
+
+        // A pinned recipe that its open batch cannot cover (too few portions, or expired by its last
+        // pinned day) forces at least one more cook of that recipe.
+        double forcedCost = 0.0;
+        for (int c : pinnedCands) {
+            int need = 0;
+            int lastDay = -1;
+            for (int ps : pinnedSlots[c]) {
+                if (ps < slot) continue;
+                need++;
+                lastDay = ps / mealsPerDay;
+            }
+            if (need > 0 && (need > openRem[c] || lastDay > openExpiry[c])) {
+                forcedCost += cands[c].batchCost;
+                free += cands[c].portions;
+            }
+        }
+        double futureCost = forcedCost + Math.max(0, remaining - free) * minPortionCost;
+
+        double penalty = donePenalty;
+        int inDay = slot % mealsPerDay;
+        int fullDaysLeft = s.days - day - (inDay == 0 ? 0 : 1);
+        if (inDay != 0) {
+            int k = mealsPerDay - inDay;
+            penalty += bandPenalty(dayCal[day] + k * minKcal, dayCal[day] + k * maxKcal);
+        }
+        penalty += fullDaysLeft * fullDayPenaltyLB;
+
+        return cost + futureCost + waste + futureWaste + penalty + budgetPenalty(cost + futureCost);
+    }
+
+    private void record(double cost, double waste, double objective) {
+        bestObjective = objective;
+        Page4.Recipe[] slots = new Page4.Recipe[slotCount];
+        for (int i = 0; i < slotCount; i++) slots[i] = cands[assign[i]].recipe;
+        best = new Plan(weekStart, s.meals, slots, cost, waste, objective, dayCal.clone(),
+                s.weeklyBudget <= 0.0 || cost <= s.weeklyBudget + 1e-9, nodes, false);
+        if (listener != null) {
+            try { listener.onImproved(best); } catch (Exception ex) { ex.printStackTrace(); }
+        }
+    }
+
+    /** Replays a previous plan (with current pins applied) to start from a known objective. */
+    private void seed(Plan previous, Map<String, Integer> indexByName) {
+        if (previous.slots.length != slotCount) return;
+        int[] openRemStart = openRem.clone();
+        int[] openExpStart = openExpiry.clone();
+        double cost = 0.0, waste = 0.0, penalty = 0.0;
+        for (int slot = 0; slot < slotCount; slot++) {
+            int c = pinned[slot];
+            if (c < 0) {
+                Integer idx = previous.slots[slot] != null ? indexByName.get(key(previous.slots[slot].recipe_name)) : null;
+                if (idx == null) {
+                    restore(openRemStart, openExpStart);
+                    Arrays.fill(dayCal, 0.0);
+                    return;
+                }
+                c = idx;
+            }
+            int day = slot / mealsPerDay;
+            Cand cand = cands[c];
+            if (openRem[c] > 0 && openExpiry[c] >= day) {
+                openRem[c]--;
+            } else {
+                waste += openRem[c] * cand.portionCost;
+                cost += cand.batchCost;
+                openRem[c] = cand.portions - 1;
+                openExpiry[c] = day + cand.edibleDays;
+            }
+            assign[slot] = c;
+            dayCal[day] += cand.kcal;
+            if ((slot + 1) % mealsPerDay == 0) penalty += bandPenalty(dayCal[day], dayCal[day]);
+        }
+        for (int c = 0; c < cands.length; c++) waste += openRem[c] * cands[c].portionCost;
+        record(cost, waste, cost + waste + penalty + budgetPenalty(cost));
+        restore(openRemStart, openExpStart);
+        Arrays.fill(dayCal, 0.0);
+    }
+
+    private void restore(int[] rem, int[] exp) {
+        System.arraycopy(rem, 0, openRem, 0, rem.length);
+        System.arraycopy(exp, 0, openExpiry, 0, exp.length);
+    }
+}
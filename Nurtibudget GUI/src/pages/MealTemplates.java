@@ -0,0 +1,365 @@
+package pages;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.function.BiFunction;
+
+/**
+ * Recurring meal plans, stored as rules instead of copied days.
+ *
+ * A template is a pattern of one or more weeks starting on a Sunday, repeated every
+ * {@code everyWeeks} weeks from {@code start} until {@code end} (open-ended when null). Days the user
+ * edits keep their own slot list as an override for that date; every other date follows the rule.
+ * meal_templates.json therefore grows with the pattern and the edits, not with the range it covers,
+ * and {@link #expand} produces the concrete meals of a date range only when a view or query asks.
+ *
+ * Expanded meals carry their template id in {@link CustomCalendarPanel.PlannedMeal#templateId} and are
+ * never written to meal_plans.txt. Edits are made on a copy of the file text and committed by the
+ * caller; the parsed templates follow once {@link FileCache} returns the new text.
+ */
+final class MealTemplates {
+
+    static final String FILE = "src/pages/text/meal_templates.json";
+
+    /** One meal a template puts on a day. */
+    static final class Slot {
+        final String meal;
+        final String recipeKey;     // the recipe's local_id; "" when unknown
+        final String recipeName;
+        final String inventoryId;   // only in overrides, when the day was tied to a batch
+
+        Slot(String meal, String recipeKey, String recipeName, String inventoryId) {
+            this.meal = meal;
+            this.recipeKey = recipeKey != null ? recipeKey : "";
+            this.recipeName = recipeName != null ? recipeName : "";
+            this.inventoryId = inventoryId != null && !inventoryId.isEmpty() ? inventoryId : null;
+        }
+
+        static Slot of(String meal, CustomCalendarPanel.PlannedMeal pm) {
+            Page4.Recipe r = pm.recipe;
+            return new Slot(meal, r != null ? r.local_id : "", r != null ? r.recipe_name : "", pm.inventoryId);
+        }
+
+        static Slot fromJson(JSONObject o) {
+            return new Slot(o.optString("meal", "Dinner"), o.optString("recipeKey", ""), o.optString("recipe", ""), o.optString("inventoryId", ""));
+        }
+
+        JSONObject toJson() {
+            JSONObject o = new JSONObject();
+            o.put("meal", meal);
+            if (!recipeKey.isEmpty()) o.put("recipeKey", recipeKey);
+            o.put("recipe", recipeName);
+            if (inventoryId != null) o.put("inventoryId", inventoryId);
+            return o;
+        }
+
+        private String key() {
+            return meal + "|" + recipeKey + "|" + (inventoryId != null ? inventoryId : "");
+        }
+
+        @Override public boolean equals(Object o) {
+            return o instanceof Slot && key().equals(((Slot) o).key());
+        }
+
+        @Override public int hashCode() { return key().hashCode(); }
+    }
+
+    static final class Template {
+        final String id;
+        final String name;
+        final LocalDate start;           // a Sunday
+        final LocalDate end;             // inclusive; null repeats forever
+        final int cycleWeeks;            // weeks in the pattern
+        final int everyWeeks;            // weeks from one repetition to the next, >= cycleWeeks
+        final Map<Integer, List<Slot>> days = new TreeMap<>();                   // day offset in the pattern
+        final NavigableMap<LocalDate, List<Slot>> overrides = new TreeMap<>();
+
+        Template(String id, String name, LocalDate start, LocalDate end, int cycleWeeks, int everyWeeks) {
+            this.id = id;
+            this.name = name;
+            this.start = start;
+            this.end = end;
+            this.cycleWeeks = Math.max(1, cycleWeeks);
+            this.everyWeeks = Math.max(this.cycleWeeks, everyWeeks);
+        }
+
+        /** What the rule puts on {@code date}, ignoring overrides; null when the template does not cover it. */
+        List<Slot> ruleFor(LocalDate date) {
+            if (date.isBefore(start) || (end != null && date.isAfter(end))) return null;
+            long into = ChronoUnit.DAYS.between(start, date) % (everyWeeks * 7L);
+            if (into >= cycleWeeks * 7L) return null;
+            return days.getOrDefault((int) into, Collections.emptyList());
+        }
+
+        List<Slot> slotsFor(LocalDate date) {
+            List<Slot> rule = ruleFor(date);
+            if (rule == null) return null;
+            List<Slot> own = overrides.get(date);
+            return own != null ? own : rule;
+        }
+
+        static Template fromJson(JSONObject o) {
+            String end = o.optString("end", "");
+            Template t = new Template(o.getString("id"), o.optString("name", ""), LocalDate.parse(o.getString("start")),
+                    end.isEmpty() ? null : LocalDate.parse(end), o.optInt("cycleWeeks", 1), o.optInt("everyWeeks", 1));
+            JSONArray slots = o.optJSONArray("slots");
+            for (int i = 0; slots != null && i < slots.length(); i++) {
+                JSONObject s = slots.getJSONObject(i);
+                t.days.computeIfAbsent(s.optInt("day", 0), k -> new ArrayList<>()).add(Slot.fromJson(s));
+            }
+            JSONObject ov = o.optJSONObject("overrides");
+            if (ov != null) {
+                for (String date : ov.keySet()) {
+                    List<Slot> list = new ArrayList<>();
+                    JSONArray arr = ov.getJSONArray(date);
+                    for (int i = 0; i < arr.length(); i++) list.add(Slot.fromJson(arr.getJSONObject(i)));
+                    t.overrides.put(LocalDate.parse(date), list);
+                }
+            }
+            return t;
+        }
+
+        JSONObject toJson() {
+            JSONObject o = new JSONObject();
+            o.put("id", id);
+            o.put("name", name);
+            o.put("start", start.toString());
+            if (end != null) o.put("end", end.toString());
+            o.put("cycleWeeks", cycleWeeks);
+            o.put("everyWeeks", everyWeeks);
+            JSONArray slots = new JSONArray();
+            for (Map.Entry<Integer, List<Slot>> d : days.entrySet()) {
+                for (Slot s : d.getValue()) slots.put(s.toJson().put("day", d.getKey()));
+            }
+            o.put("slots", slots);
+            if (!overrides.isEmpty()) {
+                JSONObject ov = new JSONObject();
+                for (Map.Entry<LocalDate, List<Slot>> d : overrides.entrySet()) {
+                    JSONArray arr = new JSONArray();
+                    for (Slot s : d.getValue()) arr.put(s.toJson());
+                    ov.put(d.getKey().toString(), arr);
+                }
+                o.put("overrides", ov);
+            }
+            return o;
+        }
+    }
+
+    // the file as last read; reparsed when FileCache hands back a different string
+    private static String fileText;
+    private static List<Template> templates = Collections.emptyList();
+    private static int version = 0;
+
+    private MealTemplates() {}
+
+    /** Changes whenever the templates file does, so callers can drop what they expanded from it. */
+    static synchronized int version() {
+        refresh();
+        return version;
+    }
+
+    static synchronized List<Template> all() {
+        refresh();
+        return templates;
+    }
+
+    //==================================================================================================================
+    // Expansion
+    //==================================================================================================================
+
+    /** Template slots of each date in [from, to], by date and template id. Dates nothing covers are absent. */
+    static synchronized NavigableMap<LocalDate, Map<String, List<Slot>>> expand(LocalDate from, LocalDate to) {
+        refresh();
+        NavigableMap<LocalDate, Map<String, List<Slot>>> out = new TreeMap<>();
+        for (Template t : templates) {
+            LocalDate first = from.isBefore(t.start) ? t.start : from;
+            LocalDate last = t.end != null && t.end.isBefore(to) ? t.end : to;
+            for (LocalDate d = first; !d.isAfter(last); d = d.plusDays(1)) {
+                List<Slot> slots = t.slotsFor(d);
+                if (slots != null && !slots.isEmpty()) out.computeIfAbsent(d, k -> new HashMap<>()).put(t.id, slots);
+            }
+        }
+        return out;
+    }
+
+    /** {@link #expand} as planned meals by date key and meal, the way the calendar holds them. */
+    static Map<String, Map<String, List<CustomCalendarPanel.PlannedMeal>>> expandMeals(LocalDate from, LocalDate to) {
+        Map<String, Map<String, List<CustomCalendarPanel.PlannedMeal>>> out = new HashMap<>();
+        Repository repo = Repository.get();
+        for (Map.Entry<LocalDate, Map<String, List<Slot>>> d : expand(from, to).entrySet()) {
+            Map<String, List<CustomCalendarPanel.PlannedMeal>> day = out.computeIfAbsent(d.getKey().toString(), k -> new HashMap<>());
+            for (Map.Entry<String, List<Slot>> t : d.getValue().entrySet()) {
+                for (Slot s : t.getValue()) {
+                    Page4.Recipe r = repo.recipeByLocalId(s.recipeKey);
+                    if (r == null) r = CustomCalendarPanel.missingRecipe(s.recipeKey, s.recipeName);
+                    day.computeIfAbsent(s.meal, k -> new ArrayList<>()).add(new CustomCalendarPanel.PlannedMeal(r, s.inventoryId, t.getKey()));
+                }
+            }
+        }
+        return out;
+    }
+
+    /** Meals per batch id in the overrides, the only template days tied to batches. */
+    static synchronized Map<String, Integer> overrideAssignments() {
+        refresh();
+        Map<String, Integer> counts = new HashMap<>();
+        for (Template t : templates) {
+            for (Map.Entry<LocalDate, List<Slot>> d : t.overrides.entrySet()) {
+                if (t.ruleFor(d.getKey()) == null) continue;
+                for (Slot s : d.getValue()) if (s.inventoryId != null) counts.merge(s.inventoryId, 1, Integer::sum);
+            }
+        }
+        return counts;
+    }
+
+    //==================================================================================================================
+    // Edits; each applies to a file text (text() or an earlier edit's result) and returns the new text to commit
+    //==================================================================================================================
+
+    static String text() {
+        return currentText();
+    }
+
+    /** Adds a template repeating {@code days} (offsets from the first Sunday of the pattern); its id is {@code id}. */
+    static String withTemplate(String text, String id, String name, LocalDate start, LocalDate end, int cycleWeeks, int everyWeeks,
+                               Map<Integer, List<Slot>> days) {
+        List<Template> list = parse(text);
+        Template t = new Template(id, name,
+                BudgetEngine.weekStart(start), end, cycleWeeks, everyWeeks);
+        for (Map.Entry<Integer, List<Slot>> d : days.entrySet()) {
+            if (!d.getValue().isEmpty()) t.days.put(d.getKey(), new ArrayList<>(d.getValue()));
+        }
+        list.add(t);
+        return format(list);
+    }
+
+    /**
+     * Records the slots templates now have on some dates, by template id and date. A date matching its rule
+     * drops its override. Null when nothing changes.
+     */
+    static String withDays(String text, Map<String, Map<LocalDate, List<Slot>>> edits) {
+        List<Template> list = parse(text);
+        boolean changed = false;
+        for (Template t : list) {
+            Map<LocalDate, List<Slot>> mine = edits.get(t.id);
+            if (mine == null) continue;
+            for (Map.Entry<LocalDate, List<Slot>> d : mine.entrySet()) {
+                List<Slot> rule = t.ruleFor(d.getKey());
+                if (rule == null) continue;
+                if (sameSlots(rule, d.getValue())) changed |= t.overrides.remove(d.getKey()) != null;
+                else if (!sameSlots(t.overrides.get(d.getKey()), d.getValue())) {
+                    t.overrides.put(d.getKey(), new ArrayList<>(d.getValue()));
+                    changed = true;
+                }
+            }
+        }
+        return changed ? format(list) : null;
+    }
+
+    /** One template as stored, or null. */
+    static JSONObject record(String text, String id) {
+        for (Template t : parse(text)) if (t.id.equals(id)) return t.toJson();
+        return null;
+    }
+
+    /** Puts back one template as {@link #record} returned it; null removes it. */
+    static String withRecord(String text, String id, JSONObject record) {
+        List<Template> list = parse(text);
+        int at = -1;
+        for (int i = 0; i < list.size(); i++) if (list.get(i).id.equals(id)) { at = i; break; }
+        if (record == null) {
+            if (at >= 0) list.remove(at);
+        } else if (at >= 0) {
+            list.set(at, Template.fromJson(record));
+        } else {
+            list.add(Template.fromJson(record));
+        }
+        return format(list);
+    }
+
+    static boolean sameSlots(List<Slot> a, List<Slot> b) {
+        if (a == null || b == null) return a == b;
+        if (a.size() != b.size()) return false;
+        Map<Slot, Integer> counts = new HashMap<>();
+        for (Slot s : a) counts.merge(s, 1, Integer::sum);
+        for (Slot s : b) if (counts.merge(s, -1, Integer::sum) < 0) return false;
+        return true;
+    }
+
+    //==================================================================================================================
+    // File
+    //==================================================================================================================
+
+    private static void refresh() {
+        String text = currentText();
+        if (text == fileText && version > 0) return;
+        fileText = text;
+        version++;
+        templates = Collections.unmodifiableList(parse(text));
+    }
+
+    private static synchronized String currentText() {
+        try {
+            return FileCache.read(FILE);
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            return null;
+        }
+    }
+
+    private static List<Template> parse(String text) {
+        List<Template> list = new ArrayList<>();
+        if (text == null || text.trim().isEmpty()) return list;
+        try {
+            JSONArray arr = new JSONArray(text);
+            for (int i = 0; i < arr.length(); i++) list.add(Template.fromJson(arr.getJSONObject(i)));
+        } catch (Exception ex) {
+            ex.printStackTrace();
+        }
+        return list;
+    }
+
+    /**
+     * Migration: rewrites slots stored with the old {@code recipeId} (or only a name) to link by local id.
+     * {@code resolve} gets the old id (0 if none) and name and returns the recipe, or null.
+     */
+    static String withRecipeKeys(String text, BiFunction<Integer, String, Page4.Recipe> resolve) {
+        if (text == null || text.trim().isEmpty()) return null;
+        JSONArray arr = new JSONArray(text);
+        for (int i = 0; i < arr.length(); i++) {
+            JSONObject t = arr.getJSONObject(i);
+            JSONArray slots = t.optJSONArray("slots");
+            if (slots != null) relink(slots, resolve);
+            JSONObject ov = t.optJSONObject("overrides");
+            if (ov != null) for (String date : ov.keySet()) relink(ov.getJSONArray(date), resolve);
+        }
+        return arr.toString(2);
+    }
+
+    private static void relink(JSONArray slots, BiFunction<Integer, String, Page4.Recipe> resolve) {
+        for (int i = 0; i < slots.length(); i++) {
+            JSONObject s = slots.getJSONObject(i);
+            if (s.has("recipeKey")) continue;
+            Page4.Recipe r = resolve.apply(s.optInt("recipeId", 0), s.optString("recipe", ""));
+            s.remove("recipeId");
+            if (r != null && r.local_id != null) s.put("recipeKey", r.local_id);
+        }
+    }
+
+    private static String format(List<Template> list) {
+        JSONArray arr = new JSONArray();
+        for (Template t : list) arr.put(t.toJson());
+        return arr.toString(2);
+    }
+}
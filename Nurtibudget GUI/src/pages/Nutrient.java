@@ -0,0 +1,72 @@
+package pages;
+
+import java.util.Locale;
+
+/**
+ * Nutrients tracked by {@link NutritionFacts}. Each one has a canonical unit that
+ * extracted amounts are converted into, so values from different products can be summed.
+ */
+public enum Nutrient {
+    CALORIES("Calories", "kcal"),
+    PROTEIN("Protein", "g"),
+    CARBOHYDRATE("Carbohydrate", "g"),
+    FAT("Fat", "g"),
+    SATURATED_FAT("Saturated Fat", "g"),
+    TRANS_FAT("Trans Fat", "g"),
+    FIBER("Fiber", "g"),
+    SUGAR("Sugar", "g"),
+    ADDED_SUGAR("Added Sugar", "g"),
+    CHOLESTEROL("Cholesterol", "mg"),
+    SODIUM("Sodium", "mg"),
+    POTASSIUM("Potassium", "mg"),
+    CALCIUM("Calcium", "mg"),
+    IRON("Iron", "mg"),
+    MAGNESIUM("Magnesium", "mg"),
+    VITAMIN_A("Vitamin A", "mcg"),
+    VITAMIN_C("Vitamin C", "mg"),
+    VITAMIN_D("Vitamin D", "mcg");
+
+    public static final Nutrient[] ALL = values();
+
+    public final String displayName;
+    public final String unit;
+
+    Nutrient(String displayName, String unit) {
+        this.displayName = displayName;
+        this.unit = unit;
+    }
+
+    public boolean isMacro() {
+        return this == PROTEIN || this == CARBOHYDRATE || this == FAT;
+    }
+
+    /**
+     * Maps a Kroger display name / code (e.g. "Total Fat", "Saturated Fat", "CHOCDF") to a nutrient.
+     * More specific names are checked first so "Saturated Fat" never lands in FAT.
+     */
+    public static Nutrient match(String name) {
+        if (name == null) return null;
+        String s = name.trim().toLowerCase(Locale.ROOT);
+        if (s.isEmpty()) return null;
+        if (s.contains("from fat")) return null;
+        if (s.contains("calor") || s.equals("energy") || s.equals("kcal") || s.equals("cal")) return CALORIES;
+        if (s.contains("saturated")) return s.contains("mono") || s.contains("poly") ? null : SATURATED_FAT;
+        if (s.contains("trans")) return TRANS_FAT;
+        if (s.contains("fat")) return FAT;
+        if (s.contains("fiber") || s.contains("fibre")) return FIBER;
+        if (s.contains("added sugar")) return ADDED_SUGAR;
+        if (s.contains("sugar")) return SUGAR;
+        if (s.contains("carb")) return CARBOHYDRATE;
+        if (s.contains("protein")) return PROTEIN;
+        if (s.contains("cholesterol")) return CHOLESTEROL;
+        if (s.contains("sodium")) return SODIUM;
+        if (s.contains("potassium")) return POTASSIUM;
+        if (s.contains("calcium")) return CALCIUM;
+        if (s.contains("iron")) return IRON;
+        if (s.contains("magnesium")) return MAGNESIUM;
+        if (s.contains("vitamin a")) return VITAMIN_A;
+        if (s.contains("vitamin c")) return VITAMIN_C;
+        if (s.contains("vitamin d")) return VITAMIN_D;
+        return null;
+    }
+}
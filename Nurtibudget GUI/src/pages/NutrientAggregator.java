@@ -0,0 +1,118 @@
+package pages;
+
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Rolls per-ingredient {@link NutritionFacts} up to recipe, per-portion, day and week totals.
+ *
+ * Each ingredient list (a recipe, or the editor's table) keeps a running total plus the contribution
+ * each ingredient last added. Asking for totals again only re-applies the ingredients whose servings
+ * or nutrition changed since the previous call, so editing one multiplier is O(1) work instead of
+ * re-parsing every ingredient's raw JSON. Repeated add/subtract lets the running total drift in the
+ * last bits, so {@link #resum} replaces it with a fresh sum whenever a recipe is saved.
+ */
+public final class NutrientAggregator {
+
+    private static final class Contribution {
+        NutritionFacts facts;
+        double servings;
+        Contribution(NutritionFacts facts, double servings) { this.facts = facts; this.servings = servings; }
+    }
+
+    private static final class Rollup {
+        final Map<Page4.IngredientEntry, Contribution> contributions = new IdentityHashMap<>();
+        final NutrientTotals total = new NutrientTotals();
+    }
+
+    // Keyed by the owner of the ingredient list (Recipe, table model); entries vanish with their owner.
+    private static final Map<Object, Rollup> rollups = new WeakHashMap<>();
+
+    private NutrientAggregator() {}
+
+    /** Servings of the product an ingredient contributes to its recipe. */
+    static double servingsOf(Page4.IngredientEntry ie) {
+        return ie.effectiveServings();
+    }
+
+    /**
+     * Totals for {@code ingredients}, updated incrementally against the previous call for the same owner.
+     * The returned object is a snapshot and may be kept by the caller.
+     */
+    public static NutrientTotals totals(Object owner, List<Page4.IngredientEntry> ingredients) {
+        synchronized (rollups) {
+            Rollup r = rollups.computeIfAbsent(owner, k -> new Rollup());
+            IdentityHashMap<Page4.IngredientEntry, Boolean> present = new IdentityHashMap<>();
+            for (Page4.IngredientEntry ie : ingredients) {
+                present.put(ie, Boolean.TRUE);
+                NutritionFacts facts = ie.nutrition();
+                double servings = servingsOf(ie);
+                Contribution c = r.contributions.get(ie);
+                if (c == null) {
+                    r.contributions.put(ie, new Contribution(facts, servings));
+                    r.total.add(facts, servings);
+                } else if (c.facts != facts || c.servings != servings) {
+                    r.total.add(c.facts, -c.servings);
+                    r.total.add(facts, servings);
+                    c.facts = facts;
+                    c.servings = servings;
+                }
+            }
+            Iterator<Map.Entry<Page4.IngredientEntry, Contribution>> it = r.contributions.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Page4.IngredientEntry, Contribution> e = it.next();
+                if (!present.containsKey(e.getKey())) {
+                    r.total.add(e.getValue().facts, -e.getValue().servings);
+                    it.remove();
+                }
+            }
+            return new NutrientTotals(r.total);
+        }
+    }
+
+    /** Drops the running total for {@code owner} and stores a fresh sum of {@code ingredients} in its place. */
+    public static void resum(Object owner, List<Page4.IngredientEntry> ingredients) {
+        synchronized (rollups) {
+            rollups.remove(owner);
+            totals(owner, ingredients);
+        }
+    }
+
+    public static NutrientTotals recipeTotals(Page4.Recipe recipe) {
+        if (recipe == null) return new NutrientTotals();
+        return totals(recipe, recipe.recipe_ingredients);
+    }
+
+    /** One portion of the recipe, i.e. what a single planned meal eats. */
+    public static NutrientTotals perPortion(Page4.Recipe recipe) {
+        if (recipe == null) return new NutrientTotals();
+        int portions = Math.max(1, recipe.total_portions);
+        return recipeTotals(recipe).scaled(1.0 / portions);
+    }
+
+    /** Sum of one portion for each recipe eaten on a day (repeat recipes appear repeatedly). */
+    public static NutrientTotals dayTotals(Collection<Page4.Recipe> portionsEaten) {
+        NutrientTotals t = new NutrientTotals();
+        Map<Page4.Recipe, NutrientTotals> perRecipe = new IdentityHashMap<>();
+        for (Page4.Recipe r : portionsEaten) {
+            if (r == null) continue;
+            t.add(perRecipe.computeIfAbsent(r, NutrientAggregator::perPortion), 1.0);
+        }
+        return t;
+    }
+
+    public static NutrientTotals weekTotals(Collection<NutrientTotals> days) {
+        NutrientTotals t = new NutrientTotals();
+        for (NutrientTotals d : days) t.add(d, 1.0);
+        return t;
+    }
+
+    /** Forgets the running total for an owner, e.g. when a recipe is deleted. */
+    public static void forget(Object owner) {
+        synchronized (rollups) { rollups.remove(owner); }
+    }
+}
@@ -0,0 +1,65 @@
+package pages;
+
+import java.util.Arrays;
+
+/**
+ * Mutable nutrient vector used to roll {@link NutritionFacts} up to recipe, portion, day and week totals.
+ * Amounts are in each nutrient's canonical unit (see {@link Nutrient#unit}).
+ */
+public final class NutrientTotals {
+
+    private final double[] values = new double[Nutrient.ALL.length];
+
+    public NutrientTotals() {}
+
+    public NutrientTotals(NutrientTotals other) {
+        System.arraycopy(other.values, 0, values, 0, values.length);
+    }
+
+    /** Adds {@code servings} servings of a product. Negative servings remove a previous contribution. */
+    public NutrientTotals add(NutritionFacts facts, double servings) {
+        if (facts == null || servings == 0.0) return this;
+        for (Nutrient n : Nutrient.ALL) {
+            if (facts.has(n)) values[n.ordinal()] += facts.get(n) * servings;
+        }
+        return this;
+    }
+
+    public NutrientTotals add(NutrientTotals other, double factor) {
+        if (other == null || factor == 0.0) return this;
+        for (int i = 0; i < values.length; i++) values[i] += other.values[i] * factor;
+        return this;
+    }
+
+    public NutrientTotals scaled(double factor) {
+        return new NutrientTotals().add(this, factor);
+    }
+
+    public void clear() {
+        Arrays.fill(values, 0.0);
+    }
+
+    public double get(Nutrient n) { return values[n.ordinal()]; }
+
+    public double calories() { return get(Nutrient.CALORIES); }
+    public double protein() { return get(Nutrient.PROTEIN); }
+    public double carbs() { return get(Nutrient.CARBOHYDRATE); }
+    public double fat() { return get(Nutrient.FAT); }
+
+    /** Short label for totals bars and tooltips, e.g. "Protein 12.0 g | Carbs 30.5 g | Fat 8.2 g". */
+    public String macroSummary() {
+        return String.format("Protein %.1f g | Carbs %.1f g | Fat %.1f g", protein(), carbs(), fat());
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Nutrient n : Nutrient.ALL) {
+            double v = get(n);
+            if (v == 0.0) continue;
+            if (sb.length() > 0) sb.append(", ");
+            sb.append(n.displayName).append(' ').append(String.format("%.1f", v)).append(' ').append(n.unit);
+        }
+        return "NutrientTotals[" + sb + "]";
+    }
+}
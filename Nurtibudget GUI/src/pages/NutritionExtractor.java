@@ -0,0 +1,289 @@
+package pages;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Single place that turns a Kroger product record (or one of our wrappers around it) into
+ * {@link NutritionFacts}. The record is walked once; product-level results are memoized per
+ * product id so dialogs, renderers and recipe totals can ask repeatedly without re-parsing.
+ *
+ * Accepted shapes, highest priority first:
+ *  - "nutrients": array of strings ("Iron: Quantity: 0.5 Milligram (2% DV)") or Kroger nutrient objects,
+ *    or an object with numeric keys and/or an "items" array
+ *  - "nutritionInformation": object or single-element array with "nutrients", "servingSize", "servingsPerPackage"
+ *  - top-level "calories" / "calories_per_serving"
+ *  - a nested "kroger_raw" product, used to fill anything the wrapper itself does not provide
+ */
+public final class NutritionExtractor {
+
+    private static final Pattern NUTRIENT_TEXT = Pattern.compile("^\\s*([^:]+?)\\s*:\\s*(.*)$");
+    private static final Pattern AMOUNT = Pattern.compile("(\\d+(?:\\.\\d+)?)\\s*([A-Za-zµ]+)?");
+    private static final String[] ITEM_SIZE_KEYS = { "size", "netContent", "packageSize", "displaySize", "sizeDescription", "measure", "packageSizeDescription" };
+
+    private static final int MEMO_SIZE = 512;
+    private static final Map<String, MemoEntry> memo = new LinkedHashMap<>(MEMO_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, MemoEntry> eldest) { return size() > MEMO_SIZE; }
+    };
+
+    private static final class MemoEntry {
+        final String name;
+        final NutritionFacts facts;
+        MemoEntry(String name, NutritionFacts facts) { this.name = name; this.facts = facts; }
+    }
+
+    private NutritionExtractor() {}
+
+    /**
+     * Extracts nutrition from a product record or a selection/ingredient wrapper. Fields on the
+     * wrapper win over the nested "kroger_raw" product, which is looked up through the memo.
+     */
+    public static NutritionFacts extract(JSONObject obj) {
+        if (obj == null) return NutritionFacts.EMPTY;
+        JSONObject raw = obj.optJSONObject("kroger_raw");
+        if (raw == null || raw == obj) return forProduct(obj);
+
+        Builder b = new Builder();
+        b.read(obj);
+        b.fillFrom(forProduct(raw));
+        return b.build();
+    }
+
+    /** Extraction for a bare product record, memoized by its product id. */
+    public static NutritionFacts forProduct(JSONObject product) {
+        if (product == null) return NutritionFacts.EMPTY;
+        String id = product.optString("productId", product.optString("id", ""));
+        String name = product.optString("name", product.optString("description", ""));
+        if (!id.isEmpty()) {
+            synchronized (memo) {
+                MemoEntry e = memo.get(id);
+                if (e != null && e.name.equals(name)) return e.facts;
+            }
+        }
+        Builder b = new Builder();
+        b.read(product);
+        NutritionFacts facts = b.build();
+        if (!id.isEmpty()) {
+            synchronized (memo) { memo.put(id, new MemoEntry(name, facts)); }
+        }
+        return facts;
+    }
+
+    /** Drops a memoized product, e.g. after its record was refreshed from the bridge. */
+    public static void invalidate(String productId) {
+        if (productId == null) return;
+        synchronized (memo) { memo.remove(productId); }
+    }
+
+    // --------------------------------------
+    // Single-pass builder
+    // --------------------------------------
+    private static final class Builder {
+        final double[] values = NutritionFacts.emptyValues();
+        String servingLabel = "";
+        double servingQuantity = Double.NaN;
+        String servingUnit = "";
+        double servingsPerContainer = Double.NaN;
+        String textServing = "";
+
+        void offer(Nutrient n, double v) {
+            if (n == null || Double.isNaN(v) || v < 0.0) return;
+            double cur = values[n.ordinal()];
+            if (Double.isNaN(cur) || (cur == 0.0 && v > 0.0)) values[n.ordinal()] = v;
+        }
+
+        void read(JSONObject o) {
+            String label = o.optString("serving_label", "");
+            if (label.isEmpty()) label = o.optString("serving", "");
+            if (!label.isEmpty()) servingLabel = label;
+
+            readNutrients(o.opt("nutrients"));
+
+            JSONObject nutri = firstObject(o.opt("nutritionInformation"));
+            if (nutri != null) {
+                Object n2 = nutri.opt("nutrients");
+                if (n2 instanceof JSONArray) readArray((JSONArray) n2);
+                readServingSize(firstObject(nutri.opt("servingSize")));
+                JSONObject spp = firstObject(nutri.opt("servingsPerPackage"));
+                if (spp != null && Double.isNaN(servingsPerContainer)) servingsPerContainer = spp.optDouble("value", Double.NaN);
+            }
+
+            offer(Nutrient.CALORIES, o.optDouble("calories", Double.NaN));
+            offer(Nutrient.CALORIES, o.optDouble("calories_per_serving", Double.NaN));
+
+            if (servingLabel.isEmpty()) servingLabel = itemSizeLabel(o);
+            if (servingLabel.isEmpty() && textServing.isEmpty()) {
+                String[] textCandidates = { o.optString("description", ""), o.optString("receiptDescription", ""), o.optString("displayName", ""), o.optString("name", "") };
+                for (String txt : textCandidates) {
+                    Units.Quantity q = Units.parseMeasure(txt);
+                    if (q != null) { textServing = formatAmount(q.value) + " " + q.unit; break; }
+                }
+            }
+        }
+
+        void fillFrom(NutritionFacts f) {
+            for (Nutrient n : Nutrient.ALL) if (f.has(n)) offer(n, f.get(n));
+            if (servingLabel.isEmpty() && textServing.isEmpty()) {
+                servingLabel = f.servingLabel();
+                servingQuantity = f.servingQuantity();
+                servingUnit = f.servingUnit();
+            }
+            if (Double.isNaN(servingsPerContainer)) servingsPerContainer = f.servingsPerContainer();
+        }
+
+        private void readNutrients(Object nut) {
+            if (nut instanceof JSONArray) {
+                readArray((JSONArray) nut);
+            } else if (nut instanceof JSONObject) {
+                JSONObject nobj = (JSONObject) nut;
+                for (String key : nobj.keySet()) {
+                    Object v = nobj.opt(key);
+                    if ("items".equals(key)) {
+                        if (v instanceof JSONArray) readArray((JSONArray) v);
+                    } else if (v instanceof Number) {
+                        offer(Nutrient.match(key), ((Number) v).doubleValue());
+                    } else if (v instanceof String) {
+                        readText(key, (String) v);
+                    }
+                }
+            }
+        }
+
+        private void readArray(JSONArray arr) {
+            for (int i = 0; i < arr.length(); i++) {
+                Object item = arr.opt(i);
+                if (item instanceof JSONObject) {
+                    JSONObject n = (JSONObject) item;
+                    Nutrient which = Nutrient.match(n.optString("displayName", n.optString("name", "")));
+                    if (which == null) which = Nutrient.match(n.optString("code", ""));
+                    if (which == null) continue;
+                    String unit = unitOf(n.opt("unitOfMeasure"));
+                    Object q = n.opt("quantity");
+                    if (q instanceof Number) {
+                        offer(which, toCanonical(which, ((Number) q).doubleValue(), unit));
+                    } else {
+                        String qtyText = n.optString("quantity", n.optString("value", n.optString("label", "")));
+                        readAmount(which, qtyText, unit);
+                    }
+                } else if (item instanceof String) {
+                    Matcher m = NUTRIENT_TEXT.matcher((String) item);
+                    if (m.matches()) readText(m.group(1), m.group(2));
+                }
+            }
+        }
+
+        private void readText(String name, String rest) {
+            Nutrient which = Nutrient.match(name);
+            if (which != null) readAmount(which, rest, "");
+        }
+
+        private void readAmount(Nutrient which, String text, String fallbackUnit) {
+            if (text == null || text.isEmpty()) return;
+            Matcher m = AMOUNT.matcher(text);
+            if (!m.find()) return;
+            try {
+                double v = Double.parseDouble(m.group(1));
+                String unit = m.group(2) != null ? m.group(2) : fallbackUnit;
+                offer(which, toCanonical(which, v, unit));
+            } catch (NumberFormatException ignored) {}
+        }
+
+        private void readServingSize(JSONObject serv) {
+            if (serv == null || !servingLabel.isEmpty()) return;
+            double qty = Double.NaN;
+            if (serv.has("quantity")) qty = serv.optDouble("quantity", Double.NaN);
+            else if (serv.has("value")) qty = serv.optDouble("value", Double.NaN);
+            if (Double.isNaN(qty)) return;
+            String unit = unitOf(serv.opt("unitOfMeasure"));
+            servingLabel = (formatAmount(qty) + " " + unit).trim();
+            servingQuantity = qty;
+            servingUnit = unit;
+        }
+
+        private String itemSizeLabel(JSONObject o) {
+            JSONArray items = o.optJSONArray("items");
+            if (items == null || items.length() == 0) return "";
+            JSONObject item = items.optJSONObject(0);
+            if (item == null) return "";
+            for (String k : ITEM_SIZE_KEYS) {
+                String val = item.optString(k, "");
+                if (!val.isEmpty()) return val;
+            }
+            JSONArray sizes = item.optJSONArray("sizes");
+            if (sizes != null && sizes.length() > 0) {
+                JSONObject s0 = sizes.optJSONObject(0);
+                if (s0 != null) return s0.optString("size", s0.optString("name", ""));
+            }
+            return "";
+        }
+
+        NutritionFacts build() {
+            String label = !servingLabel.isEmpty() ? servingLabel : textServing;
+            double qty = servingQuantity;
+            String unit = servingUnit;
+            double grams = Double.NaN;
+            double ml = Double.NaN;
+            Units.Quantity structured = Units.of(qty, unit);
+            if (structured != null) {
+                if (structured.dimension == Units.Dimension.MASS) grams = structured.base;
+                else if (structured.dimension == Units.Dimension.VOLUME) ml = structured.base;
+            }
+            // Labels like "2 tbsp (30g)" carry both a volume and a mass.
+            Units.Quantity mass = Units.parse(label, Units.Dimension.MASS);
+            Units.Quantity volume = Units.parse(label, Units.Dimension.VOLUME);
+            if (Double.isNaN(grams) && mass != null) grams = mass.base;
+            if (Double.isNaN(ml) && volume != null) ml = volume.base;
+            if (Double.isNaN(qty)) {
+                Units.Quantity first = Units.parse(label);
+                if (first != null) { qty = first.value; unit = first.unit; }
+            }
+            return new NutritionFacts(values, label, qty, unit, grams, ml, servingsPerContainer);
+        }
+    }
+
+    private static String formatAmount(double qty) {
+        return (qty % 1.0 == 0.0) ? Integer.toString((int) qty) : Double.toString(qty);
+    }
+
+    private static String unitOf(Object uom) {
+        if (uom instanceof JSONObject) {
+            JSONObject u = (JSONObject) uom;
+            return u.optString("abbreviation", u.optString("name", ""));
+        }
+        return uom instanceof String ? (String) uom : "";
+    }
+
+    /** Converts an amount reported in {@code unit} to the nutrient's canonical unit; unknown units pass through. */
+    static double toCanonical(Nutrient n, double v, String unit) {
+        String u = unit == null ? "" : unit.trim().toLowerCase(Locale.ROOT);
+        if (u.isEmpty()) return v;
+        if (n == Nutrient.CALORIES) {
+            if (u.startsWith("kj") || u.startsWith("kilojoule")) return v * 0.239006;
+            return v;
+        }
+        double mg;
+        if (u.equals("g") || u.startsWith("gram")) mg = v * 1000.0;
+        else if (u.equals("mg") || u.startsWith("milligram")) mg = v;
+        else if (u.equals("mcg") || u.equals("ug") || u.equals("µg") || u.startsWith("microgram")) mg = v / 1000.0;
+        else if (u.equals("iu") || u.startsWith("international")) return n == Nutrient.VITAMIN_D ? v * 0.025 : v;
+        else return v;
+        switch (n.unit) {
+            case "g": return mg / 1000.0;
+            case "mcg": return mg * 1000.0;
+            default: return mg;
+        }
+    }
+
+    private static JSONObject firstObject(Object o) {
+        if (o instanceof JSONObject) return (JSONObject) o;
+        if (o instanceof JSONArray && ((JSONArray) o).length() > 0) return ((JSONArray) o).optJSONObject(0);
+        return null;
+    }
+}
@@ -0,0 +1,86 @@
+package pages;
+
+import java.util.Arrays;
+
+/**
+ * Immutable per-serving nutrition for one product, produced by {@link NutritionExtractor}.
+ * Amounts are in each nutrient's canonical unit; missing nutrients read as 0 from {@link #get}
+ * and as false from {@link #has}.
+ */
+public final class NutritionFacts {
+
+    public static final NutritionFacts EMPTY = new NutritionFacts(emptyValues(), "", Double.NaN, "", Double.NaN, Double.NaN, Double.NaN);
+
+    private final double[] values;
+    private final String servingLabel;
+    private final double servingQuantity;
+    private final String servingUnit;
+    private final double servingGrams;
+    private final double servingMl;
+    private final double servingsPerContainer;
+
+    NutritionFacts(double[] values, String servingLabel, double servingQuantity, String servingUnit,
+                   double servingGrams, double servingMl, double servingsPerContainer) {
+        this.values = values;
+        this.servingLabel = servingLabel != null ? servingLabel : "";
+        this.servingQuantity = servingQuantity;
+        this.servingUnit = servingUnit != null ? servingUnit : "";
+        this.servingGrams = servingGrams;
+        this.servingMl = servingMl;
+        this.servingsPerContainer = servingsPerContainer;
+    }
+
+    static double[] emptyValues() {
+        double[] v = new double[Nutrient.ALL.length];
+        Arrays.fill(v, Double.NaN);
+        return v;
+    }
+
+    public double get(Nutrient n) {
+        double v = values[n.ordinal()];
+        return Double.isNaN(v) ? 0.0 : v;
+    }
+
+    public boolean has(Nutrient n) { return !Double.isNaN(values[n.ordinal()]); }
+
+    public double calories() { return get(Nutrient.CALORIES); }
+    public double protein() { return get(Nutrient.PROTEIN); }
+    public double carbs() { return get(Nutrient.CARBOHYDRATE); }
+    public double fat() { return get(Nutrient.FAT); }
+
+    /** Human readable serving, e.g. "28 g" or "1 cup"; empty when unknown. */
+    public String servingLabel() { return servingLabel; }
+    public double servingQuantity() { return servingQuantity; }
+    public String servingUnit() { return servingUnit; }
+
+    /** Serving normalized to grams, or NaN when the serving is not a mass. */
+    public double servingGrams() { return servingGrams; }
+
+    /** Serving normalized to millilitres, or NaN when the serving is not a volume. */
+    public double servingMl() { return servingMl; }
+
+    public double servingsPerContainer() { return servingsPerContainer; }
+
+    public boolean isEmpty() {
+        for (double v : values) if (!Double.isNaN(v)) return false;
+        return servingLabel.isEmpty();
+    }
+
+    /** Copy with calories replaced, used when a user-entered calories value overrides the product data. */
+    public NutritionFacts withCalories(double kcal) {
+        double[] v = values.clone();
+        v[Nutrient.CALORIES.ordinal()] = kcal;
+        return new NutritionFacts(v, servingLabel, servingQuantity, servingUnit, servingGrams, servingMl, servingsPerContainer);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Nutrient n : Nutrient.ALL) {
+            if (!has(n)) continue;
+            if (sb.length() > 0) sb.append(", ");
+            sb.append(n.displayName).append(' ').append(String.format("%.1f", get(n))).append(' ').append(n.unit);
+        }
+        return "NutritionFacts[" + (servingLabel.isEmpty() ? "" : servingLabel + "; ") + sb + "]";
+    }
+}
@@ -6,11 +6,18 @@ import org.jfree.chart.labels.PieSectionLabelGenerator;
 import org.jfree.chart.plot.PiePlot;
 import org.jfree.data.general.DefaultPieDataset;
 import org.jfree.data.general.PieDataset;
+import org.jfree.data.time.Day;
+import org.jfree.data.time.TimeSeries;
+import org.jfree.data.time.TimeSeriesCollection;
 import javax.swing.*;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
 import java.awt.*;
 import java.text.AttributedString;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
 import javax.swing.JPanel;
 
 
@@ -25,6 +32,20 @@ public class Page1 extends JPanel {
     private final JButton amountButton = new JButton("Amount");
     private boolean isPercentMode = true;
 
+    // weekly planned / actual / budget history from BudgetEngine
+    private static final int HISTORY_WEEKS_BACK = 12;
+    private static final int HISTORY_WEEKS_AHEAD = 4;
+    private final TimeSeries plannedSeries = new TimeSeries("Planned");
+    private final TimeSeries actualSeries = new TimeSeries("Actual");
+    private final TimeSeries budgetSeries = new TimeSeries("Budget");
+    private final JLabel spendSummary = new JLabel(" ");
+
+    // chart updates: typing bursts and engine events are coalesced, values computed off the EDT
+    private static final int UPDATE_DELAY_MS = 250;
+    private final Timer updateTimer = new Timer(UPDATE_DELAY_MS, e -> updateChart());
+    private int requestedVersion = 0;   // EDT only; bumped per update, stale results are dropped
+    private double pieTotal = 0.0;      // sum of the pie slices for the version on screen
+
 
     //==================================================================================================================
 
@@ -44,6 +65,16 @@ public class Page1 extends JPanel {
         weeklyFoodBudget.setText("10");  // default 10% for percent mode
         inputs.add(weeklyFoodBudget);
 
+        // start from the last saved budgets, if any
+        BudgetEngine engine = BudgetEngine.get();
+        LocalDate today = LocalDate.now();
+        Double savedMonthly = engine.monthlyBudgetFor(YearMonth.from(today));
+        Double savedWeekly = engine.weeklyBudgetFor(BudgetEngine.weekStart(today));
+        if (savedMonthly != null && savedWeekly != null && savedMonthly > 0) {
+            monthlyBudget.setText(String.format("%.2f", savedMonthly));
+            weeklyFoodBudget.setText(String.format("%.2f", savedWeekly * 4 / savedMonthly * 100));
+        }
+
         inputs.add(percentButton);
         inputs.add(amountButton);
 
@@ -69,12 +100,8 @@ public class Page1 extends JPanel {
                 Number value = dataset.getValue(key);
                 if (value == null) return null;
 
-                double total = 0.0;
-                for (Object x : dataset.getKeys()) {
-                    Number y = dataset.getValue((Comparable) x);
-                    if (y != null) total += y.doubleValue();
-                }
-                double percent = total > 0 ? value.doubleValue() / total * 100 : 0;
+                // total is computed once per dataset version in applyChartData, not per label
+                double percent = pieTotal > 0 ? value.doubleValue() / pieTotal * 100 : 0;
 
                 if (isPercentMode) {
                     // Show: percent (amount)
@@ -99,7 +126,26 @@ public class Page1 extends JPanel {
         plot.setSectionPaint(1, new Color(180, 180, 255)); // Other
 
         ChartPanel chartPanel = new ChartPanel(chart);
-        add(chartPanel, BorderLayout.CENTER);
+
+        //==============================================================================================================
+        // Planned vs actual history
+
+        TimeSeriesCollection history = new TimeSeriesCollection();
+        history.addSeries(plannedSeries);
+        history.addSeries(actualSeries);
+        history.addSeries(budgetSeries);
+        JFreeChart historyChart = ChartFactory.createTimeSeriesChart(
+                "Weekly Food Spend", "Week", "$", history, true, true, false);
+        ChartPanel historyPanel = new ChartPanel(historyChart);
+
+        JPanel charts = new JPanel(new GridLayout(1, 2, 10, 0));
+        charts.add(chartPanel);
+        charts.add(historyPanel);
+        add(charts, BorderLayout.CENTER);
+        add(spendSummary, BorderLayout.SOUTH);
+
+        updateTimer.setRepeats(false);
+        engine.addListener(this::scheduleChartUpdate);
 
         //==============================================================================================================
         // Highlight buttons based on mode
@@ -122,7 +168,6 @@ public class Page1 extends JPanel {
                 isPercentMode = true;
                 updateButtonHighlight();
                 updateChart();
-                chart.fireChartChanged();
             }
         });
 
@@ -141,7 +186,6 @@ public class Page1 extends JPanel {
                 isPercentMode = false;
                 updateButtonHighlight();
                 updateChart();
-                chart.fireChartChanged();
             }
         });
 
@@ -149,9 +193,9 @@ public class Page1 extends JPanel {
         // CHART UPDATER - Part 1
 
         DocumentListener inputListener = new DocumentListener() {
-            public void changedUpdate(DocumentEvent e) { updateChart(); chart.fireChartChanged(); }
-            public void removeUpdate(DocumentEvent e) { updateChart(); chart.fireChartChanged(); }
-            public void insertUpdate(DocumentEvent e) { updateChart(); chart.fireChartChanged(); }
+            public void changedUpdate(DocumentEvent e) { scheduleChartUpdate(); }
+            public void removeUpdate(DocumentEvent e) { scheduleChartUpdate(); }
+            public void insertUpdate(DocumentEvent e) { scheduleChartUpdate(); }
         };
         monthlyBudget.getDocument().addDocumentListener(inputListener);
         weeklyFoodBudget.getDocument().addDocumentListener(inputListener);
@@ -194,24 +238,102 @@ public class Page1 extends JPanel {
         }
     }
 
+    //==================================================================================================================
+    // weekly food budget in dollars, whichever mode the field is in
+
+    public double getWeeklyFoodBudget() {
+        double weeklyInput = parseInput(weeklyFoodBudget);
+        if (isPercentMode) return parseInput(monthlyBudget) * (weeklyInput / 100.0) / 4.0;
+        return weeklyInput;
+    }
+
     //==================================================================================================================
     // CHART UPDATER - Part 2
+
+    /** Values for one chart version; built off the EDT, applied on it. */
+    private static final class ChartData {
+        final int version;
+        double food;
+        double other;
+        List<BudgetEngine.Bucket> weeks;
+        BudgetEngine.Bucket month;
+        BudgetEngine.Bucket last4;
+
+        ChartData(int version) { this.version = version; }
+    }
+
+    // restarts the quiet period; only the last event of a burst triggers an update
+    private void scheduleChartUpdate() {
+        updateTimer.restart();
+    }
+
+    // reads and saves the inputs on the EDT, in order, so an older worker can never write an older budget;
+    // then computes slices and reads history in the background
     private void updateChart() {
+        updateTimer.stop();
         double monthlyBudget = parseInput(this.monthlyBudget);
         double weeklyInput = parseInput(weeklyFoodBudget);
+        boolean percentMode = isPercentMode;
+        int version = ++requestedVersion;
+        BudgetEngine.get().setBudgets(LocalDate.now(), getWeeklyFoodBudget(), monthlyBudget);
 
-        double foodMonthlyAmount;
-        if (isPercentMode) {
-            foodMonthlyAmount = monthlyBudget * (weeklyInput / 100.0);
-        } else {
-            foodMonthlyAmount = weeklyInput * 4;
-        }
+        new SwingWorker<ChartData, Void>() {
+            @Override
+            protected ChartData doInBackground() {
+                ChartData d = new ChartData(version);
+                d.food = percentMode ? monthlyBudget * (weeklyInput / 100.0) : weeklyInput * 4;
+                d.other = Math.max(0, monthlyBudget - d.food);
+
+                BudgetEngine engine = BudgetEngine.get();
+                LocalDate today = LocalDate.now();
+                d.weeks = engine.weekly(today.minusWeeks(HISTORY_WEEKS_BACK), today.plusWeeks(HISTORY_WEEKS_AHEAD));
+                d.month = engine.month(YearMonth.from(today));
+                d.last4 = engine.rolling(today, 4);
+                return d;
+            }
 
-        double other = monthlyBudget - foodMonthlyAmount;
-        if (other < 0) other = 0;
+            @Override
+            protected void done() {
+                try {
+                    ChartData d = get();
+                    if (d.version == requestedVersion) applyChartData(d);
+                } catch (InterruptedException | ExecutionException ex) {
+                    ex.printStackTrace();
+                }
+            }
+        }.execute();
+    }
 
-        dataset.setValue("Food", foodMonthlyAmount);
-        dataset.setValue("Other", other);
+    // one dataset event per chart instead of one per slice
+    private void applyChartData(ChartData d) {
+        pieTotal = d.food + d.other;
+        dataset.setNotify(false);
+        dataset.setValue("Food", d.food);
+        dataset.setValue("Other", d.other);
+        dataset.setNotify(true);
+
+        plannedSeries.setNotify(false);
+        actualSeries.setNotify(false);
+        budgetSeries.setNotify(false);
+        plannedSeries.clear();
+        actualSeries.clear();
+        budgetSeries.clear();
+        for (BudgetEngine.Bucket b : d.weeks) {
+            Day day = new Day(b.start.getDayOfMonth(), b.start.getMonthValue(), b.start.getYear());
+            plannedSeries.add(day, b.planned);
+            actualSeries.add(day, b.actual);
+            if (!Double.isNaN(b.budget)) budgetSeries.add(day, b.budget);
+        }
+        plannedSeries.setNotify(true);
+        actualSeries.setNotify(true);
+        budgetSeries.setNotify(true);
+
+        BudgetEngine.Bucket month = d.month;
+        BudgetEngine.Bucket last4 = d.last4;
+        spendSummary.setText(String.format(
+                "This month: planned $%.2f, actual $%.2f%s   |   Last 4 weeks: planned $%.2f, actual $%.2f%s",
+                month.planned, month.actual, Double.isNaN(month.budget) ? "" : String.format(" of $%.2f", month.budget),
+                last4.planned, last4.actual, Double.isNaN(last4.budget) ? "" : String.format(" of $%.2f", last4.budget)));
     }
 
     //==================================================================================================================
@@ -11,14 +11,14 @@ import java.net.URL;
 import java.util.concurrent.ExecutionException;
 import java.util.Map;
 import java.util.LinkedHashMap;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Vector;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import bridge.IKrogerWrapper;
+import bridge.ProductCodec;
+import bridge.ProductSummary;
 import bridge.Py4JHelper;
 
 
@@ -32,15 +32,15 @@ public class Page2 extends JPanel {
     private final boolean miniMode;
     private final JTextField searchField = new JTextField();
     private final JButton searchBtn = new JButton("Search");
-    private final DefaultListModel<JSONObject> resultsModel = new DefaultListModel<>();
-    private final JList<JSONObject> resultsList = new JList<>(resultsModel);
+    private final DefaultListModel<ProductSummary> resultsModel = new DefaultListModel<>();
+    private final JList<ProductSummary> resultsList = new JList<>(resultsModel);
     private final JLabel statusLabel = new JLabel(" ");
-    private final DefaultListModel<JSONObject> favoritesModel = new DefaultListModel<>();
-    private final JList<JSONObject> favoritesList = new JList<>(favoritesModel);
+    private final DefaultListModel<ProductSummary> favoritesModel = new DefaultListModel<>();
+    private final JList<ProductSummary> favoritesList = new JList<>(favoritesModel);
     private final DefaultListModel<CustomIngredient> customModel = new DefaultListModel<>();
     private final JList<CustomIngredient> customList = new JList<>(customModel);
     private JPanel customPanel;
-    private static final String FAVORITES_FILE = "src/pages/text/favorite_products.json";
+    private static final String FAVORITES_FILE = FileCache.FAVORITES_FILE;
     private static final int IMAGE_CACHE_SIZE = 64;
     private static final Map<String, ImageIcon> imageCache = new LinkedHashMap<>(IMAGE_CACHE_SIZE, 0.75f, true) {
 
@@ -49,7 +49,23 @@ public class Page2 extends JPanel {
 
     private static final ImageIcon PLACEHOLDER = (ImageIcon) UIManager.getIcon("FileView.fileIcon");
     private static final int THUMB = 80;
-    private static final Pattern SERVING_REGEX = Pattern.compile("(\\d+(?:\\.\\d+)?)\\s*(g|kg|mg|ml|l|oz|fl\\s?oz|cup|cups|tbsp|tsp|lb|lbs)\\b", Pattern.CASE_INSENSITIVE);
+
+    // Paged search: results are appended one page at a time as the list is scrolled towards its end.
+    private static final int PAGE_SIZE = 10;
+    private static final int MAX_RESULTS = 250;
+    private static final int NEAR_END_PX = 200;
+    private JScrollPane resultsScroll;
+    private int searchGeneration = 0;
+    private String searchQuery;
+    private String nextCursor;
+    private boolean pageLoading = false;
+
+    // favorites arrive from StartupLoader; saving waits for them so a quick add can't overwrite the file
+    private boolean favoritesLoaded = false;
+
+    // price changes patch the matching favorite; subscribed only while this page is showing
+    private final java.util.function.Consumer<DataEvents.ProductPriceChanged> priceListener = this::onPriceChanged;
+    private final java.util.function.Consumer<DataEvents.RecordsChanged> recordsListener = this::onRecordsChanged;
 
     public Page2() { this(json -> { /* no-op */ }, false); }
 
@@ -95,8 +111,9 @@ public class Page2 extends JPanel {
         panel.add(top, BorderLayout.NORTH);
         resultsList.setCellRenderer(new ResultCellRenderer());
         resultsList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
-        JScrollPane scroll = new JScrollPane(resultsList);
-        panel.add(scroll, BorderLayout.CENTER);
+        resultsScroll = new JScrollPane(resultsList);
+        resultsScroll.getVerticalScrollBar().addAdjustmentListener(e -> fetchNextPageIfNearEnd());
+        panel.add(resultsScroll, BorderLayout.CENTER);
         JPanel bottom = new JPanel(new BorderLayout(6,6));
         bottom.add(statusLabel, BorderLayout.CENTER);
         JPanel actions = new JPanel(new FlowLayout(FlowLayout.RIGHT));
@@ -199,37 +216,39 @@ public class Page2 extends JPanel {
         JPanel panel = new JPanel(new BorderLayout(8,8));
         panel.setBorder(new EmptyBorder(8,8,8,8));
 
-        DefaultListModel<JSONObject> examplesModel = new DefaultListModel<>();
-        JList<JSONObject> examplesList = new JList<>(examplesModel);
+        DefaultListModel<ProductSummary> examplesModel = new DefaultListModel<>();
+        JList<ProductSummary> examplesList = new JList<>(examplesModel);
         examplesList.setCellRenderer(new ResultCellRenderer());
         examplesList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
         JScrollPane scroll = new JScrollPane(examplesList);
         panel.add(scroll, BorderLayout.CENTER);
 
 
-        List<Page4.Recipe> recipes = RecipeLoader.loadRecipesFromFile("src/pages/text/recipes.txt");
-        for (Page4.Recipe r : recipes) {
-            JSONObject jo = new JSONObject();
-            jo.put("name", r.recipe_name != null ? r.recipe_name : "");
-            if (r.imagePath != null && !r.imagePath.isEmpty()) jo.put("image_url", r.imagePath);
-            jo.put("serving_label", "");
-            jo.put("price", r.cost_per_serving);
-            jo.put("kroger_raw", r.toJson());
-            examplesModel.addElement(jo);
-        }
+        StartupLoader.onReady(StartupLoader.get().recipes(), loaded -> {
+            List<Page4.Recipe> recipes = loaded != null ? loaded : RecipeLoader.loadRecipesFromFile(FileCache.RECIPES_FILE);
+            for (Page4.Recipe r : recipes) {
+                JSONObject jo = new JSONObject();
+                jo.put("name", r.recipe_name != null ? r.recipe_name : "");
+                if (r.imagePath != null && !r.imagePath.isEmpty()) jo.put("image_url", r.imagePath);
+                jo.put("serving_label", "");
+                jo.put("price", r.cost_per_serving);
+                jo.put("kroger_raw", r.toJson());
+                examplesModel.addElement(ProductSummary.fromJson(jo));
+            }
+        });
 
         JPanel bottom = new JPanel(new FlowLayout(FlowLayout.RIGHT));
         JButton addBtn = new JButton("Add to recipe");
         addBtn.setVisible(miniMode);
         addBtn.setEnabled(false);
         addBtn.addActionListener(e -> {
-            JSONObject sel = examplesList.getSelectedValue();
+            ProductSummary sel = examplesList.getSelectedValue();
             if (sel != null) addToRecipeAndClose(sel);
         });
         bottom.add(addBtn);
         JButton infoBtn = new JButton("View Info");
         infoBtn.addActionListener(e -> {
-            JSONObject sel = examplesList.getSelectedValue();
+            ProductSummary sel = examplesList.getSelectedValue();
             if (sel != null) showNutritionDialog(sel);
         });
         bottom.add(infoBtn);
@@ -349,56 +368,133 @@ public class Page2 extends JPanel {
         if (q.isEmpty()) { setStatus("Enter a search term."); return; }
         searchBtn.setEnabled(false);
         resultsModel.clear();
+        searchGeneration++;
+        searchQuery = q;
+        nextCursor = null;
         setStatus("Searching...");
+        fetchPage(null);
+    }
+
+    private void fetchNextPageIfNearEnd() {
+        if (pageLoading || nextCursor == null || resultsScroll == null) return;
+        BoundedRangeModel m = resultsScroll.getVerticalScrollBar().getModel();
+        if (m.getValue() + m.getExtent() >= m.getMaximum() - NEAR_END_PX) fetchPage(nextCursor);
+    }
+
+    private void fetchPage(String cursor) {
+        final int generation = searchGeneration;
+        final String q = searchQuery;
+        pageLoading = true;
+        if (cursor != null) setStatus(String.format("Showing %d results, loading more...", resultsModel.size()));
 
-        SwingWorker<JSONArray, Void> worker = new SwingWorker<>() {
-            @Override protected JSONArray doInBackground() throws Exception {
+        SwingWorker<ProductCodec.Page, Void> worker = new SwingWorker<>() {
+            @Override protected ProductCodec.Page doInBackground() throws Exception {
                 IKrogerWrapper wrapper = Py4JHelper.getWrapper();
                 if (wrapper == null) throw new IllegalStateException("Kroger bridge unavailable");
-                String raw = wrapper.search(q, 10);
-                if (raw == null || raw.trim().isEmpty()) return new JSONArray();
-                return new JSONArray(raw);
+                return ProductCodec.searchPage(wrapper, q, PAGE_SIZE, cursor);
             }
             @Override protected void done() {
+                if (generation != searchGeneration) return; // a newer search replaced this one
+                pageLoading = false;
+                searchBtn.setEnabled(true);
                 try {
-                    JSONArray arr = get();
-                    for (int i = 0; i < arr.length(); i++) resultsModel.addElement(arr.getJSONObject(i));
-                    setStatus(String.format("Found %d results", arr.length()));
+                    ProductCodec.Page page = get();
+                    ProductCache.putAll(page.items);
+                    for (ProductSummary p : page.items) resultsModel.addElement(p);
+                    nextCursor = resultsModel.size() < MAX_RESULTS ? page.nextCursor : null;
+                    setStatus(nextCursor != null
+                            ? String.format("Showing %d results (scroll for more)", resultsModel.size())
+                            : String.format("Found %d results", resultsModel.size()));
+                    // Keep loading while the list does not yet fill the viewport.
+                    SwingUtilities.invokeLater(() -> fetchNextPageIfNearEnd());
                 } catch (InterruptedException | ExecutionException ex) {
                     ex.printStackTrace();
+                    nextCursor = null;
                     String msg = ex.getCause() != null ? ex.getCause().getMessage() : ex.getMessage();
                     setStatus("Search failed: " + (msg != null ? msg : "unknown error"));
-                } finally { searchBtn.setEnabled(true); }
+                }
             }
         };
         worker.execute();
     }
 
     private void addSelectedToFavorites() {
-        JSONObject sel = resultsList.getSelectedValue();
+        ProductSummary sel = resultsList.getSelectedValue();
         if (sel == null) { JOptionPane.showMessageDialog(this, "Select item to favorite."); return; }
         addFavorite(sel);
     }
 
     private void removeSelectedFavorite() {
-        JSONObject sel = favoritesList.getSelectedValue();
+        ProductSummary sel = favoritesList.getSelectedValue();
         if (sel == null) { JOptionPane.showMessageDialog(this, "Select a favorite to remove."); return; }
         favoritesModel.removeElement(sel);
         saveFavorites();
     }
 
     private void viewSelectedInfo(boolean fromFavorites) {
-        JSONObject sel = resultsList.getSelectedValue();
+        ProductSummary sel = resultsList.getSelectedValue();
         if (sel == null) { JOptionPane.showMessageDialog(this, "Select an item first."); return; }
         showNutritionDialog(sel);
     }
 
     private void viewSelectedFavoriteInfo() {
-        JSONObject sel = favoritesList.getSelectedValue();
+        ProductSummary sel = favoritesList.getSelectedValue();
         if (sel == null) { JOptionPane.showMessageDialog(this, "Select a favorite first."); return; }
         showNutritionDialog(sel);
     }
 
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        DataEvents.subscribe(DataEvents.ProductPriceChanged.class, priceListener);
+        DataEvents.subscribe(DataEvents.RecordsChanged.class, recordsListener);
+    }
+
+    @Override
+    public void removeNotify() {
+        DataEvents.unsubscribe(DataEvents.ProductPriceChanged.class, priceListener);
+        DataEvents.unsubscribe(DataEvents.RecordsChanged.class, recordsListener);
+        super.removeNotify();
+    }
+
+    private void onPriceChanged(DataEvents.ProductPriceChanged e) {
+        for (int i = 0; i < favoritesModel.size(); i++) {
+            if (e.productId.equals(favoritesModel.get(i).id)) favoritesModel.set(i, ProductSummary.fromJson(e.product));
+        }
+    }
+
+    // Favorites or custom ingredients edited outside the app: patch the changed records by id.
+    private void onRecordsChanged(DataEvents.RecordsChanged e) {
+        if (e.path.equals(FAVORITES_FILE) && favoritesLoaded) {
+            Map<String, ProductSummary> saved = new LinkedHashMap<>();
+            for (ProductSummary p : readFavorites()) saved.put(p.id, p);
+            for (String id : e.keys) {
+                int i = 0;
+                while (i < favoritesModel.size() && !favoritesModel.get(i).id.equals(id)) i++;
+                ProductSummary p = saved.get(id);
+                if (i < favoritesModel.size()) {
+                    if (p != null) favoritesModel.set(i, p);
+                    else favoritesModel.remove(i);
+                } else if (p != null) {
+                    favoritesModel.addElement(p);
+                }
+            }
+        } else if (e.path.equals(FileCache.CUSTOM_INGREDIENTS_FILE)) {
+            Map<String, CustomIngredient> saved = new LinkedHashMap<>();
+            for (CustomIngredient ci : CustomIngredientStore.loadAll()) saved.put(ci.id, ci);
+            for (String id : e.keys) {
+                int i = 0;
+                while (i < customModel.size() && !customModel.get(i).id.equals(id)) i++;
+                CustomIngredient ci = saved.get(id);
+                if (i < customModel.size()) {
+                    if (ci != null) customModel.set(i, ci);
+                    else customModel.remove(i);
+                } else if (ci != null) {
+                    customModel.addElement(ci);
+                }
+            }
+        }
+    }
 
     private void addSelectedToRecipeAndClose() {
         addToRecipeAndClose(resultsList.getSelectedValue());
@@ -410,6 +506,11 @@ public class Page2 extends JPanel {
     }
 
 
+    private void addToRecipeAndClose(ProductSummary selected) {
+        if (selected == null) { JOptionPane.showMessageDialog(this, "Select an ingredient first."); return; }
+        addToRecipeAndClose(selected.toJson());
+    }
+
     private void addToRecipeAndClose(JSONObject selected) {
         if (selected == null) { JOptionPane.showMessageDialog(this, "Select an ingredient first."); return; }
 
@@ -426,18 +527,12 @@ public class Page2 extends JPanel {
             out.put("nutrients", selected.opt("nutrients"));
         }
 
-        JSONObject raw = out.optJSONObject("kroger_raw") != null ? out.optJSONObject("kroger_raw") : out;
-        if (out.optString("serving_label","").isEmpty()) {
-            String fallback = Page4.extractServingLabelFromRaw(raw);
-            if (!fallback.isEmpty()) out.put("serving_label", fallback);
+        NutritionFacts facts = NutritionExtractor.extract(out);
+        if (out.optString("serving_label","").isEmpty() && !facts.servingLabel().isEmpty()) {
+            out.put("serving_label", facts.servingLabel());
         }
-        if (out.optDouble("calories_per_serving",0.0) <= 0.0) {
-            double c = Page4.extractCaloriesFromRaw(raw);
-            if (c > 0.0) out.put("calories_per_serving", c);
-            else {
-                double c2 = Page4.extractCaloriesFromNutrientsObject(selected);
-                if (c2 > 0.0) out.put("calories_per_serving", c2);
-            }
+        if (out.optDouble("calories_per_serving",0.0) <= 0.0 && facts.calories() > 0.0) {
+            out.put("calories_per_serving", facts.calories());
         }
 
         try { listener.onIngredientSelected(out); }
@@ -474,7 +569,7 @@ public class Page2 extends JPanel {
         raw.addActionListener(e -> showSelectedRawJson());
         JMenuItem fav = new JMenuItem("Add to favorites");
         fav.addActionListener(e -> {
-            JSONObject sel = resultsList.getSelectedValue();
+            ProductSummary sel = resultsList.getSelectedValue();
             if (sel != null) addFavorite(sel);
         });
         menu.add(info);
@@ -498,9 +593,9 @@ public class Page2 extends JPanel {
     }
 
     private void showSelectedRawJson() {
-        JSONObject sel = resultsList.getSelectedValue();
+        ProductSummary sel = resultsList.getSelectedValue();
         if (sel == null) { JOptionPane.showMessageDialog(this, "Select an item first."); return; }
-        JTextArea ta = new JTextArea(sel.toString(2));
+        JTextArea ta = new JTextArea(sel.toJson().toString(2));
         ta.setEditable(false);
         JScrollPane sp = new JScrollPane(ta);
         sp.setPreferredSize(new Dimension(600, 400));
@@ -508,62 +603,68 @@ public class Page2 extends JPanel {
     }
 
     private void showSelectedRawJsonFavorites() {
-        JSONObject sel = favoritesList.getSelectedValue();
+        ProductSummary sel = favoritesList.getSelectedValue();
         if (sel == null) { JOptionPane.showMessageDialog(this, "Select a favorite first."); return; }
-        JTextArea ta = new JTextArea(sel.toString(2));
+        JTextArea ta = new JTextArea(sel.toJson().toString(2));
         ta.setEditable(false);
         JScrollPane sp = new JScrollPane(ta);
         sp.setPreferredSize(new Dimension(600, 400));
         JOptionPane.showMessageDialog(this, sp, "Raw favorite JSON", JOptionPane.INFORMATION_MESSAGE);
     }
 
-    private void showNutritionDialog(JSONObject sel) {
-        NutritionDialog.showNutritionDialog(this, sel);
+    private void showNutritionDialog(ProductSummary sel) {
+        if (sel != null) NutritionDialog.showNutritionDialog(this, sel.toJson());
     }
 
 
-    private void addFavorite(JSONObject product) {
-        String id = product.optString("id", product.optString("productId", ""));
+    private void addFavorite(ProductSummary product) {
         for (int i = 0; i < favoritesModel.size(); i++) {
-            JSONObject e = favoritesModel.get(i);
-            String eid = e.optString("id", e.optString("productId", ""));
-            if (eid.equals(id)) { JOptionPane.showMessageDialog(this, "Already in favorites."); return; }
+            if (favoritesModel.get(i).id.equals(product.id)) { JOptionPane.showMessageDialog(this, "Already in favorites."); return; }
         }
         favoritesModel.addElement(product);
         saveFavorites();
     }
 
     private void loadFavorites() {
-        favoritesModel.clear();
-        File f = new File(FAVORITES_FILE);
-        if (!f.exists()) return;
-        try (BufferedReader br = new BufferedReader(new FileReader(f))) {
-            StringBuilder sb = new StringBuilder();
-            String line;
-            while ((line = br.readLine()) != null) sb.append(line).append("\n");
-            String txt = sb.toString().trim();
-            if (txt.isEmpty()) return;
+        StartupLoader.onReady(StartupLoader.get().favorites(), startup -> {
+            // another Page2 may have saved since startup; re-reading is a FileCache hit when nothing changed
+            List<ProductSummary> saved = readFavorites();
+            // keep anything added before the file was loaded, after the saved favorites
+            List<ProductSummary> addedEarly = new ArrayList<>();
+            for (int i = 0; i < favoritesModel.size(); i++) addedEarly.add(favoritesModel.get(i));
+            favoritesModel.clear();
+            for (ProductSummary p : saved) favoritesModel.addElement(p);
+            favoritesLoaded = true;
+            if (!addedEarly.isEmpty()) {
+                for (ProductSummary p : addedEarly) {
+                    boolean dup = false;
+                    for (ProductSummary q : saved) if (q.id.equals(p.id)) { dup = true; break; }
+                    if (!dup) favoritesModel.addElement(p);
+                }
+                saveFavorites();
+            }
+        });
+    }
+
+    // Blocking; used by StartupLoader off the EDT.
+    static List<ProductSummary> readFavorites() {
+        List<ProductSummary> out = new ArrayList<>();
+        try {
+            String txt = FileCache.read(FAVORITES_FILE);
+            if (txt == null || txt.trim().isEmpty()) return out;
             JSONArray arr = new JSONArray(txt);
-            for (int i = 0; i < arr.length(); i++) favoritesModel.addElement(arr.getJSONObject(i));
+            for (int i = 0; i < arr.length(); i++) out.add(ProductSummary.fromJson(arr.getJSONObject(i)));
         } catch (Exception ex) { ex.printStackTrace(); }
+        return out;
     }
 
     private void saveFavorites() {
+        if (!favoritesLoaded) return;
         JSONArray arr = new JSONArray();
-        for (int i = 0; i < favoritesModel.size(); i++) arr.put(favoritesModel.get(i));
-        File f = new File(FAVORITES_FILE);
+        for (int i = 0; i < favoritesModel.size(); i++) arr.put(favoritesModel.get(i).toJson());
         try {
-            if (!f.getParentFile().exists()) f.getParentFile().mkdirs();
-            try (FileWriter fw = new FileWriter(f, false)) { fw.write(arr.toString(2)); }
+            LocalStore.write(FAVORITES_FILE, arr.toString(2));
         } catch (IOException ex) { ex.printStackTrace(); }
     }
 
-
-    private static String extractServingLabelFromRaw(JSONObject raw) {
-        return Page4.extractServingLabelFromRaw(raw);
-    }
-
-    private static double extractCaloriesFromRaw(JSONObject raw) {
-        return Page4.extractCaloriesFromRaw(raw);
-    }
 }
\ No newline at end of file
@@ -4,8 +4,12 @@ import javax.swing.*;
 import java.awt.*;
 
 public class Page3 extends JPanel {
+    private final CustomCalendarPanel calendar = new CustomCalendarPanel();
+
     public Page3() {
         setLayout(new BorderLayout());
-        add(new CustomCalendarPanel(), BorderLayout.CENTER);
+        add(calendar, BorderLayout.CENTER);
     }
+
+    public CustomCalendarPanel calendar() { return calendar; }
 }
@@ -8,18 +8,19 @@ import javax.swing.border.EmptyBorder;
 import java.awt.*;
 import java.awt.event.*;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
 import java.util.*;
 import java.util.List;
 import java.util.Base64;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
 
-import bridge.IKrogerWrapper;
-import bridge.Py4JHelper;
 import bridge.PyBridgeInvoker;
 
 public class Page4 extends JPanel {
@@ -42,9 +43,25 @@ public class Page4 extends JPanel {
         public int total_portions = 1;
         public int edible_days = 3;
 
+        // Backend sync state, see SyncReconciler. synced_name / synced_links are what the backend held
+        // after the last exchange; null synced_links means "derive from lastSyncedQuantity" (older files).
+        public boolean linked;                 // recipe_ID is the backend's id for this recipe
+        public String local_id;                // stable identity; keys the backend create and meal plan slots
+        public String shadowed_local_id;       // not stored: the packaged recipe of the same name this one hides
+        public int version;                    // bumped for every change pushed to the backend
+        public long remote_version;            // backend change stamp last applied
+        public String synced_name;
+        public Map<Integer, Double> synced_links;
+
         public Recipe() {}
 
-        public Recipe(int id, String name) { this.recipe_ID = id; this.recipe_name = name; }
+        public Recipe(int id, String name) { this.recipe_ID = id; this.recipe_name = name; this.local_id = UUID.randomUUID().toString(); }
+
+        /** The local id, assigned on first use for recipes saved before it existed. */
+        public String localId() {
+            if (local_id == null || local_id.isEmpty()) local_id = UUID.randomUUID().toString();
+            return local_id;
+        }
 
         public Recipe(int id,
                       String name,
@@ -83,6 +100,16 @@ public class Page4 extends JPanel {
             ro.put("imagePath", imagePath != null ? imagePath : "");
             ro.put("total_portions", total_portions);
             ro.put("edible_days", edible_days);
+            ro.put("linked", linked);
+            if (local_id != null) ro.put("local_id", local_id);
+            ro.put("version", version);
+            ro.put("remote_version", remote_version);
+            if (synced_name != null) ro.put("synced_name", synced_name);
+            if (synced_links != null) {
+                JSONObject links = new JSONObject();
+                for (Map.Entry<Integer, Double> e : synced_links.entrySet()) links.put(String.valueOf(e.getKey()), e.getValue());
+                ro.put("synced_links", links);
+            }
 
             JSONArray ings = new JSONArray();
             for (IngredientEntry ie : recipe_ingredients) ings.put(ie.toJson());
@@ -107,6 +134,18 @@ public class Page4 extends JPanel {
             r.imagePath = o.optString("imagePath", "");
             r.total_portions = o.optInt("total_portions", 1);
             r.edible_days = o.optInt("edible_days", 3);
+            r.linked = o.has("linked") ? o.optBoolean("linked") : r.recipe_ID > 0;   // older files: any positive id was pushed
+            r.local_id = o.has("local_id") ? o.optString("local_id") : null;
+            r.version = o.optInt("version", 0);
+            r.remote_version = o.optLong("remote_version", 0);
+            r.synced_name = o.has("synced_name") ? o.optString("synced_name") : null;
+            JSONObject links = o.optJSONObject("synced_links");
+            if (links != null) {
+                r.synced_links = new HashMap<>();
+                for (String k : links.keySet()) {
+                    try { r.synced_links.put(Integer.parseInt(k), links.getDouble(k)); } catch (Exception ignored) {}
+                }
+            }
 
             JSONArray ings = o.optJSONArray("ingredients");
             if (ings != null) {
@@ -146,11 +185,70 @@ public class Page4 extends JPanel {
 
         public double multiplier = 1.0;
 
+        // Whether quantity/unit may drive the servings. Entries saved before quantities were measured
+        // lack it and keep costing by multiplier until their quantity is edited.
+        public boolean measured = true;
+
         // Last quantity synced to Python for addIngredientToRecipe calls.
         public double lastSyncedQuantity = Double.NaN;
 
+        // Parsed nutrition, rebuilt only when the backing JSON or the user-entered overrides change. Guarded
+        // by the entry's lock: the suggestions solver reads catalog entries from a worker thread.
+        private NutritionFacts facts = null;
+        private JSONObject factsNutrients = null;
+        private JSONObject factsRaw = null;
+        private double factsCalories = -1.0;
+        private String factsServing = null;
+
         public IngredientEntry() {}
 
+        public synchronized NutritionFacts nutrition() {
+            if (facts == null || factsNutrients != nutrients_per_serving || factsRaw != kroger_raw
+                    || factsCalories != calories_per_serving || !Objects.equals(factsServing, serving_label)) {
+                JSONObject probe = new JSONObject();
+                if (nutrients_per_serving != null) probe.put("nutrients", nutrients_per_serving);
+                if (serving_label != null && !serving_label.isEmpty()) probe.put("serving_label", serving_label);
+                if (kroger_raw != null) probe.put("kroger_raw", kroger_raw);
+                NutritionFacts f = NutritionExtractor.extract(probe);
+                if (calories_per_serving > 0.0) f = f.withCalories(calories_per_serving);
+                facts = f;
+                factsNutrients = nutrients_per_serving;
+                factsRaw = kroger_raw;
+                factsCalories = calories_per_serving;
+                factsServing = serving_label;
+            }
+            return facts;
+        }
+
+        /**
+         * Servings of the product this entry uses. When quantity/unit is a mass or volume that can be
+         * measured against the product's serving size, the servings follow from it; otherwise the
+         * multiplier is used as before.
+         */
+        public double effectiveServings() {
+            double s = measured ? Units.servingsIn(quantity, unit, nutrition(), name) : Double.NaN;
+            return Double.isNaN(s) ? multiplier : s;
+        }
+
+        /** Whether {@link #effectiveServings()} is driven by quantity/unit rather than the multiplier. */
+        public boolean isMeasured() {
+            return measured && !Double.isNaN(Units.servingsIn(quantity, unit, nutrition(), name));
+        }
+
+        /** Sets the quantity the user typed; this opts an older entry into measured servings. */
+        public void setQuantity(double q) {
+            quantity = q;
+            measured = true;
+        }
+
+        /** Sets the multiplier and, for measured entries, keeps quantity in step with it. */
+        public void setServings(double servings) {
+            multiplier = servings;
+            if (!measured) return;
+            double q = Units.quantityFor(servings, unit, nutrition(), name);
+            if (!Double.isNaN(q)) quantity = q;
+        }
+
         public JSONObject toJson() {
             JSONObject o = new JSONObject();
             o.put("name", name != null ? name : "");
@@ -163,6 +261,7 @@ public class Page4 extends JPanel {
             o.put("calories_per_serving", calories_per_serving);
             o.put("serving_label", serving_label != null ? serving_label : "");
             o.put("multiplier", multiplier);
+            o.put("measured", measured);
             o.put("nutrients_per_serving", nutrients_per_serving != null ? nutrients_per_serving : JSONObject.NULL);
             o.put("kroger_raw", kroger_raw != null ? kroger_raw : JSONObject.NULL);
             if (!Double.isNaN(lastSyncedQuantity)) o.put("lastSyncedQuantity", lastSyncedQuantity);
@@ -171,7 +270,29 @@ public class Page4 extends JPanel {
 
 
 
+        /**
+         * Reads a stored ingredient: either a {@code {"ref": key}} reference to an
+         * {@link IngredientMasters} record plus per-recipe quantity, or a legacy inline entry, which
+         * is interned so entries for the same product share one master.
+         */
         public static IngredientEntry fromJson(JSONObject o) {
+            String ref = o.optString("ref", "");
+            if (ref.isEmpty()) {
+                IngredientEntry ie = fromInlineJson(o);
+                IngredientMasters.intern(ie);
+                return ie;
+            }
+            IngredientEntry ie = new IngredientEntry();
+            if (!IngredientMasters.resolve(ref, ie)) ie.name = ref.startsWith("name:") ? ref.substring(5) : ref;
+            ie.quantity = o.optDouble("quantity", 1.0);
+            ie.unit = o.optString("unit", "unit");
+            ie.multiplier = o.optDouble("multiplier", 1.0);
+            ie.measured = o.optBoolean("measured", false);
+            if (o.has("lastSyncedQuantity")) ie.lastSyncedQuantity = o.optDouble("lastSyncedQuantity", Double.NaN);
+            return ie;
+        }
+
+        static IngredientEntry fromInlineJson(JSONObject o) {
             IngredientEntry ie = new IngredientEntry();
             ie.name = o.optString("name", "");
             ie.quantity = o.optDouble("quantity", 1.0);
@@ -183,6 +304,7 @@ public class Page4 extends JPanel {
             ie.calories_per_serving = o.optDouble("calories_per_serving", 0.0);
             ie.serving_label = o.optString("serving_label", "");
             ie.multiplier = o.optDouble("multiplier", 1.0);
+            ie.measured = o.optBoolean("measured", false);
             if (o.has("nutrients_per_serving") && !o.isNull("nutrients_per_serving")) ie.nutrients_per_serving = o.optJSONObject("nutrients_per_serving");
             if (o.has("kroger_raw") && !o.isNull("kroger_raw")) ie.kroger_raw = o.optJSONObject("kroger_raw");
             if (o.has("lastSyncedQuantity")) ie.lastSyncedQuantity = o.optDouble("lastSyncedQuantity", Double.NaN);
@@ -203,53 +325,183 @@ public class Page4 extends JPanel {
     private final IngredientTableModel ingredientTableModel = new IngredientTableModel();
     private final JTable ingredientTable = new JTable(ingredientTableModel);
     private final JLabel totalsLabel = new JLabel("Cost $0.00  |  Calories 0.0 kcal");
+    private final JLabel priceStatusLabel = new JLabel(" ");
     private Recipe activeRecipe = null;
     private final List<Recipe> recipes = new ArrayList<>();
     private JSpinner totalPortionsSpinner;
     private JSpinner edibleDaysSpinner;
     private boolean suppressDocumentEvents = false;
-    private static final Pattern SERVING_REGEX = Pattern.compile("(\\d+(?:\\.\\d+)?)\\s*(g|kg|mg|ml|l|oz|fl\\s?oz|cup|cups|tbsp|tsp|lb|lbs)\\b", Pattern.CASE_INSENSITIVE);
+    private SyncReconciler sync;
+    private static final int SYNC_INTERVAL_MS = 60_000;
+    // every recipe's prices are refreshed once a day, at the first check from this hour on
+    private static final int NIGHTLY_REFRESH_HOUR = 3;
+    private static final int NIGHTLY_CHECK_MS = 15 * 60_000;
+    private static final String NIGHTLY_REFRESH_FILE = "src/pages/text/price_refresh.txt";
+    // made by buildUI; they run while the page is displayable (attachFeeds / detachFeeds)
+    private javax.swing.Timer syncTimer;
+    private javax.swing.Timer nightlyTimer;
+    private PriceFeed.Listener priceListener;
+    private final JTextField nameField = new JTextField();
+    private final JTextArea descArea = new JTextArea(6, 30); // used for instructions
+
+    // --------------------------------------
+    // Autosave: an edit is saved once typing pauses for AUTOSAVE_DELAY_MS, or earlier when the
+    // recipe is switched, focus leaves the page or the window closes. The file commit runs on SAVE_EXEC.
+    // --------------------------------------
+    private static final int AUTOSAVE_DELAY_MS = 400;
+    private static final ExecutorService SAVE_EXEC = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "recipe-autosave");
+        t.setDaemon(true);
+        return t;
+    });
+    private final javax.swing.Timer autosaveTimer = new javax.swing.Timer(AUTOSAVE_DELAY_MS, e -> autoSaveActiveRecipe());
+    private final java.beans.PropertyChangeListener focusWatcher = e -> {
+        Object owner = e.getNewValue();
+        if (!(owner instanceof Component) || !SwingUtilities.isDescendingFrom((Component) owner, this)) flushAutosave();
+    };
+    private final WindowAdapter windowWatcher = new WindowAdapter() {
+        @Override public void windowDeactivated(WindowEvent e) { flushAutosave(); }
+        @Override public void windowClosing(WindowEvent e) { flushAutosave(); awaitSaves(); }
+    };
+    private Window watchedWindow;
+
+    // --------------------------------------
+    // Undo / redo
+    // --------------------------------------
+    private static final long COALESCE_MS = 1500;
+
+    // full JSON of recipes as last saved here, the "before" of their next edit; dropped when anyone else changes them
+    private final Map<Integer, String> savedJson = new HashMap<>();
+    // ids recorded in edits that have since changed: local id -> backend id once created, or a restored
+    // recipe's id that was taken in the meantime -> the id it got
+    private final Map<Integer, Integer> movedIds = new HashMap<>();
+
+    /** One recipe before and after an edit; null JSON means it did not exist. Quick successive edits merge. */
+    private final class RecipeEdit implements EditHistory.Edit {
+        final int id;
+        final String name;
+        final String before;
+        String after;
+        long at = System.currentTimeMillis();
+
+        RecipeEdit(int id, String name, String before, String after) {
+            this.id = id;
+            this.name = name;
+            this.before = before;
+            this.after = after;
+        }
+
+        @Override public String label() {
+            return (before == null ? "new recipe " : after == null ? "delete of " : "edit of ") + name;
+        }
+
+        @Override public void undo() { restoreRecipe(id, before); }
+        @Override public void redo() { restoreRecipe(id, after); }
+
+        @Override public boolean absorb(EditHistory.Edit next) {
+            if (!(next instanceof RecipeEdit)) return false;
+            RecipeEdit n = (RecipeEdit) next;
+            if (n.id != id || after == null || n.before == null || n.after == null || n.at - at > COALESCE_MS) return false;
+            after = n.after;
+            at = n.at;
+            return true;
+        }
+    }
 
     public Page4() {
         setLayout(new BorderLayout(8, 8));
-        loadRecipes(CUSTOM_RECIPE_FILE);
-        buildUI();
+        autosaveTimer.setRepeats(false);
+        // the editor is built once the startup loader has read custom_recipes.txt; until then nothing can save over it
+        JLabel loading = new JLabel("Loading recipes...", SwingConstants.CENTER);
+        add(loading, BorderLayout.CENTER);
+        StartupLoader loader = StartupLoader.get();
+        StartupLoader.onReady(loader.editorRecipes(), loaded -> {
+            remove(loading);
+            if (loaded != null && loader.unchanged(CUSTOM_RECIPE_FILE)) recipes.addAll(loaded);
+            else loadRecipes(CUSTOM_RECIPE_FILE);
+            buildUI();
+            revalidate();
+            repaint();
+        });
     }
 
     private void autoSaveActiveRecipe() {
         if (suppressDocumentEvents) return;
+        saveActiveRecipe();
+    }
+
+    // The editor still shows the active recipe here even when suppressDocumentEvents is set by a caller.
+    private void saveActiveRecipe() {
+        autosaveTimer.stop();
         if (activeRecipe == null) return;
         try { ingredientTableModel.commitEdits(); } catch (Exception ignored) {}
         activeRecipe.recipe_ingredients = ingredientTableModel.getIngredients();
         activeRecipe.total_portions = ((Number) totalPortionsSpinner.getValue()).intValue();
         activeRecipe.edible_days = ((Number) edibleDaysSpinner.getValue()).intValue();
         recomputeAndStore(activeRecipe);
+        // only this recipe's differences from the backend are queued, see SyncReconciler
+        if (sync != null) sync.push(activeRecipe);
+        String before = savedJson.containsKey(activeRecipe.recipe_ID) ? savedJson.get(activeRecipe.recipe_ID) : storedJson(activeRecipe.recipe_ID);
         saveRecipes(CUSTOM_RECIPE_FILE);
         refreshRecipeListModel();
+        DataEvents.publish(new DataEvents.RecipeChanged(this, activeRecipe, false));
+        String after = activeRecipe.toJson().toString();
+        savedJson.put(activeRecipe.recipe_ID, after);
+        if (!after.equals(before)) EditHistory.get().record(new RecipeEdit(activeRecipe.recipe_ID, activeRecipe.recipe_name, before, after));
+    }
 
-        // --- NEW: sync ingredient->recipe links to Python ---
-        if (activeRecipe.recipe_ID > 0) {
-            int recipeId = activeRecipe.recipe_ID;
-            for (IngredientEntry ie : activeRecipe.recipe_ingredients) {
-                if (ie.external_id == null || ie.external_id.isEmpty()) continue;
-                int ingId;
-                try { ingId = Integer.parseInt(ie.external_id); }
-                catch (Exception ex) { continue; } // skip non-numeric external_id
-                double q = ie.quantity;
-                double last = ie.lastSyncedQuantity;
-                boolean needsSync = Double.isNaN(last) || Double.compare(q, last) != 0;
-                if (needsSync) {
-                    PyBridgeInvoker.addIngredientToRecipe(recipeId, ingId, q);
-                    ie.lastSyncedQuantity = q;
-                }
+    // Queues the backend create for a recipe not linked yet and adopts the returned id once it is applied.
+    // The recipe is looked up again by local id then: undo/redo may have replaced or removed it meanwhile.
+    // {@code again} marks a recipe re-created after its backend row was deleted, which needs a fresh key.
+    private void createOnBackend(Recipe created, boolean again) {
+        String name = created.recipe_name;
+        String localId = created.localId();
+        PyBridgeInvoker.createRecipe(again ? localId + ":" + UUID.randomUUID() : localId, name).thenAccept(pyId -> {
+            if (pyId != null && pyId > 0) {
+                SwingUtilities.invokeLater(() -> {
+                    Recipe r = null;
+                    for (Recipe c : recipes) if (localId.equals(c.local_id)) { r = c; break; }
+                    if (r == null || r.linked) {
+                        // deleted (or re-created) before the backend caught up: drop the row it just made
+                        PyBridgeInvoker.deleteRecipe(pyId);
+                        return;
+                    }
+                    if (r.recipe_ID != pyId) {
+                        movedIds.put(r.recipe_ID, pyId);
+                        savedJson.remove(r.recipe_ID);
+                    }
+                    r.recipe_ID = pyId;
+                    sync.linked(r);
+                    recomputeAndStore(r);
+                    saveRecipes(CUSTOM_RECIPE_FILE);
+                    refreshRecipeListModel();
+                    DataEvents.publish(new DataEvents.RecipeChanged(this, r, false));
+                });
+            } else {
+                System.err.println("Python createRecipe returned invalid id for recipe '" + name + "'");
             }
-            try { saveRecipes(CUSTOM_RECIPE_FILE); } catch (Exception ignored) {}
-        }
+        });
     }
 
-    private void markDirty() { autoSaveActiveRecipe(); }
+    private void markDirty() {
+        if (!suppressDocumentEvents && activeRecipe != null) autosaveTimer.restart();
+    }
     private void markClean() {}
 
+    // Saves an edit still waiting on the autosave delay.
+    private void flushAutosave() {
+        if (autosaveTimer.isRunning()) saveActiveRecipe();
+    }
+
+    // Blocks until queued recipe file commits are on disk (window closing).
+    private static void awaitSaves() {
+        try {
+            SAVE_EXEC.submit(() -> {}).get(5, TimeUnit.SECONDS);
+        } catch (Exception ex) {
+            System.err.println("Recipe autosave: pending saves not confirmed: " + ex);
+        }
+    }
+
     private boolean confirmSaveIfDirty() {
         autoSaveActiveRecipe();
         return true;
@@ -259,10 +511,31 @@ public class Page4 extends JPanel {
         JPanel toolbar = new JPanel(new FlowLayout(FlowLayout.LEFT));
         JButton newBtn = new JButton("+ New Recipe");
         JButton deleteBtn = new JButton("Delete Selected");
+        JButton refreshPricesBtn = new JButton("Refresh prices");
+        JButton refreshAllPricesBtn = new JButton("Refresh all prices");
         toolbar.add(newBtn);
         toolbar.add(deleteBtn);
+        toolbar.add(refreshPricesBtn);
+        toolbar.add(refreshAllPricesBtn);
+        toolbar.add(EditHistory.button(false));
+        toolbar.add(EditHistory.button(true));
+        toolbar.add(priceStatusLabel);
         add(toolbar, BorderLayout.NORTH);
 
+        refreshPricesBtn.setToolTipText("Look up current Kroger prices for the selected recipe");
+        refreshAllPricesBtn.setToolTipText("Look up current Kroger prices for every recipe");
+        refreshPricesBtn.addActionListener(e -> {
+            if (activeRecipe == null) { JOptionPane.showMessageDialog(this, "Select a recipe first."); return; }
+            refreshPrices(Collections.singletonList(activeRecipe), refreshPricesBtn, refreshAllPricesBtn);
+        });
+        refreshAllPricesBtn.addActionListener(e -> refreshPrices(new ArrayList<>(recipes), refreshPricesBtn, refreshAllPricesBtn));
+        nightlyTimer = new javax.swing.Timer(NIGHTLY_CHECK_MS, e -> {
+            if (refreshAllPricesBtn.isEnabled() && nightlyRefreshDue()) {
+                refreshPrices(new ArrayList<>(recipes), refreshPricesBtn, refreshAllPricesBtn);
+            }
+        });
+        nightlyTimer.setInitialDelay(SYNC_INTERVAL_MS);
+
         recipeJList.setCellRenderer(new RecipeListCellRenderer());
         refreshRecipeListModel();
         JScrollPane leftScroll = new JScrollPane(recipeJList);
@@ -276,8 +549,6 @@ public class Page4 extends JPanel {
         c.fill = GridBagConstraints.HORIZONTAL;
         c.weightx = 1.0;
 
-        final JTextField nameField = new JTextField();
-        final JTextArea descArea = new JTextArea(6, 30); // used for instructions
         descArea.setLineWrap(true);
         descArea.setWrapStyleWord(true);
 
@@ -360,34 +631,22 @@ public class Page4 extends JPanel {
             // autosave new recipe locally
             autoSaveActiveRecipe();
 
-
-
             //PYTHON STUFF
-            // Call Python createRecipe asynchronously and update recipe_ID with returned id if valid
-            CompletableFuture<Integer> fut = PyBridgeInvoker.createRecipe(input);
-            String finalInput = input;
-            fut.thenAccept(pyId -> {
-                if (pyId != null && pyId > 0) {
-                    SwingUtilities.invokeLater(() -> {
-                        r.recipe_ID = pyId;
-                        recomputeAndStore(r);
-                        saveRecipes(CUSTOM_RECIPE_FILE);
-                        refreshRecipeListModel();
-                    });
-                } else {
-                    System.err.println("Python createRecipe returned invalid id for recipe '" + finalInput + "'");
-                }
-            });
+            createOnBackend(r, false);
         });
 
         deleteBtn.addActionListener(e -> {
             Recipe sel = recipeJList.getSelectedValue();
             if (sel != null && JOptionPane.showConfirmDialog(this, "Delete recipe \"" + sel.recipe_name + "\"?", "Confirm", JOptionPane.YES_NO_OPTION) == JOptionPane.YES_OPTION) {
+                String before = sel.toJson().toString();
+                sync.deleted(sel);
                 recipes.removeIf(rr -> rr.recipe_ID == sel.recipe_ID);
                 saveRecipes(CUSTOM_RECIPE_FILE);
                 activeRecipe = null;
                 refreshRecipeListModel();
                 clearEditor(nameField, descArea);
+                DataEvents.publish(new DataEvents.RecipeChanged(this, sel, true));
+                EditHistory.get().record(new RecipeEdit(sel.recipe_ID, sel.recipe_name, before, null));
             }
         });
 
@@ -439,6 +698,40 @@ public class Page4 extends JPanel {
         totalPortionsSpinner.addChangeListener(e -> { if (!suppressDocumentEvents) markDirty(); });
         edibleDaysSpinner.addChangeListener(e -> { if (!suppressDocumentEvents) markDirty(); });
 
+        // backend edits arrive through periodic pulls; reload the editor if they touched the open recipe
+        sync = new SyncReconciler(recipes, CUSTOM_RECIPE_FILE, changed -> {
+            if (activeRecipe != null && !recipes.contains(activeRecipe)) {
+                clearEditor(nameField, descArea);
+            } else if (activeRecipe != null && changed.contains(activeRecipe)) {
+                suppressDocumentEvents = true;
+                nameField.setText(activeRecipe.recipe_name != null ? activeRecipe.recipe_name : "");
+                ingredientTableModel.setIngredients(activeRecipe.recipe_ingredients);
+                updateTotals();
+                suppressDocumentEvents = false;
+            }
+            refreshRecipeListModel();
+            for (Recipe r : changed) DataEvents.publish(new DataEvents.RecipeChanged(this, r, !recipes.contains(r)));
+        });
+        syncTimer = new javax.swing.Timer(SYNC_INTERVAL_MS, e -> sync.pull());
+        sync.pull();
+
+        // prices pushed by the Python service patch the ingredients that use the product
+        priceListener = new PriceFeed.Listener() {
+            @Override public void pricesChanged(Map<String, JSONObject> products) { applyPushedPrices(products); }
+            @Override public void batchComplete(String batchId, JSONObject summary) {
+                priceStatusLabel.setText("Backend finished " + batchId);
+                sync.pull();
+            }
+        };
+        if (isDisplayable()) attachFeeds();
+
+        // custom_recipes.txt edited outside the app: swap in just the recipes that changed
+        DataEvents.subscribe(DataEvents.RecipeChanged.class, e -> {
+            savedJson.remove(e.recipeId);
+            if (e.source != DataFileWatcher.get()) return;
+            swapRecipe(e.recipeId, e.removed ? null : readStoredRecipe(e.recipeId));
+        });
+
         descArea.getDocument().addDocumentListener(new DocumentListener() {
             void update() {
                 if (suppressDocumentEvents) return;
@@ -482,7 +775,7 @@ public class Page4 extends JPanel {
                 ie.price_per_serving = custom.price_per_serving;
                 ie.calories_per_serving = custom.calories_per_serving;
                 ie.unit = custom.unit != null ? custom.unit : "";
-                ie.multiplier = 1.0;
+                ie.setServings(1.0);
                 if (activeRecipe == null) {
                     Recipe r = new Recipe(nextId(), "New recipe");
                     recipes.add(r);
@@ -490,6 +783,7 @@ public class Page4 extends JPanel {
                     refreshRecipeListModel();
                 }
                 if (activeRecipe != null) {
+                    IngredientMasters.update(ie);
                     activeRecipe.recipe_ingredients.add(ie);
                     ingredientTableModel.setIngredients(activeRecipe.recipe_ingredients);
                     updateTotals();
@@ -499,30 +793,22 @@ public class Page4 extends JPanel {
 
                     // PYTHON STUFF
                     // then notify Python the ingredient was added to the recipe.
-                    CompletableFuture<Integer> createFut = PyBridgeInvoker.createIngredient(ie.toJson().toString());
+                    Recipe target = activeRecipe;
+                    CompletableFuture<Integer> createFut = PyBridgeInvoker.createIngredient(IngredientMasters.keyOf(ie), ie.toJson().toString());
                     createFut.thenAccept(ingId -> {
                         if (ingId != null && ingId > 0) {
                             SwingUtilities.invokeLater(() -> {
                                 ie.external_id = String.valueOf(ingId);
-                                ie.lastSyncedQuantity = ie.quantity; // mark synced
-                                recomputeAndStore(activeRecipe);
+                                IngredientMasters.update(ie);
+                                recomputeAndStore(target);
+                                sync.push(target); // links it once the recipe exists on the backend
                                 saveRecipes(CUSTOM_RECIPE_FILE);
                                 refreshRecipeListModel();
                             });
                         } else {
                             System.err.println("Python ingredientID returned invalid id for ingredient '" + ie.name + "'");
                         }
-                        // Always notify and ask Python to link (fire-and-forget)
-                        try {
-                            // only call addIngredientToRecipe if recipe has server-side id and parsed ingId > 0
-                            int recipeId = activeRecipe != null ? activeRecipe.recipe_ID : -1;
-                            if (recipeId > 0 && ingId != null && ingId > 0) {
-                                PyBridgeInvoker.addIngredientToRecipe(recipeId, ingId, ie.quantity);
-                            }
-                            PyBridgeInvoker.notifyRecipeAddedIngredient(activeRecipe.toJson().toString(), ie.toJson().toString());
-                        } catch (Throwable t) {
-                            System.err.println("Failed to notify Python of added ingredient: " + t.getMessage());
-                        }
+                        PyBridgeInvoker.notifyRecipeAddedIngredient(target.toJson().toString(), ie.toJson().toString());
                     });
                 }
             });
@@ -575,6 +861,65 @@ public class Page4 extends JPanel {
         });
     }
 
+    // Puts {@code fresh} in place of the recipe with {@code id} (null removes it) and reloads the editor if it was open.
+    private Recipe swapRecipe(int id, Recipe fresh) {
+        int idx = -1;
+        for (int i = 0; i < recipes.size(); i++) if (recipes.get(i).recipe_ID == id) { idx = i; break; }
+        Recipe old = idx >= 0 ? recipes.get(idx) : null;
+        if (fresh != null && old != null) recipes.set(idx, fresh);
+        else if (fresh != null) recipes.add(fresh);
+        else if (old != null) recipes.remove(idx);
+        else return null;
+        if (old != null && old == activeRecipe) {
+            if (fresh == null) {
+                clearEditor(nameField, descArea);
+            } else {
+                suppressDocumentEvents = true;
+                nameField.setText(fresh.recipe_name != null ? fresh.recipe_name : "");
+                descArea.setText(fresh.description != null ? fresh.description : "");
+                selectRecipe(fresh);
+                suppressDocumentEvents = false;
+            }
+        }
+        refreshRecipeListModel();
+        return old;
+    }
+
+    // Undo/redo of a RecipeEdit: saves the recipe as {@code json} describes it, or removes it. The
+    // snapshot's content comes back, but the backend state is today's: a recipe still present keeps its
+    // sync state, so the push sends the difference, and one brought back after a delete is created on
+    // the backend as a new recipe, since its old row is deleted (or about to be, by the queued delete).
+    private void restoreRecipe(int id, String json) {
+        while (movedIds.containsKey(id)) id = movedIds.get(id);
+        Recipe fresh = json != null ? Recipe.fromJson(new JSONObject(json)) : null;
+        Recipe current = null;
+        for (Recipe r : recipes) if (r.recipe_ID == id) { current = r; break; }
+        if (current != null && fresh != null && fresh.local_id != null && current.local_id != null
+                && !fresh.local_id.equals(current.local_id)) {
+            // the id went to a recipe created after this one was deleted: bring this one back under a new id
+            fresh.recipe_ID = nextId();
+            movedIds.put(id, fresh.recipe_ID);
+            id = fresh.recipe_ID;
+            current = null;
+        }
+        boolean recreate = false;
+        if (fresh != null && current != null) {
+            sync.adoptState(current, fresh);
+        } else if (fresh != null) {
+            fresh.recipe_ID = id;
+            recreate = fresh.linked;
+            sync.unlink(fresh);
+        }
+        Recipe old = swapRecipe(id, fresh);
+        if (fresh == null && old == null) return;
+        if (fresh != null) sync.push(fresh);
+        else sync.deleted(old);
+        if (recreate) createOnBackend(fresh, true);
+        saveRecipes(CUSTOM_RECIPE_FILE);
+        DataEvents.publish(new DataEvents.RecipeChanged(this, fresh != null ? fresh : old, fresh == null));
+        if (fresh != null) savedJson.put(id, fresh.toJson().toString());
+    }
+
     private void clearEditor(JTextField nameField, JTextArea descArea) {
         suppressDocumentEvents = true;
         nameField.setText("");
@@ -589,12 +934,15 @@ public class Page4 extends JPanel {
     }
 
     private void selectRecipe(Recipe r) {
+        if (r != activeRecipe) flushAutosave();
         this.activeRecipe = r;
         if (r != null) {
             ingredientTableModel.setIngredients(r.recipe_ingredients);
             totalPortionsSpinner.setValue(r.total_portions);
             edibleDaysSpinner.setValue(r.edible_days);
         } else ingredientTableModel.setIngredients(new ArrayList<>());
+        // a new ingredient list: sum it afresh rather than subtracting the old one out
+        NutrientAggregator.forget(ingredientTableModel);
         updateTotals();
     }
 
@@ -618,11 +966,10 @@ public class Page4 extends JPanel {
 
     private void recomputeAndStore(Recipe r) {
         double totalCost = 0.0;
-        double totalCalories = 0.0;
         for (IngredientEntry ie : r.recipe_ingredients) {
-            totalCost += ie.price_per_serving * ie.multiplier;
-            totalCalories += ie.calories_per_serving * ie.multiplier;
+            totalCost += ie.price_per_serving * ie.effectiveServings();
         }
+        NutrientAggregator.resum(r, r.recipe_ingredients);
         r.recipe_cos_sum = totalCost;
         r.cost_cook = totalCost;
         r.cost_per_serving = r.total_portions > 0 ? totalCost / r.total_portions : totalCost;
@@ -631,12 +978,102 @@ public class Page4 extends JPanel {
     private void updateTotals() {
         List<IngredientEntry> ingr = ingredientTableModel.getIngredients();
         double totalCost = 0.0;
-        double totalCalories = 0.0;
         for (IngredientEntry ie : ingr) {
-            totalCost += ie.price_per_serving * ie.multiplier;
-            totalCalories += ie.calories_per_serving * ie.multiplier;
+            totalCost += ie.price_per_serving * ie.effectiveServings();
+        }
+        NutrientTotals totals = NutrientAggregator.totals(ingredientTableModel, ingr);
+        int portions = activeRecipe != null ? Math.max(1, activeRecipe.total_portions) : 1;
+        totalsLabel.setText(String.format("Cost $%.2f  |  Calories %.1f kcal  |  %s  |  Per portion %.1f kcal",
+                totalCost, totals.calories(), totals.macroSummary(), totals.calories() / portions));
+    }
+
+    /**
+     * Fetches current prices for {@code targets} in the background, then applies them, recomputes
+     * the affected recipes and saves once.
+     */
+    private void refreshPrices(List<Recipe> targets, JButton... buttons) {
+        if (targets.isEmpty()) return;
+        autoSaveActiveRecipe();
+        for (JButton b : buttons) b.setEnabled(false);
+        priceStatusLabel.setText("Refreshing prices...");
+        PriceRefresher.Result pending = PriceRefresher.prepare(targets);
+
+        new SwingWorker<PriceRefresher.Result, int[]>() {
+            @Override protected PriceRefresher.Result doInBackground() {
+                return PriceRefresher.fetch(pending, PriceRefresher.DEFAULT_CONCURRENCY,
+                        (done, total) -> publish(new int[] { done, total }));
+            }
+            @Override protected void process(List<int[]> chunks) {
+                int[] last = chunks.get(chunks.size() - 1);
+                priceStatusLabel.setText(String.format("Refreshing prices... %d/%d", last[0], last[1]));
+            }
+            @Override protected void done() {
+                for (JButton b : buttons) b.setEnabled(true);
+                try {
+                    PriceRefresher.Result result = get();
+                    int changed = PriceRefresher.apply(result);
+                    if (changed > 0) {
+                        for (Recipe r : targets) recomputeAndStore(r);
+                        saveRecipes(CUSTOM_RECIPE_FILE);
+                        refreshRecipeListModel();
+                        for (Recipe r : targets) DataEvents.publish(new DataEvents.RecipeChanged(Page4.this, r, false));
+                        if (activeRecipe != null && targets.contains(activeRecipe)) {
+                            ingredientTableModel.fireTableDataChanged();
+                            updateTotals();
+                        }
+                    }
+                    priceStatusLabel.setText(String.format("%d price(s) updated from %d product(s) in %.1f s%s",
+                            changed, result.productsFound(), result.elapsedMillis / 1000.0,
+                            result.failures > 0 ? String.format(", %d lookup(s) failed", result.failures) : ""));
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                    priceStatusLabel.setText("Price refresh failed: " + ex.getMessage());
+                }
+            }
+        }.execute();
+    }
+
+    /** Applies pushed product prices to every recipe using those products, then saves once. */
+    private void applyPushedPrices(Map<String, JSONObject> products) {
+        autoSaveActiveRecipe();
+        Set<Recipe> touched = new LinkedHashSet<>();
+        int changed = 0;
+        for (Recipe r : recipes) {
+            for (IngredientEntry ie : r.recipe_ingredients) {
+                JSONObject p = products.get(PriceRefresher.productIdOf(ie));
+                if (p == null) continue;
+                if (PriceRefresher.applyPrice(ie, p.getDouble("price"), p.optDouble("promo_price", Double.NaN))) {
+                    touched.add(r);
+                    changed++;
+                }
+            }
+        }
+        if (touched.isEmpty()) return;
+        for (Recipe r : touched) recomputeAndStore(r);
+        saveRecipes(CUSTOM_RECIPE_FILE);
+        refreshRecipeListModel();
+        for (Recipe r : touched) DataEvents.publish(new DataEvents.RecipeChanged(this, r, false));
+        if (activeRecipe != null && touched.contains(activeRecipe)) {
+            ingredientTableModel.fireTableDataChanged();
+            updateTotals();
+        }
+        priceStatusLabel.setText(String.format("%d price(s) updated by the backend", changed));
+    }
+
+    /** True once a day from {@link #NIGHTLY_REFRESH_HOUR} on; the day is recorded so a restart does not refresh again. */
+    private boolean nightlyRefreshDue() {
+        LocalDateTime now = LocalDateTime.now();
+        if (now.getHour() < NIGHTLY_REFRESH_HOUR) return false;
+        String today = now.toLocalDate().toString();
+        try {
+            String last = FileCache.read(NIGHTLY_REFRESH_FILE);
+            if (last != null && last.trim().equals(today)) return false;
+            LocalStore.replaceSynced(NIGHTLY_REFRESH_FILE, today.getBytes(StandardCharsets.UTF_8));
+            return true;
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            return false;
         }
-        totalsLabel.setText(String.format("Cost $%.2f  |  Calories %.1f kcal", totalCost, totalCalories));
     }
 
     // --------------------------------------
@@ -665,16 +1102,12 @@ public class Page4 extends JPanel {
             if (json.has("kroger_raw") && !json.isNull("kroger_raw")) ie.kroger_raw = json.optJSONObject("kroger_raw");
 
             JSONObject raw = json.optJSONObject("kroger_raw") != null ? json.optJSONObject("kroger_raw") : json;
+            NutritionFacts facts = NutritionExtractor.extract(json);
 
-            if (ie.calories_per_serving <= 0.0) {
-                double c = extractCaloriesFromRaw(raw);
-                if (c <= 0.0) c = extractCaloriesFromNutrientsObject(json);
-                if (c > 0.0) ie.calories_per_serving = c;
-            }
+            if (ie.calories_per_serving <= 0.0 && facts.calories() > 0.0) ie.calories_per_serving = facts.calories();
 
             if (ie.serving_label == null || ie.serving_label.isEmpty()) {
-                String fallback = extractServingLabelFromRaw(raw);
-                if (!fallback.isEmpty()) ie.serving_label = fallback;
+                if (!facts.servingLabel().isEmpty()) ie.serving_label = facts.servingLabel();
             }
             if (ie.price_per_serving <= 0.0) {
                 double p = raw.optDouble("price", ie.price_per_serving);
@@ -722,6 +1155,7 @@ public class Page4 extends JPanel {
                 refreshRecipeListModel();
             }
             if (activeRecipe != null) {
+                IngredientMasters.update(ie);
                 activeRecipe.recipe_ingredients.add(ie);
                 ingredientTableModel.setIngredients(activeRecipe.recipe_ingredients);
                 updateTotals();
@@ -729,30 +1163,22 @@ public class Page4 extends JPanel {
 
                 // PYTHON STUFF
                 // then notify Python the ingredient was added to the recipe.
-                CompletableFuture<Integer> createFut = PyBridgeInvoker.createIngredient(ie.toJson().toString());
+                Recipe target = activeRecipe;
+                CompletableFuture<Integer> createFut = PyBridgeInvoker.createIngredient(IngredientMasters.keyOf(ie), ie.toJson().toString());
                 createFut.thenAccept(ingId -> {
                     if (ingId != null && ingId > 0) {
                         SwingUtilities.invokeLater(() -> {
                             ie.external_id = String.valueOf(ingId);
-                            ie.lastSyncedQuantity = ie.quantity; // mark as synced
-                            recomputeAndStore(activeRecipe);
+                            IngredientMasters.update(ie);
+                            recomputeAndStore(target);
+                            sync.push(target); // links it once the recipe exists on the backend
                             saveRecipes(CUSTOM_RECIPE_FILE);
                             refreshRecipeListModel();
                         });
                     } else {
                         System.err.println("Python ingredientID returned invalid id for ingredient '" + ie.name + "'");
                     }
-                    // Always notify and ask Python to link (fire-and-forget)
-                    try {
-                        // only call addIngredientToRecipe if recipe has server-side id and parsed ingId > 0
-                        int recipeId = activeRecipe != null ? activeRecipe.recipe_ID : -1;
-                        if (recipeId > 0 && ingId != null && ingId > 0) {
-                            PyBridgeInvoker.addIngredientToRecipe(recipeId, ingId, ie.quantity);
-                        }
-                        PyBridgeInvoker.notifyRecipeAddedIngredient(activeRecipe.toJson().toString(), ie.toJson().toString());
-                    } catch (Throwable t) {
-                        System.err.println("Failed to notify Python of added ingredient: " + t.getMessage());
-                    }
+                    PyBridgeInvoker.notifyRecipeAddedIngredient(target.toJson().toString(), ie.toJson().toString());
                 });
             }
         } catch (Exception ex) {
@@ -761,225 +1187,41 @@ public class Page4 extends JPanel {
         }
     }
 
-    private JSONObject fetchProductDetailFromBridge(String name, String externalId) {
-        try {
-            IKrogerWrapper pythonEntry = Py4JHelper.getWrapper();
-            if (pythonEntry == null) return null;
-            try {
-                if (externalId != null && !externalId.isEmpty()) {
-                    String raw = pythonEntry.search(externalId, 1);
-                    if (raw != null && !raw.isEmpty()) {
-                        JSONArray arr = new JSONArray(raw);
-                        if (arr.length() > 0) return arr.getJSONObject(0);
-                    }
-                }
-            } catch (Throwable ignored) {}
-            try {
-                String raw = pythonEntry.search(name, 1);
-                if (raw != null && !raw.isEmpty()) {
-                    JSONArray arr = new JSONArray(raw);
-                    if (arr.length() > 0) return arr.getJSONObject(0);
-                }
-            } catch (Throwable ex) {}
-        } catch (Exception e) { e.printStackTrace(); }
-        return null;
-    }
-
-    // =========================================================================
-    // Calories extraction helper
-    // =========================================================================
-    public static double extractCaloriesFromNutrientsObject(JSONObject obj) {
-        if (obj == null) return 0.0;
-
-        Object nutrients = obj.opt("nutrients");
-        if (nutrients instanceof JSONArray) {
-            double c = extractCaloriesFromNutrientsArray((JSONArray) nutrients);
-            if (c > 0.0) return c;
-        } else if (nutrients instanceof JSONObject) {
-            JSONObject nobj = (JSONObject) nutrients;
-            double c = nobj.optDouble("calories", -1.0);
-            if (c >= 0.0) return c;
-            Object inner = nobj.opt("items");
-            if (inner instanceof JSONArray) {
-                c = extractCaloriesFromNutrientsArray((JSONArray) inner);
-                if (c > 0.0) return c;
-            }
-        }
-
-        Object niObj = obj.opt("nutritionInformation");
-        JSONObject nutri = null;
-        if (niObj instanceof JSONObject) nutri = (JSONObject) niObj;
-        else if (niObj instanceof JSONArray && ((JSONArray) niObj).length() > 0) nutri = ((JSONArray) niObj).optJSONObject(0);
-        if (nutri != null) {
-            Object n2 = nutri.opt("nutrients");
-            if (n2 instanceof JSONArray) {
-                double c = extractCaloriesFromNutrientsArray((JSONArray) n2);
-                if (c > 0.0) return c;
-            }
-        }
-
-        double top = obj.optDouble("calories", -1.0);
-        if (top >= 0.0) return top;
-        top = obj.optDouble("calories_per_serving", -1.0);
-        if (top >= 0.0) return top;
-
-        return 0.0;
-    }
-
-    private static double extractCaloriesFromNutrientsArray(JSONArray arr) {
-        if (arr == null) return 0.0;
-        final Pattern numberPat = Pattern.compile("(\\d+(?:\\.\\d+)?)");
-
-        for (int i = 0; i < arr.length(); i++) {
-            Object item = arr.opt(i);
-            if (item instanceof JSONObject) {
-                JSONObject n = (JSONObject) item;
-                String name = n.optString("displayName", n.optString("name", "")).toLowerCase();
-                String code = n.optString("code", "").toLowerCase();
-                if (name.contains("calor") || "calories".equals(code) || "cal".equals(code)) {
-                    double q = n.optDouble("quantity", Double.NaN);
-                    if (!Double.isNaN(q) && q >= 0.0) return q;
-                    String qtyText = n.optString("quantity", n.optString("value", n.optString("label", "")));
-                    if (qtyText != null && !qtyText.isEmpty()) {
-                        Matcher m = numberPat.matcher(qtyText);
-                        if (m.find()) {
-                            try { return Double.parseDouble(m.group(1)); } catch (Exception ignored) {}
-                        }
-                    }
-                }
-            } else if (item instanceof String) {
-                String s = (String) item;
-                String lower = s.toLowerCase();
-                if (lower.contains("calor")) {
-                    Matcher m = numberPat.matcher(s);
-                    if (m.find()) {
-                        try { return Double.parseDouble(m.group(1)); } catch (Exception ignored) {}
-                    }
-                } else {
-                    Matcher m = numberPat.matcher(s);
-                    if (m.find() && (s.toLowerCase().contains("calor") || s.toLowerCase().contains("calories"))) {
-                        try { return Double.parseDouble(m.group(1)); } catch (Exception ignored) {}
-                    }
-                }
-            }
-        }
-        return 0.0;
-    }
-
-    public static double extractCaloriesFromRaw(JSONObject raw) {
-        double c = extractCaloriesFromNutrientsObject(raw);
-        if (c > 0.0) return c;
-        if (raw == null) return 0.0;
-        double topLevel = raw.optDouble("calories", -1.0);
-        if (topLevel >= 0.0) return topLevel;
-        topLevel = raw.optDouble("calories_per_serving", -1.0);
-        if (topLevel >= 0.0) return topLevel;
-        return 0.0;
-    }
-
-    public static String extractServingLabelFromRaw(JSONObject raw) {
-        if (raw == null) return "";
-        String s = raw.optString("serving_label", "");
-        if (!s.isEmpty()) return s;
-        s = raw.optString("serving", "");
-        if (!s.isEmpty()) return s;
-
-        Object niObj = raw.opt("nutritionInformation");
-        JSONObject nutri = null;
-        if (niObj instanceof JSONObject) nutri = (JSONObject) niObj;
-        else if (niObj instanceof JSONArray && ((JSONArray) niObj).length() > 0) nutri = ((JSONArray) niObj).optJSONObject(0);
-
-        if (nutri != null) {
-            Object servObj = nutri.opt("servingSize");
-            JSONObject serv = null;
-            if (servObj instanceof JSONObject) serv = (JSONObject) servObj;
-            else if (servObj instanceof JSONArray && ((JSONArray) servObj).length() > 0) serv = ((JSONArray) servObj).optJSONObject(0);
-            if (serv != null) {
-                double qty = Double.NaN;
-                if (serv.has("quantity")) qty = serv.optDouble("quantity", Double.NaN);
-                else if (serv.has("value")) qty = serv.optDouble("value", Double.NaN);
-                String unit = "";
-                Object uom = serv.opt("unitOfMeasure");
-                if (uom instanceof JSONObject) unit = ((JSONObject) uom).optString("abbreviation", ((JSONObject) uom).optString("name", ""));
-                else if (uom instanceof String) unit = (String) uom;
-                if (!Double.isNaN(qty)) {
-                    String qtyStr = (qty % 1.0 == 0.0) ? Integer.toString((int) qty) : Double.toString(qty);
-                    return (qtyStr + " " + unit).trim();
-                }
-            }
-        }
-
-        JSONArray items = raw.optJSONArray("items");
-        if (items != null && items.length() > 0) {
-            JSONObject item = items.optJSONObject(0);
-            if (item != null) {
-                String[] keys = new String[] { "size", "netContent", "packageSize", "displaySize", "sizeDescription", "measure", "packageSizeDescription" };
-                for (String k : keys) {
-                    String val = item.optString(k, "");
-                    if (val != null && !val.isEmpty()) return val;
-                }
-                JSONArray sizes = item.optJSONArray("sizes");
-                if (sizes != null && sizes.length() > 0) {
-                    JSONObject s0 = sizes.optJSONObject(0);
-                    if (s0 != null) {
-                        String label = s0.optString("size", s0.optString("name", ""));
-                        if (label != null && !label.isEmpty()) return label;
-                    }
-                }
-            }
-        }
-
-        String[] textCandidates = new String[] { raw.optString("description", ""), raw.optString("receiptDescription", ""), raw.optString("displayName", ""), raw.optString("name", "") };
-        for (String txt : textCandidates) {
-            if (txt == null || txt.isEmpty()) continue;
-            Matcher m = SERVING_REGEX.matcher(txt);
-            if (m.find()) {
-                String qty = m.group(1);
-                String unit = m.group(2);
-                return qty + " " + unit;
-            }
-        }
-
-        return "";
-    }
 
     // --------------------------------------
     // Loading / Saving recipes
     // --------------------------------------
     public List<Recipe> loadRecipes(String path) {
-        List<Recipe> list = new ArrayList<>();
-        File f = new File(path);
-        if (!f.exists()) {
-            legacyLoadFromTSV();
-            return new ArrayList<>(this.recipes);
+        List<Recipe> list = readRecipes(path);
+        if (list != null) {
+            this.recipes.clear();
+            this.recipes.addAll(list);
+            return list;
         }
 
-        try (BufferedReader br = new BufferedReader(new FileReader(f))) {
-            StringBuilder sb = new StringBuilder();
-            String line;
-            while ((line = br.readLine()) != null) sb.append(line).append("\n");
-            String txt = sb.toString().trim();
-            if (txt.isEmpty()) return list;
+        legacyLoadFromTSV();
+        return new ArrayList<>(this.recipes);
+    }
 
-            try {
-                JSONArray arr = new JSONArray(txt);
-                for (int i = 0; i < arr.length(); i++) {
-                    JSONObject o = arr.getJSONObject(i);
-                    Recipe r = Recipe.fromJson(o);
-                    list.add(r);
-                }
-                this.recipes.clear();
-                this.recipes.addAll(list);
-                return list;
-            } catch (Exception je) {
+    /** Recipes of a JSON recipe file; null when it is missing or not JSON (the legacy TSV layout). Safe off the EDT. */
+    static List<Recipe> readRecipes(String path) {
+        List<Recipe> list = new ArrayList<>();
+        try {
+            String txt = FileCache.read(path);
+            if (txt == null) return null;
+            txt = txt.trim();
+            if (txt.isEmpty()) return list;
 
+            JSONArray arr = new JSONArray(txt);
+            for (int i = 0; i < arr.length(); i++) {
+                JSONObject o = arr.getJSONObject(i);
+                Recipe r = Recipe.fromJson(o);
+                list.add(r);
             }
+            return list;
         } catch (Exception e) {
-
+            return null;
         }
-
-        legacyLoadFromTSV();
-        return new ArrayList<>(this.recipes);
     }
 
     private void legacyLoadFromTSV() {
@@ -995,6 +1237,7 @@ public class Page4 extends JPanel {
                 Recipe r = new Recipe();
                 r.recipe_ID = safeParseInt(p[0]);
                 r.recipe_name = p.length > 1 ? p[1] : "";
+                r.local_id = RecipeLoader.tableLocalId(r.recipe_name);
                 r.recipe_cos_sum = p.length > 2 ? safeParseDouble(p[2]) : 0.0;
                 r.cost_cook = p.length > 3 ? safeParseDouble(p[3]) : 0.0;
                 r.cost_per_serving = p.length > 4 ? safeParseDouble(p[4]) : 0.0;
@@ -1002,6 +1245,7 @@ public class Page4 extends JPanel {
                 r.nutrition_grade = p.length > 6 ? p[6] : "";
                 r.description = p.length > 7 ? p[7] : "";
                 r.imagePath = p.length > 8 ? p[8] : "";
+                r.linked = r.recipe_ID > 0;
                 try {
                     if (p.length > 9 && p[9] != null && !p[9].isEmpty()) {
                         String ingrJson = new String(Base64.getDecoder().decode(p[9]));
@@ -1020,18 +1264,40 @@ public class Page4 extends JPanel {
         }
     }
 
-    private void saveRecipes(String path) {
+    // The saved version of one custom recipe, or null if the file no longer has it.
+    private static Recipe readStoredRecipe(int id) {
         try {
-            File f = new File(path);
-            if (!f.getParentFile().exists()) f.getParentFile().mkdirs();
-            JSONArray root = new JSONArray();
-            for (Recipe r : recipes) root.put(r.toJson());
-            try (FileWriter fw = new FileWriter(f)) {
-                fw.write(root.toString(2));
+            String txt = FileCache.read(CUSTOM_RECIPE_FILE);
+            if (txt == null || !txt.trim().startsWith("[")) return null;
+            JSONArray arr = new JSONArray(txt);
+            for (int i = 0; i < arr.length(); i++) {
+                JSONObject o = arr.getJSONObject(i);
+                if (o.optInt("id", 0) == id) return Recipe.fromJson(o);
             }
-        } catch (IOException e) {
-            JOptionPane.showMessageDialog(this, "Failed to save recipes: " + e.getMessage());
+        } catch (Exception ex) {
+            ex.printStackTrace();
         }
+        return null;
+    }
+
+    // Full JSON of a custom recipe as saved, or null.
+    private static String storedJson(int id) {
+        Recipe r = readStoredRecipe(id);
+        return r != null ? r.toJson().toString() : null;
+    }
+
+    // The text is built here, on the EDT; the commit runs on SAVE_EXEC, in the order saves were made.
+    private void saveRecipes(String path) {
+        LocalStore.Transaction tx = LocalStore.begin();
+        IngredientMasters.stageRecipes(tx, path, recipes);
+        SAVE_EXEC.execute(() -> {
+            try {
+                tx.commit();
+            } catch (IOException e) {
+                e.printStackTrace();
+                SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this, "Failed to save recipes: " + e.getMessage()));
+            }
+        });
     }
 
     private static int safeParseInt(String s) { try { return Integer.parseInt(s.trim()); } catch (Exception e) { return 0; } }
@@ -1072,9 +1338,9 @@ public class Page4 extends JPanel {
                 case 3: return ie.quantity;
                 case 4: return ie.unit;
                 case 5: return String.format("$%.2f", ie.price_per_serving);
-                case 6: return String.format("$%.2f", ie.price_per_serving * ie.multiplier);
+                case 6: return String.format("$%.2f", ie.price_per_serving * ie.effectiveServings());
                 case 7: return String.format("%.1f kcal", ie.calories_per_serving);
-                case 8: return String.format("%.1f kcal", ie.calories_per_serving * ie.multiplier);
+                case 8: return String.format("%.1f kcal", ie.nutrition().calories() * ie.effectiveServings());
                 case 9: return "Remove";
                 default: return "";
             }
@@ -1082,8 +1348,11 @@ public class Page4 extends JPanel {
 
         public void setValueAt(Object value, int r, int c) {
             IngredientEntry ie = data.get(r);
-            if (c == 2) ie.multiplier = safeParseDouble(String.valueOf(value));
-            else if (c == 3) ie.quantity = safeParseDouble(String.valueOf(value));
+            if (c == 2) ie.setServings(safeParseDouble(String.valueOf(value)));
+            else if (c == 3) {
+                ie.setQuantity(safeParseDouble(String.valueOf(value)));
+                if (ie.isMeasured()) ie.multiplier = ie.effectiveServings();
+            }
             fireTableRowsUpdated(r, r);
         }
     }
@@ -1091,6 +1360,10 @@ public class Page4 extends JPanel {
     @Override
     public void addNotify() {
         super.addNotify();
+        attachFeeds();
+        KeyboardFocusManager.getCurrentKeyboardFocusManager().addPropertyChangeListener("permanentFocusOwner", focusWatcher);
+        watchedWindow = SwingUtilities.getWindowAncestor(this);
+        if (watchedWindow != null) watchedWindow.addWindowListener(windowWatcher);
         ingredientTable.addMouseListener(new MouseAdapter() {
             public void mouseClicked(MouseEvent e) {
                 int row = ingredientTable.rowAtPoint(e.getPoint());
@@ -1112,6 +1385,30 @@ public class Page4 extends JPanel {
         });
     }
 
+    @Override
+    public void removeNotify() {
+        flushAutosave();
+        KeyboardFocusManager.getCurrentKeyboardFocusManager().removePropertyChangeListener("permanentFocusOwner", focusWatcher);
+        if (watchedWindow != null) watchedWindow.removeWindowListener(windowWatcher);
+        watchedWindow = null;
+        detachFeeds();
+        super.removeNotify();
+    }
+
+    private void attachFeeds() {
+        if (syncTimer == null) return;   // the editor is not built yet; buildUI attaches them
+        syncTimer.start();
+        nightlyTimer.start();
+        PriceFeed.addListener(priceListener);
+    }
+
+    private void detachFeeds() {
+        if (syncTimer == null) return;
+        syncTimer.stop();
+        nightlyTimer.stop();
+        PriceFeed.removeListener(priceListener);
+    }
+
     private void editIngredientAmounts() {
         int row = ingredientTable.getSelectedRow();
         if (row >= 0) {
@@ -1152,9 +1449,18 @@ public class Page4 extends JPanel {
         if (res != JOptionPane.OK_OPTION) return;
 
         String newServing = servingField.getText().trim();
-        if (!newServing.isEmpty()) ie.serving_label = newServing;
-        ie.multiplier = ((Number) s1.getValue()).doubleValue();
-        ie.quantity = ((Number) s2.getValue()).doubleValue();
+        if (!newServing.isEmpty() && !newServing.equals(ie.serving_label)) {
+            ie.serving_label = newServing;
+            IngredientMasters.update(ie);
+        }
+        double newMult = ((Number) s1.getValue()).doubleValue();
+        double newQty = ((Number) s2.getValue()).doubleValue();
+        if (newQty != ie.quantity) {
+            ie.setQuantity(newQty);
+            ie.multiplier = ie.isMeasured() ? ie.effectiveServings() : newMult;
+        } else {
+            ie.setServings(newMult);
+        }
         ingredientTableModel.fireTableRowsUpdated(row, row);
         updateTotals();
         markDirty(); // autosave
@@ -0,0 +1,95 @@
+package pages;
+
+import bridge.BridgeEventHub;
+import bridge.BridgeEvents;
+import bridge.ProductSummary;
+import bridge.Py4JHelper;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import javax.swing.SwingUtilities;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Price changes and batch events pushed by the Python service.
+ *
+ * Each pushed price is written into the {@link ProductCache} record (and so the price history) as
+ * it arrives; listeners then get just the changed products on the EDT and patch the ingredients
+ * that use them, instead of re-querying every recipe for fresh prices.
+ */
+public final class PriceFeed implements BridgeEvents {
+
+    /** Called on the EDT. */
+    public interface Listener {
+        /** Updated product records by product id; each carries "price" and "promo_price". */
+        void pricesChanged(Map<String, JSONObject> products);
+
+        default void batchComplete(String batchId, JSONObject summary) {}
+    }
+
+    private static final PriceFeed INSTANCE = new PriceFeed();
+    private static boolean started = false;
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private PriceFeed() {}
+
+    /** Registers with the bridge and opens the Java side of it in the background. Safe to call again. */
+    public static synchronized void start() {
+        if (started) return;
+        started = true;
+        BridgeEventHub.get().addListener(INSTANCE);
+        Thread t = new Thread(Py4JHelper::listen, "pricefeed-listen");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    public static void addListener(Listener l) { INSTANCE.listeners.add(l); }
+
+    public static void removeListener(Listener l) { INSTANCE.listeners.remove(l); }
+
+    @Override
+    public void onPricesChanged(String productsJson) {
+        JSONArray arr = new JSONArray(productsJson);
+        Map<String, JSONObject> changed = new LinkedHashMap<>();
+        JSONArray cached = new JSONArray();
+        for (int i = 0; i < arr.length(); i++) {
+            JSONObject o = arr.optJSONObject(i);
+            if (o == null) continue;
+            String id = ProductCache.idOf(o);
+            double price = ProductSummary.parsePrice(o.opt("price"));
+            if (id.isEmpty() || Double.isNaN(price)) continue;
+            double promo = ProductSummary.parsePrice(o.opt("promo_price"));
+            // copy so records already handed out (ingredient kroger_raw, search results) are not mutated off the EDT
+            JSONObject old = ProductCache.get(id);
+            JSONObject p = old != null ? new JSONObject(old.toString()) : new JSONObject().put("id", id);
+            p.put("price", price);
+            if (Double.isNaN(promo)) p.remove("promo_price");
+            else p.put("promo_price", promo);
+            cached.put(p);
+            changed.put(id, p);
+        }
+        if (changed.isEmpty()) return;
+        ProductCache.putAll(cached);
+        SwingUtilities.invokeLater(() -> {
+            for (Listener l : listeners) l.pricesChanged(changed);
+        });
+    }
+
+    @Override
+    public void onBatchComplete(String batchId, String summaryJson) {
+        JSONObject summary;
+        try {
+            summary = summaryJson != null && !summaryJson.isEmpty() ? new JSONObject(summaryJson) : new JSONObject();
+        } catch (Exception ex) {
+            summary = new JSONObject();
+        }
+        JSONObject s = summary;
+        SwingUtilities.invokeLater(() -> {
+            for (Listener l : listeners) l.batchComplete(batchId, s);
+        });
+    }
+}
@@ -0,0 +1,406 @@
+package pages;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Append-only price history per Kroger product id.
+ *
+ * price_history.bin starts with a 16-byte header ("NBPH", version, base epoch second) followed by
+ * fixed 16-byte records: series index, seconds since the previous record (the first one counts
+ * from the base), and the change in regular price and in promo price, in cents, since the previous
+ * record of the same product (promo is -1 when not on sale; a product's first record counts from 0
+ * and -1). Series indexes map to product ids through price_history_ids.txt, one id per line. Version
+ * 1 files, which held absolute prices, are rewritten in this form when loaded.
+ *
+ * The whole log is read once into per-product arrays, so range queries are a binary search. Daily
+ * and weekly roll-ups of the price actually paid (promo when lower) are kept alongside and updated
+ * on every append. A price that has not changed is written at most once per day.
+ */
+public final class PriceHistoryStore {
+
+    private static final String LOG_FILE = "src/pages/text/price_history.bin";
+    private static final String IDS_FILE = "src/pages/text/price_history_ids.txt";
+    private static final int MAGIC = 0x4E425048; // "NBPH"
+    private static final int VERSION = 2;
+    private static final int ABSOLUTE_PRICES_VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    private static final int RECORD_BYTES = 16;
+    private static final long UNCHANGED_REWRITE_SECONDS = 24L * 3600L;
+
+    public static final class Point {
+        public final long epochSecond;
+        public final double price;
+        /** NaN when the product was not on sale. */
+        public final double promoPrice;
+
+        Point(long epochSecond, double price, double promoPrice) {
+            this.epochSecond = epochSecond;
+            this.price = price;
+            this.promoPrice = promoPrice;
+        }
+
+        /** Promo price when lower than the regular price. */
+        public double paid() { return !Double.isNaN(promoPrice) && promoPrice < price ? promoPrice : price; }
+    }
+
+    /** Aggregate of the paid price over one day or one week (weeks start on Monday). */
+    public static final class Rollup {
+        public final LocalDate start;
+        public double min = Double.POSITIVE_INFINITY;
+        public double max = Double.NEGATIVE_INFINITY;
+        public double sum;
+        public int samples;
+        public double last;
+
+        Rollup(LocalDate start) { this.start = start; }
+
+        void add(double v) {
+            min = Math.min(min, v);
+            max = Math.max(max, v);
+            sum += v;
+            samples++;
+            last = v;
+        }
+
+        public double average() { return samples > 0 ? sum / samples : Double.NaN; }
+    }
+
+    private static final class Series {
+        long[] times = new long[8];
+        int[] cents = new int[8];
+        int[] promoCents = new int[8];
+        int size;
+        // prices of this product's last record in the log, which the next record's deltas are taken from
+        int logCents = 0;
+        int logPromo = -1;
+        final TreeMap<LocalDate, Rollup> daily = new TreeMap<>();
+        final TreeMap<LocalDate, Rollup> weekly = new TreeMap<>();
+
+        void add(long t, int price, int promo, ZoneId zone) {
+            if (size == times.length) {
+                times = Arrays.copyOf(times, size * 2);
+                cents = Arrays.copyOf(cents, size * 2);
+                promoCents = Arrays.copyOf(promoCents, size * 2);
+            }
+            // Records are almost always in time order; shift in place if the clock went backwards.
+            int i = size;
+            while (i > 0 && times[i - 1] > t) {
+                times[i] = times[i - 1];
+                cents[i] = cents[i - 1];
+                promoCents[i] = promoCents[i - 1];
+                i--;
+            }
+            times[i] = t;
+            cents[i] = price;
+            promoCents[i] = promo;
+            size++;
+
+            Point p = point(i);
+            LocalDate day = Instant.ofEpochSecond(t).atZone(zone).toLocalDate();
+            LocalDate week = day.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+            daily.computeIfAbsent(day, Rollup::new).add(p.paid());
+            weekly.computeIfAbsent(week, Rollup::new).add(p.paid());
+        }
+
+        Point point(int i) {
+            return new Point(times[i], cents[i] / 100.0, promoCents[i] < 0 ? Double.NaN : promoCents[i] / 100.0);
+        }
+
+        /** Index of the first record at or after {@code t}. */
+        int lowerBound(long t) {
+            int lo = 0, hi = size;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (times[mid] < t) lo = mid + 1; else hi = mid;
+            }
+            return lo;
+        }
+    }
+
+    private static PriceHistoryStore instance;
+
+    private final File logFile;
+    private final File idsFile;
+    private final ZoneId zone = ZoneId.systemDefault();
+    private final List<String> ids = new ArrayList<>();
+    private final Map<String, Integer> indexOf = new HashMap<>();
+    private final List<Series> series = new ArrayList<>();
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private final List<String> pendingIds = new ArrayList<>();
+    private long baseEpoch;
+    private long lastEpoch;
+
+    PriceHistoryStore(File logFile, File idsFile) {
+        this.logFile = logFile;
+        this.idsFile = idsFile;
+        load();
+    }
+
+    public static synchronized PriceHistoryStore get() {
+        if (instance == null) instance = new PriceHistoryStore(new File(LOG_FILE), new File(IDS_FILE));
+        return instance;
+    }
+
+    // --------------------------------------
+    // Loading
+    // --------------------------------------
+    private void load() {
+        if (idsFile.exists()) {
+            try (BufferedReader br = new BufferedReader(new FileReader(idsFile))) {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    if (line.isEmpty()) continue;
+                    indexOf.put(line, ids.size());
+                    ids.add(line);
+                    series.add(new Series());
+                }
+            } catch (IOException ex) { ex.printStackTrace(); }
+        }
+        if (!logFile.exists() || logFile.length() < HEADER_BYTES) {
+            baseEpoch = Instant.now().getEpochSecond();
+            lastEpoch = baseEpoch;
+            return;
+        }
+
+        long usable = HEADER_BYTES + (logFile.length() - HEADER_BYTES) / RECORD_BYTES * RECORD_BYTES;
+        boolean recognised = false;
+        ByteArrayOutputStream upgraded = null;   // version 1 records re-encoded as deltas
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(logFile), 1 << 16))) {
+            int magic = in.readInt();
+            int version = in.readInt();
+            if (magic == MAGIC && (version == VERSION || version == ABSOLUTE_PRICES_VERSION)) {
+                recognised = true;
+                baseEpoch = in.readLong();
+                lastEpoch = baseEpoch;
+                DataOutputStream out = null;
+                if (version == ABSOLUTE_PRICES_VERSION) {
+                    upgraded = new ByteArrayOutputStream((int) (usable - HEADER_BYTES));
+                    out = new DataOutputStream(upgraded);
+                }
+                long t = baseEpoch;
+                long records = (usable - HEADER_BYTES) / RECORD_BYTES;
+                for (long r = 0; r < records; r++) {
+                    int idx = in.readInt();
+                    t += in.readInt();
+                    int a = in.readInt();
+                    int b = in.readInt();
+                    if (idx < 0 || idx >= series.size()) {
+                        if (out == null) lastEpoch = t;   // an upgrade drops the record, so its time too
+                        continue;
+                    }
+                    Series s = series.get(idx);
+                    int price = version == ABSOLUTE_PRICES_VERSION ? a : s.logCents + a;
+                    int promo = version == ABSOLUTE_PRICES_VERSION ? b : s.logPromo + b;
+                    if (out != null) writeRecord(out, idx, (int) (t - lastEpoch), s, price, promo);
+                    s.logCents = price;
+                    s.logPromo = promo;
+                    s.add(t, price, promo, zone);
+                    lastEpoch = t;
+                }
+            }
+        } catch (EOFException ignored) {
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+        if (!recognised) {
+            System.err.println("Unrecognised price history file, moving it aside: " + logFile);
+            logFile.renameTo(new File(logFile.getPath() + ".bad"));
+            baseEpoch = lastEpoch = Instant.now().getEpochSecond();
+            return;
+        }
+        try {
+            if (upgraded != null) {
+                LocalStore.replaceSynced(logFile.getPath(), withHeader(upgraded));
+            } else if (usable != logFile.length()) {
+                // Drop a partial record left by an interrupted write so later appends stay aligned.
+                LocalStore.truncate(logFile.getPath(), usable);
+            }
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    // One record; the prices are written as the change from the product's previous record.
+    private static void writeRecord(DataOutputStream out, int idx, int dt, Series s, int cents, int promo) throws IOException {
+        out.writeInt(idx);
+        out.writeInt(dt);
+        out.writeInt(cents - s.logCents);
+        out.writeInt(promo - s.logPromo);
+    }
+
+    private byte[] withHeader(ByteArrayOutputStream records) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER_BYTES + records.size());
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(baseEpoch);
+        records.writeTo(out);
+        return bytes.toByteArray();
+    }
+
+    // --------------------------------------
+    // Appending
+    // --------------------------------------
+    /**
+     * Queues a price observation; returns false when it was skipped as an unchanged repeat within a
+     * day. Call {@link #flush()} after a batch.
+     */
+    public synchronized boolean record(String productId, long epochSecond, double price, double promoPrice) {
+        if (productId == null || productId.isEmpty() || Double.isNaN(price) || price <= 0.0) return false;
+        int cents = (int) Math.round(price * 100.0);
+        int promo = Double.isNaN(promoPrice) || promoPrice <= 0.0 ? -1 : (int) Math.round(promoPrice * 100.0);
+
+        Integer idx = indexOf.get(productId);
+        if (idx == null) {
+            idx = ids.size();
+            ids.add(productId);
+            indexOf.put(productId, idx);
+            series.add(new Series());
+            pendingIds.add(productId);
+        }
+        Series s = series.get(idx);
+        if (s.size > 0) {
+            int last = s.size - 1;
+            if (s.cents[last] == cents && s.promoCents[last] == promo
+                    && epochSecond - s.times[last] < UNCHANGED_REWRITE_SECONDS) return false;
+        }
+
+        s.add(epochSecond, cents, promo, zone);
+        long delta = epochSecond - lastEpoch;
+        lastEpoch = epochSecond;
+        try {
+            writeRecord(new DataOutputStream(pending), idx, (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, delta)), s, cents, promo);
+        } catch (IOException ex) { ex.printStackTrace(); }
+        s.logCents = cents;
+        s.logPromo = promo;
+        return true;
+    }
+
+    public boolean record(String productId, double price, double promoPrice) {
+        return record(productId, Instant.now().getEpochSecond(), price, promoPrice);
+    }
+
+    /**
+     * Writes queued ids and records through {@link LocalStore}, under its lock; the id dictionary goes
+     * first so no record is ever orphaned.
+     */
+    public synchronized void flush() {
+        if (pending.size() == 0 && pendingIds.isEmpty()) return;
+        try {
+            if (!pendingIds.isEmpty()) {
+                StringBuilder sb = new StringBuilder();
+                for (String id : pendingIds) sb.append(id).append('\n');
+                LocalStore.append(idsFile.getPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+                pendingIds.clear();
+            }
+            boolean fresh = !logFile.exists() || logFile.length() < HEADER_BYTES;
+            if (fresh) {
+                LocalStore.replaceSynced(logFile.getPath(), withHeader(pending));
+            } else {
+                LocalStore.append(logFile.getPath(), pending.toByteArray());
+            }
+            pending.reset();
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    // --------------------------------------
+    // Queries
+    // --------------------------------------
+    /** Observations with {@code from <= time < to} (epoch seconds), oldest first. */
+    public synchronized List<Point> range(String productId, long from, long to) {
+        Series s = seriesOf(productId);
+        List<Point> out = new ArrayList<>();
+        if (s == null) return out;
+        for (int i = s.lowerBound(from); i < s.size && s.times[i] < to; i++) out.add(s.point(i));
+        return out;
+    }
+
+    /** Latest observation at or before {@code epochSecond}, or null. */
+    public synchronized Point at(String productId, long epochSecond) {
+        Series s = seriesOf(productId);
+        if (s == null) return null;
+        int i = s.lowerBound(epochSecond + 1) - 1;
+        return i >= 0 ? s.point(i) : null;
+    }
+
+    public synchronized List<Rollup> daily(String productId, LocalDate from, LocalDate to) {
+        Series s = seriesOf(productId);
+        return s == null ? new ArrayList<>() : new ArrayList<>(s.daily.subMap(from, true, to, true).values());
+    }
+
+    public synchronized List<Rollup> weekly(String productId, LocalDate from, LocalDate to) {
+        Series s = seriesOf(productId);
+        if (s == null) return new ArrayList<>();
+        LocalDate start = from.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+        return new ArrayList<>(s.weekly.subMap(start, true, to, true).values());
+    }
+
+    /** Monday of the week with the lowest average paid price, or null without history. */
+    public synchronized LocalDate cheapestWeek(String productId) {
+        Series s = seriesOf(productId);
+        if (s == null) return null;
+        Rollup best = null;
+        for (Rollup r : s.weekly.values()) if (best == null || r.average() < best.average()) best = r;
+        return best != null ? best.start : null;
+    }
+
+    /**
+     * Cost of one cook of {@code recipe} for each day in [from, to], pricing every Kroger ingredient at
+     * its last known paid price that day. Ingredients without history use their stored price.
+     */
+    public synchronized NavigableMap<LocalDate, Double> recipeCostByDay(Page4.Recipe recipe, LocalDate from, LocalDate to) {
+        NavigableMap<LocalDate, Double> out = new TreeMap<>();
+        if (recipe == null || from.isAfter(to)) return out;
+        List<Page4.IngredientEntry> ings = recipe.recipe_ingredients;
+        double[] servings = new double[ings.size()];
+        Series[] hist = new Series[ings.size()];
+        for (int i = 0; i < ings.size(); i++) {
+            servings[i] = ings.get(i).effectiveServings();
+            hist[i] = seriesOf(PriceRefresher.productIdOf(ings.get(i)));
+        }
+        for (LocalDate d = from; !d.isAfter(to); d = d.plusDays(1)) {
+            long endOfDay = d.plusDays(1).atStartOfDay(zone).toEpochSecond();
+            double cost = 0.0;
+            for (int i = 0; i < servings.length; i++) {
+                double price = ings.get(i).price_per_serving;
+                if (hist[i] != null) {
+                    int k = hist[i].lowerBound(endOfDay) - 1;
+                    if (k >= 0) price = hist[i].point(k).paid();
+                }
+                cost += price * servings[i];
+            }
+            out.put(d, cost);
+        }
+        return out;
+    }
+
+    private Series seriesOf(String productId) {
+        if (productId == null) return null;
+        Integer idx = indexOf.get(productId);
+        return idx != null ? series.get(idx) : null;
+    }
+}
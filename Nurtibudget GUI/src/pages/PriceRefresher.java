@@ -0,0 +1,188 @@
+package pages;
+
+import bridge.IKrogerWrapper;
+import bridge.ProductCodec;
+import bridge.ProductSummary;
+import bridge.Py4JHelper;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * Bulk price refresh for one recipe or the whole catalog.
+ *
+ * Ingredients are grouped by product first, so a product used by many recipes is looked up once.
+ * {@link #prepare} takes that snapshot on the thread that owns the recipes; the lookups in
+ * {@link #fetch} then run on a small fixed pool (each one is a Py4J round trip plus a Kroger request)
+ * without touching the recipes, and the fetched products are applied in a single pass; the caller
+ * saves once afterwards. Custom ingredients, which have no Kroger product behind them, keep their
+ * user-entered prices.
+ */
+public final class PriceRefresher {
+
+    public static final int DEFAULT_CONCURRENCY = 6;
+    // name searches return a few hits so the right product can be picked out, not just the first
+    private static final int NAME_SEARCH_LIMIT = 10;
+
+    /**
+     * Ingredients to refresh, from {@link #prepare}; {@link #fetch} fills in the products and
+     * {@link #apply} writes them back, both of those on the thread that owns the recipes.
+     */
+    public static final class Result {
+        final Map<String, List<Page4.IngredientEntry>> entriesByKey = new LinkedHashMap<>();
+        final Map<String, String> nameOf = new LinkedHashMap<>();   // product id -> ingredient name, copied for the pool
+        final Map<String, ProductSummary> products = new HashMap<>();
+        public int lookups;
+        public int failures;
+        public long elapsedMillis;
+
+        public int productsFound() { return products.size(); }
+    }
+
+    private PriceRefresher() {}
+
+    /**
+     * Groups the Kroger-backed ingredients of {@code recipes} by product and copies out the ids and
+     * names to look up. Call on the thread that owns the recipes, before {@link #fetch}.
+     */
+    public static Result prepare(List<Page4.Recipe> recipes) {
+        Result result = new Result();
+        for (Page4.Recipe r : recipes) {
+            for (Page4.IngredientEntry ie : r.recipe_ingredients) {
+                String id = productIdOf(ie);
+                if (id.isEmpty()) continue;
+                result.entriesByKey.computeIfAbsent(id, k -> new ArrayList<>()).add(ie);
+                result.nameOf.putIfAbsent(id, ie.name != null ? ie.name.trim() : "");
+            }
+        }
+        result.lookups = result.nameOf.size();
+        return result;
+    }
+
+    /**
+     * Looks up the current product for every product in {@code result}, at most {@code concurrency}
+     * at a time. Blocking — call from a background thread; only the copied ids and names are read.
+     * {@code progress} (may be null) receives (done, total) after each lookup, from pool threads.
+     */
+    public static Result fetch(Result result, int concurrency, BiConsumer<Integer, Integer> progress) {
+        long start = System.currentTimeMillis();
+        Map<String, String> lookupOf = result.nameOf;
+        IKrogerWrapper wrapper = lookupOf.isEmpty() ? null : Py4JHelper.getWrapper();
+        if (wrapper == null) {
+            result.failures = lookupOf.size();
+            result.elapsedMillis = System.currentTimeMillis() - start;
+            return result;
+        }
+
+        int total = lookupOf.size();
+        AtomicInteger done = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(concurrency, total)), r -> {
+            Thread t = new Thread(r, "price-refresh");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<Callable<ProductSummary>> tasks = new ArrayList<>(total);
+            for (Map.Entry<String, String> lookup : lookupOf.entrySet()) {
+                tasks.add(() -> {
+                    try {
+                        return lookup(wrapper, lookup.getKey(), lookup.getValue());
+                    } finally {
+                        if (progress != null) progress.accept(done.incrementAndGet(), total);
+                    }
+                });
+            }
+            List<Future<ProductSummary>> futures = pool.invokeAll(tasks);
+            int i = 0;
+            for (String id : lookupOf.keySet()) {
+                try {
+                    ProductSummary p = futures.get(i).get();
+                    if (p != null) result.products.put(id, p);
+                    else result.failures++;
+                } catch (Exception ex) {
+                    result.failures++;
+                    System.err.println("Price lookup failed for " + id + ": " + ex.getMessage());
+                }
+                i++;
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pool.shutdownNow();
+        }
+        result.elapsedMillis = System.currentTimeMillis() - start;
+        return result;
+    }
+
+    /**
+     * By product id first, then among the hits for the ingredient's name; a name hit is taken only
+     * if it is the same product or has exactly that name, never just because it came first.
+     */
+    private static ProductSummary lookup(IKrogerWrapper wrapper, String id, String name) {
+        try {
+            List<ProductSummary> hits = ProductCodec.search(wrapper, id, 1);
+            for (ProductSummary p : hits) if (id.equals(p.id)) return p;
+        } catch (Exception ex) {
+            System.err.println("Price lookup by id failed for " + id + ": " + ex.getMessage());
+        }
+        if (name.isEmpty()) return null;
+        ProductSummary sameName = null;
+        for (ProductSummary p : ProductCodec.search(wrapper, name, NAME_SEARCH_LIMIT)) {
+            if (id.equals(p.id)) return p;
+            if (sameName == null && p.name != null && p.name.trim().equalsIgnoreCase(name)) sameName = p;
+        }
+        return sameName;
+    }
+
+    /**
+     * Writes fetched prices into the ingredients and the product cache. Returns the number of
+     * ingredient entries whose price changed; the caller recomputes recipe costs and saves once.
+     */
+    public static int apply(Result result) {
+        int changed = 0;
+        for (Map.Entry<String, ProductSummary> e : result.products.entrySet()) {
+            ProductSummary p = e.getValue();
+            if (!p.hasPrice()) continue;
+            if (e.getKey().equals(p.id)) ProductCache.put(p.toJson());
+            for (Page4.IngredientEntry ie : result.entriesByKey.get(e.getKey())) {
+                if (applyPrice(ie, p.price, p.promoPrice)) changed++;
+            }
+        }
+        return changed;
+    }
+
+    /** Sets one ingredient's product price; true if its price per serving changed. */
+    static boolean applyPrice(Page4.IngredientEntry ie, double price, double promoPrice) {
+        if (ie.kroger_raw != null) {
+            ie.kroger_raw.put("price", price);
+            if (!Double.isNaN(promoPrice)) ie.kroger_raw.put("promo_price", promoPrice);
+        }
+        if (Double.compare(ie.price_per_serving, price) == 0) return false;
+        ie.price_per_serving = price;
+        IngredientMasters.update(ie);
+        return true;
+    }
+
+    /** Kroger product id of an ingredient, or "" for custom ingredients. */
+    static String productIdOf(Page4.IngredientEntry ie) {
+        String id = ProductCache.idOf(ie.kroger_raw);
+        if (isProductId(id)) return id;
+        // external_id holds the Kroger product id until Python replaces it with a numeric database id.
+        String ext = ie.external_id != null ? ie.external_id.trim() : "";
+        return isProductId(ext) ? ext : "";
+    }
+
+    /** Kroger product ids are 13-digit UPC-style strings; recipe and database ids are much shorter. */
+    private static boolean isProductId(String s) {
+        return s.length() >= 10 && s.chars().allMatch(Character::isDigit);
+    }
+}
@@ -0,0 +1,126 @@
+package pages;
+
+import bridge.IKrogerWrapper;
+import bridge.ProductCodec;
+import bridge.ProductSummary;
+import bridge.Py4JHelper;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * In-memory cache of Kroger product records keyed by product id. Search results are fed in as they
+ * arrive so later lookups (shopping list pricing, price refresh) rarely need the bridge; misses are
+ * resolved in one batch via {@link #fetchMissing}. Every product passing through is also recorded in
+ * {@link PriceHistoryStore}.
+ */
+public final class ProductCache {
+
+    private static final int CACHE_SIZE = 1024;
+    private static final Map<String, JSONObject> products = new LinkedHashMap<>(CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, JSONObject> eldest) { return size() > CACHE_SIZE; }
+    };
+
+    /** Bumped whenever a product is added or its price changes. */
+    private static volatile int version;
+
+    private ProductCache() {}
+
+    static String idOf(JSONObject product) {
+        if (product == null) return "";
+        return product.optString("productId", product.optString("id", ""));
+    }
+
+    public static void put(JSONObject product) {
+        if (cache(product)) PriceHistoryStore.get().flush();
+    }
+
+    public static void putAll(JSONArray arr) {
+        if (arr == null) return;
+        boolean any = false;
+        for (int i = 0; i < arr.length(); i++) any |= cache(arr.optJSONObject(i));
+        if (any) PriceHistoryStore.get().flush();
+    }
+
+    public static void putAll(List<ProductSummary> products) {
+        if (products == null) return;
+        boolean any = false;
+        for (ProductSummary p : products) any |= cache(p.toJson());
+        if (any) PriceHistoryStore.get().flush();
+    }
+
+    /** Caches a product and queues its price in the history; true if a price point was queued. */
+    private static boolean cache(JSONObject product) {
+        String id = idOf(product);
+        if (id.isEmpty()) return false;
+        JSONObject previous;
+        synchronized (products) {
+            previous = products.put(id, product);
+            if (previous == null || !samePrice(previous, product)) version++;
+        }
+        NutritionExtractor.invalidate(id);
+        if (previous != null && !samePrice(previous, product)) DataEvents.publish(new DataEvents.ProductPriceChanged(id, product));
+        return PriceHistoryStore.get().record(id, product.optDouble("price", Double.NaN), product.optDouble("promo_price", Double.NaN));
+    }
+
+    private static boolean samePrice(JSONObject a, JSONObject b) {
+        return a.optString("price", "").equals(b.optString("price", ""))
+                && a.optString("promo_price", "").equals(b.optString("promo_price", ""));
+    }
+
+    /** Changes whenever {@link #get} may return a different price for some id. */
+    public static int version() {
+        return version;
+    }
+
+    public static JSONObject get(String id) {
+        if (id == null || id.isEmpty()) return null;
+        synchronized (products) { return products.get(id); }
+    }
+
+    /** Cached records for the given ids; ids that are not cached are simply absent from the result. */
+    public static Map<String, JSONObject> getAll(Collection<String> ids) {
+        Map<String, JSONObject> out = new HashMap<>();
+        synchronized (products) {
+            for (String id : ids) {
+                JSONObject p = products.get(id);
+                if (p != null) out.put(id, p);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Looks up every id not already cached through the Python bridge in one batched call.
+     * Blocking — call from a background thread. Returns the number of products added.
+     */
+    public static int fetchMissing(Collection<String> ids) {
+        Set<String> missing = new LinkedHashSet<>();
+        synchronized (products) {
+            for (String id : ids) if (id != null && !id.isEmpty() && !products.containsKey(id)) missing.add(id);
+        }
+        if (missing.isEmpty()) return 0;
+        IKrogerWrapper wrapper = Py4JHelper.getWrapper();
+        if (wrapper == null) return 0;
+        List<ProductSummary> found;
+        try {
+            found = ProductCodec.byIds(wrapper, missing);
+        } catch (Exception ex) {
+            System.err.println("Product lookup failed for " + missing.size() + " ids: " + ex.getMessage());
+            return 0;
+        }
+        List<ProductSummary> hits = new ArrayList<>(found.size());
+        for (ProductSummary p : found) if (missing.remove(p.id)) hits.add(p);
+        putAll(hits);
+        return hits.size();
+    }
+}
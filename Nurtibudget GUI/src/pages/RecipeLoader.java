@@ -4,7 +4,7 @@ import org.json.JSONArray;
 import org.json.JSONObject;
 
 import java.io.*;
-import java.nio.file.Files;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 
@@ -14,11 +14,11 @@ public final class RecipeLoader {
 
     public static List<Page4.Recipe> loadRecipesFromFile(String path) {
         List<Page4.Recipe> out = new ArrayList<>();
-        File f = new File(path);
-        if (!f.exists()) return out;
         String s;
         try {
-            s = new String(Files.readAllBytes(f.toPath())).trim();
+            s = FileCache.read(path);
+            if (s == null) return out;
+            s = s.trim();
             if (s.isEmpty()) return out;
         } catch (IOException ex) {
             ex.printStackTrace();
@@ -62,6 +62,7 @@ public final class RecipeLoader {
                 Page4.Recipe r = new Page4.Recipe();
                 r.recipe_ID = safeParseInt(idStr);
                 r.recipe_name = (name != null && !name.isEmpty()) ? name : ("Recipe " + r.recipe_ID);
+                r.local_id = tableLocalId(r.recipe_name);
                 r.cart_cost = safeParseDouble(costStr);
                 r.cost_per_serving = safeParseDouble(costStr);
                 r.recipe_cos_sum = r.cart_cost;
@@ -93,6 +94,14 @@ public final class RecipeLoader {
     }
 
 
+    /**
+     * Local id of a recipe read from a tab-separated table, which has nowhere to store one: derived
+     * from the name, so it is the same on every load.
+     */
+    static String tableLocalId(String name) {
+        return UUID.nameUUIDFromBytes(("recipe:" + normalizeName(name)).getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
     public static String normalizeName(String raw) {
         if (raw == null) return "";
         String s = raw.trim().toLowerCase();
@@ -0,0 +1,337 @@
+package pages;
+
+import org.json.JSONArray;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.HashSet;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Indexed, read-only view of the {@link LocalStore} tables: recipes, custom ingredients,
+ * inventory batches and meal plan slots.
+ *
+ * Each table is parsed once and indexed; lookups are map hits instead of re-reading and scanning
+ * a file. Before answering, a table is rebuilt only if its file changed, which {@link FileCache}
+ * reports cheaply by handing back a different string. Writes go through {@link LocalStore}.
+ */
+public final class Repository {
+
+    /**
+     * One line of meal_plans.txt: {@code date|meal|recipe name|inventory id|recipe local id}. The local
+     * id is the link; unlike recipe_ID it never changes, not even when the backend assigns its own id.
+     * The name is only kept for reading the file.
+     */
+    public static final class PlanSlot {
+        public final LocalDate date;
+        public final String meal;
+        public final String recipeName;
+        public final String inventoryId;   // null when the meal is not tied to a batch
+        public final String recipeKey;     // the recipe's local_id; null when the line has none
+
+        PlanSlot(LocalDate date, String meal, String recipeName, String inventoryId, String recipeKey) {
+            this.date = date;
+            this.meal = meal;
+            this.recipeName = recipeName;
+            this.inventoryId = inventoryId;
+            this.recipeKey = recipeKey;
+        }
+    }
+
+    /** Parses a meal plan line ('|' or legacy tab separated); null if it is not one. */
+    static PlanSlot parseSlot(String line) {
+        if (line == null || line.trim().isEmpty()) return null;
+        String[] parts = line.contains("|") ? line.split("\\|", 5) : line.split("\\t", 5);
+        if (parts.length < 3) return null;
+        LocalDate date;
+        try {
+            date = LocalDate.parse(parts[0].trim());
+        } catch (Exception ex) {
+            return null;
+        }
+        String inv = parts.length >= 4 && !parts[3].trim().isEmpty() ? parts[3].trim() : null;
+        String key = parts.length >= 5 && !parts[4].trim().isEmpty() ? parts[4].trim() : null;
+        String recipe = parts[2].trim().replaceAll("^\"|\"$", "").trim();
+        return new PlanSlot(date, parts[1].trim(), recipe, inv, key);
+    }
+
+    static String formatSlot(String date, String meal, Page4.Recipe recipe, String inventoryId) {
+        String name = recipe != null && recipe.recipe_name != null ? recipe.recipe_name : "";
+        String key = recipe != null && recipe.local_id != null ? recipe.local_id : "";
+        return date + "|" + meal + "|" + name + "|" + (inventoryId != null ? inventoryId : "") + "|" + key;
+    }
+
+    private static Repository instance;
+
+    // source text each table was built from; compared by identity
+    private String recipesText, customRecipesText, ingredientsText, inventoryText, plansText;
+
+    private List<Page4.Recipe> recipes = Collections.emptyList();
+    private Map<String, Page4.Recipe> recipesByName = Collections.emptyMap();
+    private Map<String, Page4.Recipe> recipesByLocalId = Collections.emptyMap();
+
+    private List<CustomIngredient> ingredients = Collections.emptyList();
+    private Map<String, CustomIngredient> ingredientsByName = Collections.emptyMap();
+
+    private List<CustomCalendarPanel.InventoryEntry> inventory = Collections.emptyList();
+    private Map<String, CustomCalendarPanel.InventoryEntry> inventoryById = Collections.emptyMap();
+    private Map<String, List<CustomCalendarPanel.InventoryEntry>> inventoryByRecipe = Collections.emptyMap();
+
+    private NavigableMap<LocalDate, List<PlanSlot>> slotsByDate = new TreeMap<>();
+    private Map<String, Integer> assignmentsByInventory = Collections.emptyMap();
+
+    // archived months parsed so far, dropped when ColdStorage's segments change
+    private final Map<YearMonth, NavigableMap<LocalDate, List<PlanSlot>>> archivedSlots = new HashMap<>();
+    private int coldVersion = -1;
+    private int templatesVersion = -1;
+
+    private Repository() {}
+
+    public static synchronized Repository get() {
+        if (instance == null) {
+            LocalStore.open();
+            instance = new Repository();
+        }
+        return instance;
+    }
+
+    //==============================================================================================================
+    // Recipes
+    //==============================================================================================================
+
+    public synchronized List<Page4.Recipe> recipes() {
+        refreshRecipes();
+        return recipes;
+    }
+
+    /** Exact match on the normalized name, then with underscores read as spaces. */
+    public synchronized Page4.Recipe recipeByName(String name) {
+        if (name == null) return null;
+        refreshRecipes();
+        return lookupByName(recipesByName, name);
+    }
+
+    /** The recipe a plan slot or template links to; null if it no longer exists. */
+    public synchronized Page4.Recipe recipeByLocalId(String localId) {
+        if (localId == null) return null;
+        refreshRecipes();
+        return recipesByLocalId.get(localId);
+    }
+
+    /**
+     * Recipes by local id. A custom recipe hiding a packaged one of the same name also answers for the
+     * packaged recipe's id, so slots planned before it was made still find it.
+     */
+    static Map<String, Page4.Recipe> indexByLocalId(List<Page4.Recipe> catalog) {
+        Map<String, Page4.Recipe> byKey = new HashMap<>(catalog.size() * 2);
+        for (Page4.Recipe r : catalog) if (r.local_id != null && !r.local_id.isEmpty()) byKey.putIfAbsent(r.local_id, r);
+        for (Page4.Recipe r : catalog) if (r.shadowed_local_id != null) byKey.putIfAbsent(r.shadowed_local_id, r);
+        return byKey;
+    }
+
+    /** Recipes by recipe_ID, for migrating lines written before local ids; shared ids are left out. */
+    static Map<Integer, Page4.Recipe> indexById(List<Page4.Recipe> catalog) {
+        Map<Integer, Page4.Recipe> byId = new HashMap<>(catalog.size() * 2);
+        Set<Integer> shared = new HashSet<>();
+        for (Page4.Recipe r : catalog) {
+            if (r.recipe_ID == 0) continue;
+            if (byId.putIfAbsent(r.recipe_ID, r) != null) shared.add(r.recipe_ID);
+        }
+        byId.keySet().removeAll(shared);
+        return byId;
+    }
+
+    static Map<String, Page4.Recipe> indexByName(List<Page4.Recipe> catalog) {
+        Map<String, Page4.Recipe> byName = new HashMap<>(catalog.size() * 2);
+        for (Page4.Recipe r : catalog) {
+            if (r.recipe_name == null) continue;
+            String key = RecipeLoader.normalizeName(r.recipe_name);
+            if (!key.isEmpty()) byName.putIfAbsent(key, r);
+        }
+        return byName;
+    }
+
+    static Page4.Recipe lookupByName(Map<String, Page4.Recipe> byName, String name) {
+        String want = RecipeLoader.normalizeName(name);
+        if (want.isEmpty()) return null;
+        Page4.Recipe r = byName.get(want);
+        if (r == null && name.indexOf('_') >= 0) r = byName.get(RecipeLoader.normalizeName(name.replace('_', ' ')));
+        return r;
+    }
+
+    private void refreshRecipes() {
+        String packaged = read(FileCache.RECIPES_FILE);
+        String custom = read(FileCache.CUSTOM_RECIPES_FILE);
+        if (packaged == recipesText && custom == customRecipesText && recipesText != null) return;
+        recipesText = packaged;
+        customRecipesText = custom;
+        recipes = Collections.unmodifiableList(CustomCalendarPanel.mergeRecipes(
+                RecipeLoader.loadRecipesFromFile(FileCache.RECIPES_FILE),
+                RecipeLoader.loadRecipesFromFile(FileCache.CUSTOM_RECIPES_FILE)));
+        recipesByName = indexByName(recipes);
+        recipesByLocalId = indexByLocalId(recipes);
+    }
+
+    //==============================================================================================================
+    // Custom ingredients
+    //==============================================================================================================
+
+    public synchronized List<CustomIngredient> ingredients() {
+        refreshIngredients();
+        return ingredients;
+    }
+
+    public synchronized CustomIngredient ingredientByName(String name) {
+        if (name == null) return null;
+        refreshIngredients();
+        return ingredientsByName.get(name.trim().toLowerCase());
+    }
+
+    private void refreshIngredients() {
+        String text = read(FileCache.CUSTOM_INGREDIENTS_FILE);
+        if (text == ingredientsText && ingredientsText != null) return;
+        ingredientsText = text;
+        ingredients = Collections.unmodifiableList(CustomIngredientStore.loadAll());
+        Map<String, CustomIngredient> byName = new HashMap<>();
+        for (CustomIngredient ci : ingredients) if (ci.name != null) byName.putIfAbsent(ci.name.trim().toLowerCase(), ci);
+        ingredientsByName = byName;
+    }
+
+    //==============================================================================================================
+    // Inventory batches
+    //==============================================================================================================
+
+    synchronized List<CustomCalendarPanel.InventoryEntry> inventory() {
+        refreshInventory();
+        return inventory;
+    }
+
+    synchronized CustomCalendarPanel.InventoryEntry inventoryById(String id) {
+        if (id == null) return null;
+        refreshInventory();
+        return inventoryById.get(id);
+    }
+
+    synchronized List<CustomCalendarPanel.InventoryEntry> inventoryForRecipe(String recipeName) {
+        if (recipeName == null) return Collections.emptyList();
+        refreshInventory();
+        return inventoryByRecipe.getOrDefault(recipeName.trim().toLowerCase(), Collections.emptyList());
+    }
+
+    private void refreshInventory() {
+        String text = read(FileCache.INVENTORY_FILE);
+        if (text == inventoryText && inventoryText != null) return;
+        inventoryText = text;
+        List<CustomCalendarPanel.InventoryEntry> list = new ArrayList<>();
+        if (text != null && !text.trim().isEmpty()) {
+            try {
+                JSONArray arr = new JSONArray(text);
+                for (int i = 0; i < arr.length(); i++) list.add(CustomCalendarPanel.InventoryEntry.fromJson(arr.getJSONObject(i)));
+            } catch (Exception ex) {
+                ex.printStackTrace();
+            }
+        }
+        Map<String, CustomCalendarPanel.InventoryEntry> byId = new HashMap<>();
+        Map<String, List<CustomCalendarPanel.InventoryEntry>> byRecipe = new HashMap<>();
+        for (CustomCalendarPanel.InventoryEntry ie : list) {
+            if (ie.id != null) byId.put(ie.id, ie);
+            if (ie.name != null) byRecipe.computeIfAbsent(ie.name.trim().toLowerCase(), k -> new ArrayList<>()).add(ie);
+        }
+        inventory = Collections.unmodifiableList(list);
+        inventoryById = byId;
+        inventoryByRecipe = byRecipe;
+    }
+
+    //==============================================================================================================
+    // Meal plan slots
+    //==============================================================================================================
+
+    /** Slots dated within [from, to], in date order; archived months in the range are read from {@link ColdStorage}. */
+    public synchronized List<PlanSlot> slotsBetween(LocalDate from, LocalDate to) {
+        refreshPlans();
+        if (to.isBefore(from)) return new ArrayList<>();
+        NavigableMap<LocalDate, List<PlanSlot>> range = new TreeMap<>(slotsByDate.subMap(from, true, to, true));
+        for (YearMonth m : ColdStorage.archivedPlanMonths().subSet(YearMonth.from(from), true, YearMonth.from(to), true)) {
+            // a day also present in meal_plans.txt was edited after archiving; that copy wins
+            for (Map.Entry<LocalDate, List<PlanSlot>> day : archivedSlots(m).subMap(from, true, to, true).entrySet()) range.putIfAbsent(day.getKey(), day.getValue());
+        }
+        List<PlanSlot> out = new ArrayList<>();
+        for (List<PlanSlot> day : range.values()) out.addAll(day);
+        return out;
+    }
+
+    private NavigableMap<LocalDate, List<PlanSlot>> archivedSlots(YearMonth month) {
+        int v = ColdStorage.version();
+        if (v != coldVersion) {
+            archivedSlots.clear();
+            coldVersion = v;
+        }
+        return archivedSlots.computeIfAbsent(month, m -> {
+            NavigableMap<LocalDate, List<PlanSlot>> byDate = new TreeMap<>();
+            for (String line : ColdStorage.planText(m).split("\\R")) {
+                PlanSlot slot = parseSlot(line);
+                if (slot != null) byDate.computeIfAbsent(slot.date, k -> new ArrayList<>()).add(slot);
+            }
+            return byDate;
+        });
+    }
+
+    /**
+     * Planned meals that draw on each inventory batch, archived months (from the archive index) and days
+     * of {@link MealTemplates} tied to a batch included.
+     */
+    public synchronized Map<String, Integer> assignmentCounts() {
+        refreshPlans();
+        return assignmentsByInventory;
+    }
+
+    public synchronized int assignmentsOf(String inventoryId) {
+        if (inventoryId == null) return 0;
+        refreshPlans();
+        return assignmentsByInventory.getOrDefault(inventoryId, 0);
+    }
+
+    private void refreshPlans() {
+        String text = read(FileCache.MEAL_PLAN_FILE);
+        int v = ColdStorage.version(), tv = MealTemplates.version();
+        if (text == plansText && plansText != null && v == coldVersion && tv == templatesVersion) return;
+        if (v != coldVersion) {
+            archivedSlots.clear();
+            coldVersion = v;
+        }
+        plansText = text;
+        templatesVersion = tv;
+        NavigableMap<LocalDate, List<PlanSlot>> byDate = new TreeMap<>();
+        Map<String, Integer> counts = new HashMap<>(ColdStorage.archivedAssignments());
+        for (Map.Entry<String, Integer> a : MealTemplates.overrideAssignments().entrySet()) counts.merge(a.getKey(), a.getValue(), Integer::sum);
+        if (text != null) {
+            for (String line : text.split("\\R")) {
+                PlanSlot slot = parseSlot(line);
+                if (slot == null) continue;
+                byDate.computeIfAbsent(slot.date, k -> new ArrayList<>()).add(slot);
+                if (slot.inventoryId != null) counts.merge(slot.inventoryId, 1, Integer::sum);
+            }
+        }
+        slotsByDate = byDate;
+        assignmentsByInventory = Collections.unmodifiableMap(counts);
+    }
+
+    // Missing files read as "" so a deleted table still compares unequal to its last contents.
+    private static String read(String path) {
+        try {
+            String s = FileCache.read(path);
+            return s != null ? s : "";
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            return "";
+        }
+    }
+}
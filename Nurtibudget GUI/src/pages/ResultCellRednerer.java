@@ -8,8 +8,8 @@ import java.awt.image.BufferedImage;
 import java.net.URL;
 import java.util.LinkedHashMap;
 import java.util.Map;
-import org.json.JSONArray;
 import org.json.JSONObject;
+import bridge.ProductSummary;
 
 
 class ResultCellRenderer extends JPanel implements ListCellRenderer<Object> {
@@ -47,9 +47,11 @@ class ResultCellRenderer extends JPanel implements ListCellRenderer<Object> {
         title.setText("");
         meta.setText("");
 
-        if (value instanceof JSONObject) {
-            JSONObject obj = (JSONObject) value;
-            renderProduct(obj, list);
+        if (value instanceof ProductSummary) {
+            renderProduct((ProductSummary) value, list);
+        } else if (value instanceof JSONObject) {
+            // Legacy lists of raw JSON; models should hold decoded summaries instead.
+            renderProduct(ProductSummary.fromJson((JSONObject) value), list);
         } else if (value instanceof Page4.Recipe) {
             Page4.Recipe r = (Page4.Recipe) value;
             title.setText(r.recipe_name != null ? r.recipe_name : ("Recipe " + r.recipe_ID));
@@ -67,18 +69,12 @@ class ResultCellRenderer extends JPanel implements ListCellRenderer<Object> {
         return this;
     }
 
-    private void renderProduct(JSONObject value, JList<?> list) {
-        String name = value.optString("name", value.optString("description", "Unknown"));
-        String desc = value.optString("describe", value.optString("description", ""));
-        double price = value.optDouble("price", value.optDouble("price_per_serving", 0.0));
-        String serving = value.optString("serving_label", value.optString("serving", ""));
-        title.setText(name + (price > 0 ? String.format(" — $%.2f", price) : ""));
-        meta.setText((desc != null ? desc : "") + (serving != null && !serving.isEmpty() ? " • " + serving : ""));
+    private void renderProduct(ProductSummary value, JList<?> list) {
+        title.setText(value.name + (value.hasPrice() ? String.format(" — $%.2f", value.price) : ""));
+        meta.setText(value.description + (!value.servingLabel.isEmpty() ? " • " + value.servingLabel : ""));
 
-        String img = value.optString("image_url", "");
-        if (img.isEmpty()) img = value.optString("imagePath", "");
-
-        if (img == null || img.isEmpty()) {
+        String img = value.imageUrl;
+        if (img.isEmpty()) {
             icon.setIcon(PLACEHOLDER);
             return;
         }
@@ -0,0 +1,235 @@
+package pages;
+
+import org.json.JSONObject;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Turns the calendar's meal plans for a date range into one shopping list.
+ *
+ * Planned meals tied to an inventory batch are already cooked and need nothing. The remaining
+ * portions of each recipe are first netted against free portions in existing batches of that
+ * recipe, then rounded up to whole cooks. Each cook's ingredients are converted to common units
+ * and merged by product id (or name, for custom ingredients), then priced from {@link ProductCache}
+ * in one lookup. The work is linear in planned meals plus distinct recipes, so it is cheap enough to
+ * rerun whenever the plan changes.
+ */
+public final class ShoppingListGenerator {
+
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+
+    public static final class Line {
+        public final String key;
+        public final String productId;
+        public final String name;
+        public double servings;
+        public double grams;
+        public double millilitres;
+        public double count;
+        public double unitPrice;
+        public double cost;
+        public boolean pricedFromCache;
+        public final Set<String> recipes = new TreeSet<>();
+
+        Line(String key, String productId, String name) {
+            this.key = key;
+            this.productId = productId;
+            this.name = name;
+        }
+
+        /** e.g. "1.2 kg + 2 servings"; each dimension that was used is listed. */
+        public String amountLabel() {
+            List<String> parts = new ArrayList<>();
+            if (grams > 0.0) parts.add(grams >= 1000.0 ? String.format("%.2f kg", grams / 1000.0) : String.format("%.0f g", grams));
+            if (millilitres > 0.0) parts.add(millilitres >= 1000.0 ? String.format("%.2f L", millilitres / 1000.0) : String.format("%.0f ml", millilitres));
+            if (count > 0.0) parts.add(String.format("%.2f servings", count));
+            return parts.isEmpty() ? "-" : String.join(" + ", parts);
+        }
+    }
+
+    public static final class ShoppingList {
+        public final LocalDate from;
+        public final LocalDate to;
+        public final List<Line> lines;
+        public final double totalCost;
+        public final Map<String, Integer> cooksByRecipe;
+        /** Product ids whose price came from the stored ingredient because the product is not cached. */
+        public final Set<String> uncachedProductIds;
+
+        ShoppingList(LocalDate from, LocalDate to, List<Line> lines, double totalCost,
+                     Map<String, Integer> cooksByRecipe, Set<String> uncachedProductIds) {
+            this.from = from;
+            this.to = to;
+            this.lines = lines;
+            this.totalCost = totalCost;
+            this.cooksByRecipe = cooksByRecipe;
+            this.uncachedProductIds = uncachedProductIds;
+        }
+    }
+
+    /** One ingredient of one cook, precomputed per recipe so repeat cooks only scale numbers. */
+    private static final class Need {
+        final String key;
+        final String productId;
+        final String name;
+        final double servings;
+        final Units.Quantity amount;
+        final double storedPrice;
+
+        Need(Page4.IngredientEntry ie) {
+            this.productId = ie.external_id != null ? ie.external_id.trim() : "";
+            this.name = ie.name != null ? ie.name : "";
+            this.key = !productId.isEmpty() ? productId : "name:" + name.trim().toLowerCase(Locale.ROOT);
+            this.servings = ie.effectiveServings();
+            Units.Quantity q = ie.isMeasured() ? Units.of(ie.quantity, ie.unit) : null;
+            this.amount = q != null && q.dimension != Units.Dimension.COUNT ? q : null;
+            this.storedPrice = ie.price_per_serving;
+        }
+    }
+
+    private ShoppingListGenerator() {}
+
+    /**
+     * What {@link #generate} reads from {@code plans} for a range: the recipes of unbatched meals in the
+     * range with their counts, and the number of meals on every batch. Recipes are compared by identity,
+     * so a saved edit (which replaces the recipe object) changes the result. Equal results with the same
+     * inventory and product prices give the same list.
+     */
+    public static Map<Object, Integer> inputsOf(Map<String, Map<String, List<CustomCalendarPanel.PlannedMeal>>> plans,
+                                                LocalDate from, LocalDate to) {
+        String fromStr = DATE_FORMAT.format(from);
+        String toStr = DATE_FORMAT.format(to);
+        Map<Object, Integer> inputs = new HashMap<>();
+        for (Map.Entry<String, Map<String, List<CustomCalendarPanel.PlannedMeal>>> day : plans.entrySet()) {
+            boolean inRange = day.getKey().compareTo(fromStr) >= 0 && day.getKey().compareTo(toStr) <= 0;
+            for (List<CustomCalendarPanel.PlannedMeal> meals : day.getValue().values()) {
+                for (CustomCalendarPanel.PlannedMeal pm : meals) {
+                    if (pm.recipe == null) continue;
+                    if (pm.inventoryId != null && !pm.inventoryId.isEmpty()) inputs.merge(pm.inventoryId, 1, Integer::sum);
+                    else if (inRange) inputs.merge(pm.recipe, 1, Integer::sum);
+                }
+            }
+        }
+        return inputs;
+    }
+
+    public static ShoppingList generate(Map<String, Map<String, List<CustomCalendarPanel.PlannedMeal>>> plans,
+                                        List<CustomCalendarPanel.InventoryEntry> inventory,
+                                        LocalDate from, LocalDate to) {
+        String fromStr = DATE_FORMAT.format(from);
+        String toStr = DATE_FORMAT.format(to);
+
+        // One pass over the whole plan: batch assignments (any date) and uncovered portions (in range).
+        // Recipes are told apart by local id (the object itself when there is none), never by name.
+        Map<String, Integer> assignedPerBatch = new HashMap<>();
+        Map<Object, Integer> neededPerRecipe = new LinkedHashMap<>();
+        Map<Object, Page4.Recipe> recipeByKey = new HashMap<>();
+        for (Map.Entry<String, Map<String, List<CustomCalendarPanel.PlannedMeal>>> day : plans.entrySet()) {
+            String date = day.getKey();
+            boolean inRange = date.compareTo(fromStr) >= 0 && date.compareTo(toStr) <= 0;
+            for (List<CustomCalendarPanel.PlannedMeal> meals : day.getValue().values()) {
+                for (CustomCalendarPanel.PlannedMeal pm : meals) {
+                    if (pm.recipe == null) continue;
+                    if (pm.inventoryId != null && !pm.inventoryId.isEmpty()) {
+                        assignedPerBatch.merge(pm.inventoryId, 1, Integer::sum);
+                    } else if (inRange) {
+                        Object key = pm.recipe.local_id != null && !pm.recipe.local_id.isEmpty() ? pm.recipe.local_id : pm.recipe;
+                        neededPerRecipe.merge(key, 1, Integer::sum);
+                        recipeByKey.putIfAbsent(key, pm.recipe);
+                    }
+                }
+            }
+        }
+
+        // Free portions in batches that are still edible at the start of the range. Batches only record
+        // the recipe name, so recipes sharing a name draw on one pool.
+        Set<String> neededNames = new HashSet<>();
+        for (Page4.Recipe r : recipeByKey.values()) neededNames.add(r.recipe_name);
+        Map<String, Integer> freePerName = new HashMap<>();
+        for (CustomCalendarPanel.InventoryEntry e : inventory) {
+            if (!neededNames.contains(e.name)) continue;
+            if (e.dateMade.isAfter(to) || e.dateMade.plusDays(Math.max(0, e.edibleDays)).isBefore(from)) continue;
+            int free = e.totalPortions - e.portionsUsed - assignedPerBatch.getOrDefault(e.id, 0);
+            if (free > 0) freePerName.merge(e.name, free, Integer::sum);
+        }
+
+        Map<String, Integer> cooksByRecipe = new LinkedHashMap<>();
+        Map<String, Line> lines = new LinkedHashMap<>();
+        Map<Page4.Recipe, List<Need>> needsByRecipe = new IdentityHashMap<>();
+        for (Map.Entry<Object, Integer> e : neededPerRecipe.entrySet()) {
+            Page4.Recipe r = recipeByKey.get(e.getKey());
+            int free = freePerName.getOrDefault(r.recipe_name, 0);
+            int covered = Math.min(free, e.getValue());
+            if (covered > 0) freePerName.put(r.recipe_name, free - covered);
+            int uncovered = e.getValue() - covered;
+            if (uncovered <= 0) continue;
+            int portions = Math.max(1, r.total_portions);
+            int cooks = (uncovered + portions - 1) / portions;
+            cooksByRecipe.merge(r.recipe_name, cooks, Integer::sum);
+
+            List<Need> needs = needsByRecipe.computeIfAbsent(r, ShoppingListGenerator::needsOf);
+            for (Need n : needs) {
+                Line line = lines.computeIfAbsent(n.key, k -> new Line(k, n.productId, n.name));
+                line.servings += n.servings * cooks;
+                if (n.amount == null) line.count += n.servings * cooks;
+                else if (n.amount.dimension == Units.Dimension.MASS) line.grams += n.amount.base * cooks;
+                else line.millilitres += n.amount.base * cooks;
+                if (line.unitPrice <= 0.0) line.unitPrice = n.storedPrice;
+                line.recipes.add(r.recipe_name);
+            }
+        }
+
+        // Price all lines against the product cache in a single lookup.
+        Set<String> ids = new LinkedHashSet<>();
+        for (Line l : lines.values()) if (!l.productId.isEmpty()) ids.add(l.productId);
+        Map<String, JSONObject> cached = ProductCache.getAll(ids);
+        Set<String> uncached = new LinkedHashSet<>(ids);
+        uncached.removeAll(cached.keySet());
+
+        double total = 0.0;
+        for (Line l : lines.values()) {
+            JSONObject p = cached.get(l.productId);
+            if (p != null) {
+                double price = currentPrice(p);
+                if (price > 0.0) {
+                    l.unitPrice = price;
+                    l.pricedFromCache = true;
+                }
+            }
+            l.cost = l.unitPrice * l.servings;
+            total += l.cost;
+        }
+
+        List<Line> out = new ArrayList<>(lines.values());
+        out.sort((a, b) -> a.name.compareToIgnoreCase(b.name));
+        return new ShoppingList(from, to, Collections.unmodifiableList(out), total,
+                Collections.unmodifiableMap(cooksByRecipe), Collections.unmodifiableSet(uncached));
+    }
+
+    private static List<Need> needsOf(Page4.Recipe r) {
+        List<Need> needs = new ArrayList<>(r.recipe_ingredients.size());
+        for (Page4.IngredientEntry ie : r.recipe_ingredients) needs.add(new Need(ie));
+        return needs;
+    }
+
+    /** Promo price when the product is on sale, otherwise the regular price. */
+    static double currentPrice(JSONObject product) {
+        double price = product.optDouble("price", 0.0);
+        double promo = product.optDouble("promo_price", 0.0);
+        if (promo > 0.0 && (price <= 0.0 || promo < price)) return promo;
+        return price;
+    }
+}
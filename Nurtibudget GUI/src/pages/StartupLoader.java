@@ -0,0 +1,151 @@
+package pages;
+
+import bridge.ProductSummary;
+
+import javax.swing.SwingUtilities;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Loads the data stores the pages need at startup, in dependency order, on a fork-join pool.
+ *
+ * <pre>
+ *   recipes.txt ---------+
+ *                        +-- catalog -- meal plans --+
+ *   custom_recipes.txt --+                           +-- budgets (BudgetEngine)
+ *   inventory.json ----------------------------------+
+ *   custom_ingredients.json, favorite_products.json      (independent)
+ *   custom_recipes.txt again, for the recipe editor      (independent)
+ * </pre>
+ *
+ * Stores with no dependency between them load concurrently, so startup takes as long as the slowest
+ * chain rather than the sum of every file. Each store is published as soon as it is ready; pages
+ * subscribe with {@link #onReady} and fill in as data arrives. A page that edits a store checks
+ * {@link #unchanged} first and re-reads if the file was written after the loader read it. The recipe
+ * editor gets its own parse of custom_recipes.txt so its edits never reach the calendar's catalog.
+ * Reads go through {@link FileCache}, so code that later reads the same files directly is served
+ * from memory.
+ */
+public final class StartupLoader {
+
+    private static StartupLoader instance;
+    // -Dnutribudget.startupTrace=true logs when each load finishes
+    private static final boolean TRACE = Boolean.getBoolean("nutribudget.startupTrace");
+
+    private final ForkJoinPool pool = new ForkJoinPool(Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors())));
+    private final long startNanos = System.nanoTime();
+
+    private final CompletableFuture<List<Page4.Recipe>> recipes;
+    private final CompletableFuture<List<Page4.Recipe>> customRecipes;
+    private final CompletableFuture<List<Page4.Recipe>> editorRecipes;
+    private final CompletableFuture<List<Page4.Recipe>> catalog;
+    private final CompletableFuture<List<CustomIngredient>> customIngredients;
+    private final CompletableFuture<List<ProductSummary>> favorites;
+    private final CompletableFuture<List<CustomCalendarPanel.InventoryEntry>> inventory;
+    private final CompletableFuture<Map<String, Map<String, List<CustomCalendarPanel.PlannedMeal>>>> mealPlans;
+    private final CompletableFuture<Void> budgets;
+    private final CompletableFuture<Void> opened;
+
+    // text each store was read from, by path (null when the file was missing); compared by identity
+    private final Map<String, String> sources = Collections.synchronizedMap(new HashMap<>());
+
+    private StartupLoader() {
+        // interrupted commits are finished (and legacy files migrated) before anything reads the tables,
+        // and past months are moved to the archive so only the hot tables get parsed
+        opened = CompletableFuture.runAsync(() -> {
+            LocalStore.open();
+            ColdStorage.archiveOldMonths();
+        }, pool);
+        recipes = load("recipes", FileCache.RECIPES_FILE, () -> RecipeLoader.loadRecipesFromFile(FileCache.RECIPES_FILE));
+        customRecipes = load("custom recipes", FileCache.CUSTOM_RECIPES_FILE,
+                () -> RecipeLoader.loadRecipesFromFile(FileCache.CUSTOM_RECIPES_FILE));
+        editorRecipes = load("editor recipes", FileCache.CUSTOM_RECIPES_FILE, () -> Page4.readRecipes(FileCache.CUSTOM_RECIPES_FILE));
+        customIngredients = load("custom ingredients", FileCache.CUSTOM_INGREDIENTS_FILE, CustomIngredientStore::loadAll);
+        favorites = load("favorites", FileCache.FAVORITES_FILE, Page2::readFavorites);
+        inventory = load("inventory", FileCache.INVENTORY_FILE, CustomCalendarPanel::loadInventoryEntries);
+
+        catalog = logged("catalog", recipes.thenCombineAsync(customRecipes, CustomCalendarPanel::mergeRecipes, pool));
+        mealPlans = logged("meal plans", catalog.thenApplyAsync(c -> {
+            remember(FileCache.MEAL_PLAN_FILE);
+            return CustomCalendarPanel.readMealPlans(c);
+        }, pool));
+        budgets = logged("budgets", mealPlans.thenAcceptBothAsync(inventory,
+                (plans, inv) -> BudgetEngine.get().seed(plans, inv), pool));
+    }
+
+    /** Starts loading on first call; later calls return the same loader. */
+    public static synchronized StartupLoader start() {
+        if (instance == null) instance = new StartupLoader();
+        return instance;
+    }
+
+    public static StartupLoader get() { return start(); }
+
+    public CompletableFuture<List<Page4.Recipe>> recipes() { return recipes; }
+    public CompletableFuture<List<Page4.Recipe>> catalog() { return catalog; }
+    /** custom_recipes.txt parsed for the recipe editor alone; null when it is not JSON. */
+    CompletableFuture<List<Page4.Recipe>> editorRecipes() { return editorRecipes; }
+    public CompletableFuture<List<CustomIngredient>> customIngredients() { return customIngredients; }
+    public CompletableFuture<List<ProductSummary>> favorites() { return favorites; }
+    CompletableFuture<List<CustomCalendarPanel.InventoryEntry>> inventory() { return inventory; }
+    public CompletableFuture<Void> budgets() { return budgets; }
+
+    CompletableFuture<Map<String, Map<String, List<CustomCalendarPanel.PlannedMeal>>>> mealPlans() { return mealPlans; }
+
+    /**
+     * Runs {@code action} on the EDT once {@code store} is loaded; straight away (still via the EDT) if it
+     * already is. A store that failed to load is passed as null, so pages can fall back to reading it.
+     */
+    public static <T> void onReady(CompletableFuture<T> store, Consumer<T> action) {
+        store.whenComplete((value, ex) -> SwingUtilities.invokeLater(() -> action.accept(ex == null ? value : null)));
+    }
+
+    /** Whether none of {@code paths} was written since the loader read it, so its store is still current. */
+    public boolean unchanged(String... paths) {
+        for (String path : paths) {
+            if (!sources.containsKey(path)) return false;
+            try {
+                if (FileCache.read(path) != sources.get(path)) return false;
+            } catch (IOException ex) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // records the text a store is about to be parsed from; if the file changes in between, unchanged() is false
+    private void remember(String path) {
+        try {
+            sources.put(path, FileCache.read(path));
+        } catch (IOException ex) {
+            sources.remove(path);
+        }
+    }
+
+    private <T> CompletableFuture<T> load(String name, String path, Supplier<T> loader) {
+        return logged(name, opened.thenApplyAsync(v -> {
+            remember(path);
+            return loader.get();
+        }, pool));
+    }
+
+    private <T> CompletableFuture<T> logged(String name, CompletableFuture<T> f) {
+        f.whenComplete((v, ex) -> {
+            long ms = (System.nanoTime() - startNanos) / 1_000_000;
+            if (ex != null) {
+                System.err.println("Startup: " + name + " failed after " + ms + " ms");
+                ex.printStackTrace();
+            } else if (TRACE) {
+                System.err.println("Startup: " + name + " ready at " + ms + " ms");
+            }
+        });
+        return f;
+    }
+}
@@ -1,7 +1,20 @@
 package pages;
 
 import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
 import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.function.DoubleSupplier;
+import java.util.function.Supplier;
 
 public class SuggestionsPage extends JPanel {
 
@@ -10,7 +23,27 @@ public class SuggestionsPage extends JPanel {
     private final Color LIGHT_GRAY = new Color(240, 240, 240);
     private final Color WHITE = Color.WHITE;
 
-    public SuggestionsPage() {
+    private static final DateTimeFormatter DAY_FORMAT = DateTimeFormatter.ofPattern("EEE MM/dd");
+
+    private final DoubleSupplier weeklyBudget;
+    private final Supplier<CustomCalendarPanel> calendar;
+    private final JSpinner calorieSpinner = new JSpinner(new SpinnerNumberModel(2000, 800, 5000, 50));
+    private final JLabel statusLabel = new JLabel(" ");
+    private final JLabel summaryLabel = new JLabel(" ");
+    private final JButton applyButton = new JButton("Apply to calendar");
+    private final PlanTableModel planModel = new PlanTableModel();
+    private final JTable planTable = new JTable(planModel);
+    private final Map<Integer, Page4.Recipe> pins = new HashMap<>();
+    private MealPlanOptimizer.Plan currentPlan = null;
+    private SolveWorker worker = null;
+    // what the startup loader parsed; used while the files are unchanged, otherwise Repository re-reads them
+    private List<Page4.Recipe> startupCatalog = null;
+    private List<CustomCalendarPanel.InventoryEntry> startupInventory = null;
+
+    /** {@code calendar} supplies the calendar that suggestions are applied through. */
+    public SuggestionsPage(DoubleSupplier weeklyBudget, Supplier<CustomCalendarPanel> calendar) {
+        this.weeklyBudget = weeklyBudget;
+        this.calendar = calendar;
         // Match the layout of Page1, Page2, Page3, Page4
         setLayout(new BorderLayout());
         setBackground(LIGHT_GRAY);
@@ -61,23 +94,208 @@ public class SuggestionsPage extends JPanel {
             }
         });
 
-        // Placeholder click action
         generateButton.addActionListener(e -> {
-            JOptionPane.showMessageDialog(
-                    this,
-                    "Suggestion generation coming soon!",
-                    "Coming Soon",
-                    JOptionPane.INFORMATION_MESSAGE
-            );
+            pins.clear();
+            startSolve(null);
         });
 
+        JPanel options = new JPanel(new FlowLayout(FlowLayout.CENTER, 10, 6));
+        options.setBackground(LIGHT_GRAY);
+        options.add(new JLabel("Daily calories:"));
+        options.add(calorieSpinner);
+        options.add(statusLabel);
+
+        StartupLoader loader = StartupLoader.get();
+        generateButton.setEnabled(false);
+        statusLabel.setText("Loading recipes...");
+        StartupLoader.onReady(loader.catalog(), catalog -> StartupLoader.onReady(loader.inventory(), inventory -> {
+            startupCatalog = catalog;
+            startupInventory = inventory;
+            generateButton.setEnabled(true);
+            statusLabel.setText(" ");
+        }));
+
         contentPanel.add(generateButton);
+        contentPanel.add(Box.createVerticalStrut(10));
+        contentPanel.add(options);
 
         // Center content vertically
         JPanel centerWrapper = new JPanel(new GridBagLayout());
         centerWrapper.setBackground(LIGHT_GRAY);
         centerWrapper.add(contentPanel);
 
-        add(centerWrapper, BorderLayout.CENTER);
+        // ------------------------------------------------------------------------------------
+        // Plan table: click a cell to pin / unpin that meal, then the plan is re-solved around it
+        // ------------------------------------------------------------------------------------
+        planTable.setRowHeight(28);
+        planTable.setCellSelectionEnabled(true);
+        planTable.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                int row = planTable.rowAtPoint(e.getPoint());
+                int col = planTable.columnAtPoint(e.getPoint());
+                if (row < 0 || col < 1 || currentPlan == null) return;
+                int slot = row * currentPlan.meals.length + (col - 1);
+                if (pins.remove(slot) == null) pins.put(slot, currentPlan.slots[slot]);
+                planModel.fireTableDataChanged();
+                startSolve(currentPlan);
+            }
+        });
+
+        JPanel planPanel = new JPanel(new BorderLayout(6, 6));
+        planPanel.setBackground(LIGHT_GRAY);
+        planPanel.add(new JScrollPane(planTable), BorderLayout.CENTER);
+        summaryLabel.setFont(new Font("Segoe UI", Font.PLAIN, 14));
+        applyButton.setToolTipText("Put these meals on the calendar in place of what is planned for them");
+        applyButton.setEnabled(false);
+        applyButton.addActionListener(e -> applyToCalendar());
+        JPanel planFooter = new JPanel(new BorderLayout(10, 0));
+        planFooter.setBackground(LIGHT_GRAY);
+        planFooter.add(summaryLabel, BorderLayout.CENTER);
+        planFooter.add(applyButton, BorderLayout.EAST);
+        planPanel.add(planFooter, BorderLayout.SOUTH);
+
+        JPanel body = new JPanel(new BorderLayout(10, 10));
+        body.setBackground(LIGHT_GRAY);
+        body.add(centerWrapper, BorderLayout.NORTH);
+        body.add(planPanel, BorderLayout.CENTER);
+
+        add(body, BorderLayout.CENTER);
+    }
+
+    // ------------------------------------------------------------------------------------
+    // Solver
+    // ------------------------------------------------------------------------------------
+    private void startSolve(MealPlanOptimizer.Plan warmStart) {
+        if (worker != null && !worker.isDone()) worker.cancel(false);
+
+        MealPlanOptimizer.Settings settings = new MealPlanOptimizer.Settings();
+        settings.weeklyBudget = weeklyBudget != null ? weeklyBudget.getAsDouble() : 0.0;
+        settings.dailyCalories = ((Number) calorieSpinner.getValue()).doubleValue();
+        LocalDate weekStart = BudgetEngine.weekStart(LocalDate.now());
+        Map<Integer, Page4.Recipe> pinsSnapshot = new HashMap<>(pins);
+        StartupLoader loader = StartupLoader.get();
+        List<Page4.Recipe> loadedCatalog =
+                startupCatalog != null && loader.unchanged(FileCache.RECIPES_FILE, FileCache.CUSTOM_RECIPES_FILE) ? startupCatalog : null;
+        List<CustomCalendarPanel.InventoryEntry> loadedInventory =
+                startupInventory != null && loader.unchanged(FileCache.INVENTORY_FILE) ? startupInventory : null;
+        statusLabel.setText("Searching...");
+        applyButton.setEnabled(false);
+
+        worker = new SolveWorker(loadedCatalog, loadedInventory, weekStart, settings, pinsSnapshot, warmStart);
+        worker.execute();
+    }
+
+    /** One solve; its results are shown only while it is still the page's current worker. */
+    private final class SolveWorker extends SwingWorker<MealPlanOptimizer.Plan, MealPlanOptimizer.Plan> {
+        private final List<Page4.Recipe> loadedCatalog;
+        private final List<CustomCalendarPanel.InventoryEntry> loadedInventory;
+        private final LocalDate weekStart;
+        private final MealPlanOptimizer.Settings settings;
+        private final Map<Integer, Page4.Recipe> pins;
+        private final MealPlanOptimizer.Plan warmStart;
+
+        SolveWorker(List<Page4.Recipe> loadedCatalog, List<CustomCalendarPanel.InventoryEntry> loadedInventory,
+                    LocalDate weekStart, MealPlanOptimizer.Settings settings, Map<Integer, Page4.Recipe> pins,
+                    MealPlanOptimizer.Plan warmStart) {
+            this.loadedCatalog = loadedCatalog;
+            this.loadedInventory = loadedInventory;
+            this.weekStart = weekStart;
+            this.settings = settings;
+            this.pins = pins;
+            this.warmStart = warmStart;
+        }
+
+        @Override
+        protected MealPlanOptimizer.Plan doInBackground() {
+            List<Page4.Recipe> catalog = loadedCatalog != null ? loadedCatalog : Repository.get().recipes();
+            List<CustomCalendarPanel.InventoryEntry> inventory = loadedInventory != null ? loadedInventory : Repository.get().inventory();
+            return MealPlanOptimizer.solve(catalog, inventory, weekStart, settings, pins, warmStart,
+                    this::publish, this::isCancelled);
+        }
+
+        @Override
+        protected void process(List<MealPlanOptimizer.Plan> chunks) {
+            if (isCancelled() || worker != this) return;
+            showPlan(chunks.get(chunks.size() - 1), settings);
+        }
+
+        @Override
+        protected void done() {
+            if (isCancelled() || worker != this) return;
+            try {
+                MealPlanOptimizer.Plan plan = get();
+                if (plan == null) {
+                    statusLabel.setText("No recipes available to plan with.");
+                    return;
+                }
+                showPlan(plan, settings);
+                applyButton.setEnabled(true);
+                statusLabel.setText(String.format("%s (%,d nodes)", plan.provenOptimal ? "Optimal plan" : "Best plan found", plan.nodes));
+            } catch (InterruptedException | ExecutionException ex) {
+                ex.printStackTrace();
+                statusLabel.setText("Suggestion failed: " + ex.getMessage());
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------------------
+    // Apply: the suggested meals replace what is planned in their slots, saved by the
+    // calendar so batches, templates and undo are handled as for a calendar edit
+    // ------------------------------------------------------------------------------------
+    private void applyToCalendar() {
+        MealPlanOptimizer.Plan plan = currentPlan;
+        if (plan == null) return;
+        int ok = JOptionPane.showConfirmDialog(this,
+                "Replace the " + String.join(", ", plan.meals) + " planned for the week of "
+                        + plan.weekStart.format(DAY_FORMAT) + " with this suggestion?",
+                "Apply suggestion", JOptionPane.OK_CANCEL_OPTION);
+        if (ok != JOptionPane.OK_OPTION) return;
+
+        Map<LocalDate, Map<String, Page4.Recipe>> meals = new LinkedHashMap<>();
+        int days = plan.slots.length / plan.meals.length;
+        for (int d = 0; d < days; d++) {
+            for (int m = 0; m < plan.meals.length; m++) {
+                Page4.Recipe recipe = plan.get(d, m);
+                if (recipe != null) meals.computeIfAbsent(plan.weekStart.plusDays(d), k -> new LinkedHashMap<>()).put(plan.meals[m], recipe);
+            }
+        }
+        try {
+            calendar.get().replaceMeals(meals, "suggestion for " + plan.weekStart.format(DAY_FORMAT));
+            applyButton.setEnabled(false);
+            statusLabel.setText("Suggestion added to the calendar.");
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            statusLabel.setText("Could not apply the suggestion: " + ex.getMessage());
+        }
+    }
+
+    private void showPlan(MealPlanOptimizer.Plan plan, MealPlanOptimizer.Settings settings) {
+        currentPlan = plan;
+        planModel.fireTableStructureChanged();
+        double avgKcal = 0.0;
+        for (double d : plan.dayCalories) avgKcal += d;
+        avgKcal /= Math.max(1, plan.dayCalories.length);
+        summaryLabel.setText(String.format("Cook cost $%.2f  |  Budget $%.2f%s  |  Waste $%.2f  |  Avg %.0f kcal/day  |  Pinned %d",
+                plan.cost, settings.weeklyBudget, plan.withinBudget ? "" : " (over)", plan.waste, avgKcal, pins.size()));
+    }
+
+    private class PlanTableModel extends AbstractTableModel {
+        private static final long serialVersionUID = 1L;
+
+        public int getRowCount() { return currentPlan != null ? currentPlan.slots.length / currentPlan.meals.length : 0; }
+        public int getColumnCount() { return 1 + (currentPlan != null ? currentPlan.meals.length : MealPlanOptimizer.DEFAULT_MEALS.length); }
+        public String getColumnName(int c) {
+            if (c == 0) return "Day";
+            String[] meals = currentPlan != null ? currentPlan.meals : MealPlanOptimizer.DEFAULT_MEALS;
+            return meals[c - 1];
+        }
+        public Object getValueAt(int r, int c) {
+            if (c == 0) return currentPlan.weekStart.plusDays(r).format(DAY_FORMAT) + String.format(" (%.0f kcal)", currentPlan.dayCalories[r]);
+            int slot = r * currentPlan.meals.length + (c - 1);
+            Page4.Recipe recipe = currentPlan.slots[slot];
+            String name = recipe != null ? recipe.recipe_name : "";
+            return pins.containsKey(slot) ? name + " (pinned)" : name;
+        }
     }
 }
@@ -0,0 +1,357 @@
+package pages;
+
+import bridge.BridgeOutbox;
+import bridge.IKrogerWrapper;
+import bridge.Py4JHelper;
+import bridge.PyBridgeInvoker;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import javax.swing.SwingUtilities;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Keeps Page4's custom recipes and the MySQL backend in step, in both directions.
+ *
+ * Each linked recipe remembers what the backend held after the last exchange ({@code synced_name},
+ * {@code synced_links}: ingredient id to quantity) and the backend's change stamp it last applied
+ * ({@code remote_version}); the backend stamps every recipe and ingredient it changes.
+ * <ul>
+ *   <li>push: after a local edit only that recipe is diffed against its synced state, and just the
+ *       differences (link added or changed, link removed, rename) go to the bridge outbox</li>
+ *   <li>pull: {@code fetchChanges(stamp)} returns only what changed on the backend since the last
+ *       pull; each change is merged three ways against the synced state, so a field edited on one
+ *       side only takes that side's value and a field edited on both keeps the local edit, which is
+ *       then pushed back</li>
+ * </ul>
+ * Neither direction walks the whole catalog, so the cost follows the number of changes. A pull is
+ * skipped while the outbox still holds local writes, so stale backend state never overwrites them.
+ */
+final class SyncReconciler {
+
+    static final String STATE_FILE = "src/pages/text/sync_state.json";
+
+    private final List<Page4.Recipe> recipes;
+    private final String recipesFile;
+    private final Consumer<Set<Page4.Recipe>> onRemoteChanges;
+    private final ExecutorService exec = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "recipe-sync");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private long stamp;
+    private boolean pulling = false;               // EDT only
+    private boolean fetchSupported = true;
+
+    /**
+     * @param recipes         the live list Page4 edits; only touched on the EDT
+     * @param onRemoteChanges called on the EDT with the recipes a pull changed or removed
+     */
+    SyncReconciler(List<Page4.Recipe> recipes, String recipesFile, Consumer<Set<Page4.Recipe>> onRemoteChanges) {
+        this.recipes = recipes;
+        this.recipesFile = recipesFile;
+        this.onRemoteChanges = onRemoteChanges;
+        this.stamp = readStamp();
+    }
+
+    //==================================================================================================================
+    // Push
+    //==================================================================================================================
+
+    /**
+     * Sends {@code r}'s changes since the last exchange to the outbox and records them as synced.
+     * Returns true if anything was sent (the caller saves the recipe). EDT only.
+     */
+    boolean push(Page4.Recipe r) {
+        if (r == null || !r.linked || r.recipe_ID <= 0) return false;
+        Map<Integer, Double> base = baseLinks(r);
+        Map<Integer, Double> current = currentLinks(r);
+        int sent = 0;
+        for (Map.Entry<Integer, Double> e : current.entrySet()) {
+            Double was = base.get(e.getKey());
+            if (was == null) {
+                PyBridgeInvoker.addIngredientToRecipe(r.recipe_ID, e.getKey(), e.getValue());
+                sent++;
+            } else if (!e.getValue().equals(was)) {
+                // an update, not a second link: the backend would count the ingredient twice
+                PyBridgeInvoker.setIngredientQuantity(r.recipe_ID, e.getKey(), e.getValue());
+                sent++;
+            }
+        }
+        for (Integer id : base.keySet()) {
+            if (!current.containsKey(id)) {
+                PyBridgeInvoker.removeIngredientFromRecipe(r.recipe_ID, id);
+                sent++;
+            }
+        }
+        if (r.synced_name != null && !r.synced_name.equals(r.recipe_name)) {
+            PyBridgeInvoker.renameRecipe(r.recipe_ID, r.recipe_name);
+            sent++;
+        }
+        boolean firstStamp = r.synced_links == null || r.synced_name == null;
+        r.synced_links = current;
+        r.synced_name = r.recipe_name;
+        markSynced(r);
+        if (sent > 0) r.version++;
+        return sent > 0 || firstStamp;
+    }
+
+    /** The backend just created {@code r} under its current recipe_ID; pushes everything it has. */
+    boolean linked(Page4.Recipe r) {
+        r.linked = true;
+        r.synced_links = new HashMap<>();
+        r.synced_name = r.recipe_name;
+        return push(r);
+    }
+
+    /** {@code to} replaces {@code from} in the list (undo/redo): it takes over what the backend holds. */
+    void adoptState(Page4.Recipe from, Page4.Recipe to) {
+        to.recipe_ID = from.recipe_ID;
+        to.local_id = from.local_id;
+        to.linked = from.linked;
+        to.version = from.version;
+        to.remote_version = from.remote_version;
+        to.synced_name = from.synced_name;
+        to.synced_links = from.linked ? new HashMap<>(baseLinks(from)) : from.synced_links;
+    }
+
+    /** Forgets {@code r}'s backend row, which is gone, so it can be created again as a new recipe. */
+    void unlink(Page4.Recipe r) {
+        r.linked = false;
+        r.version = 0;
+        r.remote_version = 0;
+        r.synced_name = null;
+        r.synced_links = null;
+    }
+
+    void deleted(Page4.Recipe r) {
+        if (r != null && r.linked && r.recipe_ID > 0) PyBridgeInvoker.deleteRecipe(r.recipe_ID);
+    }
+
+    // ingredient id -> quantity; several rows of one product add up
+    private static Map<Integer, Double> currentLinks(Page4.Recipe r) {
+        Map<Integer, Double> links = new HashMap<>();
+        for (Page4.IngredientEntry ie : r.recipe_ingredients) {
+            int id = remoteId(ie);
+            if (id > 0) links.merge(id, ie.quantity, Double::sum);
+        }
+        return links;
+    }
+
+    private static Map<Integer, Double> baseLinks(Page4.Recipe r) {
+        if (r.synced_links != null) return r.synced_links;
+        Map<Integer, Double> links = new HashMap<>();
+        for (Page4.IngredientEntry ie : r.recipe_ingredients) {
+            int id = remoteId(ie);
+            if (id > 0 && !Double.isNaN(ie.lastSyncedQuantity)) links.merge(id, ie.lastSyncedQuantity, Double::sum);
+        }
+        return links;
+    }
+
+    private static void markSynced(Page4.Recipe r) {
+        for (Page4.IngredientEntry ie : r.recipe_ingredients) {
+            if (remoteId(ie) > 0) ie.lastSyncedQuantity = ie.quantity;
+        }
+    }
+
+    private static int remoteId(Page4.IngredientEntry ie) {
+        if (ie.external_id == null || ie.external_id.isEmpty()) return -1;
+        try { return Integer.parseInt(ie.external_id); } catch (NumberFormatException ex) { return -1; }
+    }
+
+    //==================================================================================================================
+    // Pull
+    //==================================================================================================================
+
+    /** Fetches backend changes since the last pull in the background and merges them on the EDT. */
+    void pull() {
+        if (pulling || !fetchSupported || BridgeOutbox.pendingCount() > 0) return;
+        pulling = true;
+        long since = stamp;
+        exec.submit(() -> {
+            JSONObject changes = fetch(since);
+            SwingUtilities.invokeLater(() -> {
+                pulling = false;
+                if (changes != null && BridgeOutbox.pendingCount() == 0) apply(changes);
+            });
+        });
+    }
+
+    private JSONObject fetch(long since) {
+        IKrogerWrapper wrapper = Py4JHelper.getWrapper();
+        if (wrapper == null) return null;
+        try {
+            return new JSONObject(wrapper.fetchChanges(since));
+        } catch (Exception ex) {
+            if (Py4JHelper.isMissingMethod(ex, "fetchChanges")) {
+                System.err.println("Recipe sync: backend has no fetchChanges, pulling disabled");
+                fetchSupported = false;
+            } else if (!BridgeOutbox.isConnectionFailure(ex)) {
+                ex.printStackTrace();
+            }
+            return null;
+        }
+    }
+
+    private void apply(JSONObject changes) {
+        long newStamp = changes.optLong("stamp", stamp);
+        JSONArray rc = changes.optJSONArray("recipes");
+        JSONArray ic = changes.optJSONArray("ingredients");
+        if (newStamp <= stamp && (rc == null || rc.length() == 0) && (ic == null || ic.length() == 0)) return;
+
+        // index only when something changed, and only the linked recipes
+        Map<Integer, Page4.Recipe> byId = new HashMap<>();
+        if ((rc != null && rc.length() > 0) || (ic != null && ic.length() > 0)) {
+            for (Page4.Recipe r : recipes) if (r.linked && r.recipe_ID > 0) byId.putIfAbsent(r.recipe_ID, r);
+        }
+        Set<Page4.Recipe> touched = new LinkedHashSet<>();
+        List<Page4.Recipe> pushBack = new ArrayList<>();
+
+        if (ic != null) {
+            Set<Integer> gone = new HashSet<>();
+            for (int i = 0; i < ic.length(); i++) {
+                JSONObject o = ic.getJSONObject(i);
+                if (o.optBoolean("deleted")) gone.add(o.getInt("id"));
+            }
+            // a product removed on the backend is unlinked locally; the row and its data stay
+            if (!gone.isEmpty()) {
+                for (Page4.Recipe r : byId.values()) {
+                    for (Page4.IngredientEntry ie : r.recipe_ingredients) {
+                        if (!gone.contains(remoteId(ie))) continue;
+                        ie.external_id = "";
+                        IngredientMasters.update(ie);
+                        ie.lastSyncedQuantity = Double.NaN;
+                        if (r.synced_links != null) r.synced_links.keySet().removeAll(gone);
+                        touched.add(r);
+                    }
+                }
+            }
+        }
+
+        if (rc != null) {
+            for (int i = 0; i < rc.length(); i++) {
+                JSONObject o = rc.getJSONObject(i);
+                Page4.Recipe r = byId.get(o.optInt("id", -1));
+                if (r == null) continue;     // not one of ours, or never linked
+                long version = o.optLong("version", newStamp);
+                if (version <= r.remote_version) continue;
+                if (merge(r, o)) {
+                    if (!recipes.contains(r)) byId.remove(r.recipe_ID);
+                    else pushBack.add(r);
+                }
+                r.remote_version = version;
+                touched.add(r);
+            }
+        }
+
+        for (Page4.Recipe r : pushBack) push(r);     // edits made on both sides: local wins
+        stamp = Math.max(stamp, newStamp);
+        try {
+            LocalStore.Transaction tx = LocalStore.begin();
+            if (!touched.isEmpty()) IngredientMasters.stageRecipes(tx, recipesFile, recipes);
+            tx.put(STATE_FILE, new JSONObject().put("stamp", stamp).toString());
+            tx.commit();
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+        if (!touched.isEmpty()) {
+            System.out.println("Recipe sync: applied backend changes to " + touched.size() + " recipe(s)");
+            onRemoteChanges.accept(touched);
+        }
+    }
+
+    /**
+     * Three-way merge of one backend recipe into {@code r}. Returns true if {@code r} also has local
+     * changes (it must be pushed) or was removed from the list.
+     */
+    private boolean merge(Page4.Recipe r, JSONObject remote) {
+        Map<Integer, Double> base = baseLinks(r);
+        Map<Integer, Double> local = currentLinks(r);
+        boolean nameEdited = r.synced_name != null && !r.synced_name.equals(r.recipe_name);
+        boolean linksEdited = !local.equals(base);
+
+        if (remote.optBoolean("deleted")) {
+            if (!nameEdited && !linksEdited) {
+                recipes.remove(r);
+                return true;
+            }
+            // edited here since: keep it, but it no longer exists on the backend
+            System.err.println("Recipe sync: '" + r.recipe_name + "' was deleted on the backend; keeping local edits");
+            r.linked = false;
+            r.synced_links = null;
+            r.synced_name = null;
+            return false;
+        }
+
+        String remoteName = remote.optString("name", null);
+        if (remoteName != null) {
+            if (!nameEdited) r.recipe_name = remoteName;
+            r.synced_name = remoteName;
+        }
+
+        Map<Integer, Double> theirs = new HashMap<>();
+        JSONObject links = remote.optJSONObject("links");
+        if (links != null) for (String k : links.keySet()) theirs.put(Integer.parseInt(k), links.getDouble(k));
+
+        Map<Integer, Double> newBase = new HashMap<>();
+        Set<Integer> ids = new HashSet<>(base.keySet());
+        ids.addAll(theirs.keySet());
+        ids.addAll(local.keySet());
+        for (Integer id : ids) {
+            Double mine = local.get(id), was = base.get(id), now = theirs.get(id);
+            if (Objects.equals(mine, was) && !Objects.equals(mine, now)) {
+                // changed only on the backend
+                if (now == null) {
+                    r.recipe_ingredients.removeIf(ie -> remoteId(ie) == id);
+                } else if (mine == null) {
+                    // linked to a product this side has never seen; nothing to build the row from
+                    System.err.println("Recipe sync: '" + r.recipe_name + "' has backend ingredient " + id + " with no local product");
+                    continue;
+                } else {
+                    setQuantity(r, id, now);
+                }
+            }
+            if (now != null) newBase.put(id, now);
+        }
+        r.synced_links = newBase;
+        for (Page4.IngredientEntry ie : r.recipe_ingredients) {
+            Double q = newBase.get(remoteId(ie));
+            if (q != null && q == ie.quantity) ie.lastSyncedQuantity = q;
+        }
+        return nameEdited || !currentLinks(r).equals(newBase);
+    }
+
+    // Rows of one product share the total; the first row absorbs the difference.
+    private static void setQuantity(Page4.Recipe r, int id, double total) {
+        Page4.IngredientEntry first = null;
+        double rest = 0;
+        for (Page4.IngredientEntry ie : r.recipe_ingredients) {
+            if (remoteId(ie) != id) continue;
+            if (first == null) first = ie;
+            else rest += ie.quantity;
+        }
+        if (first != null) first.quantity = Math.max(0, total - rest);
+    }
+
+    private static long readStamp() {
+        try {
+            String text = FileCache.read(STATE_FILE);
+            return text == null || text.trim().isEmpty() ? 0 : new JSONObject(text).optLong("stamp", 0);
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package pages;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Unit-of-measure engine: parses amounts like "28 g", "1 1/2 cups" or "2 tbsp (30 ml)" into
+ * {@link Quantity} values with a dimension, and converts between mass and volume (via a small
+ * density table) so ingredient quantities can be measured against a product's serving size.
+ *
+ * Base units are grams for MASS, millilitres for VOLUME and "each" for COUNT.
+ */
+public final class Units {
+
+    public enum Dimension { MASS, VOLUME, COUNT }
+
+    /** A parsed amount. {@code base} is the value in the dimension's base unit. */
+    public static final class Quantity {
+        public final double value;
+        public final String unit;
+        public final Dimension dimension;
+        public final double base;
+
+        Quantity(double value, String unit, Dimension dimension, double base) {
+            this.value = value;
+            this.unit = unit;
+            this.dimension = dimension;
+            this.base = base;
+        }
+
+        @Override
+        public String toString() { return value + " " + unit; }
+    }
+
+    private static final class UnitDef {
+        final String symbol;
+        final Dimension dimension;
+        final double factor;
+        UnitDef(String symbol, Dimension dimension, double factor) { this.symbol = symbol; this.dimension = dimension; this.factor = factor; }
+    }
+
+    /** Amount followed by a unit; the amount may be a decimal, a fraction, or a mixed number ("1 1/2"). */
+    public static final Pattern SERVING_PATTERN = Pattern.compile(
+            "(\\d+\\s+\\d+/\\d+|\\d+/\\d+|\\d+(?:\\.\\d+)?|\\.\\d+)\\s*(fl\\.?\\s?oz|fluid\\s+ounces?|[a-zA-Z]+)\\b\\.?",
+            Pattern.CASE_INSENSITIVE);
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final Pattern NON_WORD = Pattern.compile("[^a-z0-9]+");
+
+    private static final Map<String, UnitDef> UNITS = new HashMap<>();
+    private static final Map<String, Double> DENSITY_G_PER_ML = new HashMap<>();
+
+    static {
+        def(Dimension.MASS, 1.0, "g", "g", "gr", "gram", "grams", "gramm", "grm");
+        def(Dimension.MASS, 1000.0, "kg", "kg", "kilogram", "kilograms", "kgm");
+        def(Dimension.MASS, 0.001, "mg", "mg", "milligram", "milligrams", "mgm");
+        def(Dimension.MASS, 28.349523, "oz", "oz", "ounce", "ounces", "onz");
+        def(Dimension.MASS, 453.59237, "lb", "lb", "lbs", "pound", "pounds", "lbr");
+
+        def(Dimension.VOLUME, 1.0, "ml", "ml", "milliliter", "milliliters", "millilitre", "millilitres", "mlt");
+        def(Dimension.VOLUME, 1000.0, "l", "l", "liter", "liters", "litre", "litres", "ltr");
+        def(Dimension.VOLUME, 29.573530, "fl oz", "fl oz", "floz", "fl. oz", "fl.oz", "fluid ounce", "fluid ounces", "oza");
+        def(Dimension.VOLUME, 236.588237, "cup", "cup", "cups");
+        def(Dimension.VOLUME, 14.786765, "tbsp", "tbsp", "tbs", "tablespoon", "tablespoons");
+        def(Dimension.VOLUME, 4.928922, "tsp", "tsp", "teaspoon", "teaspoons");
+        def(Dimension.VOLUME, 473.176473, "pt", "pt", "pint", "pints");
+        def(Dimension.VOLUME, 946.352946, "qt", "qt", "quart", "quarts");
+        def(Dimension.VOLUME, 3785.411784, "gal", "gal", "gallon", "gallons");
+
+        def(Dimension.COUNT, 1.0, "each", "each", "ea", "unit", "units", "piece", "pieces", "pc", "pcs", "item", "items",
+                "slice", "slices", "egg", "eggs", "can", "cans", "clove", "cloves", "ct", "count");
+
+        // Approximate densities (g/ml) for common pantry foods; matched as whole words of the ingredient name.
+        DENSITY_G_PER_ML.put("water", 1.00);
+        DENSITY_G_PER_ML.put("milk", 1.03);
+        DENSITY_G_PER_ML.put("cream", 1.01);
+        DENSITY_G_PER_ML.put("yogurt", 1.05);
+        DENSITY_G_PER_ML.put("juice", 1.05);
+        DENSITY_G_PER_ML.put("broth", 1.00);
+        DENSITY_G_PER_ML.put("stock", 1.00);
+        DENSITY_G_PER_ML.put("oil", 0.92);
+        DENSITY_G_PER_ML.put("butter", 0.96);
+        DENSITY_G_PER_ML.put("honey", 1.42);
+        DENSITY_G_PER_ML.put("syrup", 1.33);
+        DENSITY_G_PER_ML.put("flour", 0.53);
+        DENSITY_G_PER_ML.put("sugar", 0.85);
+        DENSITY_G_PER_ML.put("brown sugar", 0.93);
+        DENSITY_G_PER_ML.put("powdered sugar", 0.56);
+        DENSITY_G_PER_ML.put("salt", 1.20);
+        DENSITY_G_PER_ML.put("rice", 0.85);
+        DENSITY_G_PER_ML.put("oats", 0.41);
+        DENSITY_G_PER_ML.put("pasta", 0.45);
+        DENSITY_G_PER_ML.put("beans", 0.80);
+        DENSITY_G_PER_ML.put("cheese", 0.45);
+        DENSITY_G_PER_ML.put("peanut butter", 1.08);
+        DENSITY_G_PER_ML.put("cocoa", 0.42);
+        DENSITY_G_PER_ML.put("sauce", 1.05);
+    }
+
+    private static void def(Dimension d, double factor, String symbol, String... aliases) {
+        UnitDef u = new UnitDef(symbol, d, factor);
+        for (String a : aliases) UNITS.put(a, u);
+    }
+
+    private Units() {}
+
+    private static UnitDef lookup(String unit) {
+        if (unit == null) return null;
+        String u = WHITESPACE.matcher(unit.trim().toLowerCase(Locale.ROOT)).replaceAll(" ");
+        if (u.endsWith(".")) u = u.substring(0, u.length() - 1);
+        return UNITS.get(u);
+    }
+
+    public static Dimension dimensionOf(String unit) {
+        UnitDef u = lookup(unit);
+        return u != null ? u.dimension : null;
+    }
+
+    /** Normalized symbol for a unit alias ("Grams" -> "g"), or the input unchanged when unknown. */
+    public static String symbolOf(String unit) {
+        UnitDef u = lookup(unit);
+        return u != null ? u.symbol : unit;
+    }
+
+    /** A quantity from a number and a unit name, or null if the unit is not recognised. */
+    public static Quantity of(double value, String unit) {
+        UnitDef u = lookup(unit);
+        if (u == null || Double.isNaN(value)) return null;
+        return new Quantity(value, u.symbol, u.dimension, value * u.factor);
+    }
+
+    /** First recognisable amount in {@code text}, or null. */
+    public static Quantity parse(String text) {
+        return parse(text, null);
+    }
+
+    /** First mass or volume amount in {@code text}, skipping counts like "12 ct"; null if none. */
+    public static Quantity parseMeasure(String text) {
+        if (text == null || text.isEmpty()) return null;
+        Matcher m = SERVING_PATTERN.matcher(text);
+        while (m.find()) {
+            Quantity q = of(parseNumber(m.group(1)), m.group(2));
+            if (q != null && q.dimension != Dimension.COUNT) return q;
+        }
+        return null;
+    }
+
+    /** First recognisable amount of the given dimension in {@code text} (any dimension when null). */
+    public static Quantity parse(String text, Dimension want) {
+        if (text == null || text.isEmpty()) return null;
+        Matcher m = SERVING_PATTERN.matcher(text);
+        while (m.find()) {
+            Quantity q = of(parseNumber(m.group(1)), m.group(2));
+            if (q != null && (want == null || q.dimension == want)) return q;
+        }
+        return null;
+    }
+
+    static double parseNumber(String s) {
+        try {
+            s = s.trim();
+            int space = s.indexOf(' ');
+            if (space > 0) return parseNumber(s.substring(0, space)) + parseNumber(s.substring(space + 1));
+            int slash = s.indexOf('/');
+            if (slash > 0) {
+                double den = Double.parseDouble(s.substring(slash + 1));
+                return den == 0.0 ? Double.NaN : Double.parseDouble(s.substring(0, slash)) / den;
+            }
+            return Double.parseDouble(s);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Density in g/ml for a food name, or NaN when no entry matches. Keys match whole words or their
+     * plurals ("oil", "oils", but not "foil"); the longest matching key wins.
+     */
+    public static double densityOf(String foodName) {
+        if (foodName == null) return Double.NaN;
+        String n = " " + NON_WORD.matcher(foodName.toLowerCase(Locale.ROOT)).replaceAll(" ") + " ";
+        String best = null;
+        for (String k : DENSITY_G_PER_ML.keySet()) {
+            boolean word = n.contains(" " + k + " ") || n.contains(" " + k + "s ");
+            if (word && (best == null || k.length() > best.length())) best = k;
+        }
+        return best != null ? DENSITY_G_PER_ML.get(best) : Double.NaN;
+    }
+
+    /** Converts {@code q} to the base unit of {@code target} (g or ml); NaN if impossible. */
+    public static double toBase(Quantity q, Dimension target, double densityGPerMl) {
+        if (q == null) return Double.NaN;
+        if (q.dimension == target) return q.base;
+        if (Double.isNaN(densityGPerMl) || densityGPerMl <= 0.0) return Double.NaN;
+        if (q.dimension == Dimension.VOLUME && target == Dimension.MASS) return q.base * densityGPerMl;
+        if (q.dimension == Dimension.MASS && target == Dimension.VOLUME) return q.base / densityGPerMl;
+        return Double.NaN;
+    }
+
+    /**
+     * How many servings {@code quantity unit} of a product amounts to, measured against the serving
+     * in {@code facts}. Returns NaN when the unit is a count/unknown or the serving cannot be measured,
+     * in which case callers fall back to the ingredient's multiplier.
+     */
+    public static double servingsIn(double quantity, String unit, NutritionFacts facts, String foodName) {
+        Quantity q = of(quantity, unit);
+        if (q == null || q.dimension == Dimension.COUNT || facts == null) return Double.NaN;
+        double density = densityFor(facts, foodName);
+        double grams = facts.servingGrams();
+        if (!Double.isNaN(grams) && grams > 0.0) {
+            double g = toBase(q, Dimension.MASS, density);
+            if (!Double.isNaN(g)) return g / grams;
+        }
+        double ml = facts.servingMl();
+        if (!Double.isNaN(ml) && ml > 0.0) {
+            double v = toBase(q, Dimension.VOLUME, density);
+            if (!Double.isNaN(v)) return v / ml;
+        }
+        return Double.NaN;
+    }
+
+    /** Inverse of {@link #servingsIn}: the amount in {@code unit} that makes up {@code servings} servings. */
+    public static double quantityFor(double servings, String unit, NutritionFacts facts, String foodName) {
+        double perUnit = servingsIn(1.0, unit, facts, foodName);
+        if (Double.isNaN(perUnit) || perUnit <= 0.0) return Double.NaN;
+        return servings / perUnit;
+    }
+
+    /** Serving label's own mass/volume pair gives the best density; the food table is the fallback. */
+    private static double densityFor(NutritionFacts facts, String foodName) {
+        double g = facts.servingGrams();
+        double ml = facts.servingMl();
+        if (!Double.isNaN(g) && !Double.isNaN(ml) && g > 0.0 && ml > 0.0) return g / ml;
+        return densityOf(foodName);
+    }
+}